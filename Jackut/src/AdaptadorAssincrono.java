@@ -0,0 +1,244 @@
+import br.ufal.ic.p2.jackut.Facade;
+import br.ufal.ic.p2.jackut.FacadeAssincrona;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Expõe a {@link FacadeAssincrona} aos testes de aceitação: cada método
+ * aguarda o futuro da operação e devolve o seu resultado, ou lança a
+ * exceção com que ele falhou.
+ */
+public class AdaptadorAssincrono {
+
+    /** Facade assíncrona testada */
+    private final FacadeAssincrona facade;
+
+    /**
+     * Construtor usado pelo EasyAccept: carrega o sistema e executa as
+     * operações no pool próprio da {@link FacadeAssincrona}.
+     */
+    public AdaptadorAssincrono() {
+        this.facade = new FacadeAssincrona(new Facade());
+    }
+
+    /**
+     * Aguarda uma operação, lançando a exceção original em caso de falha.
+     */
+    private static <T> T aguardar(CompletableFuture<T> operacao) {
+        try {
+            return operacao.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException erro) {
+                throw erro;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Envia vários recados sem aguardar cada um, e só então aguarda todos.
+     *
+     * @param quantidade Quantidade de recados, numerados a partir de 1 depois do texto informado
+     */
+    public void enviarRecadosSemAguardar(String sessionId, String destinatario, String recado, int quantidade) {
+        List<CompletableFuture<Void>> envios = new ArrayList<>();
+        for (int i = 1; i <= quantidade; i++) {
+            envios.add(facade.enviarRecado(sessionId, destinatario, recado + " " + i));
+        }
+        envios.forEach(AdaptadorAssincrono::aguardar);
+    }
+
+    /**
+     * Envia vários recados por uma outra fachada assíncrona, com o limite de
+     * operações pendentes informado, cujo executor só começa a trabalhar
+     * depois de todos os envios. Os envios acima do limite são recusados.
+     *
+     * @return Quantidade de envios recusados
+     */
+    public int enviarRecadosRetidos(String sessionId, String destinatario, String recado, int quantidade,
+                                    int limite) {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        CountDownLatch retencao = new CountDownLatch(1);
+        executor.execute(() -> {
+            try {
+                retencao.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        try {
+            FacadeAssincrona retida = new FacadeAssincrona(facade.getFacade(), executor, limite);
+            List<CompletableFuture<Void>> aceitos = new ArrayList<>();
+            int recusados = 0;
+            for (int i = 1; i <= quantidade; i++) {
+                CompletableFuture<Void> envio = retida.enviarRecado(sessionId, destinatario, recado + " " + i);
+                if (envio.isCompletedExceptionally()) {
+                    recusados++;
+                } else {
+                    aceitos.add(envio);
+                }
+            }
+            retencao.countDown();
+            aceitos.forEach(AdaptadorAssincrono::aguardar);
+            return recusados;
+        } finally {
+            retencao.countDown();
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * @return Quantidade de operações aceitas e ainda não completadas
+     */
+    public int getPendentes() {
+        return facade.getPendentes();
+    }
+
+    /**
+     * Encerra o pool da fachada assíncrona e salva o sistema.
+     */
+    public void encerrarSistema() {
+        facade.close();
+        facade.getFacade().encerrarSistema();
+    }
+
+    // Operações
+
+    public void zerarSistema() {
+        aguardar(facade.zerarSistema());
+    }
+
+    public String getAtributoUsuario(String login, String atributo) {
+        return aguardar(facade.getAtributoUsuario(login, atributo));
+    }
+
+    public void criarUsuario(String login, String senha, String nome) {
+        aguardar(facade.criarUsuario(login, senha, nome));
+    }
+
+    public String abrirSessao(String login, String senha) {
+        return aguardar(facade.abrirSessao(login, senha));
+    }
+
+    public boolean encerrarSessao(String sessionId) {
+        return aguardar(facade.encerrarSessao(sessionId));
+    }
+
+    public boolean existeSessao(String sessionId) {
+        return aguardar(facade.existeSessao(sessionId));
+    }
+
+    public String getLoginDaSessao(String sessionId) {
+        return aguardar(facade.getLoginDaSessao(sessionId));
+    }
+
+    public void editarPerfil(String sessionId, String atributo, String valor) {
+        aguardar(facade.editarPerfil(sessionId, atributo, valor));
+    }
+
+    public boolean ehAmigo(String sessionId, String amigo) {
+        return aguardar(facade.ehAmigo(sessionId, amigo));
+    }
+
+    public void adicionarAmigo(String sessionId, String amigo) {
+        aguardar(facade.adicionarAmigo(sessionId, amigo));
+    }
+
+    public String getAmigos(String sessionId) {
+        return aguardar(facade.getAmigos(sessionId));
+    }
+
+    public void enviarRecado(String sessionId, String destinatario, String recado) {
+        aguardar(facade.enviarRecado(sessionId, destinatario, recado));
+    }
+
+    public String lerRecado(String sessionId) {
+        return aguardar(facade.lerRecado(sessionId));
+    }
+
+    public List<String> lerRecados(String sessionId, int quantidade) {
+        return aguardar(facade.lerRecados(sessionId, quantidade));
+    }
+
+    public void criarComunidade(String sessionId, String nome, String descricao) {
+        aguardar(facade.criarComunidade(sessionId, nome, descricao));
+    }
+
+    public String getDescricaoComunidade(String nome) {
+        return aguardar(facade.getDescricaoComunidade(nome));
+    }
+
+    public String getDonoComunidade(String nome) {
+        return aguardar(facade.getDonoComunidade(nome));
+    }
+
+    public String getMembrosComunidade(String nome) {
+        return aguardar(facade.getMembrosComunidade(nome));
+    }
+
+    public String getComunidades(String login) {
+        return aguardar(facade.getComunidades(login));
+    }
+
+    public void adicionarComunidade(String sessionId, String nome) {
+        aguardar(facade.adicionarComunidade(sessionId, nome));
+    }
+
+    public String lerMensagem(String sessionId) {
+        return aguardar(facade.lerMensagem(sessionId));
+    }
+
+    public List<String> lerMensagens(String sessionId, int quantidade) {
+        return aguardar(facade.lerMensagens(sessionId, quantidade));
+    }
+
+    public void enviarMensagem(String sessionId, String comunidade, String mensagem) {
+        aguardar(facade.enviarMensagem(sessionId, comunidade, mensagem));
+    }
+
+    public boolean ehFa(String login, String idolo) {
+        return aguardar(facade.ehFa(login, idolo));
+    }
+
+    public void adicionarIdolo(String sessionId, String idolo) {
+        aguardar(facade.adicionarIdolo(sessionId, idolo));
+    }
+
+    public String getFas(String login) {
+        return aguardar(facade.getFas(login));
+    }
+
+    public boolean ehPaquera(String sessionId, String paquera) {
+        return aguardar(facade.ehPaquera(sessionId, paquera));
+    }
+
+    public void adicionarPaquera(String sessionId, String paquera) {
+        aguardar(facade.adicionarPaquera(sessionId, paquera));
+    }
+
+    public String getPaqueras(String sessionId) {
+        return aguardar(facade.getPaqueras(sessionId));
+    }
+
+    public void adicionarInimigo(String sessionId, String inimigo) {
+        aguardar(facade.adicionarInimigo(sessionId, inimigo));
+    }
+
+    public void removerUsuario(String sessionId) {
+        aguardar(facade.removerUsuario(sessionId));
+    }
+
+    public void exportarDados(String arquivo) {
+        aguardar(facade.exportarDados(arquivo));
+    }
+
+    public void importarDados(String arquivo) {
+        aguardar(facade.importarDados(arquivo));
+    }
+}
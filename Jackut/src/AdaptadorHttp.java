@@ -0,0 +1,382 @@
+import br.ufal.ic.p2.jackut.Facade;
+import br.ufal.ic.p2.jackut.ServidorHttp;
+import br.ufal.ic.p2.jackut.exceptions.RemoteOperationException;
+import br.ufal.ic.p2.jackut.persistence.ExportacaoJson;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Expõe aos testes de aceitação as operações da Facade pedidas pela
+ * interface HTTP/JSON: um {@link ServidorHttp} em uma porta livre da
+ * interface local e um cliente HTTP do JDK. As operações de administração,
+ * que o servidor não expõe, são executadas diretamente na Facade.
+ * <p>
+ * Os pedidos são formulários enviados por POST. As listas de
+ * {@code getMembrosComunidade} e {@code getFas} são devolvidas no formato
+ * de texto da Facade, para que os testes sejam os mesmos.
+ */
+public class AdaptadorHttp {
+
+    /** Facade atendida pelo servidor */
+    private final Facade facade;
+
+    /** Servidor que expõe a Facade */
+    private final ServidorHttp servidor;
+
+    /** Cliente que faz os pedidos */
+    private final HttpClient cliente;
+
+    /** Endereço base do servidor */
+    private final String base;
+
+    /** Indica se a última resposta veio comprimida com gzip */
+    private boolean ultimaComprimida;
+
+    /** Indica se a última resposta veio em blocos, sem tamanho informado */
+    private boolean ultimaEmBlocos;
+
+    /**
+     * Construtor usado pelo EasyAccept: carrega o sistema e inicia o servidor.
+     *
+     * @throws IOException Se o servidor não puder ser iniciado
+     */
+    public AdaptadorHttp() throws IOException {
+        this.facade = new Facade();
+        InetAddress local = InetAddress.getLoopbackAddress();
+        this.servidor = new ServidorHttp(facade, local, 0);
+        servidor.iniciar();
+        this.cliente = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        this.base = "http://" + local.getHostAddress() + ":" + servidor.getPorta();
+    }
+
+    /**
+     * Pede uma operação com um formulário e devolve o valor da resposta.
+     *
+     * @param campos Nomes e valores dos parâmetros, alternados
+     */
+    private Object pedir(String operacao, String... campos) {
+        StringJoiner formulario = new StringJoiner("&");
+        for (int i = 0; i < campos.length; i += 2) {
+            formulario.add(URLEncoder.encode(campos[i], StandardCharsets.UTF_8) + "="
+                    + URLEncoder.encode(campos[i + 1], StandardCharsets.UTF_8));
+        }
+        return valor(enviar(HttpRequest.newBuilder(URI.create(base + "/api/" + operacao))
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .POST(HttpRequest.BodyPublishers.ofString(formulario.toString()))));
+    }
+
+    /**
+     * Envia um pedido aceitando gzip e devolve o corpo da resposta já descomprimido.
+     */
+    private String enviar(HttpRequest.Builder pedido) {
+        try {
+            HttpResponse<InputStream> resposta = cliente.send(pedido.header("Accept-Encoding", "gzip").build(),
+                    HttpResponse.BodyHandlers.ofInputStream());
+            ultimaComprimida = resposta.headers().firstValue("Content-Encoding").orElse("").equals("gzip");
+            ultimaEmBlocos = resposta.headers().firstValue("Transfer-Encoding").orElse("").equals("chunked");
+            try (InputStream corpo = ultimaComprimida ? new GZIPInputStream(resposta.body()) : resposta.body()) {
+                return new String(corpo.readAllBytes(), StandardCharsets.UTF_8);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return Valor de uma resposta da API
+     * @throws RemoteOperationException Se a resposta for um erro
+     */
+    private static Object valor(String json) {
+        Map<String, Object> resposta;
+        try {
+            resposta = ExportacaoJson.lerObjeto(json);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (resposta.containsKey("erro")) {
+            throw new RemoteOperationException((String) resposta.get("erro"), (String) resposta.get("mensagem"));
+        }
+        return resposta.get("valor");
+    }
+
+    /**
+     * @return Lista no formato de texto da Facade ("{a,b}")
+     */
+    private static String formatar(Object lista) {
+        StringJoiner texto = new StringJoiner(",", "{", "}");
+        for (Object elemento : (List<?>) lista) {
+            texto.add((String) elemento);
+        }
+        return texto.toString();
+    }
+
+    /**
+     * Pede qualquer operação com um formulário, mesmo as que o servidor não expõe.
+     *
+     * @param campos Parâmetros no formato "nome=valor", separados por vírgula (vazio ou null = nenhum)
+     * @return Valor devolvido pela operação
+     */
+    public Object pedirComFormulario(String operacao, String campos) {
+        return pedir(operacao, separar(campos));
+    }
+
+    /**
+     * Pede uma operação com os parâmetros em um objeto JSON.
+     *
+     * @param campos Parâmetros no formato "nome=valor", separados por vírgula
+     * @return Valor devolvido pela operação
+     */
+    public Object pedirComJson(String operacao, String campos) {
+        String[] pares = separar(campos);
+        StringWriter json = new StringWriter();
+        try {
+            json.write('{');
+            for (int i = 0; i < pares.length; i += 2) {
+                if (i > 0) {
+                    json.write(',');
+                }
+                ExportacaoJson.escreverTexto(json, pares[i]);
+                json.write(':');
+                ExportacaoJson.escreverTexto(json, pares[i + 1]);
+            }
+            json.write('}');
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return valor(enviar(HttpRequest.newBuilder(URI.create(base + "/api/" + operacao))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(json.toString()))));
+    }
+
+    /**
+     * Pede uma operação por GET, com os parâmetros na query string.
+     *
+     * @param campos Parâmetros no formato "nome=valor", separados por vírgula
+     * @return Valor devolvido pela operação
+     */
+    public Object pedirComGet(String operacao, String campos) {
+        StringJoiner query = new StringJoiner("&");
+        String[] pares = separar(campos);
+        for (int i = 0; i < pares.length; i += 2) {
+            query.add(URLEncoder.encode(pares[i], StandardCharsets.UTF_8) + "="
+                    + URLEncoder.encode(pares[i + 1], StandardCharsets.UTF_8));
+        }
+        return valor(enviar(HttpRequest.newBuilder(URI.create(base + "/api/" + operacao + "?" + query)).GET()));
+    }
+
+    private static String[] separar(String campos) {
+        if (campos == null || campos.isEmpty()) {
+            return new String[0];
+        }
+        String[] itens = campos.split(",");
+        String[] pares = new String[itens.length * 2];
+        for (int i = 0; i < itens.length; i++) {
+            int igual = itens[i].indexOf('=');
+            pares[2 * i] = itens[i].substring(0, igual);
+            pares[2 * i + 1] = itens[i].substring(igual + 1);
+        }
+        return pares;
+    }
+
+    /**
+     * Cria usuários numerados e os adiciona a uma comunidade, pela API.
+     *
+     * @param prefixo Início do login e do nome de cada usuário, seguido de um número de 3 dígitos
+     */
+    public void adicionarMembros(String comunidade, String prefixo, int quantidade) {
+        for (int i = 1; i <= quantidade; i++) {
+            String login = String.format("%s%03d", prefixo, i);
+            criarUsuario(login, "senha", login);
+            adicionarComunidade(login, comunidade);
+        }
+    }
+
+    /**
+     * @return Quantidade de membros da comunidade, pela lista devolvida pela API
+     */
+    public int contarMembrosComunidade(String nome) {
+        return ((List<?>) pedir("getMembrosComunidade", "nome", nome)).size();
+    }
+
+    /**
+     * @return true se a última resposta veio comprimida com gzip
+     */
+    public boolean isUltimaRespostaComprimida() {
+        return ultimaComprimida;
+    }
+
+    /**
+     * @return true se a última resposta veio em blocos (chunked)
+     */
+    public boolean isUltimaRespostaEmBlocos() {
+        return ultimaEmBlocos;
+    }
+
+    /**
+     * Consulta as métricas do servidor.
+     *
+     * @param medida "chamadas" ou "erros"
+     * @return Valor da medida para o endpoint da operação, ou 0 se ele não foi chamado
+     */
+    public long getMetrica(String operacao, String medida) {
+        Map<String, Object> metricas;
+        try {
+            metricas = ExportacaoJson.lerObjeto(enviar(HttpRequest.newBuilder(URI.create(base + "/metricas")).GET()));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        Object endpoint = metricas.get(operacao);
+        return endpoint == null ? 0 : ((Number) ((Map<?, ?>) endpoint).get(medida)).longValue();
+    }
+
+    /**
+     * Fecha o servidor e salva o sistema.
+     */
+    public void encerrarSistema() {
+        servidor.close();
+        facade.encerrarSistema();
+    }
+
+    public void zerarSistema() {
+        facade.zerarSistema();
+    }
+
+    // Operações pedidas pela API
+
+    public String getAtributoUsuario(String login, String atributo) {
+        return (String) pedir("getAtributoUsuario", "login", login, "atributo", atributo);
+    }
+
+    public void criarUsuario(String login, String senha, String nome) {
+        pedir("criarUsuario", "login", login, "senha", senha, "nome", nome);
+    }
+
+    public String abrirSessao(String login, String senha) {
+        return (String) pedir("abrirSessao", "login", login, "senha", senha);
+    }
+
+    public boolean encerrarSessao(String sessionId) {
+        return (Boolean) pedir("encerrarSessao", "sessionId", sessionId);
+    }
+
+    public boolean existeSessao(String sessionId) {
+        return (Boolean) pedir("existeSessao", "sessionId", sessionId);
+    }
+
+    public String getLoginDaSessao(String sessionId) {
+        return (String) pedir("getLoginDaSessao", "sessionId", sessionId);
+    }
+
+    public void editarPerfil(String sessionId, String atributo, String valor) {
+        pedir("editarPerfil", "sessionId", sessionId, "atributo", atributo, "valor", valor);
+    }
+
+    public boolean ehAmigo(String sessionId, String amigo) {
+        return (Boolean) pedir("ehAmigo", "sessionId", sessionId, "amigo", amigo);
+    }
+
+    public void adicionarAmigo(String sessionId, String amigo) {
+        pedir("adicionarAmigo", "sessionId", sessionId, "amigo", amigo);
+    }
+
+    public String getAmigos(String sessionId) {
+        return (String) pedir("getAmigos", "sessionId", sessionId);
+    }
+
+    public void enviarRecado(String sessionId, String destinatario, String recado) {
+        pedir("enviarRecado", "sessionId", sessionId, "destinatario", destinatario, "recado", recado);
+    }
+
+    public String lerRecado(String sessionId) {
+        return (String) pedir("lerRecado", "sessionId", sessionId);
+    }
+
+    public Object lerRecados(String sessionId, int quantidade) {
+        return pedir("lerRecados", "sessionId", sessionId, "quantidade", String.valueOf(quantidade));
+    }
+
+    public void criarComunidade(String sessionId, String nome, String descricao) {
+        pedir("criarComunidade", "sessionId", sessionId, "nome", nome, "descricao", descricao);
+    }
+
+    public String getDescricaoComunidade(String nome) {
+        return (String) pedir("getDescricaoComunidade", "nome", nome);
+    }
+
+    public String getDonoComunidade(String nome) {
+        return (String) pedir("getDonoComunidade", "nome", nome);
+    }
+
+    public String getMembrosComunidade(String nome) {
+        return formatar(pedir("getMembrosComunidade", "nome", nome));
+    }
+
+    public String getComunidades(String login) {
+        return (String) pedir("getComunidades", "login", login);
+    }
+
+    public void adicionarComunidade(String sessionId, String nome) {
+        pedir("adicionarComunidade", "sessionId", sessionId, "nome", nome);
+    }
+
+    public String lerMensagem(String sessionId) {
+        return (String) pedir("lerMensagem", "sessionId", sessionId);
+    }
+
+    public Object lerMensagens(String sessionId, int quantidade) {
+        return pedir("lerMensagens", "sessionId", sessionId, "quantidade", String.valueOf(quantidade));
+    }
+
+    public void enviarMensagem(String sessionId, String comunidade, String mensagem) {
+        pedir("enviarMensagem", "sessionId", sessionId, "comunidade", comunidade, "mensagem", mensagem);
+    }
+
+    public boolean ehFa(String login, String idolo) {
+        return (Boolean) pedir("ehFa", "login", login, "idolo", idolo);
+    }
+
+    public void adicionarIdolo(String sessionId, String idolo) {
+        pedir("adicionarIdolo", "sessionId", sessionId, "idolo", idolo);
+    }
+
+    public String getFas(String login) {
+        return formatar(pedir("getFas", "login", login));
+    }
+
+    public boolean ehPaquera(String sessionId, String paquera) {
+        return (Boolean) pedir("ehPaquera", "sessionId", sessionId, "paquera", paquera);
+    }
+
+    public void adicionarPaquera(String sessionId, String paquera) {
+        pedir("adicionarPaquera", "sessionId", sessionId, "paquera", paquera);
+    }
+
+    public String getPaqueras(String sessionId) {
+        return (String) pedir("getPaqueras", "sessionId", sessionId);
+    }
+
+    public void adicionarInimigo(String sessionId, String inimigo) {
+        pedir("adicionarInimigo", "sessionId", sessionId, "inimigo", inimigo);
+    }
+
+    public void removerUsuario(String sessionId) {
+        pedir("removerUsuario", "sessionId", sessionId);
+    }
+}
@@ -0,0 +1,230 @@
+import br.ufal.ic.p2.jackut.ClienteJackut;
+import br.ufal.ic.p2.jackut.Comando;
+import br.ufal.ic.p2.jackut.Facade;
+import br.ufal.ic.p2.jackut.ServidorJackut;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Expõe aos testes de aceitação as operações da Facade pedidas pela rede:
+ * um {@link ServidorJackut} em uma porta livre da interface local e um
+ * {@link ClienteJackut} conectado a ele. As operações de administração,
+ * que o servidor recusa, são executadas diretamente na Facade.
+ */
+public class AdaptadorTcp {
+
+    /** Facade atendida pelo servidor */
+    private final Facade facade;
+
+    /** Servidor que expõe a Facade */
+    private final ServidorJackut servidor;
+
+    /** Cliente que faz os pedidos */
+    private final ClienteJackut cliente;
+
+    /**
+     * Construtor usado pelo EasyAccept: carrega o sistema, inicia o servidor
+     * e conecta o cliente.
+     *
+     * @throws IOException Se o servidor não puder ser iniciado ou o cliente não puder conectar
+     */
+    public AdaptadorTcp() throws IOException {
+        this.facade = new Facade();
+        InetAddress local = InetAddress.getLoopbackAddress();
+        this.servidor = new ServidorJackut(facade, local, 0);
+        servidor.iniciar();
+        this.cliente = new ClienteJackut(local.getHostAddress(), servidor.getPorta());
+    }
+
+    /**
+     * Pede uma operação ao servidor e espera a resposta.
+     */
+    private Object pedir(String operacao, String... argumentos) {
+        return cliente.executar(new Comando(operacao, argumentos));
+    }
+
+    /**
+     * Pede ao servidor qualquer operação, mesmo as que ele recusa.
+     *
+     * @param argumentos Argumentos separados por vírgula (vazio ou null = nenhum)
+     * @return Valor devolvido pela operação
+     */
+    public Object pedirPelaRede(String operacao, String argumentos) {
+        return pedir(operacao, argumentos == null || argumentos.isEmpty() ? new String[0] : argumentos.split(","));
+    }
+
+    /**
+     * Envia vários recados de uma só vez pela conexão (pipelining) e só
+     * então espera as respostas.
+     *
+     * @param quantidade Quantidade de recados, numerados a partir de 1 depois do texto informado
+     */
+    public void enviarRecadosEmSequencia(String sessionId, String destinatario, String recado, int quantidade) {
+        List<Comando> comandos = new ArrayList<>();
+        for (int i = 1; i <= quantidade; i++) {
+            comandos.add(new Comando("enviarRecado", sessionId, destinatario, recado + " " + i));
+        }
+        for (CompletableFuture<Object> resposta : cliente.enviar(comandos)) {
+            try {
+                resposta.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException erro) {
+                    throw erro;
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * @return Quantidade de conexões abertas no servidor
+     */
+    public int getConexoes() {
+        return servidor.getConexoes();
+    }
+
+    /**
+     * Fecha o cliente e o servidor e salva o sistema.
+     */
+    public void encerrarSistema() {
+        try {
+            cliente.close();
+            servidor.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        facade.encerrarSistema();
+    }
+
+    public void zerarSistema() {
+        facade.zerarSistema();
+    }
+
+    // Operações pedidas pela rede
+
+    public String getAtributoUsuario(String login, String atributo) {
+        return (String) pedir("getAtributoUsuario", login, atributo);
+    }
+
+    public void criarUsuario(String login, String senha, String nome) {
+        pedir("criarUsuario", login, senha, nome);
+    }
+
+    public String abrirSessao(String login, String senha) {
+        return (String) pedir("abrirSessao", login, senha);
+    }
+
+    public boolean encerrarSessao(String sessionId) {
+        return (Boolean) pedir("encerrarSessao", sessionId);
+    }
+
+    public boolean existeSessao(String sessionId) {
+        return (Boolean) pedir("existeSessao", sessionId);
+    }
+
+    public String getLoginDaSessao(String sessionId) {
+        return (String) pedir("getLoginDaSessao", sessionId);
+    }
+
+    public void editarPerfil(String sessionId, String atributo, String valor) {
+        pedir("editarPerfil", sessionId, atributo, valor);
+    }
+
+    public boolean ehAmigo(String sessionId, String amigo) {
+        return (Boolean) pedir("ehAmigo", sessionId, amigo);
+    }
+
+    public void adicionarAmigo(String sessionId, String amigo) {
+        pedir("adicionarAmigo", sessionId, amigo);
+    }
+
+    public String getAmigos(String sessionId) {
+        return (String) pedir("getAmigos", sessionId);
+    }
+
+    public void enviarRecado(String sessionId, String destinatario, String recado) {
+        pedir("enviarRecado", sessionId, destinatario, recado);
+    }
+
+    public String lerRecado(String sessionId) {
+        return (String) pedir("lerRecado", sessionId);
+    }
+
+    public Object lerRecados(String sessionId, int quantidade) {
+        return pedir("lerRecados", sessionId, String.valueOf(quantidade));
+    }
+
+    public void criarComunidade(String sessionId, String nome, String descricao) {
+        pedir("criarComunidade", sessionId, nome, descricao);
+    }
+
+    public String getDescricaoComunidade(String nome) {
+        return (String) pedir("getDescricaoComunidade", nome);
+    }
+
+    public String getDonoComunidade(String nome) {
+        return (String) pedir("getDonoComunidade", nome);
+    }
+
+    public String getMembrosComunidade(String nome) {
+        return (String) pedir("getMembrosComunidade", nome);
+    }
+
+    public String getComunidades(String login) {
+        return (String) pedir("getComunidades", login);
+    }
+
+    public void adicionarComunidade(String sessionId, String nome) {
+        pedir("adicionarComunidade", sessionId, nome);
+    }
+
+    public String lerMensagem(String sessionId) {
+        return (String) pedir("lerMensagem", sessionId);
+    }
+
+    public Object lerMensagens(String sessionId, int quantidade) {
+        return pedir("lerMensagens", sessionId, String.valueOf(quantidade));
+    }
+
+    public void enviarMensagem(String sessionId, String comunidade, String mensagem) {
+        pedir("enviarMensagem", sessionId, comunidade, mensagem);
+    }
+
+    public boolean ehFa(String login, String idolo) {
+        return (Boolean) pedir("ehFa", login, idolo);
+    }
+
+    public void adicionarIdolo(String sessionId, String idolo) {
+        pedir("adicionarIdolo", sessionId, idolo);
+    }
+
+    public String getFas(String login) {
+        return (String) pedir("getFas", login);
+    }
+
+    public boolean ehPaquera(String sessionId, String paquera) {
+        return (Boolean) pedir("ehPaquera", sessionId, paquera);
+    }
+
+    public void adicionarPaquera(String sessionId, String paquera) {
+        pedir("adicionarPaquera", sessionId, paquera);
+    }
+
+    public String getPaqueras(String sessionId) {
+        return (String) pedir("getPaqueras", sessionId);
+    }
+
+    public void adicionarInimigo(String sessionId, String inimigo) {
+        pedir("adicionarInimigo", sessionId, inimigo);
+    }
+
+    public void removerUsuario(String sessionId) {
+        pedir("removerUsuario", sessionId);
+    }
+}
@@ -1,4 +1,25 @@
+import br.ufal.ic.p2.jackut.Facade;
+import br.ufal.ic.p2.jackut.exceptions.SystemSaveException;
+import br.ufal.ic.p2.jackut.storage.ServidorFragmento;
 import easyaccept.EasyAccept;
+import easyaccept.QuitSignalException;
+import util.Variables;
+import util.VariablesImpl;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
 
 public class Main {
     public static void main(String[] args) {
@@ -73,6 +94,266 @@ public class Main {
                 "tests/us9_2.txt"
         };
 
+        String[] args20 = {"br.ufal.ic.p2.jackut.Facade",
+                "tests/us10_1.txt"
+        };
+
+        String[] args21 = {"br.ufal.ic.p2.jackut.Facade",
+                "tests/us10_2.txt"
+        };
+
+        String[] args22 = {"br.ufal.ic.p2.jackut.Facade",
+                "tests/us11_1.txt"
+        };
+
+        String[] args23 = {"br.ufal.ic.p2.jackut.Facade",
+                "tests/us11_2.txt"
+        };
+
+        String[] args24 = {"br.ufal.ic.p2.jackut.Facade",
+                "tests/us12_1.txt"
+        };
+
+        String[] args25 = {"br.ufal.ic.p2.jackut.Facade",
+                "tests/us12_2.txt"
+        };
+
+        String[] args26 = {"br.ufal.ic.p2.jackut.Facade",
+                "tests/us12_3.txt"
+        };
+
+        String[] args27 = {"br.ufal.ic.p2.jackut.Facade",
+                "tests/us13_1.txt"
+        };
+
+        String[] args28 = {"br.ufal.ic.p2.jackut.Facade",
+                "tests/us13_2.txt"
+        };
+
+        String[] args29 = {"br.ufal.ic.p2.jackut.Facade",
+                "tests/us13_3.txt"
+        };
+
+        String[] args30 = {"br.ufal.ic.p2.jackut.Facade",
+                "tests/us13_4.txt"
+        };
+
+        String[] args31 = {"br.ufal.ic.p2.jackut.Facade",
+                "tests/us14_1.txt"
+        };
+
+        String[] args32 = {"br.ufal.ic.p2.jackut.Facade",
+                "tests/us14_2.txt"
+        };
+
+        String[] args33 = {"br.ufal.ic.p2.jackut.Facade",
+                "tests/us14_3.txt"
+        };
+
+        String[] args34 = {"br.ufal.ic.p2.jackut.Facade",
+                "tests/us14_4.txt"
+        };
+
+        String[] args35 = {"br.ufal.ic.p2.jackut.Facade",
+                "tests/us15_1.txt"
+        };
+
+        String[] args36 = {"br.ufal.ic.p2.jackut.Facade",
+                "tests/us15_2.txt"
+        };
+
+        String[] args37 = {"br.ufal.ic.p2.jackut.Facade",
+                "tests/us15_3.txt"
+        };
+
+        String[] args38 = {"br.ufal.ic.p2.jackut.Facade",
+                "tests/us16_1.txt"
+        };
+
+        String[] args39 = {"br.ufal.ic.p2.jackut.Facade",
+                "tests/us16_2.txt"
+        };
+
+        String[] args40 = {"br.ufal.ic.p2.jackut.Facade",
+                "tests/us16_3.txt"
+        };
+
+        String[] args41 = {"br.ufal.ic.p2.jackut.Facade",
+                "tests/us17_1.txt"
+        };
+
+        String[] args42 = {"br.ufal.ic.p2.jackut.Facade",
+                "tests/us17_2.txt"
+        };
+
+        String[] args43 = {"br.ufal.ic.p2.jackut.Facade",
+                "tests/us17_3.txt"
+        };
+
+        String[] args44 = {"br.ufal.ic.p2.jackut.Facade",
+                "tests/us17_4.txt"
+        };
+
+        String[] args45 = {"br.ufal.ic.p2.jackut.Facade",
+                "tests/us18_1.txt"
+        };
+
+        String[] args46 = {"br.ufal.ic.p2.jackut.Facade",
+                "tests/us18_2.txt"
+        };
+
+        String[] args47 = {"br.ufal.ic.p2.jackut.Facade",
+                "tests/us18_3.txt"
+        };
+
+        String[] args48 = {"br.ufal.ic.p2.jackut.Facade",
+                "tests/us18_4.txt"
+        };
+
+        String[] args49 = {"br.ufal.ic.p2.jackut.Facade",
+                "tests/us18_5.txt"
+        };
+
+        String[] args50 = {"br.ufal.ic.p2.jackut.Facade",
+                "tests/us19_1.txt"
+        };
+
+        String[] args51 = {"br.ufal.ic.p2.jackut.Facade",
+                "tests/us19_2.txt"
+        };
+
+        String[] args52 = {"br.ufal.ic.p2.jackut.Facade",
+                "tests/us19_3.txt"
+        };
+
+        String[] args53 = {"br.ufal.ic.p2.jackut.Facade",
+                "tests/us19_4.txt"
+        };
+
+        String[] args54 = {"br.ufal.ic.p2.jackut.Facade",
+                "tests/us19_5.txt"
+        };
+
+        String[] args55 = {"br.ufal.ic.p2.jackut.Facade",
+                "tests/us20_1.txt"
+        };
+
+        String[] args56 = {"br.ufal.ic.p2.jackut.Facade",
+                "tests/us20_2.txt"
+        };
+
+        String[] args57 = {"br.ufal.ic.p2.jackut.Facade",
+                "tests/us20_3.txt"
+        };
+
+        String[] args58 = {"br.ufal.ic.p2.jackut.Facade",
+                "tests/us21_1.txt"
+        };
+
+        String[] args59 = {"br.ufal.ic.p2.jackut.Facade",
+                "tests/us21_2.txt"
+        };
+
+        String[] args60 = {"br.ufal.ic.p2.jackut.Facade",
+                "tests/us23_1.txt"
+        };
+
+        String[] args61 = {"br.ufal.ic.p2.jackut.Facade",
+                "tests/us23_2.txt"
+        };
+
+        String[] args62 = {"br.ufal.ic.p2.jackut.Facade",
+                "tests/us23_3.txt"
+        };
+
+        String[] args63 = {"br.ufal.ic.p2.jackut.Facade",
+                "tests/us24_1.txt"
+        };
+
+        String[] args64 = {"br.ufal.ic.p2.jackut.Facade",
+                "tests/us24_2.txt"
+        };
+
+        String[] args65 = {"br.ufal.ic.p2.jackut.Facade",
+                "tests/us25_1.txt"
+        };
+
+        String[] args66 = {"br.ufal.ic.p2.jackut.Facade",
+                "tests/us25_2.txt"
+        };
+
+        String[] args67 = {"br.ufal.ic.p2.jackut.Facade",
+                "tests/us25_3.txt"
+        };
+
+        String[] args68 = {"br.ufal.ic.p2.jackut.Facade",
+                "tests/us25_4.txt"
+        };
+
+        String[] args69 = {"AdaptadorAssincrono",
+                "tests/us27_1.txt"
+        };
+
+        String[] args70 = {"br.ufal.ic.p2.jackut.Facade",
+                "tests/us27_2.txt"
+        };
+
+        String[] args71 = {"AdaptadorTcp",
+                "tests/us28_1.txt"
+        };
+
+        String[] args72 = {"br.ufal.ic.p2.jackut.Facade",
+                "tests/us28_2.txt"
+        };
+
+        String[] args73 = {"AdaptadorHttp",
+                "tests/us29_1.txt"
+        };
+
+        String[] args74 = {"br.ufal.ic.p2.jackut.Facade",
+                "tests/us29_2.txt"
+        };
+
+        String[] args75 = {"br.ufal.ic.p2.jackut.Facade",
+                "tests/us30_1.txt"
+        };
+
+        String[] args76 = {"br.ufal.ic.p2.jackut.Facade",
+                "tests/us30_2.txt"
+        };
+
+        String[] args77 = {"br.ufal.ic.p2.jackut.Facade",
+                "tests/us31_1.txt"
+        };
+
+        String[] args78 = {"br.ufal.ic.p2.jackut.Facade",
+                "tests/us31_2.txt"
+        };
+
+        String[] args79 = {"br.ufal.ic.p2.jackut.Facade",
+                "tests/us31_3.txt"
+        };
+
+        String[] args80 = {"br.ufal.ic.p2.jackut.Facade",
+                "tests/us32_1.txt"
+        };
+
+        String[] args81 = {"br.ufal.ic.p2.jackut.Facade",
+                "tests/us32_2.txt"
+        };
+
+        String[] args82 = {"br.ufal.ic.p2.jackut.Facade",
+                "tests/us33_1.txt"
+        };
+
+        String[] args83 = {"br.ufal.ic.p2.jackut.Facade",
+                "tests/us33_2.txt"
+        };
+
+        String[] args84 = {"br.ufal.ic.p2.jackut.Facade",
+                "tests/us33_3.txt"
+        };
+
         EasyAccept.main(args2);
         EasyAccept.main(args3);
         EasyAccept.main(args4);
@@ -91,5 +372,440 @@ public class Main {
         EasyAccept.main(args17);
         EasyAccept.main(args18);
         EasyAccept.main(args19);
+        EasyAccept.main(args20);
+        EasyAccept.main(args21);
+
+        // As leituras em lote também passam pelas mensagens derramadas em disco
+        boolean janelaPadrao = System.getProperty("jackut.mensagens.janela") == null;
+        if (janelaPadrao) {
+            System.setProperty("jackut.mensagens.janela", "2");
+        }
+        EasyAccept.main(args22);
+        EasyAccept.main(args23);
+        if (janelaPadrao) {
+            System.clearProperty("jackut.mensagens.janela");
+        }
+
+        // Os testes abandonam a Facade sem encerrarSistema e sem checkpoints: o estado vem do journal
+        executar(args24, "jackut.snapshot.intervaloSegundos=86400");
+        executar(args25, "jackut.snapshot.intervaloSegundos=86400");
+        EasyAccept.main(args26);
+
+        // A Facade abandonada grava um checkpoint periódico antes de o próximo teste abrir o sistema
+        executar(args27, "jackut.snapshot.intervaloSegundos=1");
+        aguardarSegmentoDelta();
+        executar(args28, "jackut.snapshot.intervaloSegundos=86400");
+        EasyAccept.main(args29);
+        EasyAccept.main(args30);
+
+        EasyAccept.main(args31);
+        EasyAccept.main(args32);
+
+        // Snapshot gravado pela versão que usava serialização Java
+        Path antigo = copiarSistema("tests/us14_3.dat");
+        executar(args33, arquivosEm(antigo));
+        executar(args34, arquivosEm(antigo));
+        apagar(antigo);
+
+        executar(args35, "jackut.armazenamento=mapeado", "jackut.armazenamento.cache=2");
+        executar(args36, "jackut.armazenamento=memoria");
+        executar(args37, "jackut.armazenamento=mapeado", "jackut.armazenamento.cache=2");
+
+        EasyAccept.main(args38);
+        executar(args39, "jackut.snapshot.sobDemanda=true");
+        executar(args40, "jackut.snapshot.sobDemanda=true");
+
+        executar(args41, "jackut.snapshot.fragmentos=4");
+        executar(args42, "jackut.snapshot.fragmentos=4");
+        executar(args43, "jackut.snapshot.fragmentos=1");
+        executar(args44, "jackut.snapshot.fragmentos=3");
+
+        executar(args45, "jackut.compressao=true", "jackut.snapshot.intervaloSegundos=86400");
+        executar(args46, "jackut.compressao=true");
+        executar(args47, "jackut.compressao=false", "jackut.snapshot.fragmentos=1");
+        executar(args48, "jackut.compressao=true", "jackut.snapshot.fragmentos=1");
+        executar(args49, "jackut.compressao=true", "jackut.snapshot.fragmentos=1", "jackut.snapshot.sobDemanda=true");
+
+        // Segmentos pequenos, para que as mensagens ocupem vários deles
+        executar(args50, "jackut.mensagens.log=true", "jackut.mensagens.tamanhoSegmento=256",
+                "jackut.snapshot.intervaloSegundos=86400");
+        executar(args51, "jackut.mensagens.log=true", "jackut.mensagens.tamanhoSegmento=256");
+        executar(args52, "jackut.mensagens.log=true", "jackut.mensagens.tamanhoSegmento=256");
+        executar(args53, "jackut.mensagens.log=false");
+        executar(args54, "jackut.mensagens.log=false");
+
+        // Snapshot gravado pela primeira versão do formato binário
+        Path versaoAnterior = copiarSistema("tests/us20_1.dat");
+        executar(args55, arquivosEm(versaoAnterior));
+        executar(args56, arquivosEm(versaoAnterior));
+        apagar(versaoAnterior);
+        versaoAnterior = copiarSistema("tests/us20_1.dat");
+        executar(args57, arquivosEm(versaoAnterior, "jackut.snapshot.migrar=false"));
+        apagar(versaoAnterior);
+
+        Path corrompido = copiarSistema("tests/us20_corrompido.dat");
+        verificarFalhaAoAbrir(corrompido, "tests/us20_corrompido.dat");
+        apagar(corrompido);
+
+        executar(args58, "jackut.concorrencia.faixas=4");
+        comPropriedades(Main::operarEmParalelo, "jackut.concorrencia.faixas=4");
+        executar(args59, "jackut.concorrencia.faixas=4");
+
+        // Os IDs de sessão guardados em um teste são verificados pelos seguintes, depois de reabrir o sistema
+        Variables sessoes = new VariablesImpl();
+        comPropriedades(() -> executarSobre(new Facade(), "tests/us22_1.txt", sessoes),
+                "jackut.sessoes.bloco=2", "jackut.snapshot.intervaloSegundos=86400");
+        comPropriedades(() -> executarSobre(new Facade(), "tests/us22_2.txt", sessoes), "jackut.sessoes.bloco=2");
+        comPropriedades(() -> executarSobre(new Facade(), "tests/us22_3.txt", sessoes), "jackut.sessoes.bloco=2");
+
+        executar(args60, "jackut.consultas.versionadas=true");
+        executar(args61, "jackut.consultas.versionadas=true");
+        executar(args62, "jackut.consultas.versionadas=false");
+
+        String[] atores = {"jackut.execucao=atores", "jackut.concorrencia.faixas=8", "jackut.execucao.threads=2"};
+        executar(args63, atores);
+        executar(args64, atores);
+
+        // As mesmas operações em paralelo da User Story 21, agora encaminhadas pelos atores
+        executar(args58, atores);
+        comPropriedades(Main::operarEmParalelo, atores);
+        executar(args59, atores);
+
+        executar(args65, "jackut.fragmentos=4");
+        executar(args66, "jackut.fragmentos=3");
+        executarComServidoresDeFragmentos(args67, 2);
+        executar(args68, "jackut.fragmentos=1");
+
+        // Líder e réplica no mesmo processo, cada um com os próprios arquivos
+        Path dadosLider = criarDiretorio();
+        Path dadosReplica = criarDiretorio();
+        int porta = portaLivre();
+        String[] lider = arquivosEm(dadosLider, "jackut.replicacao.porta=" + porta);
+        String[] replica = arquivosEm(dadosReplica, "jackut.replicacao.lider="
+                + InetAddress.getLoopbackAddress().getHostAddress() + ":" + porta);
+        Variables replicacao = new VariablesImpl();
+        Facade facadeLider = abrirFacade(lider);
+        comPropriedades(() -> executarSobre(facadeLider, "tests/us26_1.txt", replicacao), lider);
+        comPropriedades(() -> {
+            Facade facadeReplica = new Facade();
+            executarSobre(facadeReplica, "tests/us26_2.txt", replicacao);
+            comPropriedades(() -> executarSobre(facadeLider, "tests/us26_3.txt", replicacao), lider);
+            aguardarReplicacao(facadeReplica, System.currentTimeMillis());
+            executarSobre(facadeReplica, "tests/us26_4.txt", replicacao);
+        }, replica);
+        comPropriedades(facadeLider::encerrarSistema, lider);
+        comPropriedades(() -> executarSobre(new Facade(), "tests/us26_5.txt", replicacao), arquivosEm(dadosReplica));
+        apagar(dadosLider);
+        apagar(dadosReplica);
+
+        executar(args69, "jackut.assincrona.threads=4");
+        EasyAccept.main(args70);
+
+        // Poucos pedidos sem resposta por conexão, para que o envio em sequência espere as respostas
+        executar(args71, "jackut.servidor.pipeline=8");
+        EasyAccept.main(args72);
+
+        executar(args73, "jackut.http.threads=2");
+        EasyAccept.main(args74);
+
+        EasyAccept.main(args75);
+        EasyAccept.main(args76);
+
+        EasyAccept.main(args77);
+        EasyAccept.main(args78);
+        publicarNoMural();
+        EasyAccept.main(args79);
+
+        EasyAccept.main(args80);
+        EasyAccept.main(args81);
+
+        // Duas mensagens de cada tipo em memória; o último teste lê o mesmo snapshot sem janela
+        executar(args82, "jackut.mensagens.janela=2");
+        executar(args83, "jackut.mensagens.janela=2");
+        executar(args84, "jackut.mensagens.janela=0");
+    }
+
+    /**
+     * Cria uma Facade com propriedades de sistema definidas apenas durante a criação.
+     */
+    private static Facade abrirFacade(String... propriedades) {
+        Facade[] facade = new Facade[1];
+        comPropriedades(() -> facade[0] = new Facade(), propriedades);
+        return facade[0];
+    }
+
+    /**
+     * Aguarda, por até 10 segundos, que a réplica aplique tudo o que o líder
+     * tornou durável até o instante informado.
+     */
+    private static void aguardarReplicacao(Facade replica, long instante) {
+        try {
+            for (int tentativa = 0; tentativa < 100; tentativa++) {
+                // O líder informa o instante de cada lote e pulso; a réplica, a idade do último aplicado
+                if (System.currentTimeMillis() - replica.getAtrasoReplicacaoMs() > instante) {
+                    return;
+                }
+                Thread.sleep(100);
+            }
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+        System.out.println("A réplica não alcançou o líder em 10 segundos");
+        System.exit(1);
+    }
+
+    /**
+     * @return Uma porta livre da interface local
+     */
+    private static int portaLivre() {
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            return socket.getLocalPort();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Executa um teste com os usuários distribuídos entre servidores de
+     * fragmentos iniciados neste processo, em portas livres.
+     */
+    private static void executarComServidoresDeFragmentos(String[] args, int quantidade) {
+        List<ServidorFragmento> servidores = new ArrayList<>();
+        try {
+            StringBuilder enderecos = new StringBuilder();
+            for (int i = 0; i < quantidade; i++) {
+                ServidorFragmento servidor = new ServidorFragmento(InetAddress.getLoopbackAddress(), 0);
+                servidores.add(servidor);
+                servidor.iniciar();
+                if (enderecos.length() > 0) {
+                    enderecos.append(',');
+                }
+                enderecos.append(InetAddress.getLoopbackAddress().getHostAddress()).append(':').append(servidor.getPorta());
+            }
+            executar(args, "jackut.fragmentos.servidores=" + enderecos);
+            for (ServidorFragmento servidor : servidores) {
+                servidor.close();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Executa um teste sobre uma Facade já criada, como faz o EasyAccept, mas
+     * com variáveis compartilhadas entre testes que abrem o sistema de novo.
+     */
+    private static void executarSobre(Object facade, String arquivo, Variables variaveis) {
+        try {
+            new EasyAccept().runAcceptanceTest(facade, arquivo, variaveis);
+        } catch (QuitSignalException e) {
+            System.out.println(e.getMessage());
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Publica 300 mensagens no mural de uma comunidade. Ana lê cada uma logo
+     * depois da publicação, e Davi não lê nenhuma, de modo que as entradas
+     * lidas por todos sejam descartadas várias vezes enquanto Davi fica para
+     * trás. O resultado é verificado pelo teste seguinte, depois de o
+     * sistema ser reaberto.
+     */
+    private static void publicarNoMural() {
+        Facade facade = new Facade();
+        facade.zerarSistema();
+        facade.criarUsuario("bia", "b", "Bia");
+        facade.criarUsuario("ana", "a", "Ana");
+        facade.criarUsuario("davi", "d", "Davi");
+        facade.criarComunidade("bia", "Mural", "Muitas mensagens");
+        facade.adicionarComunidade("ana", "Mural");
+        facade.adicionarComunidade("davi", "Mural");
+        for (int i = 1; i <= 300; i++) {
+            facade.enviarMensagem("bia", "Mural", "Mensagem " + i);
+            facade.lerMensagem("ana");
+            facade.lerMensagem("bia");
+        }
+        facade.encerrarSistema();
+    }
+
+    /**
+     * Faz cada par de usuários (p0, p1), (p2, p3), ... (p14, p15) se adicionar
+     * mutuamente como amigo e como paquera ao mesmo tempo, um em cada thread,
+     * enquanto todos enviam recados para central. O resultado é verificado
+     * pelo teste seguinte, depois de o sistema ser reaberto.
+     */
+    private static void operarEmParalelo() {
+        Facade facade = new Facade();
+        for (int i = 0; i < 16; i++) {
+            facade.criarUsuario("p" + i, "senha", "Pessoa " + i);
+        }
+        Queue<Throwable> erros = new ConcurrentLinkedQueue<>();
+        CountDownLatch largada = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            String login = "p" + i;
+            String par = "p" + (i ^ 1);
+            Thread thread = new Thread(() -> {
+                try {
+                    largada.await();
+                    facade.adicionarAmigo(login, par);
+                    facade.adicionarPaquera(login, par);
+                    for (int j = 0; j < 5; j++) {
+                        facade.enviarRecado(login, "central", "Recado " + j + " de " + login);
+                    }
+                } catch (Throwable e) {
+                    erros.add(e);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        largada.countDown();
+        try {
+            for (Thread thread : threads) {
+                thread.join(10000);
+                if (thread.isAlive()) {
+                    System.out.println("As operações em paralelo não terminaram em 10 segundos");
+                    System.exit(1);
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+        facade.encerrarSistema();
+        for (Throwable erro : erros) {
+            System.out.println("Erro em operação paralela: " + erro);
+        }
+        if (!erros.isEmpty()) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Verifica que a Facade se recusa a abrir um snapshot que não pode ser
+     * lido, sem alterá-lo, em vez de iniciar um sistema vazio.
+     */
+    private static void verificarFalhaAoAbrir(Path diretorio, String original) {
+        comPropriedades(() -> {
+            try {
+                new Facade().encerrarSistema();
+                System.out.println(original + ": o sistema foi aberto a partir de um snapshot ilegível");
+                System.exit(1);
+            } catch (SystemSaveException e) {
+                try {
+                    if (Files.mismatch(diretorio.resolve("sistema.dat"), Paths.get(original)) != -1) {
+                        System.out.println(original + ": o snapshot ilegível foi alterado");
+                        System.exit(1);
+                    }
+                } catch (IOException erro) {
+                    throw new IllegalStateException(erro);
+                }
+            }
+        }, arquivosEm(diretorio));
+    }
+
+    /**
+     * Copia um snapshot salvo junto com os testes para um diretório temporário,
+     * para que o teste não altere o original.
+     *
+     * @return Diretório onde está a cópia, com o nome sistema.dat
+     */
+    private static Path copiarSistema(String arquivo) {
+        Path diretorio = criarDiretorio();
+        try {
+            Files.copy(Paths.get(arquivo), diretorio.resolve("sistema.dat"));
+            return diretorio;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return Um diretório temporário vazio, para os arquivos de um sistema
+     */
+    private static Path criarDiretorio() {
+        try {
+            return Files.createTempDirectory("jackut");
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return Propriedades que usam o sistema e o journal de um diretório, seguidas das demais informadas
+     */
+    private static String[] arquivosEm(Path diretorio, String... outras) {
+        String[] propriedades = new String[outras.length + 2];
+        propriedades[0] = "jackut.arquivo=" + diretorio.resolve("sistema.dat");
+        propriedades[1] = "jackut.journal.arquivo=" + diretorio.resolve("sistema.journal");
+        System.arraycopy(outras, 0, propriedades, 2, outras.length);
+        return propriedades;
+    }
+
+    /**
+     * Apaga um diretório temporário e todo o seu conteúdo.
+     */
+    private static void apagar(Path diretorio) {
+        try (var arquivos = Files.walk(diretorio)) {
+            for (Path arquivo : arquivos.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(arquivo);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Aguarda, por até 10 segundos, a publicação de um segmento delta do sistema.
+     */
+    private static void aguardarSegmentoDelta() {
+        Path base = Paths.get(System.getProperty("jackut.arquivo", "sistema.dat")).toAbsolutePath();
+        String prefixo = base.getFileName() + ".delta.";
+        try {
+            for (int tentativa = 0; tentativa < 100; tentativa++) {
+                try (var arquivos = Files.list(base.getParent())) {
+                    if (arquivos.map(arquivo -> arquivo.getFileName().toString())
+                            .anyMatch(nome -> nome.startsWith(prefixo) && !nome.endsWith(".tmp"))) {
+                        return;
+                    }
+                }
+                Thread.sleep(100);
+            }
+        } catch (IOException | InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Executa um teste com propriedades de sistema ("chave=valor") definidas
+     * apenas durante a execução.
+     */
+    private static void executar(String[] args, String... propriedades) {
+        comPropriedades(() -> EasyAccept.main(args), propriedades);
+    }
+
+    /**
+     * Executa uma verificação com propriedades de sistema ("chave=valor")
+     * definidas apenas durante a execução; os valores anteriores são restaurados depois.
+     */
+    private static void comPropriedades(Runnable verificacao, String... propriedades) {
+        Map<String, String> anteriores = new HashMap<>();
+        for (String propriedade : propriedades) {
+            String chave = propriedade.substring(0, propriedade.indexOf('='));
+            anteriores.put(chave, System.setProperty(chave, propriedade.substring(chave.length() + 1)));
+        }
+        try {
+            verificacao.run();
+        } finally {
+            for (Map.Entry<String, String> anterior : anteriores.entrySet()) {
+                if (anterior.getValue() == null) {
+                    System.clearProperty(anterior.getKey());
+                } else {
+                    System.setProperty(anterior.getKey(), anterior.getValue());
+                }
+            }
+        }
     }
 }
\ No newline at end of file
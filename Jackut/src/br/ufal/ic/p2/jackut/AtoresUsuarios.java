@@ -0,0 +1,231 @@
+package br.ufal.ic.p2.jackut;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Execução das operações da {@link Facade} por atores, no lugar das faixas
+ * de bloqueio.
+ * <p>
+ * Cada login ou nome de comunidade pertence a um ator, escolhido pelo hash da
+ * chave. Um ator tem uma caixa de mensagens e processa uma mensagem de cada
+ * vez em um pool de threads compartilhado, de modo que o estado dos usuários
+ * de um ator (o Usuario e a sua caixa de recados) só é alterado por uma
+ * thread de cada vez, sem bloqueios. A Facade envia cada operação como uma
+ * mensagem ao ator das suas chaves e aguarda a resposta.
+ * <p>
+ * Operações entre usuários de atores diferentes (ex.: enviarRecado,
+ * adicionarAmigo e as notificações de adicionarPaquera) são uma troca
+ * ordenada de mensagens: a mensagem passa pelos atores em ordem crescente, e
+ * cada um se retém, sem ocupar uma thread, até que o último execute a
+ * operação e libere os anteriores. A ordem fixa impede que duas trocas se
+ * esperem em ciclo.
+ * <p>
+ * Os atores não aguardam o disco: o comando é acrescentado ao journal e quem
+ * chamou a operação aguarda a sincronização depois da resposta, de modo que o
+ * ator já processa a mensagem seguinte durante o fsync.
+ */
+final class AtoresUsuarios extends BloqueiosListrados {
+
+    /** Mensagens processadas por um ator antes de ceder a thread a outro */
+    private static final int LOTE = 64;
+
+    /** Atores indexados pelo hash da chave */
+    private final Ator[] atores;
+
+    /** Threads onde os atores processam as mensagens */
+    private final ForkJoinPool pool;
+
+    /** Executada por quem chamou, depois da resposta (ex.: aguardar o journal) */
+    private final Runnable aposExecucao;
+
+    /**
+     * Construtor que cria os atores.
+     *
+     * @param quantidadeAtores Quantidade de atores
+     * @param threads Quantidade de threads que processam as mensagens
+     * @param aposExecucao Executada por quem chamou, depois de cada operação bem-sucedida
+     */
+    AtoresUsuarios(int quantidadeAtores, int threads, Runnable aposExecucao) {
+        super(0);
+        this.pool = new ForkJoinPool(Math.max(1, threads), ForkJoinPool.defaultForkJoinWorkerThreadFactory,
+                null, true);
+        this.aposExecucao = aposExecucao;
+        this.atores = new Ator[Math.max(1, quantidadeAtores)];
+        for (int i = 0; i < atores.length; i++) {
+            atores[i] = new Ator();
+        }
+    }
+
+    @Override
+    boolean isConcorrente() {
+        return true;
+    }
+
+    @Override
+    boolean isAdiandoSincronizacao() {
+        return ForkJoinTask.getPool() == pool;
+    }
+
+    /**
+     * Envia a operação aos atores das chaves e aguarda a resposta.
+     *
+     * @param operacao Operação a ser executada
+     * @param chaves Logins e nomes de comunidade lidos ou alterados pela operação (null é aceito)
+     * @return Resultado da operação
+     * @throws IllegalStateException Se chamado de dentro de um ator
+     */
+    @Override
+    <T> T executar(Supplier<T> operacao, String... chaves) {
+        if (ForkJoinTask.getPool() == pool) {
+            throw new IllegalStateException("Operação enviada de dentro de um ator");
+        }
+        if (chaves.length == 0) {
+            return compartilhado(operacao);
+        }
+
+        Troca<T> troca = new Troca<>(operacao, indices(chaves, atores.length));
+        atores[troca.indices[0]].enviar(troca::etapa);
+
+        T resultado;
+        try {
+            resultado = troca.resposta.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        }
+        aposExecucao.run();
+        return resultado;
+    }
+
+    /**
+     * Operação que passa pelos atores das suas chaves, em ordem crescente.
+     * Os campos são lidos por atores diferentes, mas cada passagem ocorre
+     * pela fila do ator seguinte, que publica o que foi escrito antes dela.
+     */
+    private final class Troca<T> {
+        private final Supplier<T> operacao;
+        private final int[] indices;
+        private final CompletableFuture<T> resposta;
+        private int etapa;
+
+        private Troca(Supplier<T> operacao, int[] indices) {
+            this.operacao = operacao;
+            this.indices = indices;
+            this.resposta = new CompletableFuture<>();
+        }
+
+        /**
+         * Executada pelo ator da etapa atual: retém o ator e passa a troca
+         * adiante, ou, no último ator, executa a operação e libera os anteriores.
+         */
+        private void etapa() {
+            if (etapa < indices.length - 1) {
+                atores[indices[etapa]].reter();
+                etapa++;
+                atores[indices[etapa]].enviar(this::etapa);
+                return;
+            }
+
+            try {
+                resposta.complete(compartilhado(operacao));
+            } catch (Throwable e) {
+                resposta.completeExceptionally(e);
+            } finally {
+                for (int i = 0; i < indices.length - 1; i++) {
+                    atores[indices[i]].liberar();
+                }
+            }
+        }
+    }
+
+    /**
+     * Ator: processa as mensagens da sua caixa, uma de cada vez.
+     */
+    private final class Ator implements Runnable {
+
+        /** Estados de uma retenção */
+        private static final int LIVRE = 0;
+        private static final int RETIDO = 1;
+        private static final int CEDIDO = 2;
+        private static final int LIBERADO = 3;
+
+        /** Mensagens ainda não processadas */
+        private final ConcurrentLinkedQueue<Runnable> caixa = new ConcurrentLinkedQueue<>();
+
+        /** Se o ator está na fila do pool, processando ou retido */
+        private final AtomicBoolean agendado = new AtomicBoolean();
+
+        /** Estado da retenção em andamento */
+        private final AtomicInteger retencao = new AtomicInteger(LIVRE);
+
+        private void enviar(Runnable mensagem) {
+            caixa.add(mensagem);
+            agendar();
+        }
+
+        private void agendar() {
+            if (agendado.compareAndSet(false, true)) {
+                pool.execute(this);
+            }
+        }
+
+        /**
+         * Retém o ator ao fim da mensagem atual, até {@link #liberar()}.
+         * Chamado pelo próprio ator, durante uma troca.
+         */
+        private void reter() {
+            retencao.set(RETIDO);
+        }
+
+        /**
+         * Libera o ator retido. Se ele ainda não cedeu a thread, apenas
+         * continua processando; se já cedeu, volta para a fila do pool.
+         */
+        private void liberar() {
+            if (retencao.compareAndSet(RETIDO, LIBERADO)) {
+                return;
+            }
+            retencao.set(LIVRE);
+            pool.execute(this);
+        }
+
+        @Override
+        public void run() {
+            for (int i = 0; i < LOTE; i++) {
+                Runnable mensagem = caixa.poll();
+                if (mensagem == null) {
+                    break;
+                }
+                mensagem.run();
+                if (retencao.get() != LIVRE) {
+                    if (retencao.compareAndSet(RETIDO, CEDIDO)) {
+                        return;
+                    }
+                    // Liberado antes de ceder a thread
+                    retencao.set(LIVRE);
+                }
+            }
+
+            if (!caixa.isEmpty()) {
+                pool.execute(this);
+                return;
+            }
+            agendado.set(false);
+            if (!caixa.isEmpty()) {
+                agendar();
+            }
+        }
+    }
+}
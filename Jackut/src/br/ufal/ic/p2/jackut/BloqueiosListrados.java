@@ -0,0 +1,217 @@
+package br.ufal.ic.p2.jackut;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/**
+ * Bloqueios das operações da {@link Facade}.
+ * <p>
+ * Um bloqueio global de leitura e escrita separa as operações comuns, que o
+ * obtêm em modo compartilhado, das que percorrem ou substituem o sistema
+ * inteiro (ex.: zerarSistema, removerUsuario e a captura dos checkpoints),
+ * que o obtêm em modo exclusivo. Dentro do modo compartilhado, cada operação
+ * obtém as faixas das chaves que altera ou lê (logins e nomes de comunidade):
+ * a chave é associada a uma faixa pelo seu hash, e as faixas são sempre
+ * obtidas em ordem crescente, de modo que operações entre dois usuários nunca
+ * esperam uma pela outra em ciclo. Chaves diferentes na mesma faixa apenas
+ * esperam uma pela outra.
+ * <p>
+ * Sem faixas (modo serializado, o padrão), toda operação obtém o bloqueio
+ * exclusivo, como quando a Facade era serializada pelo seu monitor.
+ * <p>
+ * {@link AtoresUsuarios} substitui as faixas por atores, mantendo o bloqueio global.
+ */
+class BloqueiosListrados {
+
+    /** Separa as operações comuns das que alcançam o sistema inteiro */
+    private final ReentrantReadWriteLock global;
+
+    /** Faixas indexadas pelo hash da chave, ou null no modo serializado */
+    private final ReentrantLock[] faixas;
+
+    /** Executada ao fim de cada operação, antes de os bloqueios serem liberados, ou null */
+    private volatile Runnable aoConcluir;
+
+    /**
+     * Construtor que cria os bloqueios.
+     *
+     * @param quantidadeFaixas Quantidade de faixas (0 = modo serializado)
+     */
+    BloqueiosListrados(int quantidadeFaixas) {
+        this.global = new ReentrantReadWriteLock();
+        if (quantidadeFaixas <= 0) {
+            this.faixas = null;
+            return;
+        }
+        this.faixas = new ReentrantLock[quantidadeFaixas];
+        for (int i = 0; i < quantidadeFaixas; i++) {
+            faixas[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * @return true se as operações sobre chaves diferentes podem rodar em paralelo
+     */
+    boolean isConcorrente() {
+        return faixas != null;
+    }
+
+    /**
+     * @return true se a thread atual executa uma operação cuja sincronização
+     *         com o journal é aguardada por quem a chamou, depois da execução
+     */
+    boolean isAdiandoSincronizacao() {
+        return false;
+    }
+
+    /**
+     * @return Bloqueio que exclui todas as operações (ex.: durante a captura de um checkpoint)
+     */
+    Lock getExclusivo() {
+        return global.writeLock();
+    }
+
+    /**
+     * Define uma ação executada ao fim de cada operação, ainda com os
+     * bloqueios da operação (ex.: publicar as versões das consultas).
+     *
+     * @param aoConcluir Ação executada ao fim de cada operação
+     */
+    void aoConcluir(Runnable aoConcluir) {
+        this.aoConcluir = aoConcluir;
+    }
+
+    /**
+     * Executa uma operação com o sistema inteiro bloqueado.
+     *
+     * @param operacao Operação a ser executada
+     * @return Resultado da operação
+     */
+    <T> T exclusivo(Supplier<T> operacao) {
+        global.writeLock().lock();
+        try {
+            return operacao.get();
+        } finally {
+            try {
+                concluir();
+            } finally {
+                global.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Executa uma operação com o sistema inteiro bloqueado.
+     *
+     * @param operacao Operação a ser executada
+     */
+    void exclusivo(Runnable operacao) {
+        exclusivo(() -> {
+            operacao.run();
+            return null;
+        });
+    }
+
+    /**
+     * Executa uma operação com as faixas das chaves bloqueadas.
+     *
+     * @param operacao Operação a ser executada
+     * @param chaves Logins e nomes de comunidade lidos ou alterados pela operação (null é aceito)
+     * @return Resultado da operação
+     */
+    <T> T executar(Supplier<T> operacao, String... chaves) {
+        if (faixas == null) {
+            return exclusivo(operacao);
+        }
+
+        int[] indices = indices(chaves, faixas.length);
+        int distintas = indices.length;
+
+        global.readLock().lock();
+        int obtidas = 0;
+        try {
+            while (obtidas < distintas) {
+                faixas[indices[obtidas++]].lock();
+            }
+            return operacao.get();
+        } finally {
+            try {
+                if (obtidas == distintas) {
+                    concluir();
+                }
+            } finally {
+                while (obtidas > 0) {
+                    faixas[indices[--obtidas]].unlock();
+                }
+                global.readLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Executa uma operação apenas com o bloqueio global compartilhado.
+     *
+     * @param operacao Operação a ser executada
+     * @return Resultado da operação
+     */
+    <T> T compartilhado(Supplier<T> operacao) {
+        global.readLock().lock();
+        try {
+            return operacao.get();
+        } finally {
+            try {
+                concluir();
+            } finally {
+                global.readLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Associa cada chave a uma posição pelo seu hash.
+     *
+     * @param chaves Chaves da operação (null é associada à posição 0)
+     * @param quantidade Quantidade de posições
+     * @return Posições distintas, em ordem crescente
+     */
+    static int[] indices(String[] chaves, int quantidade) {
+        int[] indices = new int[chaves.length];
+        for (int i = 0; i < chaves.length; i++) {
+            indices[i] = chaves[i] == null ? 0 : Math.floorMod(chaves[i].hashCode(), quantidade);
+        }
+        Arrays.sort(indices);
+        int distintas = 0;
+        for (int i = 0; i < indices.length; i++) {
+            if (i == 0 || indices[i] != indices[distintas - 1]) {
+                indices[distintas++] = indices[i];
+            }
+        }
+        return Arrays.copyOf(indices, distintas);
+    }
+
+    /**
+     * Executa a ação de fim de operação, se houver.
+     */
+    private void concluir() {
+        Runnable acao = aoConcluir;
+        if (acao != null) {
+            acao.run();
+        }
+    }
+
+    /**
+     * Executa uma operação com as faixas das chaves bloqueadas.
+     *
+     * @param operacao Operação a ser executada
+     * @param chaves Logins e nomes de comunidade lidos ou alterados pela operação (null é aceito)
+     */
+    void executar(Runnable operacao, String... chaves) {
+        executar(() -> {
+            operacao.run();
+            return null;
+        }, chaves);
+    }
+}
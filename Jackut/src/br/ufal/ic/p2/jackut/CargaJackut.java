@@ -0,0 +1,108 @@
+package br.ufal.ic.p2.jackut;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Gerador de carga para um {@link ServidorJackut}, para medir a vazão e a
+ * latência do servidor. Cada conexão cria dois usuários, abre uma sessão
+ * para cada um e envia recados de um para o outro, que os lê, mantendo até
+ * {@code profundidade} pedidos em andamento na conexão.
+ * <p>
+ * Uso: {@code java br.ufal.ic.p2.jackut.CargaJackut <host> <porta> <conexoes> <operacoes> [profundidade]},
+ * onde {@code operacoes} é o total de operações de cada conexão.
+ */
+public class CargaJackut {
+
+    private CargaJackut() {
+    }
+
+    /**
+     * Executa a carga e imprime a vazão e as latências.
+     *
+     * @param args Host, porta, conexões, operações por conexão e, opcionalmente, a profundidade do pipeline
+     * @throws Exception Se uma conexão falhar
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 4) {
+            System.err.println("Uso: CargaJackut <host> <porta> <conexoes> <operacoes> [profundidade]");
+            System.exit(2);
+        }
+        String host = args[0];
+        int porta = Integer.parseInt(args[1]);
+        int conexoes = Integer.parseInt(args[2]);
+        int operacoes = Integer.parseInt(args[3]) & ~1;
+        int profundidade = args.length > 4 ? Integer.parseInt(args[4]) : 1;
+
+        List<ClienteJackut> clientes = new ArrayList<>();
+        List<String[]> sessoes = new ArrayList<>();
+        String prefixo = "carga-" + Long.toString(System.nanoTime(), 36) + "-";
+        for (int i = 0; i < conexoes; i++) {
+            ClienteJackut cliente = new ClienteJackut(host, porta);
+            String login = prefixo + i;
+            cliente.executar(new Comando("criarUsuario", login, "senha", login));
+            cliente.executar(new Comando("criarUsuario", login + "-par", "senha", login));
+            sessoes.add(new String[]{(String) cliente.executar(new Comando("abrirSessao", login, "senha")),
+                    (String) cliente.executar(new Comando("abrirSessao", login + "-par", "senha"))});
+            clientes.add(cliente);
+        }
+
+        long[] latencias = new long[conexoes * operacoes];
+        AtomicInteger falhas = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        long inicio = System.nanoTime();
+        for (int i = 0; i < conexoes; i++) {
+            int conexao = i;
+            Thread thread = new Thread(() -> carregar(clientes.get(conexao), sessoes.get(conexao),
+                    prefixo + conexao, operacoes, profundidade, latencias, conexao * operacoes, falhas));
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long duracao = System.nanoTime() - inicio;
+        for (ClienteJackut cliente : clientes) {
+            cliente.close();
+        }
+
+        Arrays.sort(latencias);
+        System.out.printf("%d operações em %d ms: %.0f ops/s, %d falhas%n", latencias.length,
+                duracao / 1_000_000, latencias.length * 1e9 / duracao, falhas.get());
+        System.out.printf("latência (us): p50=%d p99=%d max=%d%n", percentil(latencias, 0.50) / 1000,
+                percentil(latencias, 0.99) / 1000, latencias[latencias.length - 1] / 1000);
+    }
+
+    /**
+     * Envia as operações de uma conexão, com até {@code profundidade} em andamento.
+     */
+    private static void carregar(ClienteJackut cliente, String[] sessoes, String login, int operacoes,
+                                 int profundidade, long[] latencias, int deslocamento, AtomicInteger falhas) {
+        Semaphore vagas = new Semaphore(profundidade);
+        for (int i = 0; i < operacoes; i++) {
+            vagas.acquireUninterruptibly();
+            Comando comando = i % 2 == 0
+                    ? new Comando("enviarRecado", sessoes[1], login, "recado " + i)
+                    : new Comando("lerRecado", sessoes[0]);
+            int posicao = deslocamento + i;
+            long envio = System.nanoTime();
+            CompletableFuture<Object> resposta = cliente.enviar(comando);
+            resposta.whenComplete((valor, erro) -> {
+                latencias[posicao] = System.nanoTime() - envio;
+                if (erro != null) {
+                    falhas.incrementAndGet();
+                }
+                vagas.release();
+            });
+        }
+        vagas.acquireUninterruptibly(profundidade);
+    }
+
+    private static long percentil(long[] ordenadas, double fracao) {
+        return ordenadas[Math.min(ordenadas.length - 1, (int) (ordenadas.length * fracao))];
+    }
+}
@@ -0,0 +1,201 @@
+package br.ufal.ic.p2.jackut;
+
+import br.ufal.ic.p2.jackut.exceptions.RemoteOperationException;
+import br.ufal.ic.p2.jackut.persistence.CanalEntrada;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static br.ufal.ic.p2.jackut.ProtocoloJackut.*;
+
+/**
+ * Cliente de um {@link ServidorJackut}: executa as operações da Facade em
+ * outro processo por uma única conexão.
+ * <p>
+ * {@link #enviar(Comando)} não espera a resposta: vários pedidos podem estar
+ * em andamento ao mesmo tempo na conexão (pipelining), e cada futuro é
+ * completado quando a sua resposta chega. Uma operação que falha no servidor
+ * completa o futuro com {@link RemoteOperationException}. Os métodos podem
+ * ser chamados por várias threads.
+ */
+public class ClienteJackut implements Closeable {
+
+    /** Conexão com o servidor */
+    private final Socket conexao;
+
+    /** Saída da conexão, também usada como trava dos envios */
+    private final DataOutputStream out;
+
+    /** Pedidos sem resposta, indexados pelo número */
+    private final Map<Long, CompletableFuture<Object>> pendentes;
+
+    /** Número do próximo pedido */
+    private long proximoNumero;
+
+    /** Causa do encerramento da conexão, ou null enquanto ela está aberta */
+    private IOException encerramento;
+
+    /**
+     * Construtor que conecta ao servidor.
+     *
+     * @param host Endereço do servidor
+     * @param porta Porta do servidor
+     * @throws IOException Se a conexão não puder ser aberta
+     */
+    public ClienteJackut(String host, int porta) throws IOException {
+        this.conexao = new Socket();
+        this.conexao.connect(new InetSocketAddress(host, porta));
+        this.conexao.setTcpNoDelay(true);
+        this.out = new DataOutputStream(new BufferedOutputStream(conexao.getOutputStream()));
+        this.pendentes = new ConcurrentHashMap<>();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(conexao.getInputStream()));
+        Thread leitura = new Thread(() -> receberRespostas(in), "jackut-cliente-" + conexao.getLocalPort());
+        leitura.setDaemon(true);
+        leitura.start();
+    }
+
+    /**
+     * Envia um pedido sem esperar a resposta.
+     *
+     * @param comando Nome do método da Facade e os seus argumentos
+     * @return Valor devolvido pela operação no servidor
+     */
+    public CompletableFuture<Object> enviar(Comando comando) {
+        return enviar(List.of(comando)).get(0);
+    }
+
+    /**
+     * Envia uma sequência de pedidos de uma só vez, sem esperar as respostas.
+     * O servidor os executa na ordem da lista.
+     *
+     * @param comandos Operações a serem executadas
+     * @return Valor devolvido por cada operação, na ordem da lista
+     */
+    public List<CompletableFuture<Object>> enviar(List<Comando> comandos) {
+        List<CompletableFuture<Object>> futuros = new ArrayList<>(comandos.size());
+        synchronized (out) {
+            try {
+                for (Comando comando : comandos) {
+                    CompletableFuture<Object> futuro = new CompletableFuture<>();
+                    futuros.add(futuro);
+                    if (encerramento != null) {
+                        futuro.completeExceptionally(new UncheckedIOException(encerramento));
+                        continue;
+                    }
+                    long numero = proximoNumero++;
+                    pendentes.put(numero, futuro);
+                    ProtocoloJackut.enviar(out, codificarPedido(numero, comando));
+                }
+                out.flush();
+            } catch (IOException e) {
+                encerrar(e);
+            }
+        }
+        return futuros;
+    }
+
+    /**
+     * Executa uma operação no servidor e espera a resposta.
+     *
+     * @param comando Nome do método da Facade e os seus argumentos
+     * @return Valor devolvido pela operação (String, Boolean, List de String ou null)
+     * @throws RemoteOperationException Se a operação falhar no servidor
+     * @throws UncheckedIOException Se a conexão falhar
+     */
+    public Object executar(Comando comando) {
+        try {
+            return enviar(comando).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @return Quantidade de pedidos enviados e ainda sem resposta
+     */
+    public int getPendentes() {
+        return pendentes.size();
+    }
+
+    /**
+     * Fecha a conexão. Os pedidos sem resposta falham com {@link UncheckedIOException}.
+     */
+    @Override
+    public void close() throws IOException {
+        conexao.close();
+    }
+
+    /**
+     * Completa os futuros dos pedidos à medida que as respostas chegam.
+     */
+    private void receberRespostas(DataInputStream in) {
+        try {
+            while (true) {
+                CanalEntrada resposta = receber(in);
+                CompletableFuture<Object> futuro = pendentes.remove(resposta.lerVarint());
+                if (futuro == null) {
+                    throw new IOException("Resposta sem pedido");
+                }
+                if (resposta.lerByte() == ERRO) {
+                    String tipo = resposta.lerTexto();
+                    futuro.completeExceptionally(new RemoteOperationException(tipo, lerTexto(resposta)));
+                } else {
+                    futuro.complete(lerValor(resposta));
+                }
+            }
+        } catch (IOException e) {
+            encerrar(e);
+        }
+    }
+
+    private static Object lerValor(CanalEntrada resposta) throws IOException {
+        switch (resposta.lerByte()) {
+            case NULO:
+                return null;
+            case BOOLEANO:
+                return resposta.lerByte() == 1;
+            case TEXTO:
+                return resposta.lerTexto();
+            case LISTA:
+                List<String> itens = new ArrayList<>();
+                for (int i = resposta.lerVarintInt(); i > 0; i--) {
+                    itens.add(resposta.lerTexto());
+                }
+                return itens;
+            default:
+                throw new IOException("Tipo de valor desconhecido");
+        }
+    }
+
+    /**
+     * Marca a conexão como encerrada e falha os pedidos sem resposta.
+     */
+    private void encerrar(IOException causa) {
+        synchronized (out) {
+            if (encerramento == null) {
+                encerramento = causa;
+            }
+        }
+        try {
+            conexao.close();
+        } catch (IOException e) {
+            // A conexão já está inutilizável
+        }
+        for (Long numero : pendentes.keySet()) {
+            CompletableFuture<Object> futuro = pendentes.remove(numero);
+            if (futuro != null) {
+                futuro.completeExceptionally(new UncheckedIOException(causa));
+            }
+        }
+    }
+}
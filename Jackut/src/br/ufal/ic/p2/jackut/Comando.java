@@ -0,0 +1,61 @@
+package br.ufal.ic.p2.jackut;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Representa uma chamada a uma operação da Facade: o nome da operação
+ * e os seus argumentos, na mesma ordem dos parâmetros do método.
+ * É a unidade registrada no journal de mutações e reaplicada na recuperação.
+ */
+public class Comando implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    /** Nome da operação (ex.: "criarUsuario") */
+    private final String operacao;
+
+    /** Argumentos da operação */
+    private final String[] argumentos;
+
+    /**
+     * Construtor que inicializa um novo comando.
+     *
+     * @param operacao Nome da operação
+     * @param argumentos Argumentos da operação
+     */
+    public Comando(String operacao, String... argumentos) {
+        this.operacao = operacao;
+        this.argumentos = argumentos;
+    }
+
+    /**
+     * @return Nome da operação
+     */
+    public String getOperacao() {
+        return operacao;
+    }
+
+    /**
+     * @return Argumentos da operação
+     */
+    public String[] getArgumentos() {
+        return argumentos;
+    }
+
+    /**
+     * Obtém um argumento pela posição.
+     *
+     * @param indice Posição do argumento
+     * @return Valor do argumento
+     */
+    public String getArgumento(int indice) {
+        return argumentos[indice];
+    }
+
+    @Override
+    public String toString() {
+        return operacao + Arrays.toString(argumentos);
+    }
+}
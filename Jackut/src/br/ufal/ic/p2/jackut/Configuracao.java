@@ -0,0 +1,166 @@
+package br.ufal.ic.p2.jackut;
+
+/**
+ * Centraliza as opções de implantação do sistema Jackut.
+ * Cada opção é lida de uma propriedade de sistema (-Djackut.xxx=valor)
+ * e possui um valor padrão compatível com o comportamento original.
+ */
+public final class Configuracao {
+
+    /** Nome do arquivo de snapshot do sistema */
+    public static final String ARQUIVO_SISTEMA = "jackut.arquivo";
+
+    /** Nome do arquivo do journal de mutações */
+    public static final String ARQUIVO_JOURNAL = "jackut.journal.arquivo";
+
+    /** Política de sincronização do journal: "grupo" ou "periodica" */
+    public static final String JOURNAL_SINCRONIZACAO = "jackut.journal.sincronizacao";
+
+    /** Intervalo máximo, em milissegundos, entre duas sincronizações do journal */
+    public static final String JOURNAL_INTERVALO_MS = "jackut.journal.intervaloMs";
+
+    /** Intervalo, em segundos, entre checkpoints incrementais em segundo plano */
+    public static final String SNAPSHOT_INTERVALO_SEGUNDOS = "jackut.snapshot.intervaloSegundos";
+
+    /** Quantidade de segmentos delta que dispara a mesclagem em um novo snapshot base */
+    public static final String SNAPSHOT_MAX_DELTAS = "jackut.snapshot.maxDeltas";
+
+    /** Se os usuários do snapshot base são carregados sob demanda, no primeiro acesso */
+    public static final String SNAPSHOT_SOB_DEMANDA = "jackut.snapshot.sobDemanda";
+
+    /** Quantidade de fragmentos de usuários do snapshot base, gravados e lidos em paralelo (1 = um único arquivo) */
+    public static final String SNAPSHOT_FRAGMENTOS = "jackut.snapshot.fragmentos";
+
+    /** Se os arquivos de snapshot de versões anteriores do formato são atualizados na inicialização */
+    public static final String SNAPSHOT_MIGRAR = "jackut.snapshot.migrar";
+
+    /** Se snapshots e journal são gravados comprimidos em blocos independentes */
+    public static final String COMPRESSAO = "jackut.compressao";
+
+    /** Se as caixas de mensagens ficam em um log segmentado, fora do snapshot */
+    public static final String MENSAGENS_LOG = "jackut.mensagens.log";
+
+    /** Tamanho, em bytes, a partir do qual o log de mensagens começa um novo segmento */
+    public static final String MENSAGENS_TAMANHO_SEGMENTO = "jackut.mensagens.tamanhoSegmento";
+
+    /**
+     * Quantidade de mensagens de cada tipo que uma caixa mantém no heap; as
+     * que chegam depois ficam em páginas em disco até serem lidas (0 = todas
+     * no heap). Só vale com o motor em memória e sem o log de mensagens.
+     */
+    public static final String MENSAGENS_JANELA = "jackut.mensagens.janela";
+
+    /**
+     * Quantidade de faixas de bloqueio das operações sobre usuários e
+     * comunidades (0 = operações serializadas). Só vale com o motor em memória.
+     */
+    public static final String CONCORRENCIA_FAIXAS = "jackut.concorrencia.faixas";
+
+    /**
+     * Modelo de execução das operações: "bloqueios" (faixas de bloqueio) ou
+     * "atores" (um ator por grupo de usuários, com {@link #CONCORRENCIA_FAIXAS}
+     * atores, 1024 se não for informado). Só vale com o motor em memória.
+     */
+    public static final String EXECUCAO = "jackut.execucao";
+
+    /** Quantidade de threads onde os atores processam as mensagens */
+    public static final String EXECUCAO_THREADS = "jackut.execucao.threads";
+
+    /**
+     * Se as consultas de atributos, amigos, fãs, comunidades e membros leem
+     * versões imutáveis publicadas ao fim de cada operação, sem bloqueio.
+     */
+    public static final String CONSULTAS_VERSIONADAS = "jackut.consultas.versionadas";
+
+    /** Quantidade de IDs de sessão reservados de cada vez no disco */
+    public static final String SESSOES_BLOCO = "jackut.sessoes.bloco";
+
+    /** Motor de armazenamento das entidades: "memoria" ou "mapeado" */
+    public static final String ARMAZENAMENTO = "jackut.armazenamento";
+
+    /** Quantidade de entidades de cada tipo mantidas decodificadas pelo motor mapeado */
+    public static final String ARMAZENAMENTO_CACHE = "jackut.armazenamento.cache";
+
+    /**
+     * Quantidade de fragmentos, no mesmo processo, entre os quais os usuários
+     * são distribuídos pelo hash do login (1 = sem fragmentação). Cada
+     * fragmento usa o motor de {@link #ARMAZENAMENTO}.
+     */
+    public static final String FRAGMENTOS = "jackut.fragmentos";
+
+    /**
+     * Endereços ("host:porta,host:porta,...") de servidores de fragmento em
+     * outros processos. Quando informado, os usuários são distribuídos entre
+     * eles, na ordem da lista, e {@link #FRAGMENTOS} é ignorado.
+     */
+    public static final String FRAGMENTOS_SERVIDORES = "jackut.fragmentos.servidores";
+
+    /** Porta onde o líder aceita seguidores da replicação (0 = replicação desativada) */
+    public static final String REPLICACAO_PORTA = "jackut.replicacao.porta";
+
+    /** Endereço local onde o líder aceita seguidores (padrão: apenas a própria máquina) */
+    public static final String REPLICACAO_ENDERECO = "jackut.replicacao.endereco";
+
+    /**
+     * Endereço ("host:porta") do líder. Quando informado, o processo é uma
+     * réplica somente leitura, que recebe o estado e o journal do líder em
+     * vez de carregar os próprios arquivos, até ser promovida a líder.
+     */
+    public static final String REPLICACAO_LIDER = "jackut.replicacao.lider";
+
+    /** Tempo máximo, em milissegundos, que uma réplica aguarda o estado do líder ao iniciar */
+    public static final String REPLICACAO_ESPERA_MS = "jackut.replicacao.esperaMs";
+
+    /** Quantidade de threads onde a {@link FacadeAssincrona} executa as operações */
+    public static final String ASSINCRONA_THREADS = "jackut.assincrona.threads";
+
+    /** Quantidade máxima de operações pendentes na {@link FacadeAssincrona}; as excedentes são rejeitadas */
+    public static final String ASSINCRONA_PENDENTES = "jackut.assincrona.pendentes";
+
+    /** Quantidade máxima de pedidos sem resposta em uma conexão do {@link ServidorJackut} */
+    public static final String SERVIDOR_PIPELINE = "jackut.servidor.pipeline";
+
+    /** Quantidade de threads onde o {@link ServidorHttp} executa os pedidos */
+    public static final String HTTP_THREADS = "jackut.http.threads";
+
+    private Configuracao() {
+    }
+
+    /**
+     * Obtém o valor de uma opção textual.
+     *
+     * @param chave Nome da propriedade
+     * @param padrao Valor usado quando a propriedade não está definida
+     * @return Valor da opção
+     */
+    public static String getTexto(String chave, String padrao) {
+        String valor = System.getProperty(chave);
+        return valor == null || valor.isBlank() ? padrao : valor.trim();
+    }
+
+    /**
+     * Obtém o valor de uma opção numérica.
+     *
+     * @param chave Nome da propriedade
+     * @param padrao Valor usado quando a propriedade não está definida ou é inválida
+     * @return Valor da opção
+     */
+    public static long getNumero(String chave, long padrao) {
+        try {
+            return Long.parseLong(getTexto(chave, String.valueOf(padrao)));
+        } catch (NumberFormatException e) {
+            return padrao;
+        }
+    }
+
+    /**
+     * Obtém o valor de uma opção booleana.
+     *
+     * @param chave Nome da propriedade
+     * @param padrao Valor usado quando a propriedade não está definida
+     * @return Valor da opção
+     */
+    public static boolean getBooleano(String chave, boolean padrao) {
+        return Boolean.parseBoolean(getTexto(chave, String.valueOf(padrao)));
+    }
+}
@@ -1,186 +1,955 @@
 package br.ufal.ic.p2.jackut;
 
+import br.ufal.ic.p2.jackut.persistence.ExportacaoJson;
+import br.ufal.ic.p2.jackut.persistence.Journal;
+import br.ufal.ic.p2.jackut.persistence.ReplicacaoLider;
+import br.ufal.ic.p2.jackut.persistence.ReplicacaoSeguidor;
+import br.ufal.ic.p2.jackut.persistence.ReservaSessoes;
+import br.ufal.ic.p2.jackut.persistence.SegmentoDelta;
+import br.ufal.ic.p2.jackut.persistence.Snapshotter;
 import br.ufal.ic.p2.jackut.services.*;
 import br.ufal.ic.p2.jackut.exceptions.*;
+import br.ufal.ic.p2.jackut.storage.LogMensagens;
+import br.ufal.ic.p2.jackut.storage.MotorArmazenamento;
+import br.ufal.ic.p2.jackut.storage.MotorFragmentado;
+import br.ufal.ic.p2.jackut.storage.MotorMapeado;
+import br.ufal.ic.p2.jackut.storage.MotorMemoria;
+import br.ufal.ic.p2.jackut.storage.MotorRemoto;
+import br.ufal.ic.p2.jackut.storage.PaginasMensagens;
 
 import java.io.*;
+import java.net.InetAddress;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
  * Facade para o sistema Jackut, fornecendo uma interface simplificada.
- * Implementa o padro de projeto Facade, ocultando a complexidade do sistema
- * e fornecendo um ponto nico de acesso para todas as funcionalidades.
- * Tambm gerencia a persistncia do sistema atravs de serializao.
+ * Implementa o padrão de projeto Facade, ocultando a complexidade do sistema
+ * e fornecendo um ponto único de acesso para todas as funcionalidades.
+ * Também gerencia a persistência do sistema através de snapshots incrementais
+ * e de um journal com todas as mutações posteriores ao último snapshot.
+ * <p>
+ * Por padrão as operações são serializadas. Com o armazenamento em memória e
+ * {@code -Djackut.concorrencia.faixas} maior que zero, operações sobre usuários
+ * e comunidades diferentes rodam em paralelo, cada uma bloqueando apenas as
+ * faixas das chaves que usa ({@link BloqueiosListrados}). O bloqueio exclusivo
+ * também é usado pelo snapshotter para capturar um estado consistente em
+ * segundo plano. Com {@code -Djackut.consultas.versionadas=true}, as
+ * consultas mais frequentes leem versões imutáveis ({@link VisaoConsultas})
+ * e não esperam pelas operações em andamento.
+ * <p>
+ * Com {@code -Djackut.replicacao.porta}, o sistema é o líder de uma
+ * replicação e envia o seu journal aos seguidores ({@link ReplicacaoLider}).
+ * Com {@code -Djackut.replicacao.lider}, o sistema é uma réplica somente
+ * leitura: recebe o estado e o journal do líder ({@link ReplicacaoSeguidor}),
+ * atende as consultas, rejeita as mutações e pode ser promovido a líder
+ * com {@link #promoverALider()}.
  */
 public class Facade implements Serializable {
     @Serial
     private static final long serialVersionUID = 1L;
 
-    /** Nome do arquivo para persistncia do sistema */
+    /** Nome do arquivo para persistência do sistema */
     private static final String SISTEMA_FILE = "sistema.dat";
 
-    /** Servios que compem o sistema */
+    /** Nome do arquivo do journal de mutações */
+    private static final String JOURNAL_FILE = "sistema.journal";
+
+    /** Serviços que compõem o sistema */
     private final UsuarioService usuarioService;
     private final SessaoService sessaoService;
     private final ComunidadeService comunidadeService;
     private final MensagemService mensagemService;
     private final RelacionamentoService relacionamentoService;
 
+    /** Serviços e repositório, usados na exportação e na importação */
+    private transient ServiceLocator servicos;
+
+    /** Responsável pelos snapshots incrementais */
+    private transient Snapshotter snapshotter;
+
+    /** Journal onde cada mutação é registrada */
+    private transient Journal journal;
+
+    /** Bloqueios que isolam as operações concorrentes */
+    private transient BloqueiosListrados bloqueios;
+
+    /** Versões lidas sem bloqueio pelas consultas, ou null se desativadas */
+    private transient volatile VisaoConsultas visao;
+
+    /** Envia o journal aos seguidores, ou null se o sistema não é líder de uma replicação */
+    private transient ReplicacaoLider replicacao;
+
+    /** Recebe o journal do líder enquanto o sistema é uma réplica, ou null */
+    private transient volatile ReplicacaoSeguidor seguidor;
+
+    /** Marca as threads cujas mutações não aguardam o disco uma a uma (lotes e chamadas assíncronas) */
+    private final transient ThreadLocal<Boolean> adiandoDisco = ThreadLocal.withInitial(() -> false);
+
     /**
      * Construtor da classe Facade.
-     * Carrega o estado anterior do sistema, se existir, ou cria um novo.
+     * Carrega o estado anterior do sistema, se existir, ou cria um novo,
+     * e reaplica as mutações registradas no journal após o último snapshot.
+     * Em uma réplica, o estado é recebido do líder.
      */
     public Facade() {
-        ServiceLocator serviceLocator = carregarOuCriarServiceLocator();
+        String lider = Configuracao.getTexto(Configuracao.REPLICACAO_LIDER, "");
+        this.snapshotter = new Snapshotter(
+                Paths.get(Configuracao.getTexto(Configuracao.ARQUIVO_SISTEMA, SISTEMA_FILE)),
+                (int) Configuracao.getNumero(Configuracao.SNAPSHOT_MAX_DELTAS, 8),
+                Facade::criarMotor,
+                (int) Configuracao.getNumero(Configuracao.SNAPSHOT_FRAGMENTOS, 1),
+                Configuracao.getBooleano(Configuracao.COMPRESSAO, false));
+        ServiceLocator serviceLocator = lider.isEmpty() ? carregarOuCriarServiceLocator()
+                : new ServiceLocator(new DataRepository(criarMotor()));
+        this.servicos = serviceLocator;
+        this.bloqueios = criarBloqueios(serviceLocator.getRepository());
         this.usuarioService = serviceLocator.getUsuarioService();
         this.sessaoService = serviceLocator.getSessaoService();
         this.comunidadeService = serviceLocator.getComunidadeService();
         this.mensagemService = serviceLocator.getMensagemService();
         this.relacionamentoService = serviceLocator.getRelacionamentoService();
+        if (lider.isEmpty()) {
+            abrirLogMensagens(serviceLocator.getRepository());
+            this.journal = abrirJournal();
+            reservarSessoes(serviceLocator.getRepository());
+        }
+        if (Configuracao.getBooleano(Configuracao.CONSULTAS_VERSIONADAS, false)) {
+            this.visao = new VisaoConsultas(serviceLocator.getRepository());
+            bloqueios.aoConcluir(visao::publicar);
+        }
+        if (lider.isEmpty()) {
+            iniciarPersistencia(serviceLocator.getRepository());
+        } else {
+            seguirLider(lider);
+        }
     }
 
     /**
-     * Carrega o ServiceLocator de um arquivo serializado ou cria um novo.
+     * Inicia os checkpoints periódicos e, se configurada, a replicação para seguidores.
      *
-     * @return ServiceLocator carregado ou recm-criado
+     * @param repository Repositório vivo do sistema
+     * @throws SystemSaveException Se a porta da replicação não puder ser aberta
+     */
+    private void iniciarPersistencia(DataRepository repository) {
+        this.snapshotter.iniciar(repository, journal, bloqueios.getExclusivo(),
+                Configuracao.getNumero(Configuracao.SNAPSHOT_INTERVALO_SEGUNDOS, 30));
+
+        int porta = (int) Configuracao.getNumero(Configuracao.REPLICACAO_PORTA, 0);
+        if (porta <= 0) {
+            return;
+        }
+        String endereco = Configuracao.getTexto(Configuracao.REPLICACAO_ENDERECO, "");
+        try {
+            this.replicacao = new ReplicacaoLider(endereco.isEmpty() ? InetAddress.getLoopbackAddress()
+                    : InetAddress.getByName(endereco), porta, repository, journal, bloqueios.getExclusivo());
+        } catch (IOException e) {
+            throw new SystemSaveException("Erro ao abrir a porta da replicação: " + e.getMessage());
+        }
+        replicacao.iniciar();
+    }
+
+    /**
+     * Passa a acompanhar o líder configurado, aguardando o primeiro estado.
+     *
+     * @param lider Endereço ("host:porta") do líder
+     * @throws SystemSaveException Se o estado do líder não puder ser recebido
+     */
+    private void seguirLider(String lider) {
+        ReplicacaoSeguidor novo = new ReplicacaoSeguidor(MotorRemoto.endereco(lider), this::instalarEstado,
+                this::reaplicar);
+        this.seguidor = novo;
+        try {
+            novo.iniciar(Configuracao.getNumero(Configuracao.REPLICACAO_ESPERA_MS, 10000));
+        } catch (IOException e) {
+            throw new SystemSaveException("Erro ao carregar o sistema: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Substitui todo o estado da réplica pelo estado recebido do líder.
+     *
+     * @param estado Estado inteiro do líder
+     */
+    private void instalarEstado(SegmentoDelta estado) {
+        bloqueios.exclusivo(() -> {
+            estado.aplicar(servicos.getRepository());
+            servicos.getRepository().getAlteracoes().marcarTudo();
+        });
+    }
+
+    /**
+     * Verifica se o sistema aceita mutações. Uma réplica só aceita as
+     * mutações recebidas do líder.
+     *
+     * @throws ReadOnlyReplicaException Se o sistema é uma réplica somente leitura
+     */
+    private void verificarEscrita() {
+        ReplicacaoSeguidor atual = seguidor;
+        if (atual != null && !atual.isAplicando()) {
+            throw new ReadOnlyReplicaException();
+        }
+    }
+
+    /**
+     * Carrega o ServiceLocator do snapshot base e dos segmentos delta, migrando
+     * antes os arquivos de versões anteriores do formato, ou cria um novo se
+     * não houver snapshot.
+     *
+     * @return ServiceLocator carregado ou recém-criado
+     * @throws SystemSaveException Se o snapshot existir mas não puder ser migrado ou lido
      */
     private ServiceLocator carregarOuCriarServiceLocator() {
         try {
-            File file = new File(SISTEMA_FILE);
-            if (file.exists()) {
-                ObjectInputStream in = new ObjectInputStream(new FileInputStream(file));
-                ServiceLocator serviceLocator = (ServiceLocator) in.readObject();
-                in.close();
-                return serviceLocator;
+            if (Configuracao.getBooleano(Configuracao.SNAPSHOT_MIGRAR, true)) {
+                snapshotter.migrar();
+            }
+            return snapshotter.carregar(Configuracao.getBooleano(Configuracao.SNAPSHOT_SOB_DEMANDA, true));
+        } catch (IOException | RuntimeException e) {
+            // Um sistema vazio sobrescreveria o estado persistido no próximo checkpoint
+            throw new SystemSaveException("Erro ao carregar o sistema: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Cria os bloqueios das operações: serializados (padrão), em faixas ou,
+     * com {@code -Djackut.execucao=atores}, atores. As operações só rodam em
+     * paralelo se o motor de armazenamento aceitar acessos simultâneos.
+     *
+     * @param repository Repositório carregado
+     * @return Bloqueios das operações
+     */
+    private BloqueiosListrados criarBloqueios(DataRepository repository) {
+        if (!repository.getMotor().isConcorrente()) {
+            return new BloqueiosListrados(0);
+        }
+        int faixas = (int) Configuracao.getNumero(Configuracao.CONCORRENCIA_FAIXAS, 0);
+        if (!isExecucaoPorAtores()) {
+            return new BloqueiosListrados(faixas);
+        }
+        return new AtoresUsuarios(faixas > 0 ? faixas : 1024,
+                (int) Configuracao.getNumero(Configuracao.EXECUCAO_THREADS, Runtime.getRuntime().availableProcessors()),
+                this::aguardarJournal);
+    }
+
+    /**
+     * Aguarda que as mutações já registradas estejam no disco. Sem journal
+     * (réplica), não há o que aguardar; em um lote ou em uma chamada
+     * assíncrona, o disco é aguardado depois, por quem a iniciou.
+     */
+    private void aguardarJournal() {
+        Journal atual = journal;
+        if (atual != null && !adiandoDisco.get()) {
+            atual.aguardar(atual.getUltimaSequencia());
+        }
+    }
+
+    /**
+     * @return true se as operações são executadas por atores
+     */
+    private static boolean isExecucaoPorAtores() {
+        return "atores".equals(Configuracao.getTexto(Configuracao.EXECUCAO, "bloqueios"));
+    }
+
+    /**
+     * Cria o motor de armazenamento configurado: em memória (padrão) ou
+     * mapeado em um arquivo no diretório do snapshot, opcionalmente dividido
+     * em fragmentos no mesmo processo ou em servidores de fragmento.
+     *
+     * @return Motor de armazenamento vazio
+     * @throws UncheckedIOException Se o arquivo do motor mapeado não puder ser
+     *         criado ou um servidor de fragmento não puder ser alcançado
+     */
+    private static MotorArmazenamento criarMotor() {
+        String servidores = Configuracao.getTexto(Configuracao.FRAGMENTOS_SERVIDORES, "");
+        int quantidade = (int) Configuracao.getNumero(Configuracao.FRAGMENTOS, 1);
+        if (servidores.isEmpty() && quantidade <= 1) {
+            return criarFragmento();
+        }
+
+        List<MotorArmazenamento> fragmentos = new ArrayList<>();
+        try {
+            if (servidores.isEmpty()) {
+                for (int i = 0; i < quantidade; i++) {
+                    fragmentos.add(criarFragmento());
+                }
+            } else {
+                int cache = (int) Configuracao.getNumero(Configuracao.ARMAZENAMENTO_CACHE, 1024);
+                for (String servidor : servidores.split(",")) {
+                    fragmentos.add(new MotorRemoto(MotorRemoto.endereco(servidor), cache));
+                }
+            }
+        } catch (IOException e) {
+            fragmentos.forEach(MotorArmazenamento::close);
+            throw new UncheckedIOException("Erro ao conectar aos servidores de fragmento", e);
+        } catch (RuntimeException e) {
+            fragmentos.forEach(MotorArmazenamento::close);
+            throw e;
+        }
+        return new MotorFragmentado(fragmentos);
+    }
+
+    /**
+     * Cria o motor de um fragmento (ou de todo o repositório, sem
+     * fragmentação). O motor em memória usa mapas concorrentes quando as
+     * operações rodam em paralelo e, com uma janela de mensagens, derrama o
+     * excedente das caixas em páginas no diretório do sistema.
+     *
+     * @return Motor de armazenamento vazio
+     * @throws UncheckedIOException Se o arquivo do motor mapeado ou das páginas não puder ser criado
+     */
+    private static MotorArmazenamento criarFragmento() {
+        Path diretorio = Paths.get(Configuracao.getTexto(Configuracao.ARQUIVO_SISTEMA, SISTEMA_FILE))
+                .toAbsolutePath().getParent();
+        if (!"mapeado".equals(Configuracao.getTexto(Configuracao.ARMAZENAMENTO, "memoria"))) {
+            boolean concorrente = Configuracao.getNumero(Configuracao.CONCORRENCIA_FAIXAS, 0) > 0
+                    || isExecucaoPorAtores();
+            int janela = (int) Configuracao.getNumero(Configuracao.MENSAGENS_JANELA, 0);
+            if (janela <= 0) {
+                return new MotorMemoria(concorrente);
+            }
+            try {
+                return new MotorMemoria(concorrente, new PaginasMensagens(diretorio, janela));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Erro ao criar as páginas de mensagens", e);
+            }
+        }
+        try {
+            return new MotorMapeado(diretorio,
+                    (int) Configuracao.getNumero(Configuracao.ARMAZENAMENTO_CACHE, 1024));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Erro ao criar o armazenamento mapeado", e);
+        }
+    }
+
+    /**
+     * Abre o log de mensagens na posição final registrada no snapshot carregado
+     * e reconstrói as caixas a partir dele. Se o log foi desativado, as
+     * mensagens não lidas voltam para o repositório e o log é fechado.
+     *
+     * @param repository Repositório carregado do snapshot
+     * @throws SystemSaveException Se o log não puder ser aberto
+     */
+    private void abrirLogMensagens(DataRepository repository) {
+        boolean ativado = Configuracao.getBooleano(Configuracao.MENSAGENS_LOG, false);
+        if (!ativado && repository.getCaixasEmLog() == null) {
+            return;
+        }
+
+        long fim = repository.getCaixasEmLog() == null ? 0 : repository.getCaixasEmLog().getFim();
+        try {
+            repository.usarLogMensagens(LogMensagens.abrir(
+                    Paths.get(Configuracao.getTexto(Configuracao.ARQUIVO_SISTEMA, SISTEMA_FILE)), fim,
+                    Configuracao.getNumero(Configuracao.MENSAGENS_TAMANHO_SEGMENTO, 4 * 1024 * 1024)));
+        } catch (IOException | UncheckedIOException e) {
+            throw new SystemSaveException("Erro ao abrir o log de mensagens");
+        }
+        if (!ativado) {
+            repository.encerrarLogMensagens();
+        }
+    }
+
+    /**
+     * Abre o journal de mutações, reaplicando os comandos que ainda não
+     * estão no snapshot carregado.
+     *
+     * @return Journal aberto
+     * @throws SystemSaveException Se o journal não puder ser aberto
+     */
+    private Journal abrirJournal() {
+        boolean aguardarSincronizacao = !"periodica".equals(
+                Configuracao.getTexto(Configuracao.JOURNAL_SINCRONIZACAO, "grupo"));
+        long intervaloMs = Configuracao.getNumero(Configuracao.JOURNAL_INTERVALO_MS, 5);
+
+        try {
+            return Journal.abrir(Paths.get(Configuracao.getTexto(Configuracao.ARQUIVO_JOURNAL, JOURNAL_FILE)),
+                    snapshotter.getSequencia(), this::reaplicar, aguardarSincronizacao, intervaloMs,
+                    Configuracao.getBooleano(Configuracao.COMPRESSAO, false));
+        } catch (IOException e) {
+            throw new SystemSaveException("Erro ao abrir o journal do sistema: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Passa a reservar os IDs de sessão em blocos gravados no disco, para que
+     * nenhum ID entregue antes de uma queda seja gerado novamente, mesmo que a
+     * sessão ainda não estivesse no journal sincronizado.
+     *
+     * @param repository Repositório já recuperado do snapshot e do journal
+     * @throws SystemSaveException Se a reserva não puder ser lida
+     */
+    private void reservarSessoes(DataRepository repository) {
+        ReservaSessoes reserva = new ReservaSessoes(
+                Paths.get(Configuracao.getTexto(Configuracao.ARQUIVO_SISTEMA, SISTEMA_FILE)));
+        try {
+            repository.getGeradorSessoes().usarReserva(reserva.ler(),
+                    (int) Configuracao.getNumero(Configuracao.SESSOES_BLOCO, 1024), limite -> {
+                        try {
+                            reserva.gravar(limite);
+                        } catch (IOException e) {
+                            throw new SystemSaveException("Erro ao salvar o sistema");
+                        }
+                    });
+        } catch (IOException e) {
+            throw new SystemSaveException("Erro ao carregar o sistema: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reaplica um comando lido do journal durante a recuperação. Só comandos
+     * bem-sucedidos são registrados, então a falha de um deles indica que o
+     * estado divergiu e interrompe a recuperação.
+     *
+     * @param comando Comando registrado no journal
+     * @throws RuntimeException Se o comando falhar
+     */
+    private void reaplicar(Comando comando) {
+        if ("restaurarSessao".equals(comando.getOperacao())) {
+            sessaoService.restaurarSessao(comando.getArgumento(0), comando.getArgumento(1));
+        } else {
+            despachar(comando);
+        }
+    }
+
+    /**
+     * Executa a operação pública da Facade descrita por um comando.
+     *
+     * @param comando Nome do método e os seus argumentos
+     * @return Valor devolvido pela operação (null para as operações sem retorno)
+     * @throws IllegalArgumentException Se a operação não existir ou faltarem argumentos
+     */
+    private Object despachar(Comando comando) {
+        String[] args = comando.getArgumentos();
+        try {
+            switch (comando.getOperacao()) {
+                case "zerarSistema":
+                    zerarSistema();
+                    return null;
+                case "criarUsuario":
+                    criarUsuario(args[0], args[1], args[2]);
+                    return null;
+                case "abrirSessao":
+                    return abrirSessao(args[0], args[1]);
+                case "encerrarSessao":
+                    return encerrarSessao(args[0]);
+                case "existeSessao":
+                    return existeSessao(args[0]);
+                case "getLoginDaSessao":
+                    return getLoginDaSessao(args[0]);
+                case "getAtributoUsuario":
+                    return getAtributoUsuario(args[0], args[1]);
+                case "editarPerfil":
+                    editarPerfil(args[0], args[1], args[2]);
+                    return null;
+                case "ehAmigo":
+                    return ehAmigo(args[0], args[1]);
+                case "adicionarAmigo":
+                    adicionarAmigo(args[0], args[1]);
+                    return null;
+                case "getAmigos":
+                    return getAmigos(args[0]);
+                case "enviarRecado":
+                    enviarRecado(args[0], args[1], args[2]);
+                    return null;
+                case "lerRecado":
+                    return lerRecado(args[0]);
+                case "lerRecados":
+                    return lerRecados(args[0], Integer.parseInt(args[1]));
+                case "criarComunidade":
+                    criarComunidade(args[0], args[1], args[2]);
+                    return null;
+                case "getDescricaoComunidade":
+                    return getDescricaoComunidade(args[0]);
+                case "getDonoComunidade":
+                    return getDonoComunidade(args[0]);
+                case "getMembrosComunidade":
+                    return getMembrosComunidade(args[0]);
+                case "getComunidades":
+                    return getComunidades(args[0]);
+                case "adicionarComunidade":
+                    adicionarComunidade(args[0], args[1]);
+                    return null;
+                case "lerMensagem":
+                    return lerMensagem(args[0]);
+                case "lerMensagens":
+                    return lerMensagens(args[0], Integer.parseInt(args[1]));
+                case "enviarMensagem":
+                    enviarMensagem(args[0], args[1], args[2]);
+                    return null;
+                case "ehFa":
+                    return ehFa(args[0], args[1]);
+                case "adicionarIdolo":
+                    adicionarIdolo(args[0], args[1]);
+                    return null;
+                case "getFas":
+                    return getFas(args[0]);
+                case "ehPaquera":
+                    return ehPaquera(args[0], args[1]);
+                case "adicionarPaquera":
+                    adicionarPaquera(args[0], args[1]);
+                    return null;
+                case "getPaqueras":
+                    return getPaqueras(args[0]);
+                case "adicionarInimigo":
+                    adicionarInimigo(args[0], args[1]);
+                    return null;
+                case "removerUsuario":
+                    removerUsuario(args[0]);
+                    return null;
+                case "exportarDados":
+                    exportarDados(args[0]);
+                    return null;
+                default:
+                    throw new IllegalArgumentException("Operação desconhecida: " + comando.getOperacao());
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Argumentos insuficientes: " + comando);
+        }
+    }
+
+    /**
+     * Registra uma mutação já aplicada no journal.
+     * Durante a recuperação o journal ainda não está aberto e nada é registrado.
+     *
+     * @param operacao Nome da operação
+     * @param argumentos Argumentos da operação
+     * @throws SystemSaveException Se o journal não puder ser gravado
+     */
+    private void registrar(String operacao, String... argumentos) {
+        aguardarRegistro(anexar(operacao, argumentos));
+    }
+
+    /**
+     * Acrescenta uma mutação ao journal sem aguardar o disco.
+     *
+     * @param operacao Nome da operação
+     * @param argumentos Argumentos da operação
+     * @return Sequência do comando no journal, ou 0 se não houver journal
+     * @throws SystemSaveException Se o journal não puder ser gravado
+     */
+    private long anexar(String operacao, String... argumentos) {
+        Journal atual = journal;
+        return atual != null ? atual.anexar(new Comando(operacao, argumentos)) : 0;
+    }
+
+    /**
+     * Aguarda que uma mutação anexada ao journal esteja no disco, a menos
+     * que a operação adie a sincronização.
+     *
+     * @param sequencia Sequência devolvida por {@link #anexar}
+     * @throws SystemSaveException Se o journal não puder ser gravado
+     */
+    private void aguardarRegistro(long sequencia) {
+        Journal atual = journal;
+        // Nos atores, quem chamou a operação aguarda o disco depois da resposta;
+        // em um lote, ao final do lote; em uma chamada assíncrona, pelo futuro
+        if (atual != null && sequencia > 0 && !bloqueios.isAdiandoSincronizacao() && !adiandoDisco.get()) {
+            atual.aguardar(sequencia);
+        }
+    }
+
+    /**
+     * Executa uma operação do usuário de uma sessão, com as faixas do usuário
+     * e das outras chaves bloqueadas. O login é resolvido antes do bloqueio e
+     * conferido depois dele; se a sessão mudou de dono nesse intervalo, a
+     * operação é tentada novamente.
+     *
+     * @param sessionId ID da sessão ou login do usuário
+     * @param operacao Operação, que recebe o login do usuário
+     * @param outras Outros logins e nomes de comunidade usados pela operação
+     * @return Resultado da operação
+     * @throws SessionNotFoundException Se a sessão não existir
+     */
+    private <T> T naSessao(String sessionId, Function<String, T> operacao, String... outras) {
+        if (!bloqueios.isConcorrente()) {
+            return bloqueios.exclusivo(() -> operacao.apply(sessaoService.validarEObterLogin(sessionId)));
+        }
+
+        AtomicReference<T> resultado = new AtomicReference<>();
+        while (true) {
+            String login = sessaoService.validarEObterLogin(sessionId);
+            String[] chaves = Arrays.copyOf(outras, outras.length + 1);
+            chaves[outras.length] = login;
+            boolean executada = bloqueios.executar(() -> {
+                if (!login.equals(sessaoService.validarEObterLogin(sessionId))) {
+                    return false;
+                }
+                resultado.set(operacao.apply(login));
+                return true;
+            }, chaves);
+            if (executada) {
+                return resultado.get();
             }
-        } catch (Exception e) {
-            // Se houver erro ao ler o arquivo, continua com um sistema novo
         }
-        return new ServiceLocator();
     }
 
     /**
-     * Salva o estado atual do sistema em um arquivo serializado.
+     * Resolve, sem bloqueio, o login de uma sessão ou de um usuário publicado
+     * nas versões das consultas.
+     *
+     * @param sessionId ID da sessão ou login do usuário
+     * @return Login do usuário, ou null se não puder ser resolvido sem bloqueio
+     */
+    private String getLoginPublicado(String sessionId) {
+        String login = sessaoService.getLoginDaSessao(sessionId);
+        if (login == null && visao.existeUsuario(sessionId)) {
+            return sessionId;
+        }
+        return login;
+    }
+
+    /**
+     * Salva o estado atual do sistema.
+     * Grava um checkpoint final apenas com as entidades alteradas desde o
+     * anterior e o mescla na base com os demais segmentos delta, interrompe
+     * os checkpoints periódicos e fecha o journal e as threads de
+     * persistência, mesmo que o checkpoint falhe. Depois disso, o
+     * sistema não aceita mais mutações. Não é sincronizado: a captura do
+     * checkpoint obtém o bloqueio exclusivo na thread de fundo.
      *
      * @throws SystemSaveException Se ocorrer um erro ao salvar o sistema
      */
     public void encerrarSistema() {
+        ReplicacaoSeguidor atual = seguidor;
+        if (atual != null) {
+            // A réplica não tem estado próprio a salvar
+            atual.close();
+            snapshotter.close();
+            return;
+        }
+        try {
+            if (replicacao != null) {
+                replicacao.close();
+            }
+            snapshotter.encerrar();
+        } catch (IOException e) {
+            throw new SystemSaveException("Erro ao salvar o sistema: " + e.getMessage());
+        } finally {
+            fecharPersistencia();
+        }
+    }
+
+    /**
+     * Fecha o journal, gravando os registros pendentes, e as threads do snapshotter.
+     *
+     * @throws SystemSaveException Se o journal não puder ser fechado
+     */
+    private void fecharPersistencia() {
+        snapshotter.close();
+        Journal atual = journal;
+        if (atual == null) {
+            return;
+        }
         try {
-            FileOutputStream fileOut = new FileOutputStream(SISTEMA_FILE);
-            ObjectOutputStream out = new ObjectOutputStream(fileOut);
-            ServiceLocator serviceLocator = new ServiceLocator(
-                    usuarioService, sessaoService, comunidadeService,
-                    mensagemService, relacionamentoService
-            );
-            out.writeObject(serviceLocator);
-            out.close();
-            fileOut.close();
+            atual.close();
         } catch (IOException e) {
             throw new SystemSaveException("Erro ao salvar o sistema");
         }
     }
 
+    /**
+     * Promove a réplica a líder: deixa de acompanhar o líder, grava o estado
+     * aplicado como o snapshot base deste sistema, abre o próprio journal e
+     * passa a aceitar mutações (e seguidores, se a porta da replicação estiver
+     * configurada). Os comandos que o líder tornou duráveis mas ainda não
+     * tinha enviado são perdidos, e o líder anterior não deve voltar a aceitar
+     * mutações. Em um sistema que não é réplica, não faz nada.
+     *
+     * @throws SystemSaveException Se o estado não puder ser gravado
+     */
+    public synchronized void promoverALider() {
+        ReplicacaoSeguidor atual = seguidor;
+        if (atual == null) {
+            return;
+        }
+        atual.close();
+
+        DataRepository repository = servicos.getRepository();
+        bloqueios.exclusivo(() -> {
+            try {
+                // O journal de uma execução anterior não pertence ao novo estado
+                Journal.apagar(Paths.get(Configuracao.getTexto(Configuracao.ARQUIVO_JOURNAL, JOURNAL_FILE)));
+                snapshotter.substituir(repository, atual.getSequenciaAplicada());
+            } catch (IOException e) {
+                throw new SystemSaveException("Erro ao salvar o sistema");
+            }
+            abrirLogMensagens(repository);
+            this.journal = abrirJournal();
+            reservarSessoes(repository);
+            // IDs entregues pelo líder cuja sessão ainda não tinha sido enviada
+            repository.getGeradorSessoes().registrarUsado(repository.getGeradorSessoes().getProximo()
+                    + (int) Configuracao.getNumero(Configuracao.SESSOES_BLOCO, 1024));
+        });
+        iniciarPersistencia(repository);
+        this.seguidor = null;
+    }
+
+    /**
+     * @return true se o sistema é uma réplica somente leitura
+     */
+    public boolean isReplica() {
+        return seguidor != null;
+    }
+
+    /**
+     * Obtém a defasagem da réplica em comandos: quantos comandos já duráveis
+     * no líder ainda não foram aplicados.
+     *
+     * @return Comandos ainda não aplicados, ou 0 se o sistema não é réplica
+     */
+    public long getAtrasoReplicacao() {
+        ReplicacaoSeguidor atual = seguidor;
+        return atual == null ? 0 : atual.getAtraso();
+    }
+
+    /**
+     * Obtém a defasagem da réplica em tempo: a idade do estado mais recente
+     * do líder já aplicado.
+     *
+     * @return Defasagem em milissegundos, ou 0 se o sistema não é réplica
+     */
+    public long getAtrasoReplicacaoMs() {
+        ReplicacaoSeguidor atual = seguidor;
+        return atual == null ? 0 : atual.getAtrasoMs();
+    }
+
+    /**
+     * Executa uma sequência de operações em uma única chamada, na ordem da
+     * lista. Cada comando é o nome de um método público da Facade seguido
+     * dos seus argumentos, na ordem dos parâmetros (ex.:
+     * {@code new Comando("enviarRecado", sessao, destinatario, recado)}).
+     * <p>
+     * As mutações são registradas no journal sem que cada uma aguarde o
+     * disco: o lote aguarda uma única vez, ao final, a sincronização de todas
+     * elas, que são gravadas juntas pelo group commit. Os resultados só são
+     * devolvidos depois disso. A falha de um comando não interrompe os
+     * seguintes e é devolvida no seu resultado.
+     *
+     * @param comandos Operações a serem executadas
+     * @return Resultado de cada comando, na ordem da lista
+     * @throws SystemSaveException Se as mutações do lote não puderem ser gravadas no journal
+     */
+    public List<ResultadoComando> executarLote(List<Comando> comandos) {
+        List<ResultadoComando> resultados = new ArrayList<>(comandos.size());
+        boolean adiando = adiandoDisco.get();
+        adiandoDisco.set(true);
+        try {
+            for (Comando comando : comandos) {
+                try {
+                    resultados.add(ResultadoComando.sucesso(despachar(comando)));
+                } catch (RuntimeException e) {
+                    resultados.add(ResultadoComando.falha(e));
+                }
+            }
+        } finally {
+            adiandoDisco.set(adiando);
+        }
+        // Dentro de uma chamada assíncrona, o futuro aguarda o disco
+        aguardarJournal();
+        return resultados;
+    }
+
+    /**
+     * Versão textual de {@link #executarLote(List)}, usada pelos scripts de
+     * aceitação: os comandos são separados por {@code ;} e, em cada comando,
+     * o nome da operação e os argumentos são separados por {@code |} (ex.:
+     * {@code "enviarRecado|1|oabath|Ola;lerRecado|2"}).
+     *
+     * @param comandos Operações a serem executadas, no formato acima
+     * @return Resultado de cada comando, na ordem do texto
+     * @throws SystemSaveException Se as mutações do lote não puderem ser gravadas no journal
+     */
+    public List<ResultadoComando> executarLoteTexto(String comandos) {
+        List<Comando> lote = new ArrayList<>();
+        for (String comando : comandos.split(";")) {
+            String[] partes = comando.split("\\|", -1);
+            lote.add(new Comando(partes[0], Arrays.copyOfRange(partes, 1, partes.length)));
+        }
+        return executarLote(lote);
+    }
+
+    /**
+     * Executa uma operação sem aguardar o disco dentro dela: o futuro
+     * devolvido é completado quando as mutações registradas até o fim da
+     * operação estiverem sincronizadas, sem ocupar uma thread enquanto isso.
+     * Usado pela {@link FacadeAssincrona}.
+     *
+     * @param operacao Chamada a um método público da Facade
+     * @return Resultado da operação, completado conforme a política de sincronização do journal
+     */
+    <T> CompletableFuture<T> semAguardarDisco(Supplier<T> operacao) {
+        T resultado;
+        boolean adiando = adiandoDisco.get();
+        adiandoDisco.set(true);
+        try {
+            resultado = operacao.get();
+        } finally {
+            adiandoDisco.set(adiando);
+        }
+        Journal atual = journal;
+        if (atual == null) {
+            return CompletableFuture.completedFuture(resultado);
+        }
+        return atual.quandoDuravel(atual.getUltimaSequencia()).thenApply(duravel -> resultado);
+    }
+
+    /**
+     * Executa na thread de quem chama a operação descrita por um comando, sem
+     * aguardar o disco dentro dela. Usado pelo {@link ServidorJackut}, que
+     * executa em ordem os pedidos de uma conexão e responde cada um quando
+     * o futuro é completado.
+     *
+     * @param comando Nome do método e os seus argumentos
+     * @return Valor devolvido pela operação, completado conforme a política de sincronização do journal
+     */
+    CompletableFuture<Object> despacharSemAguardarDisco(Comando comando) {
+        try {
+            return semAguardarDisco(() -> despachar(comando));
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
     /**
      * Reseta o sistema, removendo todos os dados.
      */
     public void zerarSistema() {
-        usuarioService.zerarUsuarios(); // relacionamentos so zerados com o usuario
-        sessaoService.zerarSessoes();
-        comunidadeService.zerarComunidades();
-        mensagemService.zerarMensagens();
+        verificarEscrita();
+        bloqueios.exclusivo(() -> {
+            usuarioService.zerarUsuarios(); // relacionamentos são zerados com o usuario
+            sessaoService.zerarSessoes();
+            comunidadeService.zerarComunidades();
+            mensagemService.zerarMensagens();
+            registrar("zerarSistema");
+        });
     }
 
     /**
-     * Obtm o valor de um atributo de um usurio.
+     * Obtém o valor de um atributo de um usuário.
      *
-     * @param login Login do usurio
+     * @param login Login do usuário
      * @param atributo Nome do atributo
      * @return Valor do atributo
-     * @throws UserNotFoundException Se o usurio no existir
-     * @throws ProfileAttributeException Se o atributo no estiver preenchido
+     * @throws UserNotFoundException Se o usuário não existir
+     * @throws ProfileAttributeException Se o atributo não estiver preenchido
      */
     public String getAtributoUsuario(String login, String atributo) {
-        return usuarioService.getAtributoUsuario(login, atributo);
+        String valor = visao == null ? null : visao.getAtributo(login, atributo);
+        if (valor != null) {
+            return valor;
+        }
+        return bloqueios.executar(() -> usuarioService.getAtributoUsuario(login, atributo), login);
     }
 
     /**
-     * Cria um novo usurio no sistema.
+     * Cria um novo usuário no sistema.
      *
-     * @param login Login nico do usurio
-     * @param senha Senha para autenticao
-     * @param nome Nome completo do usurio
-     * @throws InvalidUserDataException Se o login j existir ou se os dados forem invlidos
+     * @param login Login único do usuário
+     * @param senha Senha para autenticação
+     * @param nome Nome completo do usuário
+     * @throws InvalidUserDataException Se o login já existir ou se os dados forem inválidos
      */
     public void criarUsuario(String login, String senha, String nome) {
-        usuarioService.criarUsuario(login, senha, nome);
+        verificarEscrita();
+        bloqueios.executar(() -> {
+            usuarioService.criarUsuario(login, senha, nome);
+            registrar("criarUsuario", login, senha, nome);
+        }, login);
     }
 
     /**
-     * Abre uma sesso para um usurio aps validar suas credenciais.
+     * Abre uma sessão para um usuário após validar suas credenciais.
      *
-     * @param login Login do usurio
-     * @param senha Senha do usurio
-     * @return ID da sesso criada
-     * @throws AuthenticationException Se as credenciais forem invlidas
+     * @param login Login do usuário
+     * @param senha Senha do usuário
+     * @return ID da sessão criada
+     * @throws AuthenticationException Se as credenciais forem inválidas
      */
     public String abrirSessao(String login, String senha) {
-        return sessaoService.abrirSessao(login, senha);
+        verificarEscrita();
+        return bloqueios.executar(() -> {
+            String sessionId = sessaoService.abrirSessao(login, senha);
+            registrar("restaurarSessao", sessionId, login);
+            return sessionId;
+        }, login);
     }
 
     /**
-     * Encerra uma sesso especfica.
+     * Encerra uma sessão específica.
      *
-     * @param sessionId ID da sesso a ser encerrada
-     * @return true se a sesso foi encerrada, false se no existia
+     * @param sessionId ID da sessão a ser encerrada
+     * @return true se a sessão foi encerrada, false se não existia
      */
     public boolean encerrarSessao(String sessionId) {
-        return sessaoService.encerrarSessao(sessionId);
+        verificarEscrita();
+        // Bloqueia o dono da sessão, para que as operações dele fiquem
+        // registradas no journal antes ou depois do encerramento
+        return bloqueios.executar(() -> {
+            boolean encerrada = sessaoService.encerrarSessao(sessionId);
+            if (encerrada) {
+                registrar("encerrarSessao", sessionId);
+            }
+            return encerrada;
+        }, sessaoService.getLoginDaSessao(sessionId));
     }
 
     /**
-     * Verifica se uma sesso existe.
+     * Verifica se uma sessão existe.
      *
-     * @param sessionId ID da sesso
-     * @return true se a sesso existir, false caso contrrio
+     * @param sessionId ID da sessão
+     * @return true se a sessão existir, false caso contrário
      */
     public boolean existeSessao(String sessionId) {
+        // A tabela de sessões é concorrente e dispensa os bloqueios
         return sessaoService.existeSessao(sessionId);
     }
 
     /**
-     * Obtm o login do usurio associado a uma sesso.
+     * Obtém o login do usuário associado a uma sessão.
      *
-     * @param sessionId ID da sesso
-     * @return Login do usurio ou null se a sesso no existir
+     * @param sessionId ID da sessão
+     * @return Login do usuário ou null se a sessão não existir
      */
     public String getLoginDaSessao(String sessionId) {
         return sessaoService.getLoginDaSessao(sessionId);
     }
 
     /**
-     * Edita um atributo personalizado do perfil de um usurio.
+     * Edita um atributo personalizado do perfil de um usuário.
      *
-     * @param sessionId ID da sesso ou login do usurio
+     * @param sessionId ID da sessão ou login do usuário
      * @param atributo Nome do atributo
      * @param valor Novo valor do atributo
-     * @throws SessionNotFoundException Se a sesso no existir
-     * @throws UserNotFoundException Se o usurio no existir
+     * @throws SessionNotFoundException Se a sessão não existir
+     * @throws UserNotFoundException Se o usuário não existir
      */
     public void editarPerfil(String sessionId, String atributo, String valor) {
-        String login = sessaoService.validarEObterLogin(sessionId);
-        usuarioService.editarPerfil(login, atributo, valor);
+        verificarEscrita();
+        naSessao(sessionId, login -> {
+            usuarioService.editarPerfil(login, atributo, valor);
+            registrar("editarPerfil", sessionId, atributo, valor);
+            return null;
+        });
     }
 
     /**
-     * Verifica se dois usurios so amigos.
+     * Verifica se dois usuários são amigos.
      *
-     * @param sessionId ID da sesso ou login do primeiro usurio
-     * @param amigo Login do possvel amigo
-     * @return true se forem amigos, false caso contrrio
+     * @param sessionId ID da sessão ou login do primeiro usuário
+     * @param amigo Login do possível amigo
+     * @return true se forem amigos, false caso contrário
      */
     public boolean ehAmigo(String sessionId, String amigo) {
         try {
-            String login = sessaoService.validarEObterLogin(sessionId);
-            return relacionamentoService.ehAmigo(login, amigo);
+            return naSessao(sessionId, login -> relacionamentoService.ehAmigo(login, amigo), amigo);
         } catch (SessionNotFoundException | UserNotFoundException e) {
             // Para manter compatibilidade com o comportamento original
             return false;
@@ -188,269 +957,450 @@ public class Facade implements Serializable {
     }
 
     /**
-     * Adiciona um usurio como amigo de outro.
+     * Adiciona um usuário como amigo de outro.
      *
-     * @param sessionId ID da sesso ou login do usurio que est adicionando
-     * @param amigo Login do usurio a ser adicionado como amigo
-     * @throws SessionNotFoundException Se a sesso no existir
-     * @throws UserNotFoundException Se algum dos usurios no existir
-     * @throws FriendshipException Se o usurio tentar adicionar a si mesmo ou se j forem amigos
-     * @throws RelacionamentoException Se o usurio a ser adicionado for inimigo
+     * @param sessionId ID da sessão ou login do usuário que está adicionando
+     * @param amigo Login do usuário a ser adicionado como amigo
+     * @throws SessionNotFoundException Se a sessão não existir
+     * @throws UserNotFoundException Se algum dos usuários não existir
+     * @throws FriendshipException Se o usuário tentar adicionar a si mesmo ou se já forem amigos
+     * @throws RelacionamentoException Se o usuário a ser adicionado for inimigo
      */
     public void adicionarAmigo(String sessionId, String amigo) {
-        String login = sessaoService.validarEObterLogin(sessionId);
-        relacionamentoService.adicionarAmigo(login, amigo);
+        verificarEscrita();
+        naSessao(sessionId, login -> {
+            relacionamentoService.adicionarAmigo(login, amigo);
+            registrar("adicionarAmigo", sessionId, amigo);
+            return null;
+        }, amigo);
     }
 
     /**
-     * Obtm a lista de amigos de um usurio formatada como string.
+     * Obtém a lista de amigos de um usuário formatada como string.
      *
-     * @param sessionId ID da sesso ou login do usurio
+     * @param sessionId ID da sessão ou login do usuário
      * @return String formatada com a lista de amigos: "{amigo1,amigo2,...}"
-     * @throws SessionNotFoundException Se a sesso no existir
-     * @throws UserNotFoundException Se o usurio no existir
+     * @throws SessionNotFoundException Se a sessão não existir
+     * @throws UserNotFoundException Se o usuário não existir
      */
     public String getAmigos(String sessionId) {
-        String login = sessaoService.validarEObterLogin(sessionId);
-        return relacionamentoService.getAmigos(login);
+        String amigos = visao == null ? null : visao.getAmigos(getLoginPublicado(sessionId));
+        if (amigos != null) {
+            return amigos;
+        }
+        return naSessao(sessionId, relacionamentoService::getAmigos);
     }
 
     /**
-     * Envia um recado de um usurio para outro.
+     * Envia um recado de um usuário para outro.
      *
-     * @param sessionId ID da sesso ou login do usurio remetente
-     * @param destinatario Login do usurio destinatrio
-     * @param recado Contedo do recado
-     * @throws SessionNotFoundException Se a sesso no existir
-     * @throws UserNotFoundException Se algum dos usurios no existir
-     * @throws MessageException Se o usurio tentar enviar recado para si mesmo
-     * @throws RelacionamentoException Se o destinatrio for inimigo do remetente
+     * @param sessionId ID da sessão ou login do usuário remetente
+     * @param destinatario Login do usuário destinatário
+     * @param recado Conteúdo do recado
+     * @throws SessionNotFoundException Se a sessão não existir
+     * @throws UserNotFoundException Se algum dos usuários não existir
+     * @throws MessageException Se o usuário tentar enviar recado para si mesmo
+     * @throws RelacionamentoException Se o destinatário for inimigo do remetente
      */
     public void enviarRecado(String sessionId, String destinatario, String recado) {
-        String remetente = sessaoService.validarEObterLogin(sessionId);
-        mensagemService.enviarRecado(remetente, destinatario, recado);
+        verificarEscrita();
+        naSessao(sessionId, remetente -> {
+            mensagemService.enviarRecado(remetente, destinatario, recado);
+            registrar("enviarRecado", sessionId, destinatario, recado);
+            return null;
+        }, destinatario);
     }
 
     /**
-     * L o prximo recado disponvel para um usurio.
+     * Lê o próximo recado disponível para um usuário.
      *
-     * @param sessionId ID da sesso ou login do usurio
-     * @return Contedo do recado
-     * @throws SessionNotFoundException Se a sesso no existir
-     * @throws UserNotFoundException Se o usurio no existir
-     * @throws MessageException Se no houver recados
+     * @param sessionId ID da sessão ou login do usuário
+     * @return Conteúdo do recado
+     * @throws SessionNotFoundException Se a sessão não existir
+     * @throws UserNotFoundException Se o usuário não existir
+     * @throws MessageException Se não houver recados
      */
     public String lerRecado(String sessionId) {
-        String login = sessaoService.validarEObterLogin(sessionId);
-        return mensagemService.lerRecado(login);
+        verificarEscrita();
+        return naSessao(sessionId, login -> {
+            String recado = mensagemService.lerRecado(login);
+            registrar("lerRecado", sessionId);
+            return recado;
+        });
+    }
+
+    /**
+     * Lê de uma vez os próximos recados de um usuário, até uma quantidade.
+     * A sessão é validada e a leitura é registrada no journal uma única vez.
+     *
+     * @param sessionId ID da sessão ou login do usuário
+     * @param quantidade Quantidade máxima de recados
+     * @return Conteúdos dos recados, do mais antigo para o mais novo (vazia se não houver recados)
+     * @throws SessionNotFoundException Se a sessão não existir
+     * @throws UserNotFoundException Se o usuário não existir
+     */
+    public List<String> lerRecados(String sessionId, int quantidade) {
+        verificarEscrita();
+        return naSessao(sessionId, login -> {
+            List<String> recados = mensagemService.lerRecados(login, quantidade);
+            if (!recados.isEmpty()) {
+                registrar("lerRecados", sessionId, String.valueOf(recados.size()));
+            }
+            return recados;
+        });
     }
 
     /**
      * Cria uma nova comunidade.
      *
-     * @param sessionId ID da sesso ou login do usurio que est criando
-     * @param nome Nome nico da comunidade
-     * @param descricao Descrio da comunidade
-     * @throws SessionNotFoundException Se a sesso no existir
-     * @throws UserNotFoundException Se o usurio no existir
-     * @throws CommunityException Se j existir uma comunidade com o mesmo nome
+     * @param sessionId ID da sessão ou login do usuário que está criando
+     * @param nome Nome único da comunidade
+     * @param descricao Descrição da comunidade
+     * @throws SessionNotFoundException Se a sessão não existir
+     * @throws UserNotFoundException Se o usuário não existir
+     * @throws CommunityException Se já existir uma comunidade com o mesmo nome
      */
     public void criarComunidade(String sessionId, String nome, String descricao) {
-        String login = sessaoService.validarEObterLogin(sessionId);
-        comunidadeService.criarComunidade(login, nome, descricao);
+        verificarEscrita();
+        naSessao(sessionId, login -> {
+            comunidadeService.criarComunidade(login, nome, descricao);
+            registrar("criarComunidade", sessionId, nome, descricao);
+            return null;
+        }, nome);
     }
 
     /**
-     * Obtm a descrio de uma comunidade.
+     * Obtém a descrição de uma comunidade.
      *
      * @param nome Nome da comunidade
-     * @return Descrio da comunidade
-     * @throws CommunityException Se a comunidade no existir
+     * @return Descrição da comunidade
+     * @throws CommunityException Se a comunidade não existir
      */
     public String getDescricaoComunidade(String nome) {
-        return comunidadeService.getDescricaoComunidade(nome);
+        return bloqueios.executar(() -> comunidadeService.getDescricaoComunidade(nome), nome);
     }
 
     /**
-     * Obtm o login do dono de uma comunidade.
+     * Obtém o login do dono de uma comunidade.
      *
      * @param nome Nome da comunidade
      * @return Login do dono da comunidade
-     * @throws CommunityException Se a comunidade no existir
+     * @throws CommunityException Se a comunidade não existir
      */
     public String getDonoComunidade(String nome) {
-        return comunidadeService.getDonoComunidade(nome);
+        return bloqueios.executar(() -> comunidadeService.getDonoComunidade(nome), nome);
     }
 
     /**
-     * Obtm a lista de membros de uma comunidade formatada como string.
+     * Obtém a lista de membros de uma comunidade formatada como string.
      *
      * @param nome Nome da comunidade
      * @return String formatada com a lista de membros: "{membro1,membro2,...}"
-     * @throws CommunityException Se a comunidade no existir
+     * @throws CommunityException Se a comunidade não existir
      */
     public String getMembrosComunidade(String nome) {
-        return comunidadeService.getMembrosComunidade(nome);
+        String membros = visao == null ? null : visao.getMembros(nome);
+        if (membros != null) {
+            return membros;
+        }
+        return bloqueios.executar(() -> comunidadeService.getMembrosComunidade(nome), nome);
     }
 
     /**
-     * Obtm a lista de comunidades de um usurio formatada como string.
+     * Obtém a lista de membros de uma comunidade sem formatá-la, para quem
+     * a envia aos poucos (ex.: o {@link ServidorHttp}).
      *
-     * @param login Login do usurio
+     * @param nome Nome da comunidade
+     * @return Logins dos membros, na ordem de entrada
+     * @throws CommunityException Se a comunidade não existir
+     */
+    public List<String> listarMembrosComunidade(String nome) {
+        return bloqueios.executar(() -> comunidadeService.listarMembrosComunidade(nome), nome);
+    }
+
+    /**
+     * Obtém a lista de comunidades de um usuário formatada como string.
+     *
+     * @param login Login do usuário
      * @return String formatada com a lista de comunidades: "{comunidade1,comunidade2,...}"
-     * @throws UserNotFoundException Se o usurio no existir
+     * @throws UserNotFoundException Se o usuário não existir
      */
     public String getComunidades(String login) {
-        return comunidadeService.getComunidadesDoUsuario(login);
+        String comunidades = visao == null ? null : visao.getComunidades(login);
+        if (comunidades != null) {
+            return comunidades;
+        }
+        return bloqueios.executar(() -> comunidadeService.getComunidadesDoUsuario(login), login);
     }
 
     /**
-     * Adiciona um usurio a uma comunidade.
+     * Adiciona um usuário a uma comunidade.
      *
-     * @param sessionId ID da sesso ou login do usurio a ser adicionado
+     * @param sessionId ID da sessão ou login do usuário a ser adicionado
      * @param nome Nome da comunidade
-     * @throws SessionNotFoundException Se a sesso no existir
-     * @throws UserNotFoundException Se o usurio no existir
-     * @throws CommunityException Se a comunidade no existir ou se o usurio j for membro
+     * @throws SessionNotFoundException Se a sessão não existir
+     * @throws UserNotFoundException Se o usuário não existir
+     * @throws CommunityException Se a comunidade não existir ou se o usuário já for membro
      */
     public void adicionarComunidade(String sessionId, String nome) {
-        String login = sessaoService.validarEObterLogin(sessionId);
-        comunidadeService.adicionarUsuarioAComunidade(login, nome);
+        verificarEscrita();
+        naSessao(sessionId, login -> {
+            comunidadeService.adicionarUsuarioAComunidade(login, nome);
+            registrar("adicionarComunidade", sessionId, nome);
+            return null;
+        }, nome);
     }
 
     /**
-     * L a prxima mensagem de comunidade disponvel para um usurio.
+     * Lê a próxima mensagem de comunidade disponível para um usuário.
      *
-     * @param sessionId ID da sesso ou login do usurio
-     * @return Contedo da mensagem formatada
-     * @throws SessionNotFoundException Se a sesso no existir
-     * @throws UserNotFoundException Se o usurio no existir
-     * @throws MessageException Se no houver mensagens
+     * @param sessionId ID da sessão ou login do usuário
+     * @return Conteúdo da mensagem formatada
+     * @throws SessionNotFoundException Se a sessão não existir
+     * @throws UserNotFoundException Se o usuário não existir
+     * @throws MessageException Se não houver mensagens
      */
     public String lerMensagem(String sessionId) {
-        String login = sessaoService.validarEObterLogin(sessionId);
-        return mensagemService.lerMensagemComunidade(login);
+        verificarEscrita();
+        return naSessao(sessionId, login -> {
+            String mensagem = mensagemService.lerMensagemComunidade(login);
+            registrar("lerMensagem", sessionId);
+            return mensagem;
+        });
+    }
+
+    /**
+     * Lê de uma vez as próximas mensagens de comunidade de um usuário, até
+     * uma quantidade. A sessão é validada e a leitura é registrada no journal
+     * uma única vez.
+     *
+     * @param sessionId ID da sessão ou login do usuário
+     * @param quantidade Quantidade máxima de mensagens
+     * @return Mensagens formatadas, da mais antiga para a mais nova (vazia se não houver mensagens)
+     * @throws SessionNotFoundException Se a sessão não existir
+     * @throws UserNotFoundException Se o usuário não existir
+     */
+    public List<String> lerMensagens(String sessionId, int quantidade) {
+        verificarEscrita();
+        return naSessao(sessionId, login -> {
+            List<String> mensagens = mensagemService.lerMensagensComunidade(login, quantidade);
+            if (!mensagens.isEmpty()) {
+                registrar("lerMensagens", sessionId, String.valueOf(mensagens.size()));
+            }
+            return mensagens;
+        });
     }
 
     /**
      * Envia uma mensagem para todos os membros de uma comunidade.
      *
-     * @param sessionId ID da sesso ou login do usurio remetente
+     * @param sessionId ID da sessão ou login do usuário remetente
      * @param comunidade Nome da comunidade
-     * @param mensagem Contedo da mensagem
-     * @throws SessionNotFoundException Se a sesso no existir
-     * @throws UserNotFoundException Se o usurio no existir
-     * @throws CommunityException Se a comunidade no existir
+     * @param mensagem Conteúdo da mensagem
+     * @throws SessionNotFoundException Se a sessão não existir
+     * @throws UserNotFoundException Se o usuário não existir
+     * @throws CommunityException Se a comunidade não existir
      */
     public void enviarMensagem(String sessionId, String comunidade, String mensagem) {
-        String login = sessaoService.validarEObterLogin(sessionId);
-        mensagemService.enviarMensagemComunidade(login, comunidade, mensagem);
+        verificarEscrita();
+        // Publica a mensagem uma única vez, no mural da comunidade; bastam as
+        // faixas do remetente e da comunidade, pois os membros a leem do mural
+        naSessao(sessionId, login -> {
+            AtomicLong sequencia = new AtomicLong();
+            mensagemService.enviarMensagemComunidade(login, comunidade, mensagem,
+                    () -> sequencia.set(anexar("enviarMensagem", sessionId, comunidade, mensagem)));
+            aguardarRegistro(sequencia.get());
+            return null;
+        }, comunidade);
     }
 
     /**
-     * Verifica se um usurio  f de outro.
+     * Verifica se um usuário é fã de outro.
      *
-     * @param login Login do possvel f
-     * @param idolo Login do possvel dolo
-     * @return true se o primeiro for f do segundo, false caso contrrio
+     * @param login Login do possível fã
+     * @param idolo Login do possível ídolo
+     * @return true se o primeiro for fã do segundo, false caso contrário
      */
     public boolean ehFa(String login, String idolo) {
-        return relacionamentoService.ehFa(login, idolo);
+        return bloqueios.executar(() -> relacionamentoService.ehFa(login, idolo), login);
     }
 
     /**
-     * Adiciona um usurio como dolo de outro.
+     * Adiciona um usuário como ídolo de outro.
      *
-     * @param sessionId ID da sesso ou login do usurio que est adicionando (f)
-     * @param idolo Login do usurio a ser adicionado como dolo
-     * @throws SessionNotFoundException Se a sesso no existir
-     * @throws UserNotFoundException Se algum dos usurios no existir
-     * @throws RelacionamentoException Se o usurio tentar ser f de si mesmo, se j for f ou se o dolo for inimigo
+     * @param sessionId ID da sessão ou login do usuário que está adicionando (fã)
+     * @param idolo Login do usuário a ser adicionado como ídolo
+     * @throws SessionNotFoundException Se a sessão não existir
+     * @throws UserNotFoundException Se algum dos usuários não existir
+     * @throws RelacionamentoException Se o usuário tentar ser fã de si mesmo, se já for fã ou se o ídolo for inimigo
      */
     public void adicionarIdolo(String sessionId, String idolo) {
-        String login = sessaoService.validarEObterLogin(sessionId);
-        relacionamentoService.adicionarIdolo(login, idolo);
+        verificarEscrita();
+        naSessao(sessionId, login -> {
+            relacionamentoService.adicionarIdolo(login, idolo);
+            registrar("adicionarIdolo", sessionId, idolo);
+            return null;
+        }, idolo);
     }
 
     /**
-     * Obtm a lista de fs de um usurio formatada como string.
+     * Obtém a lista de fãs de um usuário formatada como string.
      *
-     * @param login Login do usurio
-     * @return String formatada com a lista de fs: "{fa1,fa2,...}"
+     * @param login Login do usuário
+     * @return String formatada com a lista de fãs: "{fa1,fa2,...}"
      */
     public String getFas(String login) {
-        return relacionamentoService.getFas(login);
+        if (visao != null) {
+            return visao.getFas(login);
+        }
+        // Os fãs são procurados entre todos os usuários
+        return bloqueios.exclusivo(() -> relacionamentoService.getFas(login));
+    }
+
+    /**
+     * Obtém a lista de fãs de um usuário sem formatá-la, para quem a envia
+     * aos poucos (ex.: o {@link ServidorHttp}).
+     *
+     * @param login Login do usuário
+     * @return Logins dos fãs
+     */
+    public List<String> listarFas(String login) {
+        if (visao != null) {
+            return visao.listarFas(login);
+        }
+        return bloqueios.exclusivo(() -> relacionamentoService.listarFas(login));
     }
 
     /**
-     * Verifica se um usurio tem outro como paquera.
+     * Verifica se um usuário tem outro como paquera.
      *
-     * @param sessionId ID da sesso ou login do primeiro usurio
-     * @param paquera Login do possvel paquera
-     * @return true se o segundo for paquera do primeiro, false caso contrrio
-     * @throws SessionNotFoundException Se a sesso no existir
-     * @throws UserNotFoundException Se algum dos usurios no existir
+     * @param sessionId ID da sessão ou login do primeiro usuário
+     * @param paquera Login do possível paquera
+     * @return true se o segundo for paquera do primeiro, false caso contrário
+     * @throws SessionNotFoundException Se a sessão não existir
+     * @throws UserNotFoundException Se algum dos usuários não existir
      */
     public boolean ehPaquera(String sessionId, String paquera) {
-        String login = sessaoService.validarEObterLogin(sessionId);
-        return relacionamentoService.ehPaquera(login, paquera);
+        return naSessao(sessionId, login -> relacionamentoService.ehPaquera(login, paquera));
     }
 
     /**
-     * Adiciona um usurio como paquera de outro.
-     * Se ambos se adicionarem como paquera, o sistema envia recados automticos.
+     * Adiciona um usuário como paquera de outro.
+     * Se ambos se adicionarem como paquera, o sistema envia recados automáticos.
      *
-     * @param sessionId ID da sesso ou login do usurio que est adicionando
-     * @param paquera Login do usurio a ser adicionado como paquera
-     * @throws SessionNotFoundException Se a sesso no existir
-     * @throws UserNotFoundException Se algum dos usurios no existir
-     * @throws RelacionamentoException Se o usurio tentar adicionar a si mesmo, se j for paquera ou se for inimigo
+     * @param sessionId ID da sessão ou login do usuário que está adicionando
+     * @param paquera Login do usuário a ser adicionado como paquera
+     * @throws SessionNotFoundException Se a sessão não existir
+     * @throws UserNotFoundException Se algum dos usuários não existir
+     * @throws RelacionamentoException Se o usuário tentar adicionar a si mesmo, se já for paquera ou se for inimigo
      */
     public void adicionarPaquera(String sessionId, String paquera) {
-        String login = sessaoService.validarEObterLogin(sessionId);
-        relacionamentoService.adicionarPaquera(login, paquera);
+        verificarEscrita();
+        naSessao(sessionId, login -> {
+            relacionamentoService.adicionarPaquera(login, paquera);
+            registrar("adicionarPaquera", sessionId, paquera);
+            return null;
+        }, paquera);
     }
 
     /**
-     * Obtm a lista de paqueras de um usurio formatada como string.
+     * Obtém a lista de paqueras de um usuário formatada como string.
      *
-     * @param sessionId ID da sesso ou login do usurio
+     * @param sessionId ID da sessão ou login do usuário
      * @return String formatada com a lista de paqueras: "{paquera1,paquera2,...}"
-     * @throws SessionNotFoundException Se a sesso no existir
-     * @throws UserNotFoundException Se o usurio no existir
+     * @throws SessionNotFoundException Se a sessão não existir
+     * @throws UserNotFoundException Se o usuário não existir
      */
     public String getPaqueras(String sessionId) {
-        String login = sessaoService.validarEObterLogin(sessionId);
-        return relacionamentoService.getPaqueras(login);
+        return naSessao(sessionId, relacionamentoService::getPaqueras);
     }
 
     /**
-     * Adiciona um usurio como inimigo de outro.
+     * Adiciona um usuário como inimigo de outro.
      *
-     * @param sessionId ID da sesso ou login do usurio que est adicionando
-     * @param inimigo Login do usurio a ser adicionado como inimigo
-     * @throws SessionNotFoundException Se a sesso no existir
-     * @throws UserNotFoundException Se algum dos usurios no existir
-     * @throws RelacionamentoException Se o usurio tentar adicionar a si mesmo ou se j for inimigo
+     * @param sessionId ID da sessão ou login do usuário que está adicionando
+     * @param inimigo Login do usuário a ser adicionado como inimigo
+     * @throws SessionNotFoundException Se a sessão não existir
+     * @throws UserNotFoundException Se algum dos usuários não existir
+     * @throws RelacionamentoException Se o usuário tentar adicionar a si mesmo ou se já for inimigo
      */
     public void adicionarInimigo(String sessionId, String inimigo) {
-        String login = sessaoService.validarEObterLogin(sessionId);
-        relacionamentoService.adicionarInimigo(login, inimigo);
+        verificarEscrita();
+        naSessao(sessionId, login -> {
+            relacionamentoService.adicionarInimigo(login, inimigo);
+            registrar("adicionarInimigo", sessionId, inimigo);
+            return null;
+        }, inimigo);
     }
 
     /**
-     * Remove um usurio do sistema.
-     * Tambm remove suas sesses, comunidades e mensagens.
+     * Remove um usuário do sistema.
+     * Também remove suas sessões, comunidades e mensagens.
      *
-     * @param sessionId ID da sesso ou login do usurio a ser removido
-     * @throws SessionNotFoundException Se a sesso no existir
-     * @throws UserNotFoundException Se o usurio no existir
+     * @param sessionId ID da sessão ou login do usuário a ser removido
+     * @throws SessionNotFoundException Se a sessão não existir
+     * @throws UserNotFoundException Se o usuário não existir
      */
     public void removerUsuario(String sessionId) {
-        String login = sessaoService.validarEObterLogin(sessionId);
-        usuarioService.removerUsuario(login);
-        sessaoService.encerrarSessao(sessionId);
-        comunidadeService.removerUsuarioDeComunidades(login);
-        mensagemService.removerMensagensDoUsuario(login);
+        verificarEscrita();
+        // Remove o usuário das comunidades e dos relacionamentos de todos os outros
+        bloqueios.exclusivo(() -> {
+            String login = sessaoService.validarEObterLogin(sessionId);
+            usuarioService.removerUsuario(login);
+            sessaoService.encerrarSessao(sessionId);
+            comunidadeService.removerUsuarioDeComunidades(login);
+            mensagemService.removerMensagensDoUsuario(login);
+            registrar("removerUsuario", sessionId);
+        });
+    }
+
+    /**
+     * Exporta todos os dados do sistema (usuários, comunidades e mensagens
+     * não lidas) para um arquivo no formato JSON Lines.
+     *
+     * @param arquivo Caminho do arquivo de destino
+     * @throws SystemSaveException Se o arquivo não puder ser gravado
+     */
+    public void exportarDados(String arquivo) {
+        bloqueios.exclusivo(() -> {
+            try {
+                ExportacaoJson.exportar(servicos.getRepository(), Paths.get(arquivo));
+            } catch (IOException | UncheckedIOException e) {
+                throw new SystemSaveException("Erro ao exportar os dados: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Importa os dados de um arquivo gerado por {@link #exportarDados(String)},
+     * substituindo usuários e comunidades com a mesma chave.
+     * <p>
+     * A importação não é registrada no journal: os registros importados
+     * passam a fazer parte do estado, gravado inteiro como uma nova base antes
+     * de qualquer outra mutação, e os seguidores da replicação são
+     * desconectados para receber esse estado ao reconectar. Nem a recuperação
+     * nem as réplicas dependem do arquivo.
+     *
+     * @param arquivo Caminho do arquivo exportado
+     * @throws SystemSaveException Se o arquivo não puder ser lido ou for inválido, ou se a base não puder ser gravada
+     */
+    public void importarDados(String arquivo) {
+        verificarEscrita();
+        try {
+            snapshotter.substituirApos(() -> {
+                bloqueios.exclusivo(() -> {
+                    try {
+                        ExportacaoJson.importar(Paths.get(arquivo), servicos);
+                    } catch (IOException | UncheckedIOException e) {
+                        throw new SystemSaveException("Erro ao importar os dados: " + e.getMessage());
+                    }
+                });
+                if (replicacao != null) {
+                    replicacao.reenviarEstado();
+                }
+            });
+        } catch (IOException e) {
+            throw new SystemSaveException("Erro ao salvar o sistema: " + e.getMessage());
+        }
     }
-}
\ No newline at end of file
+}
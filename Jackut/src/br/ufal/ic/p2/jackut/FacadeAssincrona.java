@@ -0,0 +1,352 @@
+package br.ufal.ic.p2.jackut;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Versão assíncrona da {@link Facade}: cada método devolve um
+ * {@link CompletableFuture} e executa a operação em um executor, sem
+ * bloquear quem chama. A Facade síncrona continua sendo usada pelos testes
+ * de aceitação e pelos demais clientes.
+ * <p>
+ * As mutações são executadas em duas etapas. A primeira, em uma thread do
+ * executor, valida a sessão, aplica a operação e registra o comando no
+ * journal, sem esperar o disco. A segunda é o futuro do {@link
+ * br.ufal.ic.p2.jackut.persistence.Journal}, completado quando o lote com o
+ * comando é sincronizado. Assim, a thread já executa a próxima operação
+ * durante o fsync, e o futuro da mutação só é completado depois que ela
+ * está no disco. As consultas têm apenas a primeira etapa.
+ * <p>
+ * Quem chama controla a contrapressão pelo limite de operações pendentes:
+ * acima dele, o futuro devolvido falha imediatamente com
+ * {@link RejectedExecutionException}, e cabe a quem chama reduzir o ritmo
+ * ou tentar de novo. {@link #getPendentes()} informa a ocupação atual.
+ */
+public class FacadeAssincrona implements Closeable {
+
+    /** Facade onde as operações são executadas */
+    private final Facade facade;
+
+    /** Executor das operações e das etapas seguintes */
+    private final Executor executor;
+
+    /** Executor criado por esta instância, encerrado em {@link #close()}, ou null */
+    private final ExecutorService executorProprio;
+
+    /** Quantidade máxima de operações pendentes */
+    private final int limitePendentes;
+
+    /** Vagas livres para operações pendentes */
+    private final Semaphore vagas;
+
+    /**
+     * Construtor que executa as operações em um pool próprio, com
+     * {@code -Djackut.assincrona.threads} threads (padrão: uma por processador)
+     * e até {@code -Djackut.assincrona.pendentes} operações pendentes (padrão: 4096).
+     *
+     * @param facade Facade onde as operações são executadas
+     */
+    public FacadeAssincrona(Facade facade) {
+        this(facade, criarExecutor(), true,
+                (int) Configuracao.getNumero(Configuracao.ASSINCRONA_PENDENTES, 4096));
+    }
+
+    /**
+     * Construtor que executa as operações em um executor de quem chama, que
+     * não é encerrado por {@link #close()}.
+     *
+     * @param facade Facade onde as operações são executadas
+     * @param executor Executor das operações
+     * @param limitePendentes Quantidade máxima de operações pendentes
+     */
+    public FacadeAssincrona(Facade facade, Executor executor, int limitePendentes) {
+        this(facade, executor, false, limitePendentes);
+    }
+
+    private FacadeAssincrona(Facade facade, Executor executor, boolean proprio, int limitePendentes) {
+        this.facade = facade;
+        this.executor = executor;
+        this.executorProprio = proprio ? (ExecutorService) executor : null;
+        this.limitePendentes = Math.max(1, limitePendentes);
+        this.vagas = new Semaphore(this.limitePendentes);
+    }
+
+    private static ExecutorService criarExecutor() {
+        int threads = (int) Configuracao.getNumero(Configuracao.ASSINCRONA_THREADS,
+                Runtime.getRuntime().availableProcessors());
+        AtomicInteger numero = new AtomicInteger();
+        return Executors.newFixedThreadPool(Math.max(1, threads), tarefa -> {
+            Thread thread = new Thread(tarefa, "jackut-assincrona-" + numero.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @return Facade síncrona onde as operações são executadas
+     */
+    public Facade getFacade() {
+        return facade;
+    }
+
+    /**
+     * @return Quantidade de operações aceitas e ainda não completadas
+     */
+    public int getPendentes() {
+        return limitePendentes - vagas.availablePermits();
+    }
+
+    /**
+     * @return Quantidade máxima de operações pendentes
+     */
+    public int getLimitePendentes() {
+        return limitePendentes;
+    }
+
+    /**
+     * Encerra o pool próprio, se houver, depois das operações já aceitas.
+     * Não encerra a Facade.
+     */
+    @Override
+    public void close() {
+        if (executorProprio != null) {
+            executorProprio.shutdown();
+        }
+    }
+
+    /**
+     * Executa uma consulta no executor.
+     */
+    private <T> CompletableFuture<T> consultar(Supplier<T> consulta) {
+        return submeter(() -> CompletableFuture.completedFuture(consulta.get()));
+    }
+
+    /**
+     * Executa uma mutação no executor, completando o futuro quando ela estiver no disco.
+     */
+    private <T> CompletableFuture<T> alterar(Supplier<T> mutacao) {
+        return submeter(() -> facade.semAguardarDisco(mutacao));
+    }
+
+    private CompletableFuture<Void> alterar(Runnable mutacao) {
+        return alterar(() -> {
+            mutacao.run();
+            return null;
+        });
+    }
+
+    /**
+     * Ocupa uma vaga e executa as etapas de uma operação. A vaga é liberada
+     * quando a última etapa termina, e o futuro devolvido é completado em
+     * uma thread do executor, nunca na thread sincronizadora do journal.
+     */
+    private <T> CompletableFuture<T> submeter(Supplier<CompletableFuture<T>> etapas) {
+        if (!vagas.tryAcquire()) {
+            return CompletableFuture.failedFuture(new RejectedExecutionException(
+                    "Limite de operações pendentes atingido: " + limitePendentes));
+        }
+        CompletableFuture<T> operacao;
+        try {
+            operacao = CompletableFuture.supplyAsync(etapas, executor).thenCompose(etapa -> etapa);
+        } catch (RejectedExecutionException e) {
+            vagas.release();
+            return CompletableFuture.failedFuture(e);
+        }
+        CompletableFuture<T> resultado = new CompletableFuture<>();
+        operacao.whenComplete((valor, erro) -> {
+            vagas.release();
+            Runnable completar = () -> {
+                if (erro == null) {
+                    resultado.complete(valor);
+                } else {
+                    resultado.completeExceptionally(erro instanceof CompletionException && erro.getCause() != null
+                            ? erro.getCause() : erro);
+                }
+            };
+            try {
+                executor.execute(completar);
+            } catch (RejectedExecutionException e) {
+                completar.run();
+            }
+        });
+        return resultado;
+    }
+
+    // Operações
+
+    /** Assíncrono de {@link Facade#zerarSistema()}. */
+    public CompletableFuture<Void> zerarSistema() {
+        return alterar(facade::zerarSistema);
+    }
+
+    /** Assíncrono de {@link Facade#getAtributoUsuario(String, String)}. */
+    public CompletableFuture<String> getAtributoUsuario(String login, String atributo) {
+        return consultar(() -> facade.getAtributoUsuario(login, atributo));
+    }
+
+    /** Assíncrono de {@link Facade#criarUsuario(String, String, String)}. */
+    public CompletableFuture<Void> criarUsuario(String login, String senha, String nome) {
+        return alterar(() -> facade.criarUsuario(login, senha, nome));
+    }
+
+    /** Assíncrono de {@link Facade#abrirSessao(String, String)}. */
+    public CompletableFuture<String> abrirSessao(String login, String senha) {
+        return alterar(() -> facade.abrirSessao(login, senha));
+    }
+
+    /** Assíncrono de {@link Facade#encerrarSessao(String)}. */
+    public CompletableFuture<Boolean> encerrarSessao(String sessionId) {
+        return alterar(() -> facade.encerrarSessao(sessionId));
+    }
+
+    /** Assíncrono de {@link Facade#existeSessao(String)}. */
+    public CompletableFuture<Boolean> existeSessao(String sessionId) {
+        return consultar(() -> facade.existeSessao(sessionId));
+    }
+
+    /** Assíncrono de {@link Facade#getLoginDaSessao(String)}. */
+    public CompletableFuture<String> getLoginDaSessao(String sessionId) {
+        return consultar(() -> facade.getLoginDaSessao(sessionId));
+    }
+
+    /** Assíncrono de {@link Facade#editarPerfil(String, String, String)}. */
+    public CompletableFuture<Void> editarPerfil(String sessionId, String atributo, String valor) {
+        return alterar(() -> facade.editarPerfil(sessionId, atributo, valor));
+    }
+
+    /** Assíncrono de {@link Facade#ehAmigo(String, String)}. */
+    public CompletableFuture<Boolean> ehAmigo(String sessionId, String amigo) {
+        return consultar(() -> facade.ehAmigo(sessionId, amigo));
+    }
+
+    /** Assíncrono de {@link Facade#adicionarAmigo(String, String)}. */
+    public CompletableFuture<Void> adicionarAmigo(String sessionId, String amigo) {
+        return alterar(() -> facade.adicionarAmigo(sessionId, amigo));
+    }
+
+    /** Assíncrono de {@link Facade#getAmigos(String)}. */
+    public CompletableFuture<String> getAmigos(String sessionId) {
+        return consultar(() -> facade.getAmigos(sessionId));
+    }
+
+    /** Assíncrono de {@link Facade#enviarRecado(String, String, String)}. */
+    public CompletableFuture<Void> enviarRecado(String sessionId, String destinatario, String recado) {
+        return alterar(() -> facade.enviarRecado(sessionId, destinatario, recado));
+    }
+
+    /** Assíncrono de {@link Facade#lerRecado(String)}. */
+    public CompletableFuture<String> lerRecado(String sessionId) {
+        return alterar(() -> facade.lerRecado(sessionId));
+    }
+
+    /** Assíncrono de {@link Facade#lerRecados(String, int)}. */
+    public CompletableFuture<List<String>> lerRecados(String sessionId, int quantidade) {
+        return alterar(() -> facade.lerRecados(sessionId, quantidade));
+    }
+
+    /** Assíncrono de {@link Facade#criarComunidade(String, String, String)}. */
+    public CompletableFuture<Void> criarComunidade(String sessionId, String nome, String descricao) {
+        return alterar(() -> facade.criarComunidade(sessionId, nome, descricao));
+    }
+
+    /** Assíncrono de {@link Facade#getDescricaoComunidade(String)}. */
+    public CompletableFuture<String> getDescricaoComunidade(String nome) {
+        return consultar(() -> facade.getDescricaoComunidade(nome));
+    }
+
+    /** Assíncrono de {@link Facade#getDonoComunidade(String)}. */
+    public CompletableFuture<String> getDonoComunidade(String nome) {
+        return consultar(() -> facade.getDonoComunidade(nome));
+    }
+
+    /** Assíncrono de {@link Facade#getMembrosComunidade(String)}. */
+    public CompletableFuture<String> getMembrosComunidade(String nome) {
+        return consultar(() -> facade.getMembrosComunidade(nome));
+    }
+
+    /** Assíncrono de {@link Facade#getComunidades(String)}. */
+    public CompletableFuture<String> getComunidades(String login) {
+        return consultar(() -> facade.getComunidades(login));
+    }
+
+    /** Assíncrono de {@link Facade#adicionarComunidade(String, String)}. */
+    public CompletableFuture<Void> adicionarComunidade(String sessionId, String nome) {
+        return alterar(() -> facade.adicionarComunidade(sessionId, nome));
+    }
+
+    /** Assíncrono de {@link Facade#lerMensagem(String)}. */
+    public CompletableFuture<String> lerMensagem(String sessionId) {
+        return alterar(() -> facade.lerMensagem(sessionId));
+    }
+
+    /** Assíncrono de {@link Facade#lerMensagens(String, int)}. */
+    public CompletableFuture<List<String>> lerMensagens(String sessionId, int quantidade) {
+        return alterar(() -> facade.lerMensagens(sessionId, quantidade));
+    }
+
+    /** Assíncrono de {@link Facade#enviarMensagem(String, String, String)}. */
+    public CompletableFuture<Void> enviarMensagem(String sessionId, String comunidade, String mensagem) {
+        return alterar(() -> facade.enviarMensagem(sessionId, comunidade, mensagem));
+    }
+
+    /** Assíncrono de {@link Facade#ehFa(String, String)}. */
+    public CompletableFuture<Boolean> ehFa(String login, String idolo) {
+        return consultar(() -> facade.ehFa(login, idolo));
+    }
+
+    /** Assíncrono de {@link Facade#adicionarIdolo(String, String)}. */
+    public CompletableFuture<Void> adicionarIdolo(String sessionId, String idolo) {
+        return alterar(() -> facade.adicionarIdolo(sessionId, idolo));
+    }
+
+    /** Assíncrono de {@link Facade#getFas(String)}. */
+    public CompletableFuture<String> getFas(String login) {
+        return consultar(() -> facade.getFas(login));
+    }
+
+    /** Assíncrono de {@link Facade#ehPaquera(String, String)}. */
+    public CompletableFuture<Boolean> ehPaquera(String sessionId, String paquera) {
+        return consultar(() -> facade.ehPaquera(sessionId, paquera));
+    }
+
+    /** Assíncrono de {@link Facade#adicionarPaquera(String, String)}. */
+    public CompletableFuture<Void> adicionarPaquera(String sessionId, String paquera) {
+        return alterar(() -> facade.adicionarPaquera(sessionId, paquera));
+    }
+
+    /** Assíncrono de {@link Facade#getPaqueras(String)}. */
+    public CompletableFuture<String> getPaqueras(String sessionId) {
+        return consultar(() -> facade.getPaqueras(sessionId));
+    }
+
+    /** Assíncrono de {@link Facade#adicionarInimigo(String, String)}. */
+    public CompletableFuture<Void> adicionarInimigo(String sessionId, String inimigo) {
+        return alterar(() -> facade.adicionarInimigo(sessionId, inimigo));
+    }
+
+    /** Assíncrono de {@link Facade#removerUsuario(String)}. */
+    public CompletableFuture<Void> removerUsuario(String sessionId) {
+        return alterar(() -> facade.removerUsuario(sessionId));
+    }
+
+    /** Assíncrono de {@link Facade#exportarDados(String)}. */
+    public CompletableFuture<Void> exportarDados(String arquivo) {
+        return consultar(() -> {
+            facade.exportarDados(arquivo);
+            return null;
+        });
+    }
+
+    /** Assíncrono de {@link Facade#importarDados(String)}. */
+    public CompletableFuture<Void> importarDados(String arquivo) {
+        return alterar(() -> facade.importarDados(arquivo));
+    }
+
+    /** Assíncrono de {@link Facade#executarLote(List)}. */
+    public CompletableFuture<List<ResultadoComando>> executarLote(List<Comando> comandos) {
+        return alterar(() -> facade.executarLote(comandos));
+    }
+}
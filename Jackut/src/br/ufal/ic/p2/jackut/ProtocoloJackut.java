@@ -0,0 +1,176 @@
+package br.ufal.ic.p2.jackut;
+
+import br.ufal.ic.p2.jackut.persistence.CanalEntrada;
+import br.ufal.ic.p2.jackut.persistence.CanalSaida;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Protocolo entre o {@link ClienteJackut} e o {@link ServidorJackut}.
+ * <p>
+ * Cada mensagem é um quadro: o tamanho do conteúdo em 4 bytes, seguido do
+ * conteúdo codificado com {@link CanalSaida}. Um pedido é um {@link Comando}:
+ * o número do pedido, o nome da operação da Facade, a quantidade de
+ * argumentos e os argumentos. A resposta começa pelo número do pedido,
+ * seguido de {@link #OK} e do valor devolvido pela operação ({@link #NULO},
+ * {@link #TEXTO} seguido do texto, {@link #BOOLEANO} seguido de 0 ou 1, ou
+ * {@link #LISTA} seguida da quantidade de textos e dos textos), ou de
+ * {@link #ERRO}, do nome da exceção lançada e da sua mensagem.
+ * <p>
+ * O cliente pode enviar vários pedidos sem esperar as respostas. O servidor
+ * executa os pedidos de uma conexão na ordem em que chegam e responde na
+ * mesma ordem.
+ */
+final class ProtocoloJackut {
+
+    /** Início das respostas */
+    static final int OK = 0;
+    static final int ERRO = 1;
+
+    /** Tipos dos valores devolvidos */
+    static final int NULO = 0;
+    static final int TEXTO = 1;
+    static final int BOOLEANO = 2;
+    static final int LISTA = 3;
+
+    /** Maior quadro aceito, para não alocar memória a partir de um tamanho corrompido */
+    private static final int TAMANHO_MAXIMO = 16 * 1024 * 1024;
+
+    /** Buffer inicial da codificação de um quadro */
+    static final int TAMANHO_CODIFICACAO = 128;
+
+    private ProtocoloJackut() {
+    }
+
+    /**
+     * Envia um quadro sem descarregar o buffer da conexão.
+     *
+     * @param out Destino
+     * @param conteudo Conteúdo codificado
+     * @throws IOException Se ocorrer um erro de escrita
+     */
+    static void enviar(DataOutputStream out, CanalSaida conteudo) throws IOException {
+        byte[] bytes = conteudo.getBytes();
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Recebe um quadro.
+     *
+     * @param in Origem
+     * @return Conteúdo do quadro
+     * @throws IOException Se a conexão terminar, o quadro for inválido ou ocorrer um erro de leitura
+     */
+    static CanalEntrada receber(DataInputStream in) throws IOException {
+        int tamanho = in.readInt();
+        if (tamanho < 0 || tamanho > TAMANHO_MAXIMO) {
+            throw new IOException("Quadro inválido: " + tamanho + " bytes");
+        }
+        byte[] bytes = new byte[tamanho];
+        in.readFully(bytes);
+        return new CanalEntrada(bytes);
+    }
+
+    /**
+     * Codifica um pedido.
+     *
+     * @param numero Número do pedido na conexão
+     * @param comando Operação e argumentos
+     * @return Conteúdo do quadro
+     * @throws IOException Se ocorrer um erro de escrita
+     */
+    static CanalSaida codificarPedido(long numero, Comando comando) throws IOException {
+        CanalSaida saida = new CanalSaida(TAMANHO_CODIFICACAO);
+        saida.escreverVarint(numero);
+        saida.escreverTexto(comando.getOperacao());
+        saida.escreverVarint(comando.getArgumentos().length);
+        for (String argumento : comando.getArgumentos()) {
+            escreverTexto(saida, argumento);
+        }
+        return saida;
+    }
+
+    /**
+     * Lê o comando de um pedido, depois do seu número.
+     *
+     * @param entrada Conteúdo do pedido
+     * @return Operação e argumentos
+     * @throws IOException Se o pedido estiver corrompido
+     */
+    static Comando lerComando(CanalEntrada entrada) throws IOException {
+        String operacao = entrada.lerTexto();
+        String[] argumentos = new String[entrada.lerVarintInt()];
+        for (int i = 0; i < argumentos.length; i++) {
+            argumentos[i] = lerTexto(entrada);
+        }
+        return new Comando(operacao, argumentos);
+    }
+
+    /**
+     * Codifica a resposta de um pedido.
+     *
+     * @param numero Número do pedido
+     * @param valor Valor devolvido pela operação
+     * @param erro Exceção lançada pela operação, ou null se ela foi bem-sucedida
+     * @return Conteúdo do quadro
+     * @throws IOException Se ocorrer um erro de escrita
+     */
+    static CanalSaida codificarResposta(long numero, Object valor, Throwable erro) throws IOException {
+        CanalSaida saida = new CanalSaida(TAMANHO_CODIFICACAO);
+        saida.escreverVarint(numero);
+        if (erro != null) {
+            saida.escreverByte(ERRO);
+            saida.escreverTexto(erro.getClass().getSimpleName());
+            escreverTexto(saida, erro.getMessage());
+        } else if (valor == null) {
+            saida.escreverByte(OK);
+            saida.escreverByte(NULO);
+        } else if (valor instanceof Boolean) {
+            saida.escreverByte(OK);
+            saida.escreverByte(BOOLEANO);
+            saida.escreverByte((Boolean) valor ? 1 : 0);
+        } else if (valor instanceof List) {
+            List<?> itens = (List<?>) valor;
+            saida.escreverByte(OK);
+            saida.escreverByte(LISTA);
+            saida.escreverVarint(itens.size());
+            for (Object item : itens) {
+                saida.escreverTexto(item.toString());
+            }
+        } else {
+            saida.escreverByte(OK);
+            saida.escreverByte(TEXTO);
+            saida.escreverTexto(valor.toString());
+        }
+        return saida;
+    }
+
+    /**
+     * Escreve um texto que pode ser nulo: 0 para null, ou o tamanho + 1 seguido dos bytes.
+     */
+    static void escreverTexto(CanalSaida saida, String texto) throws IOException {
+        if (texto == null) {
+            saida.escreverVarint(0);
+            return;
+        }
+        byte[] bytes = texto.getBytes(StandardCharsets.UTF_8);
+        saida.escreverVarint(bytes.length + 1L);
+        saida.escreverBytes(bytes);
+    }
+
+    /**
+     * @return Texto escrito por {@link #escreverTexto}, que pode ser nulo
+     */
+    static String lerTexto(CanalEntrada entrada) throws IOException {
+        int tamanho = entrada.lerVarintInt();
+        if (tamanho == 0) {
+            return null;
+        }
+        return new String(entrada.lerBytes(tamanho - 1), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,62 @@
+package br.ufal.ic.p2.jackut;
+
+/**
+ * Resultado de um {@link Comando} executado em um lote pela
+ * {@link Facade#executarLote(java.util.List)}: o valor devolvido pela
+ * operação ou a exceção que ela lançou.
+ */
+public class ResultadoComando {
+
+    /** Valor devolvido pela operação (null para as operações sem retorno) */
+    private final Object valor;
+
+    /** Exceção lançada pela operação, ou null se ela foi bem-sucedida */
+    private final RuntimeException erro;
+
+    private ResultadoComando(Object valor, RuntimeException erro) {
+        this.valor = valor;
+        this.erro = erro;
+    }
+
+    /**
+     * @param valor Valor devolvido pela operação
+     * @return Resultado de uma operação bem-sucedida
+     */
+    public static ResultadoComando sucesso(Object valor) {
+        return new ResultadoComando(valor, null);
+    }
+
+    /**
+     * @param erro Exceção lançada pela operação
+     * @return Resultado de uma operação que falhou
+     */
+    public static ResultadoComando falha(RuntimeException erro) {
+        return new ResultadoComando(null, erro);
+    }
+
+    /**
+     * @return true se a operação foi bem-sucedida
+     */
+    public boolean isSucesso() {
+        return erro == null;
+    }
+
+    /**
+     * @return Valor devolvido pela operação (null se ela falhou ou não tem retorno)
+     */
+    public Object getValor() {
+        return valor;
+    }
+
+    /**
+     * @return Exceção lançada pela operação, ou null se ela foi bem-sucedida
+     */
+    public RuntimeException getErro() {
+        return erro;
+    }
+
+    @Override
+    public String toString() {
+        return isSucesso() ? String.valueOf(valor) : erro.getMessage();
+    }
+}
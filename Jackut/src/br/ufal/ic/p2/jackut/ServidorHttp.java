@@ -0,0 +1,475 @@
+package br.ufal.ic.p2.jackut;
+
+import br.ufal.ic.p2.jackut.exceptions.ReadOnlyReplicaException;
+import br.ufal.ic.p2.jackut.exceptions.SystemSaveException;
+import br.ufal.ic.p2.jackut.persistence.ExportacaoJson;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Interface HTTP/JSON da {@link Facade}, sobre o servidor HTTP do JDK.
+ * <p>
+ * Cada operação pública da Facade usada pelos usuários é o endpoint
+ * {@code /api/<operacao>}. As operações de administração ({@code zerarSistema},
+ * {@code exportarDados}, {@code importarDados} e {@code encerrarSistema}) não
+ * são expostas: os pedidos não são autenticados, e elas apagariam o sistema
+ * ou leriam e gravariam arquivos quaisquer do servidor.
+ * <p>
+ * Os argumentos são informados pelos nomes dos parâmetros do método (ex.:
+ * {@code POST /api/criarUsuario} com {@code {"login":"ana","senha":"s","nome":"Ana"}}),
+ * na query string, em um objeto JSON ou em um formulário no corpo. Um
+ * argumento ausente é passado como null. As mutações só aceitam POST; as
+ * consultas, GET ou POST. A resposta é {@code {"valor":...}} com o valor
+ * devolvido pela operação (uma lista JSON em {@code lerRecados} e
+ * {@code lerMensagens}), ou {@code {"erro":<exceção>,"mensagem":...}} com
+ * o status 400 (erro da operação), 404 (operação inexistente), 500 (falha ao
+ * gravar) ou 503 (réplica somente leitura).
+ * <p>
+ * {@code getMembrosComunidade} e {@code getFas} devolvem uma lista JSON em
+ * vez do texto formatado da Facade. Ela é escrita aos poucos, com
+ * transferência em blocos (chunked), e comprimida com gzip quando o cliente
+ * aceita e a lista tem ao menos {@value #LIMITE_GZIP} elementos: a resposta
+ * nunca é montada inteira na memória.
+ * <p>
+ * As conexões são mantidas entre os pedidos (keep-alive do HTTP/1.1). Os
+ * pedidos são executados em {@code -Djackut.http.threads} threads (padrão:
+ * duas por processador); uma mutação não ocupa a thread enquanto espera o
+ * disco, e a resposta é enviada quando o journal a sincroniza.
+ * {@code GET /metricas} informa, por endpoint, a quantidade de chamadas e
+ * de erros e a latência média, máxima e aproximada nos percentis 50 e 99.
+ * <p>
+ * Uso: {@code java br.ufal.ic.p2.jackut.ServidorHttp <porta> [endereco]}.
+ * Sem endereço, o servidor só aceita conexões da própria máquina.
+ */
+public class ServidorHttp implements Closeable {
+
+    /** Prefixo dos endpoints das operações */
+    private static final String PREFIXO = "/api/";
+
+    /** Menor lista comprimida com gzip */
+    static final int LIMITE_GZIP = 256;
+
+    /** Maior corpo de pedido aceito */
+    private static final int TAMANHO_MAXIMO = 1024 * 1024;
+
+    /** Operações que devolvem uma lista enviada aos poucos */
+    private static final Set<String> LISTAS = Set.of("getMembrosComunidade", "getFas");
+
+    /** Facade onde os pedidos são executados */
+    private final Facade facade;
+
+    /** Servidor HTTP do JDK */
+    private final HttpServer servidor;
+
+    /** Threads onde os pedidos são executados e respondidos */
+    private final ExecutorService executor;
+
+    /** Endpoints, indexados pelo nome da operação */
+    private final Map<String, Endpoint> endpoints;
+
+    /**
+     * Construtor que abre a porta do servidor. Os pedidos só são atendidos
+     * depois de {@link #iniciar()}.
+     *
+     * @param facade Facade onde os pedidos são executados
+     * @param endereco Endereço local onde o servidor escuta
+     * @param porta Porta (0 = qualquer porta livre)
+     * @throws IOException Se a porta não puder ser aberta
+     */
+    public ServidorHttp(Facade facade, InetAddress endereco, int porta) throws IOException {
+        // O servidor do JDK envia o cabeçalho e o corpo da resposta em escritas
+        // separadas; com o algoritmo de Nagle, o corpo esperaria o ACK atrasado
+        // do cabeçalho (~40 ms) em cada pedido de uma conexão mantida
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        this.facade = facade;
+        this.servidor = HttpServer.create(new InetSocketAddress(endereco, porta), 1024);
+        this.executor = criarExecutor();
+        this.endpoints = new LinkedHashMap<>();
+        consulta("getAtributoUsuario", "login", "atributo");
+        mutacao("criarUsuario", "login", "senha", "nome");
+        mutacao("abrirSessao", "login", "senha");
+        mutacao("encerrarSessao", "sessionId");
+        consulta("existeSessao", "sessionId");
+        consulta("getLoginDaSessao", "sessionId");
+        mutacao("editarPerfil", "sessionId", "atributo", "valor");
+        consulta("ehAmigo", "sessionId", "amigo");
+        mutacao("adicionarAmigo", "sessionId", "amigo");
+        consulta("getAmigos", "sessionId");
+        mutacao("enviarRecado", "sessionId", "destinatario", "recado");
+        mutacao("lerRecado", "sessionId");
+        mutacao("lerRecados", "sessionId", "quantidade");
+        mutacao("criarComunidade", "sessionId", "nome", "descricao");
+        consulta("getDescricaoComunidade", "nome");
+        consulta("getDonoComunidade", "nome");
+        consulta("getMembrosComunidade", "nome");
+        consulta("getComunidades", "login");
+        mutacao("adicionarComunidade", "sessionId", "nome");
+        mutacao("lerMensagem", "sessionId");
+        mutacao("lerMensagens", "sessionId", "quantidade");
+        mutacao("enviarMensagem", "sessionId", "comunidade", "mensagem");
+        consulta("ehFa", "login", "idolo");
+        mutacao("adicionarIdolo", "sessionId", "idolo");
+        consulta("getFas", "login");
+        consulta("ehPaquera", "sessionId", "paquera");
+        mutacao("adicionarPaquera", "sessionId", "paquera");
+        consulta("getPaqueras", "sessionId");
+        mutacao("adicionarInimigo", "sessionId", "inimigo");
+        mutacao("removerUsuario", "sessionId");
+
+        servidor.setExecutor(executor);
+        servidor.createContext(PREFIXO, this::atender);
+        servidor.createContext("/metricas", this::informarMetricas);
+    }
+
+    private static ExecutorService criarExecutor() {
+        int threads = (int) Configuracao.getNumero(Configuracao.HTTP_THREADS,
+                2L * Runtime.getRuntime().availableProcessors());
+        AtomicInteger numero = new AtomicInteger();
+        return Executors.newFixedThreadPool(Math.max(1, threads), tarefa -> {
+            Thread thread = new Thread(tarefa, "jackut-http-" + numero.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private void consulta(String operacao, String... parametros) {
+        endpoints.put(operacao, new Endpoint(operacao, false, parametros));
+    }
+
+    private void mutacao(String operacao, String... parametros) {
+        endpoints.put(operacao, new Endpoint(operacao, true, parametros));
+    }
+
+    /**
+     * @return Porta onde o servidor escuta
+     */
+    public int getPorta() {
+        return servidor.getAddress().getPort();
+    }
+
+    /**
+     * Passa a atender os pedidos.
+     */
+    public void iniciar() {
+        servidor.start();
+    }
+
+    /**
+     * Fecha a porta e as conexões do servidor. Não encerra a Facade.
+     */
+    @Override
+    public void close() {
+        servidor.stop(0);
+        executor.shutdown();
+    }
+
+    /**
+     * Executa o pedido de um endpoint. A resposta de uma mutação é enviada
+     * quando ela está no disco, em uma das threads do servidor.
+     */
+    private void atender(HttpExchange troca) throws IOException {
+        long inicio = System.nanoTime();
+        Endpoint endpoint = endpoints.get(troca.getRequestURI().getPath().substring(PREFIXO.length()));
+        if (endpoint == null) {
+            responderErro(troca, 404, "IllegalArgumentException", "Operação desconhecida");
+            return;
+        }
+        String metodo = troca.getRequestMethod();
+        if (!"POST".equals(metodo) && (endpoint.mutacao || !"GET".equals(metodo))) {
+            troca.getResponseHeaders().set("Allow", endpoint.mutacao ? "POST" : "GET, POST");
+            responderErro(troca, 405, "IllegalArgumentException", "Método não permitido: " + metodo);
+            return;
+        }
+
+        String[] argumentos;
+        try {
+            Map<String, String> parametros = lerParametros(troca);
+            argumentos = new String[endpoint.parametros.length];
+            for (int i = 0; i < argumentos.length; i++) {
+                argumentos[i] = parametros.get(endpoint.parametros[i]);
+            }
+        } catch (IOException e) {
+            responderErro(troca, 400, "IllegalArgumentException", e.getMessage());
+            endpoint.registrar(System.nanoTime() - inicio, true);
+            return;
+        }
+
+        if (LISTAS.contains(endpoint.operacao)) {
+            List<String> lista;
+            try {
+                lista = "getFas".equals(endpoint.operacao)
+                        ? facade.listarFas(argumentos[0]) : facade.listarMembrosComunidade(argumentos[0]);
+            } catch (RuntimeException e) {
+                responderErro(troca, e);
+                endpoint.registrar(System.nanoTime() - inicio, true);
+                return;
+            }
+            responderLista(troca, lista);
+            endpoint.registrar(System.nanoTime() - inicio, false);
+            return;
+        }
+
+        CompletableFuture<Object> resultado = facade.despacharSemAguardarDisco(
+                new Comando(endpoint.operacao, argumentos));
+        resultado.whenCompleteAsync((valor, erro) -> {
+            try {
+                if (erro == null) {
+                    responderValor(troca, valor);
+                } else {
+                    responderErro(troca, erro instanceof CompletionException && erro.getCause() != null
+                            ? erro.getCause() : erro);
+                }
+            } catch (IOException e) {
+                // Conexão fechada pelo cliente
+            } finally {
+                troca.close();
+                endpoint.registrar(System.nanoTime() - inicio, erro != null);
+            }
+        }, executor);
+    }
+
+    /**
+     * Lê os parâmetros da query string e do corpo (objeto JSON ou formulário).
+     */
+    private static Map<String, String> lerParametros(HttpExchange troca) throws IOException {
+        Map<String, String> parametros = new HashMap<>();
+        lerFormulario(troca.getRequestURI().getRawQuery(), parametros);
+        byte[] bytes;
+        try (InputStream corpo = troca.getRequestBody()) {
+            bytes = corpo.readNBytes(TAMANHO_MAXIMO + 1);
+        }
+        if (bytes.length > TAMANHO_MAXIMO) {
+            throw new IOException("Corpo do pedido muito grande");
+        }
+        String texto = new String(bytes, StandardCharsets.UTF_8).trim();
+        if (texto.startsWith("{")) {
+            for (Map.Entry<String, Object> campo : ExportacaoJson.lerObjeto(texto).entrySet()) {
+                parametros.put(campo.getKey(), campo.getValue() == null ? null : String.valueOf(campo.getValue()));
+            }
+        } else {
+            lerFormulario(texto, parametros);
+        }
+        return parametros;
+    }
+
+    private static void lerFormulario(String texto, Map<String, String> parametros) throws IOException {
+        if (texto == null || texto.isEmpty()) {
+            return;
+        }
+        try {
+            for (String par : texto.split("&")) {
+                int igual = par.indexOf('=');
+                String nome = igual < 0 ? par : par.substring(0, igual);
+                String valor = igual < 0 ? "" : par.substring(igual + 1);
+                parametros.put(URLDecoder.decode(nome, StandardCharsets.UTF_8),
+                        URLDecoder.decode(valor, StandardCharsets.UTF_8));
+            }
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Parâmetros inválidos");
+        }
+    }
+
+    private static void responderValor(HttpExchange troca, Object valor) throws IOException {
+        StringWriter json = new StringWriter();
+        json.write("{\"valor\":");
+        if (valor == null || valor instanceof Boolean) {
+            json.write(String.valueOf(valor));
+        } else if (valor instanceof List) {
+            json.write('[');
+            String separador = "";
+            for (Object item : (List<?>) valor) {
+                json.write(separador);
+                ExportacaoJson.escreverTexto(json, item.toString());
+                separador = ",";
+            }
+            json.write(']');
+        } else {
+            ExportacaoJson.escreverTexto(json, valor.toString());
+        }
+        json.write('}');
+        responder(troca, 200, json.toString());
+    }
+
+    private static void responderErro(HttpExchange troca, Throwable erro) throws IOException {
+        int status;
+        if (erro instanceof ReadOnlyReplicaException || erro instanceof RejectedExecutionException) {
+            status = 503;
+        } else if (erro instanceof SystemSaveException || !(erro instanceof RuntimeException)) {
+            status = 500;
+        } else {
+            status = 400;
+        }
+        responderErro(troca, status, erro.getClass().getSimpleName(), erro.getMessage());
+    }
+
+    private static void responderErro(HttpExchange troca, int status, String tipo, String mensagem)
+            throws IOException {
+        StringWriter json = new StringWriter();
+        json.write("{\"erro\":");
+        ExportacaoJson.escreverTexto(json, tipo);
+        json.write(",\"mensagem\":");
+        ExportacaoJson.escreverTexto(json, mensagem);
+        json.write('}');
+        responder(troca, status, json.toString());
+    }
+
+    private static void responder(HttpExchange troca, int status, String json) throws IOException {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        troca.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        troca.sendResponseHeaders(status, bytes.length);
+        try (OutputStream corpo = troca.getResponseBody()) {
+            corpo.write(bytes);
+        }
+    }
+
+    /**
+     * Envia uma lista em blocos, comprimida se for grande e o cliente aceitar gzip.
+     */
+    private static void responderLista(HttpExchange troca, List<String> lista) throws IOException {
+        String aceitas = troca.getRequestHeaders().getFirst("Accept-Encoding");
+        boolean comprimir = lista.size() >= LIMITE_GZIP && aceitas != null && aceitas.contains("gzip");
+        troca.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        if (comprimir) {
+            troca.getResponseHeaders().set("Content-Encoding", "gzip");
+        }
+        // Tamanho 0: transferência em blocos
+        troca.sendResponseHeaders(200, 0);
+        OutputStream corpo = troca.getResponseBody();
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(
+                comprimir ? new GZIPOutputStream(corpo, 8192) : corpo, StandardCharsets.UTF_8), 8192)) {
+            out.write("{\"valor\":[");
+            boolean primeiro = true;
+            for (String elemento : lista) {
+                if (!primeiro) {
+                    out.write(',');
+                }
+                primeiro = false;
+                ExportacaoJson.escreverTexto(out, elemento);
+            }
+            out.write("]}");
+        }
+    }
+
+    /**
+     * Responde {@code GET /metricas} com as chamadas e as latências de cada endpoint.
+     */
+    private void informarMetricas(HttpExchange troca) throws IOException {
+        troca.getRequestBody().close();
+        StringWriter json = new StringWriter();
+        json.write('{');
+        boolean primeiro = true;
+        for (Endpoint endpoint : endpoints.values()) {
+            long chamadas = endpoint.chamadas.sum();
+            if (chamadas == 0) {
+                continue;
+            }
+            if (!primeiro) {
+                json.write(',');
+            }
+            primeiro = false;
+            ExportacaoJson.escreverTexto(json, endpoint.operacao);
+            json.write(String.format(Locale.ROOT,
+                    ":{\"chamadas\":%d,\"erros\":%d,\"mediaUs\":%d,\"p50Us\":%d,\"p99Us\":%d,\"maxUs\":%d}",
+                    chamadas, endpoint.erros.sum(), endpoint.totalNanos.sum() / chamadas / 1000,
+                    endpoint.percentilUs(0.50), endpoint.percentilUs(0.99), endpoint.maximoNanos.get() / 1000));
+        }
+        json.write('}');
+        responder(troca, 200, json.toString());
+    }
+
+    /**
+     * Operação exposta e as suas métricas.
+     */
+    private static final class Endpoint {
+        /** Faixas do histograma: a faixa i contém as latências menores que 2^i microssegundos */
+        private static final int FAIXAS = 40;
+
+        private final String operacao;
+        private final boolean mutacao;
+        private final String[] parametros;
+        private final LongAdder chamadas = new LongAdder();
+        private final LongAdder erros = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maximoNanos = new AtomicLong();
+        private final AtomicLongArray histograma = new AtomicLongArray(FAIXAS);
+
+        private Endpoint(String operacao, boolean mutacao, String[] parametros) {
+            this.operacao = operacao;
+            this.mutacao = mutacao;
+            this.parametros = parametros;
+        }
+
+        private void registrar(long nanos, boolean erro) {
+            chamadas.increment();
+            if (erro) {
+                erros.increment();
+            }
+            totalNanos.add(nanos);
+            maximoNanos.accumulateAndGet(nanos, Math::max);
+            int faixa = 64 - Long.numberOfLeadingZeros(nanos / 1000);
+            histograma.incrementAndGet(Math.min(FAIXAS - 1, faixa));
+        }
+
+        /**
+         * @return Limite superior, em microssegundos, da faixa que contém o
+         * percentil, sem passar da maior latência registrada
+         */
+        private long percentilUs(double fracao) {
+            long total = 0;
+            for (int i = 0; i < FAIXAS; i++) {
+                total += histograma.get(i);
+            }
+            long alvo = (long) Math.ceil(total * fracao);
+            long acumulado = 0;
+            for (int i = 0; i < FAIXAS; i++) {
+                acumulado += histograma.get(i);
+                if (acumulado >= alvo && acumulado > 0) {
+                    return Math.min(1L << i, maximoNanos.get() / 1000);
+                }
+            }
+            return maximoNanos.get() / 1000;
+        }
+    }
+
+    /**
+     * Inicia a Facade e um servidor HTTP para ela, e os mantém em execução
+     * até que o processo seja encerrado, quando o estado é salvo.
+     *
+     * @param args Porta e, opcionalmente, o endereço onde escutar
+     * @throws IOException Se a porta não puder ser aberta
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Uso: ServidorHttp <porta> [endereco]");
+            System.exit(2);
+        }
+        InetAddress endereco = args.length > 1 ? InetAddress.getByName(args[1]) : InetAddress.getLoopbackAddress();
+        Facade facade = new Facade();
+        ServidorHttp servidor = new ServidorHttp(facade, endereco, Integer.parseInt(args[0]));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            servidor.close();
+            facade.encerrarSistema();
+        }));
+        servidor.iniciar();
+        System.out.println("Jackut HTTP escutando em " + endereco.getHostAddress() + ":" + servidor.getPorta());
+    }
+}
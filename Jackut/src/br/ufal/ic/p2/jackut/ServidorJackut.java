@@ -0,0 +1,287 @@
+package br.ufal.ic.p2.jackut;
+
+import br.ufal.ic.p2.jackut.persistence.CanalEntrada;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static br.ufal.ic.p2.jackut.ProtocoloJackut.*;
+
+/**
+ * Servidor que expõe as operações da {@link Facade} pela rede, com o
+ * {@link ProtocoloJackut}. Os clientes usam o {@link ClienteJackut}.
+ * <p>
+ * Cada conexão é atendida por duas threads. A de leitura executa os pedidos
+ * na ordem em que chegam, sem esperar o disco entre eles; a de escrita envia
+ * as respostas na mesma ordem, cada uma quando a operação está no disco, e
+ * descarrega a conexão quando não há outra resposta pronta. Assim, os
+ * pedidos enviados em sequência por um cliente (pipelining) são gravados
+ * juntos pelo group commit do journal. Com {@code -Djackut.servidor.pipeline}
+ * pedidos sem resposta (padrão: 1024), a conexão deixa de ser lida até que
+ * o cliente receba as respostas.
+ * <p>
+ * Só as operações dos usuários ({@link #OPERACOES}) são atendidas. As de
+ * administração ({@code zerarSistema}, {@code exportarDados} e
+ * {@code importarDados}) são recusadas, pois os pedidos não são autenticados
+ * e elas apagariam o sistema ou leriam e gravariam arquivos do servidor.
+ * <p>
+ * Uso: {@code java br.ufal.ic.p2.jackut.ServidorJackut <porta> [endereco]}.
+ * Sem endereço, o servidor só aceita conexões da própria máquina.
+ */
+public class ServidorJackut implements Closeable {
+
+    /** Operações que podem ser pedidas pela rede */
+    static final Set<String> OPERACOES = Set.of(
+            "criarUsuario", "abrirSessao", "encerrarSessao", "existeSessao", "getLoginDaSessao",
+            "getAtributoUsuario", "editarPerfil", "ehAmigo", "adicionarAmigo", "getAmigos",
+            "enviarRecado", "lerRecado", "lerRecados", "criarComunidade", "getDescricaoComunidade",
+            "getDonoComunidade", "getMembrosComunidade", "getComunidades", "adicionarComunidade",
+            "lerMensagem", "lerMensagens", "enviarMensagem", "ehFa", "adicionarIdolo", "getFas",
+            "ehPaquera", "adicionarPaquera", "getPaqueras", "adicionarInimigo", "removerUsuario");
+
+    /** Facade onde os pedidos são executados */
+    private final Facade facade;
+
+    /** Socket que aceita as conexões */
+    private final ServerSocket servidor;
+
+    /** Conexões abertas, fechadas junto com o servidor */
+    private final Set<Socket> conexoes;
+
+    /** Quantidade máxima de pedidos sem resposta em uma conexão */
+    private final int limitePipeline;
+
+    /**
+     * Construtor que abre a porta do servidor. As conexões só são aceitas
+     * depois de {@link #iniciar()}.
+     *
+     * @param facade Facade onde os pedidos são executados
+     * @param endereco Endereço local onde o servidor escuta
+     * @param porta Porta (0 = qualquer porta livre)
+     * @throws IOException Se a porta não puder ser aberta
+     */
+    public ServidorJackut(Facade facade, InetAddress endereco, int porta) throws IOException {
+        this.facade = facade;
+        this.servidor = new ServerSocket(porta, 1024, endereco);
+        this.conexoes = ConcurrentHashMap.newKeySet();
+        this.limitePipeline = (int) Math.max(1, Configuracao.getNumero(Configuracao.SERVIDOR_PIPELINE, 1024));
+    }
+
+    /**
+     * @return Porta onde o servidor escuta
+     */
+    public int getPorta() {
+        return servidor.getLocalPort();
+    }
+
+    /**
+     * @return Quantidade de conexões abertas
+     */
+    public int getConexoes() {
+        return conexoes.size();
+    }
+
+    /**
+     * Passa a aceitar conexões em uma thread própria.
+     */
+    public void iniciar() {
+        Thread aceitacao = new Thread(this::aceitar, "jackut-servidor-" + getPorta());
+        aceitacao.setDaemon(true);
+        aceitacao.start();
+    }
+
+    /**
+     * Fecha a porta do servidor e as conexões abertas. Não encerra a Facade.
+     */
+    @Override
+    public void close() throws IOException {
+        servidor.close();
+        for (Socket conexao : conexoes) {
+            conexao.close();
+        }
+    }
+
+    private void aceitar() {
+        while (!servidor.isClosed()) {
+            Socket conexao;
+            try {
+                conexao = servidor.accept();
+            } catch (IOException e) {
+                // Porta fechada
+                return;
+            }
+            Thread leitura = new Thread(() -> atender(conexao), "jackut-servidor-conexao");
+            leitura.setDaemon(true);
+            leitura.start();
+        }
+    }
+
+    /**
+     * Lê e executa os pedidos de uma conexão até que o cliente a feche, e
+     * aguarda o envio das respostas pendentes.
+     */
+    private void atender(Socket socket) {
+        conexoes.add(socket);
+        BlockingQueue<Resposta> respostas = new ArrayBlockingQueue<>(limitePipeline);
+        try (Socket conexao = socket) {
+            conexao.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(conexao.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(conexao.getOutputStream()));
+
+            Thread escrita = new Thread(() -> responder(conexao, out, respostas), "jackut-servidor-respostas");
+            escrita.setDaemon(true);
+            escrita.start();
+            try {
+                while (true) {
+                    CanalEntrada pedido = receber(in);
+                    long numero = pedido.lerVarint();
+                    Comando comando = lerComando(pedido);
+                    respostas.put(new Resposta(numero, executar(comando)));
+                }
+            } catch (EOFException | SocketException e) {
+                // Conexão fechada pelo cliente
+            } catch (IOException e) {
+                // Pedido corrompido: a conexão é descartada
+            } finally {
+                respostas.put(Resposta.FIM);
+                escrita.join();
+            }
+        } catch (IOException e) {
+            // Conexão descartada
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            conexoes.remove(socket);
+        }
+    }
+
+    /**
+     * Executa um pedido, se a operação puder ser pedida pela rede.
+     *
+     * @param comando Pedido recebido
+     * @return Valor devolvido pela operação, ou falha se ela não for permitida
+     */
+    private CompletableFuture<Object> executar(Comando comando) {
+        if (!OPERACOES.contains(comando.getOperacao())) {
+            return CompletableFuture.failedFuture(
+                    new IllegalArgumentException("Operação não permitida pela rede: " + comando.getOperacao()));
+        }
+        return facade.despacharSemAguardarDisco(comando);
+    }
+
+    /**
+     * Envia as respostas de uma conexão na ordem dos pedidos. Se a conexão
+     * falhar, ela é fechada e as respostas restantes são descartadas, para
+     * que a leitura não fique bloqueada na fila cheia.
+     */
+    private static void responder(Socket conexao, DataOutputStream out, BlockingQueue<Resposta> respostas) {
+        boolean ativa = true;
+        try {
+            while (true) {
+                Resposta resposta = respostas.poll();
+                if (resposta == null) {
+                    if (ativa) {
+                        ativa = descarregar(conexao, out);
+                    }
+                    resposta = respostas.take();
+                }
+                if (resposta == Resposta.FIM) {
+                    if (ativa) {
+                        descarregar(conexao, out);
+                    }
+                    return;
+                }
+                if (!resposta.resultado.isDone() && ativa) {
+                    // As respostas prontas saem antes de esperar o disco
+                    ativa = descarregar(conexao, out);
+                }
+                Object valor = null;
+                Throwable erro = null;
+                try {
+                    valor = resposta.resultado.join();
+                } catch (CompletionException e) {
+                    erro = e.getCause() != null ? e.getCause() : e;
+                }
+                if (ativa) {
+                    try {
+                        enviar(out, codificarResposta(resposta.numero, valor, erro));
+                    } catch (IOException e) {
+                        ativa = fechar(conexao);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static boolean descarregar(Socket conexao, DataOutputStream out) {
+        try {
+            out.flush();
+            return true;
+        } catch (IOException e) {
+            return fechar(conexao);
+        }
+    }
+
+    private static boolean fechar(Socket conexao) {
+        try {
+            conexao.close();
+        } catch (IOException e) {
+            // A conexão já está inutilizável
+        }
+        return false;
+    }
+
+    /**
+     * Resposta pendente de um pedido.
+     */
+    private static final class Resposta {
+        /** Marca o fim dos pedidos de uma conexão */
+        private static final Resposta FIM = new Resposta(-1, null);
+
+        private final long numero;
+        private final CompletableFuture<Object> resultado;
+
+        private Resposta(long numero, CompletableFuture<Object> resultado) {
+            this.numero = numero;
+            this.resultado = resultado;
+        }
+    }
+
+    /**
+     * Inicia a Facade e um servidor para ela, e os mantém em execução até
+     * que o processo seja encerrado, quando o estado é salvo.
+     *
+     * @param args Porta e, opcionalmente, o endereço onde escutar
+     * @throws IOException Se a porta não puder ser aberta
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Uso: ServidorJackut <porta> [endereco]");
+            System.exit(2);
+        }
+        InetAddress endereco = args.length > 1 ? InetAddress.getByName(args[1]) : InetAddress.getLoopbackAddress();
+        Facade facade = new Facade();
+        ServidorJackut servidor = new ServidorJackut(facade, endereco, Integer.parseInt(args[0]));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                servidor.close();
+            } catch (IOException e) {
+                // O estado é salvo mesmo assim
+            }
+            facade.encerrarSistema();
+        }));
+        System.out.println("Jackut escutando em " + endereco.getHostAddress() + ":" + servidor.getPorta());
+        servidor.aceitar();
+    }
+}
@@ -4,49 +4,74 @@ import java.io.Serial;
 import java.io.Serializable;
 
 /**
- * Classe que representa uma comunicao (mensagem) entre usurios ou para uma comunidade.
+ * Classe que representa uma comunicação (mensagem) entre usuários ou para uma comunidade.
  * Pode ser um recado direto ou uma mensagem para comunidade.
  */
 public class Comunicacao implements Serializable {
     @Serial
     private static final long serialVersionUID = 1L;
 
-    /** Login do usurio que enviou a mensagem */
+    /** Login do usuário que enviou a mensagem */
     private final String remetente;
 
-    /** Login do usurio ou nome da comunidade destinatria */
+    /** Login do usuário ou nome da comunidade destinatária */
     private final String destinatario;
 
-    /** Contedo da mensagem */
+    /** Conteúdo da mensagem */
     private final String conteudo;
 
     /** Tipo da mensagem: "recado" ou "comunidade" */
     private final String tipo;
 
+    /** Ordem de chegada no mural de onde a mensagem veio, ou 0 se ela não veio de um mural */
+    private final long ordem;
+
     /**
-     * Construtor que inicializa uma nova comunicao.
+     * Construtor que inicializa uma nova comunicação.
      *
-     * @param remetente Login do usurio que enviou a mensagem
-     * @param destinatario Login do usurio ou nome da comunidade destinatria
-     * @param conteudo Contedo da mensagem
+     * @param remetente Login do usuário que enviou a mensagem
+     * @param destinatario Login do usuário ou nome da comunidade destinatária
+     * @param conteudo Conteúdo da mensagem
      * @param tipo Tipo da mensagem: "recado" ou "comunidade"
      */
     public Comunicacao(String remetente, String destinatario, String conteudo, String tipo) {
+        this(remetente, destinatario, conteudo, tipo, 0);
+    }
+
+    /**
+     * Construtor de uma comunicação que guarda a ordem de chegada no mural de
+     * onde veio, para ser lida na mesma ordem das que ainda estão nos murais.
+     *
+     * @param remetente Login do usuário que enviou a mensagem
+     * @param destinatario Login do usuário ou nome da comunidade destinatária
+     * @param conteudo Conteúdo da mensagem
+     * @param tipo Tipo da mensagem: "recado" ou "comunidade"
+     * @param ordem Ordem de chegada no mural, ou 0 se a mensagem não veio de um mural
+     */
+    public Comunicacao(String remetente, String destinatario, String conteudo, String tipo, long ordem) {
         this.remetente = remetente;
         this.destinatario = destinatario;
         this.conteudo = conteudo;
         this.tipo = tipo;
+        this.ordem = ordem;
     }
 
     /**
-     * @return Login do usurio que enviou a mensagem
+     * @return Login do usuário que enviou a mensagem
      */
     public String getRemetente() {
         return remetente;
     }
 
     /**
-     * @return Contedo da mensagem
+     * @return Login do usuário ou nome da comunidade destinatária
+     */
+    public String getDestinatario() {
+        return destinatario;
+    }
+
+    /**
+     * @return Conteúdo da mensagem
      */
     public String getConteudo() {
         return conteudo;
@@ -58,4 +83,11 @@ public class Comunicacao implements Serializable {
     public String getTipo() {
         return tipo;
     }
+
+    /**
+     * @return Ordem de chegada no mural de onde a mensagem veio, ou 0 se ela não veio de um mural
+     */
+    public long getOrdem() {
+        return ordem;
+    }
 }
\ No newline at end of file
@@ -6,34 +6,38 @@ import java.util.*;
 
 /**
  * Classe que representa uma comunidade no sistema Jackut.
- * Uma comunidade possui um dono, membros e uma descrio.
+ * Uma comunidade possui um dono, membros, uma descrição e o mural com as
+ * mensagens enviadas a ela.
  */
 public class Comunidade implements Serializable {
     @Serial
     private static final long serialVersionUID = 1L;
 
-    /** ID da sesso que criou a comunidade */
+    /** ID da sessão que criou a comunidade */
     private final String sessionID;
 
-    /** Login do usurio dono da comunidade */
+    /** Login do usuário dono da comunidade */
     private final String donoComunidade;
 
-    /** Nome nico da comunidade */
+    /** Nome único da comunidade */
     private final String nome;
 
-    /** Descrio da comunidade */
+    /** Descrição da comunidade */
     private final String descricao;
 
     /** Lista de logins dos membros da comunidade */
     private List<String> membros;
 
+    /** Mural das mensagens enviadas à comunidade, criado no primeiro acesso */
+    private MuralComunidade mural;
+
     /**
      * Construtor que inicializa uma nova comunidade.
      *
-     * @param sessionID ID da sesso que criou a comunidade
-     * @param donoComunidade Login do usurio dono da comunidade
-     * @param nome Nome nico da comunidade
-     * @param descricao Descrio da comunidade
+     * @param sessionID ID da sessão que criou a comunidade
+     * @param donoComunidade Login do usuário dono da comunidade
+     * @param nome Nome único da comunidade
+     * @param descricao Descrição da comunidade
      */
     public Comunidade(String sessionID, String donoComunidade, String nome, String descricao) {
         this.sessionID = sessionID;
@@ -43,6 +47,13 @@ public class Comunidade implements Serializable {
         this.membros = new ArrayList<>();
     }
 
+    /**
+     * @return ID da sessão que criou a comunidade
+     */
+    public String getSessionID() {
+        return sessionID;
+    }
+
     /**
      * @return Nome da comunidade
      */
@@ -51,14 +62,14 @@ public class Comunidade implements Serializable {
     }
 
     /**
-     * @return Descrio da comunidade
+     * @return Descrição da comunidade
      */
     public String getDescricao() {
         return descricao;
     }
 
     /**
-     * @return Login do usurio dono da comunidade
+     * @return Login do usuário dono da comunidade
      */
     public String getDonoComunidade() {
         return donoComunidade;
@@ -70,4 +81,17 @@ public class Comunidade implements Serializable {
     public List<String> getMembros() {
         return membros;
     }
+
+    /**
+     * Obtém o mural da comunidade. Comunidades gravadas antes da existência
+     * do mural recebem um mural vazio, com os membros atuais como leitores.
+     *
+     * @return Mural das mensagens enviadas à comunidade
+     */
+    public synchronized MuralComunidade getMural() {
+        if (mural == null) {
+            mural = new MuralComunidade(membros);
+        }
+        return mural;
+    }
 }
\ No newline at end of file
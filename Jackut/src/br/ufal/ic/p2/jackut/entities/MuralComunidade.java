@@ -0,0 +1,251 @@
+package br.ufal.ic.p2.jackut.entities;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * Mural de uma comunidade: log, somente de acréscimo, das mensagens enviadas
+ * à comunidade, com um cursor de leitura por membro.
+ * <p>
+ * Enviar uma mensagem apenas a acrescenta ao mural, qualquer que seja a
+ * quantidade de membros. Cada mensagem recebe uma ordem de chegada global,
+ * que permite intercalar os murais de todas as comunidades de um usuário.
+ * O cursor de um membro guarda a ordem da última mensagem lida por ele; ao
+ * entrar na comunidade, o membro só recebe as mensagens enviadas depois.
+ * As mensagens já lidas por todos os membros são descartadas de tempos em
+ * tempos, em custo amortizado constante por envio.
+ * <p>
+ * Os métodos podem ser chamados por várias threads: membros diferentes leem
+ * o mesmo mural ao mesmo tempo.
+ */
+public class MuralComunidade implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    /** Quantidade mínima de mensagens acrescentadas entre dois descartes */
+    private static final int DESCARTE_MINIMO = 64;
+
+    /** Mensagens ainda não lidas por algum membro, em ordem de chegada */
+    private final List<Entrada> entradas;
+
+    /** Ordem da última mensagem lida, indexada pelo login do membro */
+    private final Map<String, Long> cursores;
+
+    /** Ordem da última mensagem enviada à comunidade (0 = nenhuma) */
+    private long ultimaOrdem;
+
+    /** Quantidade de mensagens no mural que dispara o próximo descarte */
+    private int limiteDescarte;
+
+    /**
+     * Construtor que inicializa um mural vazio, com os membros atuais como leitores.
+     *
+     * @param membros Logins dos membros da comunidade
+     */
+    public MuralComunidade(Collection<String> membros) {
+        this.entradas = new ArrayList<>();
+        this.cursores = new HashMap<>();
+        this.limiteDescarte = DESCARTE_MINIMO;
+        for (String membro : membros) {
+            cursores.put(membro, 0L);
+        }
+    }
+
+    /**
+     * Acrescenta uma mensagem ao final do mural.
+     *
+     * @param ordem Ordem de chegada da mensagem, maior que a de todas as anteriores
+     * @param mensagem Mensagem enviada à comunidade
+     */
+    public synchronized void publicar(long ordem, Comunicacao mensagem) {
+        entradas.add(new Entrada(ordem, mensagem));
+        ultimaOrdem = ordem;
+        if (entradas.size() >= limiteDescarte) {
+            descartarLidas();
+        }
+    }
+
+    /**
+     * Passa a entregar a um membro as mensagens enviadas a partir de agora.
+     *
+     * @param login Login do novo membro
+     */
+    public synchronized void adicionarLeitor(String login) {
+        cursores.putIfAbsent(login, ultimaOrdem);
+    }
+
+    /**
+     * Remove o cursor de um membro, que deixa de impedir o descarte das mensagens.
+     *
+     * @param login Login do membro
+     * @return true se o login era um leitor do mural
+     */
+    public synchronized boolean removerLeitor(String login) {
+        return cursores.remove(login) != null;
+    }
+
+    /**
+     * @param login Login do membro
+     * @return Mensagem mais antiga ainda não lida pelo membro, ou null se ele leu todas
+     */
+    public synchronized Entrada proxima(String login) {
+        int indice = primeiraDepois(cursores.getOrDefault(login, 0L));
+        return indice < entradas.size() ? entradas.get(indice) : null;
+    }
+
+    /**
+     * Avança o cursor de um membro até uma mensagem.
+     *
+     * @param login Login do membro
+     * @param ordem Ordem da mensagem lida
+     */
+    public synchronized void marcarLida(String login, long ordem) {
+        cursores.merge(login, ordem, Math::max);
+    }
+
+    /**
+     * @param login Login do membro
+     * @return Mensagens ainda não lidas pelo membro, em ordem de chegada
+     */
+    public synchronized List<Entrada> getPendentes(String login) {
+        return getPendentes(login, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param login Login do membro
+     * @param limite Quantidade máxima de mensagens
+     * @return Mensagens mais antigas ainda não lidas pelo membro, em ordem de chegada
+     */
+    public synchronized List<Entrada> getPendentes(String login, int limite) {
+        int indice = primeiraDepois(cursores.getOrDefault(login, 0L));
+        int fim = (int) Math.min(entradas.size(), (long) indice + limite);
+        return new ArrayList<>(entradas.subList(indice, fim));
+    }
+
+    /**
+     * Remove do mural as mensagens enviadas por um usuário.
+     *
+     * @param remetente Login do remetente
+     * @return true se alguma mensagem foi removida
+     */
+    public synchronized boolean removerDoRemetente(String remetente) {
+        return entradas.removeIf(entrada -> entrada.mensagem.getRemetente().equals(remetente));
+    }
+
+    /**
+     * Remove todas as mensagens do mural, mantendo os leitores.
+     *
+     * @return true se havia mensagens no mural
+     */
+    public synchronized boolean limpar() {
+        boolean havia = !entradas.isEmpty();
+        entradas.clear();
+        return havia;
+    }
+
+    /**
+     * @return Ordem da última mensagem enviada à comunidade (0 = nenhuma)
+     */
+    public synchronized long getUltimaOrdem() {
+        return ultimaOrdem;
+    }
+
+    /**
+     * @return Cópia das mensagens do mural, em ordem de chegada
+     */
+    public synchronized List<Entrada> getEntradas() {
+        return new ArrayList<>(entradas);
+    }
+
+    /**
+     * @return Cópia dos cursores de leitura, indexados pelo login do membro
+     */
+    public synchronized Map<String, Long> getCursores() {
+        return new HashMap<>(cursores);
+    }
+
+    /**
+     * Restaura o mural gravado. Usado apenas ao restaurar o estado persistido.
+     *
+     * @param ultimaOrdem Ordem da última mensagem enviada à comunidade
+     * @param entradas Mensagens do mural, em ordem de chegada
+     * @param cursores Cursores de leitura, indexados pelo login do membro
+     */
+    public synchronized void restaurar(long ultimaOrdem, List<Entrada> entradas, Map<String, Long> cursores) {
+        this.ultimaOrdem = ultimaOrdem;
+        this.entradas.clear();
+        this.entradas.addAll(entradas);
+        this.cursores.clear();
+        this.cursores.putAll(cursores);
+        this.limiteDescarte = proximoLimite();
+    }
+
+    /**
+     * Descarta as mensagens já lidas por todos os membros. O próximo descarte
+     * só acontece depois de tantos envios quanto o custo deste.
+     */
+    private void descartarLidas() {
+        long lidaPorTodos = ultimaOrdem;
+        for (long cursor : cursores.values()) {
+            lidaPorTodos = Math.min(lidaPorTodos, cursor);
+        }
+        entradas.subList(0, primeiraDepois(lidaPorTodos)).clear();
+        limiteDescarte = proximoLimite();
+    }
+
+    private int proximoLimite() {
+        return entradas.size() + Math.max(DESCARTE_MINIMO, Math.max(entradas.size(), cursores.size()));
+    }
+
+    /**
+     * @return Índice da primeira mensagem com ordem maior que a informada
+     */
+    private int primeiraDepois(long ordem) {
+        int inicio = 0;
+        int fim = entradas.size();
+        while (inicio < fim) {
+            int meio = (inicio + fim) >>> 1;
+            if (entradas.get(meio).ordem <= ordem) {
+                inicio = meio + 1;
+            } else {
+                fim = meio;
+            }
+        }
+        return inicio;
+    }
+
+    /**
+     * Mensagem do mural e a sua ordem de chegada.
+     */
+    public static final class Entrada implements Serializable {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        private final long ordem;
+        private final Comunicacao mensagem;
+
+        /**
+         * @param ordem Ordem de chegada da mensagem
+         * @param mensagem Mensagem enviada à comunidade
+         */
+        public Entrada(long ordem, Comunicacao mensagem) {
+            this.ordem = ordem;
+            this.mensagem = mensagem;
+        }
+
+        /**
+         * @return Ordem de chegada da mensagem
+         */
+        public long getOrdem() {
+            return ordem;
+        }
+
+        /**
+         * @return Mensagem enviada à comunidade
+         */
+        public Comunicacao getMensagem() {
+            return mensagem;
+        }
+    }
+}
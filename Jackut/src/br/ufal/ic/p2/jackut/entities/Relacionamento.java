@@ -8,8 +8,8 @@ import java.util.Map;
 import java.util.Set;
 
 /**
- * Classe que gerencia os relacionamentos de um usurio com outros usurios.
- * Mantm listas de amigos, fs, paqueras, inimigos e convites de amizade.
+ * Classe que gerencia os relacionamentos de um usuário com outros usuários.
+ * Mantém listas de amigos, fãs, paqueras, inimigos e convites de amizade.
  */
 public class Relacionamento implements Serializable {
     @Serial
@@ -42,28 +42,28 @@ public class Relacionamento implements Serializable {
     }
 
     /**
-     * @return Conjunto de logins dos amigos do usurio
+     * @return Conjunto de logins dos amigos do usuário
      */
     public Set<String> getAmigos() {
         return this.relacionamentos.get("amigo");
     }
 
     /**
-     * @return Conjunto de logins dos dolos do usurio (de quem  f)
+     * @return Conjunto de logins dos ídolos do usuário (de quem é fã)
      */
     public Set<String> getIdolos() {
         return this.relacionamentos.get("fa");
     }
 
     /**
-     * @return Conjunto de logins das paqueras do usurio
+     * @return Conjunto de logins das paqueras do usuário
      */
     public Set<String> getPaqueras() {
         return this.relacionamentos.get("paquera");
     }
 
     /**
-     * @return Conjunto de logins dos inimigos do usurio
+     * @return Conjunto de logins dos inimigos do usuário
      */
     public Set<String> getInimigos() {
         return this.relacionamentos.get("inimigo");
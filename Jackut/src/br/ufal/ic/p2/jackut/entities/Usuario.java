@@ -5,38 +5,42 @@ import java.io.Serializable;
 import java.util.*;
 
 /**
- * Classe que representa um usurio no sistema Jackut.
- * Armazena informaes bsicas do usurio, seus atributos personalizados,
- * comunidades das quais participa e seus relacionamentos com outros usurios.
+ * Classe que representa um usuário no sistema Jackut.
+ * Armazena informações básicas do usuário, seus atributos personalizados,
+ * comunidades das quais participa e seus relacionamentos com outros usuários.
  */
 public class Usuario implements Serializable {
+    /**
+     * Valor que a serialização calculava quando o campo não era final (e por
+     * isso era ignorado), mantido para ler os snapshots no formato antigo.
+     */
     @Serial
-    private static long serialVersionUID = 1L;
+    private static final long serialVersionUID = -5599744153991061049L;
 
-    /** Login nico do usurio, usado como identificador */
+    /** Login único do usuário, usado como identificador */
     private String login;
 
-    /** Senha do usurio para autenticao */
+    /** Senha do usuário para autenticação */
     private String senha;
 
-    /** Nome completo do usurio */
+    /** Nome completo do usuário */
     private String nome;
 
-    /** Mapa de atributos personalizados do usurio (chave-valor) */
+    /** Mapa de atributos personalizados do usuário (chave-valor) */
     private Map<String, String> atributos;
 
-    /** Lista de comunidades das quais o usurio  membro */
+    /** Lista de comunidades das quais o usuário é membro */
     private List<String> comunidadesCadastradas;
 
-    /** Objeto que gerencia os relacionamentos do usurio com outros usurios */
+    /** Objeto que gerencia os relacionamentos do usuário com outros usuários */
     private Relacionamento relacionamentos;
 
     /**
-     * Construtor que inicializa um novo usurio com seus dados bsicos.
+     * Construtor que inicializa um novo usuário com seus dados básicos.
      *
-     * @param login Login nico do usurio
-     * @param senha Senha para autenticao
-     * @param nome Nome completo do usurio
+     * @param login Login único do usuário
+     * @param senha Senha para autenticação
+     * @param nome Nome completo do usuário
      */
     public Usuario(String login, String senha, String nome) {
         this.login = login;
@@ -48,42 +52,42 @@ public class Usuario implements Serializable {
     }
 
     /**
-     * @return O login do usurio
+     * @return O login do usuário
      */
     public String getLogin() {
         return login;
     }
 
     /**
-     * @return A senha do usurio
+     * @return A senha do usuário
      */
     public String getSenha() {
         return senha;
     }
 
     /**
-     * @return O nome completo do usurio
+     * @return O nome completo do usuário
      */
     public String getNome() {
         return nome;
     }
 
     /**
-     * @return Mapa de atributos personalizados do usurio
+     * @return Mapa de atributos personalizados do usuário
      */
     public Map<String, String> getAtributos() {
         return atributos;
     }
 
     /**
-     * @return Lista de comunidades das quais o usurio  membro
+     * @return Lista de comunidades das quais o usuário é membro
      */
     public List<String> getComunidadesCadastradas() {
         return comunidadesCadastradas;
     }
 
     /**
-     * @return Objeto que gerencia os relacionamentos do usurio
+     * @return Objeto que gerencia os relacionamentos do usuário
      */
     public Relacionamento getRelacionamentos() {
         return relacionamentos;
@@ -1,13 +1,13 @@
 package br.ufal.ic.p2.jackut.exceptions;
 
 /**
- * Exceo lanada quando h problemas com credenciais de login.
+ * Exceção lançada quando há problemas com credenciais de login.
  */
 public class AuthenticationException extends JackutException {
     private static final long serialVersionUID = 1L;
 
     public AuthenticationException() {
-        super("Login ou senha invlidos.");
+        super("Login ou senha inválidos.");
     }
 
     public AuthenticationException(String message) {
@@ -1,7 +1,7 @@
 package br.ufal.ic.p2.jackut.exceptions;
 
 /**
- * Exceo lanada quando h problemas com relacionamentos de amizade.
+ * Exceção lançada quando há problemas com relacionamentos de amizade.
  */
 public class FriendshipException extends JackutException {
     private static final long serialVersionUID = 1L;
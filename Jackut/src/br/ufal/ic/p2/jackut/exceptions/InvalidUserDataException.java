@@ -1,7 +1,7 @@
 package br.ufal.ic.p2.jackut.exceptions;
 
 /**
- * Exceo lanada quando h problemas com os dados de usurio.
+ * Exceção lançada quando há problemas com os dados de usuário.
  */
 public class InvalidUserDataException extends JackutException {
     private static final long serialVersionUID = 1L;
@@ -1,7 +1,7 @@
 package br.ufal.ic.p2.jackut.exceptions;
 
 /**
- * Exceo lanada quando h problemas com recados.
+ * Exceção lançada quando há problemas com recados.
  */
 public class MessageException extends JackutException {
     private static final long serialVersionUID = 1L;
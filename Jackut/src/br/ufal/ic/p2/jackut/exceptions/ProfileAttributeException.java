@@ -1,7 +1,7 @@
 package br.ufal.ic.p2.jackut.exceptions;
 
 /**
- * Exceo lanada quando h problemas com atributos de perfil.
+ * Exceção lançada quando há problemas com atributos de perfil.
  */
 public class ProfileAttributeException extends JackutException {
     private static final long serialVersionUID = 1L;
@@ -0,0 +1,16 @@
+package br.ufal.ic.p2.jackut.exceptions;
+
+/**
+ * Exceção lançada quando uma réplica somente leitura recebe uma operação que altera o estado.
+ */
+public class ReadOnlyReplicaException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public ReadOnlyReplicaException() {
+        super("Operação não permitida: o sistema é uma réplica somente leitura.");
+    }
+
+    public ReadOnlyReplicaException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,24 @@
+package br.ufal.ic.p2.jackut.exceptions;
+
+/**
+ * Exceção lançada no cliente quando uma operação executada no servidor falha.
+ * A mensagem é a da exceção lançada no servidor.
+ */
+public class RemoteOperationException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    /** Nome da exceção lançada no servidor */
+    private final String tipo;
+
+    public RemoteOperationException(String tipo, String message) {
+        super(message);
+        this.tipo = tipo;
+    }
+
+    /**
+     * @return Nome da exceção lançada no servidor (ex.: "UserNotFoundException")
+     */
+    public String getTipo() {
+        return tipo;
+    }
+}
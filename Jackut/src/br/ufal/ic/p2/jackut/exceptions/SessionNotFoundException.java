@@ -2,7 +2,7 @@ package br.ufal.ic.p2.jackut.exceptions;
 
 public class SessionNotFoundException extends RuntimeException {
     public SessionNotFoundException() {
-        super("Sesso invlida ou expirada.");
+        super("Sessão inválida ou expirada.");
     }
 
     public SessionNotFoundException(String message) {
@@ -1,14 +1,14 @@
 package br.ufal.ic.p2.jackut.exceptions;
 
 /**
- * Exceo lanada quando dados de usurio so invlidos.
+ * Exceção lançada quando dados de usuário são inválidos.
  */
 
 public class UserNotFoundException extends RuntimeException {
     private static final long serialVersionUID = 1L;
 
     public UserNotFoundException() {
-        super("Usurio no cadastrado.");
+        super("Usuário não cadastrado.");
     }
 
     public UserNotFoundException(String message) {
@@ -0,0 +1,313 @@
+package br.ufal.ic.p2.jackut.persistence;
+
+import br.ufal.ic.p2.jackut.entities.Usuario;
+import br.ufal.ic.p2.jackut.storage.OrigemUsuarios;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Snapshot base dividido em vários arquivos, gravados e lidos em paralelo.
+ * <p>
+ * Os usuários são repartidos em fragmentos pelo hash do login, e as
+ * comunidades e as caixas de mensagens ficam em arquivos próprios
+ * ({@code sistema.dat.frag.<sequência>.<conteúdo>}). Cada fragmento é um
+ * segmento completo no {@link FormatoBinario}, com o seu próprio dicionário
+ * e, no caso dos usuários, o seu próprio índice. O arquivo base passa a ser
+ * um manifesto com as sessões e os nomes dos fragmentos; como ele é
+ * publicado por último, com um rename atômico, uma queda no meio da gravação
+ * deixa valendo a base anterior.
+ * <p>
+ * As comunidades de cada dono não são gravadas: elas são reconstruídas a
+ * partir do dono de cada comunidade depois que todos os fragmentos são lidos.
+ */
+final class BaseFragmentada {
+
+    /** Parte do nome que identifica os arquivos de fragmento */
+    private static final String INFIXO = ".frag.";
+
+    /** Parte do nome dos fragmentos de usuários */
+    private static final String USUARIOS = "usuarios.";
+
+    /** Sufixo dos arquivos ainda em gravação */
+    private static final String SUFIXO_TEMPORARIO = ".tmp";
+
+    private BaseFragmentada() {
+    }
+
+    /**
+     * @param login Login do usuário
+     * @param quantidade Quantidade de fragmentos de usuários
+     * @return Fragmento onde o usuário é gravado
+     */
+    static int fragmento(String login, int quantidade) {
+        return Math.floorMod(login.hashCode(), quantidade);
+    }
+
+    /**
+     * Grava uma base completa em fragmentos, em paralelo, e publica o manifesto.
+     *
+     * @param arquivoBase Caminho do snapshot base (o manifesto)
+     * @param completo Conteúdo completo da base
+     * @param quantidade Quantidade de fragmentos de usuários
+     * @param comprimir Se os fragmentos e o manifesto são comprimidos em blocos
+     * @param paralelo Pool onde os fragmentos são codificados e gravados
+     * @return Nomes dos arquivos de fragmento gravados
+     * @throws IOException Se algum arquivo não puder ser gravado
+     */
+    static List<String> gravar(Path arquivoBase, SegmentoDelta completo, int quantidade, boolean comprimir,
+                               ForkJoinPool paralelo) throws IOException {
+        String prefixo = arquivoBase.getFileName() + INFIXO + completo.getSequencia() + ".";
+        Map<String, SegmentoDelta> fragmentos = new LinkedHashMap<>();
+
+        List<SegmentoDelta> usuarios = new ArrayList<>(quantidade);
+        for (int i = 0; i < quantidade; i++) {
+            SegmentoDelta fragmento = novoFragmento(completo);
+            usuarios.add(fragmento);
+            fragmentos.put(prefixo + USUARIOS + i, fragmento);
+        }
+        for (Map.Entry<String, Usuario> entrada : completo.getUsuarios().entrySet()) {
+            usuarios.get(fragmento(entrada.getKey(), quantidade)).getUsuarios()
+                    .put(entrada.getKey(), entrada.getValue());
+        }
+
+        SegmentoDelta comunidades = novoFragmento(completo);
+        comunidades.getComunidades().putAll(completo.getComunidades());
+        fragmentos.put(prefixo + "comunidades", comunidades);
+
+        SegmentoDelta mensagens = novoFragmento(completo);
+        mensagens.getMensagens().putAll(completo.getMensagens());
+        mensagens.getCursores().putAll(completo.getCursores());
+        mensagens.setFimLog(completo.getFimLog());
+        fragmentos.put(prefixo + "mensagens", mensagens);
+
+        List<Callable<Void>> tarefas = new ArrayList<>();
+        for (Map.Entry<String, SegmentoDelta> fragmento : fragmentos.entrySet()) {
+            tarefas.add(() -> {
+                gravarAtomicamente(arquivoBase.resolveSibling(fragmento.getKey()), fragmento.getValue(), comprimir);
+                return null;
+            });
+        }
+        executar(paralelo, tarefas);
+
+        SegmentoDelta manifesto = new SegmentoDelta(completo.getSequencia(), true, completo.getSessoes(),
+                completo.getNextSessionId());
+        List<String> nomes = new ArrayList<>(fragmentos.keySet());
+        manifesto.setFragmentos(nomes);
+        gravarAtomicamente(arquivoBase, manifesto, comprimir);
+        return nomes;
+    }
+
+    /**
+     * Lê, em paralelo, os fragmentos de um manifesto e os incorpora a ele.
+     *
+     * @param arquivoBase Caminho do snapshot base (o manifesto)
+     * @param manifesto Manifesto já lido
+     * @param incluirUsuarios Se false, os fragmentos de usuários não são lidos
+     * @param paralelo Pool onde os fragmentos são lidos e decodificados
+     * @return O manifesto, com o conteúdo dos fragmentos e as comunidades de cada dono
+     * @throws IOException Se algum fragmento não puder ser lido
+     */
+    static SegmentoDelta completar(Path arquivoBase, SegmentoDelta manifesto, boolean incluirUsuarios,
+                                   ForkJoinPool paralelo) throws IOException {
+        List<Callable<SegmentoDelta>> tarefas = new ArrayList<>();
+        for (String nome : manifesto.getFragmentos()) {
+            if (incluirUsuarios || !isFragmentoUsuarios(nome)) {
+                tarefas.add(() -> FormatoBinario.ler(arquivoBase.resolveSibling(nome)));
+            }
+        }
+        for (SegmentoDelta fragmento : executar(paralelo, tarefas)) {
+            manifesto.incorporar(fragmento);
+        }
+        manifesto.reconstruirDonos();
+        return manifesto;
+    }
+
+    /**
+     * Abre os índices dos fragmentos de usuários de um manifesto.
+     *
+     * @param arquivoBase Caminho do snapshot base (o manifesto)
+     * @param manifesto Manifesto já lido
+     * @return Origem que consulta o índice do fragmento de cada login
+     * @throws IOException Se algum fragmento não puder ser aberto
+     */
+    static OrigemUsuarios abrirIndices(Path arquivoBase, SegmentoDelta manifesto) throws IOException {
+        List<IndiceUsuarios> indices = new ArrayList<>();
+        try {
+            for (String nome : manifesto.getFragmentos()) {
+                if (isFragmentoUsuarios(nome)) {
+                    IndiceUsuarios indice = IndiceUsuarios.abrir(arquivoBase.resolveSibling(nome));
+                    if (indice == null) {
+                        throw new IOException("Fragmento sem índice de usuários: " + nome);
+                    }
+                    indices.add(indice);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            for (IndiceUsuarios indice : indices) {
+                indice.close();
+            }
+            throw e;
+        }
+        return new Indices(indices);
+    }
+
+    /**
+     * Apaga os arquivos de fragmento que não fazem parte da base publicada.
+     * Arquivos que não puderem ser apagados agora ficam para a próxima mesclagem.
+     *
+     * @param arquivoBase Caminho do snapshot base
+     * @param manter Nomes dos fragmentos da base publicada
+     * @throws IOException Se o diretório não puder ser lido
+     */
+    static void removerObsoletos(Path arquivoBase, Collection<String> manter) throws IOException {
+        String prefixo = arquivoBase.getFileName() + INFIXO;
+        try (DirectoryStream<Path> arquivos = Files.newDirectoryStream(arquivoBase.getParent(), prefixo + "*")) {
+            for (Path arquivo : arquivos) {
+                if (!manter.contains(arquivo.getFileName().toString())) {
+                    try {
+                        Files.deleteIfExists(arquivo);
+                    } catch (IOException e) {
+                        // Ainda aberto por um índice; tenta novamente na próxima mesclagem
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return Segmento vazio com o cabeçalho da base
+     */
+    private static SegmentoDelta novoFragmento(SegmentoDelta completo) {
+        return new SegmentoDelta(completo.getSequencia(), true, null, completo.getNextSessionId());
+    }
+
+    /**
+     * @return true se o arquivo de fragmento contiver usuários
+     */
+    private static boolean isFragmentoUsuarios(String nome) {
+        int inicio = nome.lastIndexOf(INFIXO);
+        return inicio >= 0 && nome.indexOf("." + USUARIOS, inicio + INFIXO.length()) >= 0;
+    }
+
+    /**
+     * Grava um segmento em um temporário sincronizado com o disco e o publica com um rename atômico.
+     */
+    private static void gravarAtomicamente(Path destino, SegmentoDelta segmento, boolean comprimir)
+            throws IOException {
+        Path temporario = destino.resolveSibling(destino.getFileName() + SUFIXO_TEMPORARIO);
+        FormatoBinario.gravar(temporario, segmento, comprimir);
+        Snapshotter.publicar(temporario, destino);
+    }
+
+    /**
+     * Executa as tarefas no pool e aguarda todas.
+     *
+     * @return Resultados, na ordem das tarefas
+     * @throws IOException Se alguma tarefa falhar
+     */
+    private static <T> List<T> executar(ForkJoinPool paralelo, List<Callable<T>> tarefas) throws IOException {
+        List<T> resultados = new ArrayList<>(tarefas.size());
+        try {
+            for (Future<T> tarefa : paralelo.invokeAll(tarefas)) {
+                resultados.add(tarefa.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+        return resultados;
+    }
+
+    /**
+     * Usuários de uma base fragmentada: cada login é procurado apenas no
+     * índice do seu fragmento.
+     */
+    private static class Indices implements OrigemUsuarios {
+        private final List<IndiceUsuarios> indices;
+
+        private Indices(List<IndiceUsuarios> indices) {
+            this.indices = indices;
+        }
+
+        private IndiceUsuarios indice(String login) {
+            return indices.get(fragmento(login, indices.size()));
+        }
+
+        @Override
+        public Usuario carregar(String login) {
+            return indice(login).carregar(login);
+        }
+
+        @Override
+        public boolean contem(String login) {
+            return indice(login).contem(login);
+        }
+
+        @Override
+        public Iterable<String> logins() {
+            return () -> new Iterator<>() {
+                private int proximo;
+                private Iterator<String> atual = Collections.emptyIterator();
+
+                @Override
+                public boolean hasNext() {
+                    while (!atual.hasNext() && proximo < indices.size()) {
+                        atual = indices.get(proximo++).logins().iterator();
+                    }
+                    return atual.hasNext();
+                }
+
+                @Override
+                public String next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    return atual.next();
+                }
+            };
+        }
+
+        @Override
+        public void percorrer(Predicate<String> incluir, Consumer<Usuario> destino) {
+            for (IndiceUsuarios indice : indices) {
+                indice.percorrer(incluir, destino);
+            }
+        }
+
+        @Override
+        public int quantidade() {
+            int quantidade = 0;
+            for (IndiceUsuarios indice : indices) {
+                quantidade += indice.quantidade();
+            }
+            return quantidade;
+        }
+
+        @Override
+        public void close() {
+            for (IndiceUsuarios indice : indices) {
+                indice.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,305 @@
+package br.ufal.ic.p2.jackut.persistence;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Arquivo comprimido em blocos independentes, com acesso aleatório.
+ * <pre>
+ * cabeçalho : "JKUZ" versão(byte) tamanhoBloco(int)
+ * blocos    : cada bloco de dados, comprimido com deflate de forma independente
+ * tabela    : quantidade(int) e, para cada bloco, posição(long) e tamanho comprimido(int)
+ * rodapé    : tamanho descomprimido(long) posição da tabela(long)
+ * </pre>
+ * Como cada bloco é descomprimido sozinho, a leitura de uma posição qualquer
+ * custa apenas o bloco que a contém: a carga sob demanda pelo
+ * {@link IndiceUsuarios} e a leitura paralela de fragmentos continuam
+ * funcionando sobre arquivos comprimidos. Os últimos blocos lidos ficam em
+ * cache (até 4 MB por arquivo aberto), pois a busca binária no índice e as
+ * consultas ao dicionário voltam muitas vezes aos mesmos blocos.
+ */
+public class BlocosComprimidos {
+
+    /** Assinatura dos arquivos comprimidos */
+    private static final byte[] MAGICO = {'J', 'K', 'U', 'Z'};
+
+    /** Versão atual do formato */
+    private static final int VERSAO = 1;
+
+    /** Tamanho dos blocos descomprimidos: pequeno o bastante para leituras esparsas baratas */
+    static final int TAMANHO_BLOCO = 16 * 1024;
+
+    /** Quantidade de blocos descomprimidos mantidos em cache: o bastante para o índice e o dicionário */
+    private static final int CAPACIDADE_CACHE = 256;
+
+    /** Canal do arquivo comprimido */
+    private final FileChannel canal;
+
+    /** Tamanho dos blocos descomprimidos */
+    private final int tamanhoBloco;
+
+    /** Tamanho total dos dados descomprimidos */
+    private final long tamanho;
+
+    /** Posição de cada bloco comprimido no arquivo */
+    private final long[] posicoes;
+
+    /** Tamanho de cada bloco comprimido */
+    private final int[] tamanhos;
+
+    /** Blocos descomprimidos recentemente, indexados pelo número do bloco */
+    private final Map<Integer, byte[]> cache;
+
+    private BlocosComprimidos(FileChannel canal, int tamanhoBloco, long tamanho, long[] posicoes, int[] tamanhos) {
+        this.canal = canal;
+        this.tamanhoBloco = tamanhoBloco;
+        this.tamanho = tamanho;
+        this.posicoes = posicoes;
+        this.tamanhos = tamanhos;
+        this.cache = new LinkedHashMap<>(CAPACIDADE_CACHE, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, byte[]> maisAntigo) {
+                return size() > CAPACIDADE_CACHE;
+            }
+        };
+    }
+
+    /**
+     * Verifica se um canal começa com a assinatura dos arquivos comprimidos.
+     *
+     * @param canal Canal a verificar
+     * @return true se o arquivo estiver comprimido
+     * @throws IOException Se o canal não puder ser lido
+     */
+    public static boolean isComprimido(FileChannel canal) throws IOException {
+        ByteBuffer inicio = ByteBuffer.allocate(MAGICO.length);
+        while (inicio.hasRemaining() && canal.read(inicio, inicio.position()) >= 0) {
+            // lê até completar a assinatura ou o arquivo terminar
+        }
+        return !inicio.hasRemaining() && Arrays.equals(inicio.array(), MAGICO);
+    }
+
+    /**
+     * Abre um arquivo comprimido para leitura, lendo apenas o rodapé e a tabela de blocos.
+     * O canal continua pertencendo a quem o abriu.
+     *
+     * @param canal Canal do arquivo comprimido
+     * @return Leitor dos dados descomprimidos
+     * @throws IOException Se o arquivo não estiver no formato esperado
+     */
+    public static BlocosComprimidos abrir(FileChannel canal) throws IOException {
+        CanalEntrada in = new CanalEntrada(canal, 64);
+        if (!Arrays.equals(in.lerBytes(MAGICO.length), MAGICO)) {
+            throw new IOException("Arquivo não está comprimido");
+        }
+        int versao = in.lerByte();
+        if (versao != VERSAO) {
+            throw new IOException("Versão de compressão não suportada: " + versao);
+        }
+        int tamanhoBloco = in.lerInt();
+
+        in.posicionar(canal.size() - 16);
+        long tamanho = in.lerLong();
+        in.posicionar(in.lerLong());
+        int quantidade = in.lerInt();
+        long[] posicoes = new long[quantidade];
+        int[] tamanhos = new int[quantidade];
+        for (int i = 0; i < quantidade; i++) {
+            posicoes[i] = in.lerLong();
+            tamanhos[i] = in.lerInt();
+        }
+        return new BlocosComprimidos(canal, tamanhoBloco, tamanho, posicoes, tamanhos);
+    }
+
+    /**
+     * Comprime dados em blocos independentes, em uma única passada.
+     *
+     * @param origem Dados a serem comprimidos, lidos até o fim
+     * @param destino Saída do arquivo comprimido
+     * @throws IOException Se ocorrer um erro de leitura ou escrita
+     */
+    public static void comprimir(InputStream origem, CanalSaida destino) throws IOException {
+        destino.escreverBytes(MAGICO);
+        destino.escreverByte(VERSAO);
+        destino.escreverInt(TAMANHO_BLOCO);
+
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        byte[] bloco = new byte[TAMANHO_BLOCO];
+        byte[] comprimido = new byte[TAMANHO_BLOCO + TAMANHO_BLOCO / 8 + 64];
+        CanalSaida tabela = new CanalSaida();
+        int quantidade = 0;
+        long tamanho = 0;
+        try {
+            int lidos;
+            while ((lidos = origem.readNBytes(bloco, 0, bloco.length)) > 0) {
+                deflater.reset();
+                deflater.setInput(bloco, 0, lidos);
+                deflater.finish();
+                int tamanhoComprimido = 0;
+                while (!deflater.finished()) {
+                    if (tamanhoComprimido == comprimido.length) {
+                        comprimido = Arrays.copyOf(comprimido, comprimido.length * 2);
+                    }
+                    tamanhoComprimido += deflater.deflate(comprimido, tamanhoComprimido,
+                            comprimido.length - tamanhoComprimido);
+                }
+                tabela.escreverLong(destino.posicao());
+                tabela.escreverInt(tamanhoComprimido);
+                destino.escreverBytes(Arrays.copyOf(comprimido, tamanhoComprimido));
+                quantidade++;
+                tamanho += lidos;
+            }
+        } finally {
+            deflater.end();
+        }
+
+        long posicaoTabela = destino.posicao();
+        destino.escreverInt(quantidade);
+        destino.escreverBytes(tabela.getBytes());
+        destino.escreverLong(tamanho);
+        destino.escreverLong(posicaoTabela);
+    }
+
+    /**
+     * Comprime dados em memória com deflate, como um único bloco.
+     *
+     * @param dados Dados a serem comprimidos
+     * @return Dados comprimidos
+     */
+    public static byte[] comprimir(byte[] dados) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(dados);
+            deflater.finish();
+            byte[] comprimido = new byte[dados.length / 2 + 64];
+            int tamanho = 0;
+            while (!deflater.finished()) {
+                if (tamanho == comprimido.length) {
+                    comprimido = Arrays.copyOf(comprimido, comprimido.length * 2);
+                }
+                tamanho += deflater.deflate(comprimido, tamanho, comprimido.length - tamanho);
+            }
+            return Arrays.copyOf(comprimido, tamanho);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Descomprime um bloco comprimido com deflate.
+     *
+     * @param comprimido Dados comprimidos
+     * @param tamanhoOriginal Tamanho dos dados descomprimidos
+     * @return Dados descomprimidos
+     * @throws IOException Se os dados estiverem corrompidos
+     */
+    public static byte[] descomprimir(byte[] comprimido, int tamanhoOriginal) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(comprimido);
+            byte[] dados = new byte[tamanhoOriginal];
+            int tamanho = 0;
+            while (tamanho < tamanhoOriginal && !inflater.finished()) {
+                int lidos = inflater.inflate(dados, tamanho, tamanhoOriginal - tamanho);
+                if (lidos == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                tamanho += lidos;
+            }
+            if (tamanho != tamanhoOriginal) {
+                throw new IOException("Bloco comprimido incompleto");
+            }
+            return dados;
+        } catch (DataFormatException e) {
+            throw new IOException("Bloco comprimido corrompido", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * @return Tamanho total dos dados descomprimidos
+     */
+    public long getTamanho() {
+        return tamanho;
+    }
+
+    /**
+     * Copia dados descomprimidos para um buffer, a partir de uma posição.
+     *
+     * @param destino Buffer de destino, preenchido até o seu limite ou até o fim dos dados
+     * @param posicao Posição nos dados descomprimidos
+     * @return Quantidade de bytes copiados, ou -1 se a posição estiver no fim dos dados
+     * @throws IOException Se algum bloco não puder ser lido
+     */
+    public synchronized int ler(ByteBuffer destino, long posicao) throws IOException {
+        if (posicao >= tamanho) {
+            return -1;
+        }
+        int copiados = 0;
+        while (destino.hasRemaining() && posicao < tamanho) {
+            int numero = (int) (posicao / tamanhoBloco);
+            byte[] bloco = bloco(numero);
+            int deslocamento = (int) (posicao - (long) numero * tamanhoBloco);
+            int parte = Math.min(destino.remaining(), bloco.length - deslocamento);
+            destino.put(bloco, deslocamento, parte);
+            posicao += parte;
+            copiados += parte;
+        }
+        return copiados;
+    }
+
+    /**
+     * @param numero Número do bloco
+     * @return Bloco descomprimido, do cache ou do arquivo
+     */
+    private byte[] bloco(int numero) throws IOException {
+        byte[] bloco = cache.get(numero);
+        if (bloco != null) {
+            return bloco;
+        }
+        if (numero >= posicoes.length) {
+            throw new IOException("Bloco inexistente: " + numero);
+        }
+
+        ByteBuffer comprimido = ByteBuffer.allocate(tamanhos[numero]);
+        while (comprimido.hasRemaining()) {
+            if (canal.read(comprimido, posicoes[numero] + comprimido.position()) < 0) {
+                throw new IOException("Arquivo comprimido truncado");
+            }
+        }
+        long restante = tamanho - (long) numero * tamanhoBloco;
+        bloco = descomprimir(comprimido.array(), (int) Math.min(tamanhoBloco, restante));
+        cache.put(numero, bloco);
+        return bloco;
+    }
+
+    /**
+     * Comprime um arquivo em outro.
+     *
+     * @param origem Arquivo descomprimido
+     * @param destino Arquivo comprimido (sobrescrito e sincronizado com o disco)
+     * @throws IOException Se ocorrer um erro de leitura ou escrita
+     */
+    static void comprimir(Path origem, Path destino) throws IOException {
+        try (InputStream in = Files.newInputStream(origem);
+             FileChannel canal = FileChannel.open(destino, StandardOpenOption.CREATE,
+                     StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            CanalSaida out = new CanalSaida(canal);
+            comprimir(in, out);
+            out.close();
+            canal.force(true);
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package br.ufal.ic.p2.jackut.persistence;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Leitura bufferizada de dados binários de um {@link FileChannel} ou de um
+ * vetor de bytes, com suporte a varints e a reposicionamento (para saltar seções).
+ * Arquivos em {@link BlocosComprimidos} são lidos de forma transparente: as
+ * posições se referem sempre aos dados descomprimidos.
+ */
+public class CanalEntrada {
+
+    /** Tamanho do buffer de leitura */
+    private static final int TAMANHO_BUFFER = 64 * 1024;
+
+    /** Canal de origem, ou null quando a leitura é de um vetor de bytes */
+    private final FileChannel canal;
+
+    /** Blocos do canal, quando o arquivo está comprimido */
+    private final BlocosComprimidos blocos;
+
+    /** Buffer de leitura */
+    private final ByteBuffer buffer;
+
+    /** Posição, no canal, do primeiro byte do buffer */
+    private long inicioBuffer;
+
+    /**
+     * Cria uma entrada que lê o canal a partir do início.
+     *
+     * @param canal Canal de origem
+     */
+    public CanalEntrada(FileChannel canal) {
+        this(canal, TAMANHO_BUFFER);
+    }
+
+    /**
+     * Cria uma entrada com um buffer do tamanho informado. Buffers pequenos
+     * são adequados para leituras esparsas, como buscas em um índice.
+     *
+     * @param canal Canal de origem
+     * @param tamanhoBuffer Tamanho do buffer de leitura (mínimo de 16 bytes)
+     */
+    public CanalEntrada(FileChannel canal, int tamanhoBuffer) {
+        this(canal, null, tamanhoBuffer);
+    }
+
+    private CanalEntrada(FileChannel canal, BlocosComprimidos blocos, int tamanhoBuffer) {
+        this.canal = canal;
+        this.blocos = blocos;
+        this.buffer = ByteBuffer.allocate(Math.max(16, tamanhoBuffer));
+        this.buffer.flip();
+    }
+
+    /**
+     * Cria uma entrada para um arquivo que pode estar comprimido em blocos.
+     *
+     * @param canal Canal de origem
+     * @param tamanhoBuffer Tamanho do buffer de leitura (mínimo de 16 bytes)
+     * @return Entrada que lê os dados descomprimidos, posicionada no início
+     * @throws IOException Se o canal não puder ser lido
+     */
+    public static CanalEntrada abrir(FileChannel canal, int tamanhoBuffer) throws IOException {
+        if (BlocosComprimidos.isComprimido(canal)) {
+            return new CanalEntrada(canal, BlocosComprimidos.abrir(canal), tamanhoBuffer);
+        }
+        return new CanalEntrada(canal, tamanhoBuffer);
+    }
+
+    /**
+     * Cria uma entrada para um arquivo que pode estar comprimido em blocos.
+     *
+     * @param canal Canal de origem
+     * @return Entrada que lê os dados descomprimidos, posicionada no início
+     * @throws IOException Se o canal não puder ser lido
+     */
+    public static CanalEntrada abrir(FileChannel canal) throws IOException {
+        return abrir(canal, TAMANHO_BUFFER);
+    }
+
+    /**
+     * Cria uma entrada que lê um vetor de bytes a partir do início.
+     *
+     * @param bytes Bytes de origem
+     */
+    public CanalEntrada(byte[] bytes) {
+        this.canal = null;
+        this.blocos = null;
+        this.buffer = ByteBuffer.wrap(bytes);
+    }
+
+    /**
+     * Cria outra entrada sobre a mesma origem, com posição de leitura própria.
+     *
+     * @return Nova entrada, posicionada no início
+     */
+    public CanalEntrada duplicar() {
+        if (canal == null) {
+            return new CanalEntrada(buffer.array());
+        }
+        return new CanalEntrada(canal, blocos, buffer.capacity());
+    }
+
+    /**
+     * @return Posição atual de leitura
+     */
+    public long posicao() {
+        return inicioBuffer + buffer.position();
+    }
+
+    /**
+     * @return Tamanho total do canal
+     * @throws IOException Se o tamanho não puder ser obtido
+     */
+    public long tamanho() throws IOException {
+        if (blocos != null) {
+            return blocos.getTamanho();
+        }
+        return canal == null ? buffer.limit() : canal.size();
+    }
+
+    /**
+     * Move a leitura para uma posição absoluta.
+     *
+     * @param posicao Nova posição de leitura
+     */
+    public void posicionar(long posicao) {
+        if (canal == null) {
+            buffer.position((int) posicao);
+        } else if (posicao >= inicioBuffer && posicao <= inicioBuffer + buffer.limit()) {
+            buffer.position((int) (posicao - inicioBuffer));
+        } else {
+            inicioBuffer = posicao;
+            buffer.clear();
+            buffer.flip();
+        }
+    }
+
+    /**
+     * @return Próximo byte, sem sinal
+     * @throws IOException Se o canal terminar ou ocorrer um erro de leitura
+     */
+    public int lerByte() throws IOException {
+        garantir(1);
+        return buffer.get() & 0xFF;
+    }
+
+    /**
+     * @return Próximo inteiro de 4 bytes
+     * @throws IOException Se o canal terminar ou ocorrer um erro de leitura
+     */
+    public int lerInt() throws IOException {
+        garantir(4);
+        return buffer.getInt();
+    }
+
+    /**
+     * @return Próximo inteiro de 8 bytes
+     * @throws IOException Se o canal terminar ou ocorrer um erro de leitura
+     */
+    public long lerLong() throws IOException {
+        garantir(8);
+        return buffer.getLong();
+    }
+
+    /**
+     * @return Próximo inteiro de tamanho variável
+     * @throws IOException Se o canal terminar, o valor for inválido ou ocorrer um erro de leitura
+     */
+    public long lerVarint() throws IOException {
+        long valor = 0;
+        for (int deslocamento = 0; deslocamento < 64; deslocamento += 7) {
+            int b = lerByte();
+            valor |= (long) (b & 0x7F) << deslocamento;
+            if ((b & 0x80) == 0) {
+                return valor;
+            }
+        }
+        throw new IOException("Varint inválido");
+    }
+
+    /**
+     * @return Próximo inteiro de tamanho variável, que deve caber em um int
+     * @throws IOException Se o valor não couber em um int ou ocorrer um erro de leitura
+     */
+    public int lerVarintInt() throws IOException {
+        long valor = lerVarint();
+        if (valor > Integer.MAX_VALUE) {
+            throw new IOException("Valor fora do intervalo: " + valor);
+        }
+        return (int) valor;
+    }
+
+    /**
+     * @param quantidade Quantidade de bytes
+     * @return Bytes lidos
+     * @throws IOException Se o canal terminar ou ocorrer um erro de leitura
+     */
+    public byte[] lerBytes(int quantidade) throws IOException {
+        byte[] bytes = new byte[quantidade];
+        int lidos = 0;
+        while (lidos < quantidade) {
+            if (!buffer.hasRemaining()) {
+                carregar();
+            }
+            int parte = Math.min(buffer.remaining(), quantidade - lidos);
+            buffer.get(bytes, lidos, parte);
+            lidos += parte;
+        }
+        return bytes;
+    }
+
+    /**
+     * @return Texto em UTF-8 prefixado pelo seu tamanho em bytes
+     * @throws IOException Se o canal terminar ou ocorrer um erro de leitura
+     */
+    public String lerTexto() throws IOException {
+        return new String(lerBytes(lerVarintInt()), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Garante que o buffer tenha a quantidade de bytes informada.
+     *
+     * @param bytes Quantidade de bytes
+     * @throws IOException Se o canal terminar ou ocorrer um erro de leitura
+     */
+    private void garantir(int bytes) throws IOException {
+        while (buffer.remaining() < bytes) {
+            carregar();
+        }
+    }
+
+    /**
+     * Lê mais bytes do canal, preservando os ainda não consumidos.
+     *
+     * @throws IOException Se o canal terminar ou ocorrer um erro de leitura
+     */
+    private void carregar() throws IOException {
+        if (canal == null) {
+            throw new EOFException();
+        }
+        inicioBuffer += buffer.position();
+        buffer.compact();
+        long posicao = inicioBuffer + buffer.position();
+        int lidos = blocos != null ? blocos.ler(buffer, posicao) : canal.read(buffer, posicao);
+        buffer.flip();
+        if (lidos < 0) {
+            throw new EOFException();
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package br.ufal.ic.p2.jackut.persistence;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Escrita bufferizada de dados binários em um {@link FileChannel} ou em memória.
+ * Oferece inteiros de tamanho variável (varint) e a reescrita de valores de
+ * tamanho fixo já emitidos, usada para preencher prefixos de tamanho.
+ */
+public class CanalSaida implements Closeable {
+
+    /** Tamanho do buffer de escrita */
+    private static final int TAMANHO_BUFFER = 64 * 1024;
+
+    /** Canal de destino, ou null quando a escrita é em memória */
+    private final FileChannel canal;
+
+    /** Buffer de escrita */
+    private final ByteBuffer buffer;
+
+    /** Conteúdo já descarregado, quando a escrita é em memória */
+    private byte[] memoria;
+
+    /** Bytes usados de {@link #memoria} */
+    private int tamanhoMemoria;
+
+    /** Posição, no destino, do primeiro byte do buffer */
+    private long inicioBuffer;
+
+    /**
+     * Cria uma saída que escreve no canal a partir da posição atual dele.
+     *
+     * @param canal Canal de destino
+     * @throws IOException Se a posição do canal não puder ser obtida
+     */
+    public CanalSaida(FileChannel canal) throws IOException {
+        this.canal = canal;
+        this.buffer = ByteBuffer.allocate(TAMANHO_BUFFER);
+        this.inicioBuffer = canal.position();
+    }
+
+    /**
+     * Cria uma saída em memória.
+     */
+    public CanalSaida() {
+        this(TAMANHO_BUFFER);
+    }
+
+    /**
+     * Cria uma saída em memória com um buffer do tamanho informado, adequado
+     * para registros pequenos.
+     *
+     * @param tamanhoBuffer Tamanho do buffer de escrita (mínimo de 16 bytes)
+     */
+    public CanalSaida(int tamanhoBuffer) {
+        this.canal = null;
+        this.buffer = ByteBuffer.allocate(Math.max(16, tamanhoBuffer));
+        this.memoria = new byte[0];
+    }
+
+    /**
+     * @return Posição atual de escrita
+     */
+    public long posicao() {
+        return inicioBuffer + buffer.position();
+    }
+
+    /**
+     * @param valor Byte a ser escrito
+     * @throws IOException Se ocorrer um erro de escrita
+     */
+    public void escreverByte(int valor) throws IOException {
+        garantir(1);
+        buffer.put((byte) valor);
+    }
+
+    /**
+     * @param valor Inteiro de 4 bytes a ser escrito
+     * @throws IOException Se ocorrer um erro de escrita
+     */
+    public void escreverInt(int valor) throws IOException {
+        garantir(4);
+        buffer.putInt(valor);
+    }
+
+    /**
+     * @param valor Inteiro de 8 bytes a ser escrito
+     * @throws IOException Se ocorrer um erro de escrita
+     */
+    public void escreverLong(long valor) throws IOException {
+        garantir(8);
+        buffer.putLong(valor);
+    }
+
+    /**
+     * Escreve um inteiro não negativo em 1 a 10 bytes, 7 bits por byte.
+     *
+     * @param valor Inteiro não negativo a ser escrito
+     * @throws IOException Se ocorrer um erro de escrita
+     */
+    public void escreverVarint(long valor) throws IOException {
+        garantir(10);
+        while ((valor & ~0x7FL) != 0) {
+            buffer.put((byte) ((valor & 0x7F) | 0x80));
+            valor >>>= 7;
+        }
+        buffer.put((byte) valor);
+    }
+
+    /**
+     * @param bytes Bytes a serem escritos
+     * @throws IOException Se ocorrer um erro de escrita
+     */
+    public void escreverBytes(byte[] bytes) throws IOException {
+        int escritos = 0;
+        while (escritos < bytes.length) {
+            if (!buffer.hasRemaining()) {
+                descarregar();
+            }
+            int parte = Math.min(buffer.remaining(), bytes.length - escritos);
+            buffer.put(bytes, escritos, parte);
+            escritos += parte;
+        }
+    }
+
+    /**
+     * Escreve um texto em UTF-8 prefixado pelo seu tamanho em bytes.
+     *
+     * @param texto Texto a ser escrito
+     * @throws IOException Se ocorrer um erro de escrita
+     */
+    public void escreverTexto(String texto) throws IOException {
+        byte[] bytes = texto.getBytes(StandardCharsets.UTF_8);
+        escreverVarint(bytes.length);
+        escreverBytes(bytes);
+    }
+
+    /**
+     * Reescreve um inteiro de 8 bytes já emitido em uma posição anterior.
+     *
+     * @param posicao Posição do valor a ser reescrito
+     * @param valor Novo valor
+     * @throws IOException Se ocorrer um erro de escrita
+     */
+    public void reescreverLong(long posicao, long valor) throws IOException {
+        if (posicao >= inicioBuffer) {
+            buffer.putLong((int) (posicao - inicioBuffer), valor);
+        } else if (canal != null) {
+            ByteBuffer bytes = ByteBuffer.allocate(8).putLong(valor);
+            bytes.flip();
+            while (bytes.hasRemaining()) {
+                canal.write(bytes, posicao + bytes.position());
+            }
+        } else {
+            ByteBuffer.wrap(memoria, (int) posicao, 8).putLong(valor);
+        }
+    }
+
+    /**
+     * Reescreve um inteiro de 4 bytes já emitido em uma posição anterior.
+     *
+     * @param posicao Posição do valor a ser reescrito
+     * @param valor Novo valor
+     * @throws IOException Se ocorrer um erro de escrita
+     */
+    public void reescreverInt(long posicao, int valor) throws IOException {
+        if (posicao >= inicioBuffer) {
+            buffer.putInt((int) (posicao - inicioBuffer), valor);
+        } else if (canal != null) {
+            ByteBuffer bytes = ByteBuffer.allocate(4).putInt(valor);
+            bytes.flip();
+            while (bytes.hasRemaining()) {
+                canal.write(bytes, posicao + bytes.position());
+            }
+        } else {
+            ByteBuffer.wrap(memoria, (int) posicao, 4).putInt(valor);
+        }
+    }
+
+    /**
+     * Descarrega o buffer no destino.
+     *
+     * @throws IOException Se ocorrer um erro de escrita
+     */
+    public void descarregar() throws IOException {
+        buffer.flip();
+        int tamanho = buffer.remaining();
+        if (canal != null) {
+            while (buffer.hasRemaining()) {
+                canal.write(buffer);
+            }
+        } else {
+            if (tamanhoMemoria + tamanho > memoria.length) {
+                memoria = Arrays.copyOf(memoria, Math.max(tamanhoMemoria + tamanho, memoria.length * 2));
+            }
+            buffer.get(memoria, tamanhoMemoria, tamanho);
+            tamanhoMemoria += tamanho;
+        }
+        buffer.clear();
+        inicioBuffer += tamanho;
+    }
+
+    /**
+     * @return Conteúdo escrito, quando a escrita é em memória
+     * @throws IOException Se ocorrer um erro ao descarregar o buffer
+     */
+    public byte[] getBytes() throws IOException {
+        descarregar();
+        return Arrays.copyOf(memoria, tamanhoMemoria);
+    }
+
+    /**
+     * Descarrega o buffer. O canal não é fechado: ele pertence a quem o abriu.
+     */
+    @Override
+    public void close() throws IOException {
+        descarregar();
+    }
+
+    /**
+     * Garante espaço no buffer para a quantidade de bytes informada.
+     *
+     * @param bytes Quantidade de bytes
+     * @throws IOException Se ocorrer um erro de escrita
+     */
+    private void garantir(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            descarregar();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package br.ufal.ic.p2.jackut.persistence;
+
+import br.ufal.ic.p2.jackut.services.ServiceLocator;
+
+import java.io.*;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Leitura e conversão dos snapshots gravados com serialização Java, o
+ * formato usado antes de {@link FormatoBinario}. Um snapshot base antigo
+ * contém o {@link ServiceLocator} seguido, opcionalmente, da sequência do
+ * journal; um segmento delta antigo contém um {@link SegmentoDelta}.
+ * <p>
+ * O {@link Snapshotter} lê os dois formatos, e a primeira mesclagem já grava
+ * a base no formato novo. Para converter um arquivo de uma vez:
+ * <pre>java br.ufal.ic.p2.jackut.persistence.ConversorFormatoAntigo [arquivo]</pre>
+ */
+public final class ConversorFormatoAntigo {
+
+    private ConversorFormatoAntigo() {
+    }
+
+    /**
+     * Lê um arquivo no formato antigo como um segmento.
+     *
+     * @param arquivo Snapshot base ou segmento delta no formato antigo
+     * @return Segmento equivalente; um snapshot base vira um segmento completo
+     * @throws IOException Se o arquivo não puder ser lido ou não estiver no formato antigo
+     */
+    public static SegmentoDelta ler(Path arquivo) throws IOException {
+        try (ObjectInputStream in = new ObjectInputStream(
+                new BufferedInputStream(Files.newInputStream(arquivo)))) {
+            Object conteudo = in.readObject();
+            if (conteudo instanceof SegmentoDelta) {
+                return (SegmentoDelta) conteudo;
+            }
+            if (!(conteudo instanceof ServiceLocator)) {
+                throw new InvalidClassException("Conteúdo de snapshot desconhecido: " + conteudo.getClass().getName());
+            }
+
+            long sequencia;
+            try {
+                sequencia = in.readLong();
+            } catch (EOFException e) {
+                // Snapshots anteriores ao journal não registram a sequência
+                sequencia = 0;
+            }
+            return SegmentoDelta.completo(((ServiceLocator) conteudo).getRepository(), sequencia);
+        } catch (ClassNotFoundException e) {
+            throw new InvalidClassException("Classe desconhecida no snapshot: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Converte um arquivo do formato antigo para o formato binário, no mesmo lugar.
+     * Arquivos que já estão no formato binário não são alterados.
+     *
+     * @param arquivo Arquivo a ser convertido
+     * @return true se o arquivo foi convertido
+     * @throws IOException Se o arquivo não puder ser lido ou gravado
+     */
+    public static boolean converter(Path arquivo) throws IOException {
+        if (FormatoBinario.isFormatoBinario(arquivo)) {
+            return false;
+        }
+        Snapshotter.gravarAtomicamente(arquivo, FormatoBinario.codificar(ler(arquivo)));
+        return true;
+    }
+
+    /**
+     * Converte um snapshot base e os seus segmentos delta.
+     *
+     * @param args Caminho do snapshot base (padrão: sistema.dat)
+     * @throws IOException Se algum arquivo não puder ser convertido
+     */
+    public static void main(String[] args) throws IOException {
+        Path base = Paths.get(args.length > 0 ? args[0] : "sistema.dat").toAbsolutePath();
+        String prefixo = base.getFileName() + ".delta.";
+
+        if (Files.exists(base)) {
+            System.out.println(base.getFileName() + (converter(base) ? ": convertido" : ": já convertido"));
+        }
+        try (DirectoryStream<Path> deltas = Files.newDirectoryStream(base.getParent(), prefixo + "*")) {
+            for (Path delta : deltas) {
+                if (!delta.getFileName().toString().endsWith(".tmp")) {
+                    System.out.println(delta.getFileName() + (converter(delta) ? ": convertido" : ": já convertido"));
+                }
+            }
+        }
+    }
+}
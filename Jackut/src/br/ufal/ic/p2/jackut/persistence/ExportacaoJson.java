@@ -0,0 +1,607 @@
+package br.ufal.ic.p2.jackut.persistence;
+
+import br.ufal.ic.p2.jackut.entities.Comunicacao;
+import br.ufal.ic.p2.jackut.entities.Comunidade;
+import br.ufal.ic.p2.jackut.entities.Relacionamento;
+import br.ufal.ic.p2.jackut.entities.Usuario;
+import br.ufal.ic.p2.jackut.services.DataRepository;
+import br.ufal.ic.p2.jackut.services.ServiceLocator;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Exportação e importação do repositório em JSON Lines: um registro JSON por linha.
+ * <pre>
+ * {"tipo":"jackut","versao":1}
+ * {"tipo":"usuario","login":...,"senha":...,"nome":...,"atributos":{...},"comunidades":[...],
+ *  "amigos":[...],"idolos":[...],"paqueras":[...],"inimigos":[...],"convites":[...]}
+ * {"tipo":"comunidade","nome":...,"dono":...,"descricao":...,"sessao":...,"membros":[...]}
+ * {"tipo":"mensagem","caixa":...,"remetente":...,"destinatario":...,"conteudo":...,"tipoMensagem":...}
+ * </pre>
+ * Os registros são escritos e lidos um de cada vez, de modo que a memória
+ * usada não depende do tamanho do repositório: a exportação percorre os
+ * usuários ainda não carregados direto do snapshot, sem mantê-los no heap, e
+ * as mensagens do log de mensagens uma a uma. As sessões não são exportadas.
+ * As mensagens dos murais que um membro ainda não leu são exportadas como
+ * mensagens da caixa dele, na ordem em que ele as leria.
+ * <p>
+ * A importação acrescenta os registros ao repositório pelos serviços,
+ * substituindo entidades com a mesma chave. O arquivo inteiro é validado
+ * antes de qualquer alteração, e a manutenção das comunidades de cada dono e
+ * das alterações para o próximo checkpoint é feita uma única vez no final.
+ */
+public final class ExportacaoJson {
+
+    /** Versão atual do formato */
+    private static final int VERSAO = 1;
+
+    private ExportacaoJson() {
+    }
+
+    /**
+     * Exporta o repositório para um arquivo.
+     *
+     * @param repository Repositório a ser exportado
+     * @param destino Arquivo de destino (sobrescrito)
+     * @throws IOException Se o arquivo não puder ser gravado
+     */
+    public static void exportar(DataRepository repository, Path destino) throws IOException {
+        try (Writer out = Files.newBufferedWriter(destino, StandardCharsets.UTF_8)) {
+            exportar(repository, out);
+        }
+    }
+
+    /**
+     * Exporta o repositório, um registro por linha.
+     *
+     * @param repository Repositório a ser exportado
+     * @param out Destino
+     * @throws IOException Se ocorrer um erro de escrita
+     */
+    public static void exportar(DataRepository repository, Writer out) throws IOException {
+        Escritor escritor = new Escritor(out);
+        escritor.abrir("jackut");
+        escritor.numero("versao", VERSAO);
+        escritor.fechar();
+
+        try {
+            repository.percorrerUsuarios(usuario -> escritor.usuario(usuario));
+            for (Comunidade comunidade : repository.getComunidades().values()) {
+                escritor.comunidade(comunidade);
+            }
+            repository.percorrerMensagensEMurais((caixa, mensagem) -> escritor.mensagem(caixa, mensagem));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        out.flush();
+    }
+
+    /**
+     * Verifica se um arquivo pode ser importado, sem alterar o repositório.
+     *
+     * @param origem Arquivo exportado
+     * @throws IOException Se o arquivo não puder ser lido ou tiver algum registro inválido
+     */
+    public static void validar(Path origem) throws IOException {
+        percorrer(origem, registro -> {
+        });
+    }
+
+    /**
+     * Importa um arquivo exportado: valida o arquivo inteiro e só então
+     * acrescenta os registros pelos serviços.
+     *
+     * @param origem Arquivo exportado
+     * @param servicos Serviços do sistema de destino
+     * @throws IOException Se o arquivo não puder ser lido ou tiver algum registro inválido
+     */
+    public static void importar(Path origem, ServiceLocator servicos) throws IOException {
+        validar(origem);
+        percorrer(origem, registro -> {
+            if (registro instanceof Usuario) {
+                servicos.getUsuarioService().importarUsuario((Usuario) registro);
+            } else if (registro instanceof Comunidade) {
+                servicos.getComunidadeService().importarComunidade((Comunidade) registro);
+            } else {
+                Mensagem mensagem = (Mensagem) registro;
+                servicos.getMensagemService().importarMensagem(mensagem.caixa, mensagem.mensagem);
+            }
+        });
+        servicos.getRepository().concluirImportacao();
+    }
+
+    /**
+     * Escreve um texto como valor JSON, entre aspas e com os caracteres
+     * especiais escapados, ou {@code null}.
+     *
+     * @param out Destino
+     * @param texto Texto a ser escrito
+     * @throws IOException Se ocorrer um erro de escrita
+     */
+    public static void escreverTexto(Writer out, String texto) throws IOException {
+        if (texto == null) {
+            out.write("null");
+            return;
+        }
+        out.write('"');
+        for (int i = 0; i < texto.length(); i++) {
+            char c = texto.charAt(i);
+            switch (c) {
+                case '"':
+                    out.write("\\\"");
+                    break;
+                case '\\':
+                    out.write("\\\\");
+                    break;
+                case '\n':
+                    out.write("\\n");
+                    break;
+                case '\r':
+                    out.write("\\r");
+                    break;
+                case '\t':
+                    out.write("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        out.write(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.write(c);
+                    }
+            }
+        }
+        out.write('"');
+    }
+
+    /**
+     * Lê um objeto JSON com objetos, listas, textos, inteiros, booleanos e null.
+     *
+     * @param json Texto com exatamente um objeto JSON
+     * @return Campos do objeto
+     * @throws IOException Se o texto não contiver exatamente um objeto JSON
+     */
+    public static Map<String, Object> lerObjeto(String json) throws IOException {
+        return Leitor.objeto(json, 1);
+    }
+
+    /**
+     * Lê os registros de um arquivo exportado, um de cada vez.
+     *
+     * @param origem Arquivo exportado
+     * @param destino Recebe cada usuário, comunidade ou mensagem lido
+     * @throws IOException Se o arquivo não puder ser lido ou tiver algum registro inválido
+     */
+    private static void percorrer(Path origem, Consumer<Object> destino) throws IOException {
+        try (BufferedReader in = Files.newBufferedReader(origem, StandardCharsets.UTF_8)) {
+            String linha = in.readLine();
+            if (linha == null || !"jackut".equals(Leitor.objeto(linha, 1).get("tipo"))) {
+                throw new IOException("Arquivo não é uma exportação do Jackut");
+            }
+            Object versao = Leitor.objeto(linha, 1).get("versao");
+            if (!(versao instanceof Long) || (Long) versao > VERSAO) {
+                throw new IOException("Versão de exportação não suportada: " + versao);
+            }
+
+            int numero = 1;
+            while ((linha = in.readLine()) != null) {
+                numero++;
+                if (!linha.isBlank()) {
+                    destino.accept(decodificar(Leitor.objeto(linha, numero), numero));
+                }
+            }
+        }
+    }
+
+    /**
+     * Converte um registro lido na entidade correspondente.
+     *
+     * @param registro Campos do registro
+     * @param linha Número da linha, para as mensagens de erro
+     * @return Usuario, Comunidade ou Mensagem
+     * @throws IOException Se o registro for de um tipo desconhecido ou faltar algum campo obrigatório
+     */
+    private static Object decodificar(Map<String, Object> registro, int linha) throws IOException {
+        Object tipo = registro.get("tipo");
+        if ("usuario".equals(tipo)) {
+            Usuario usuario = new Usuario(obrigatorio(registro, "login", linha),
+                    obrigatorio(registro, "senha", linha), texto(registro, "nome", linha));
+            for (Map.Entry<String, Object> atributo : mapa(registro, "atributos", linha).entrySet()) {
+                if (!(atributo.getValue() instanceof String)) {
+                    throw invalido(linha, "atributo " + atributo.getKey());
+                }
+                usuario.getAtributos().put(atributo.getKey(), (String) atributo.getValue());
+            }
+            textos(registro, "comunidades", linha, usuario.getComunidadesCadastradas());
+            Relacionamento relacionamentos = usuario.getRelacionamentos();
+            textos(registro, "amigos", linha, relacionamentos.getAmigos());
+            textos(registro, "idolos", linha, relacionamentos.getIdolos());
+            textos(registro, "paqueras", linha, relacionamentos.getPaqueras());
+            textos(registro, "inimigos", linha, relacionamentos.getInimigos());
+            textos(registro, "convites", linha, relacionamentos.getConvitesAmizade());
+            return usuario;
+        }
+        if ("comunidade".equals(tipo)) {
+            Comunidade comunidade = new Comunidade(texto(registro, "sessao", linha),
+                    obrigatorio(registro, "dono", linha), obrigatorio(registro, "nome", linha),
+                    texto(registro, "descricao", linha));
+            textos(registro, "membros", linha, comunidade.getMembros());
+            return comunidade;
+        }
+        if ("mensagem".equals(tipo)) {
+            return new Mensagem(obrigatorio(registro, "caixa", linha), new Comunicacao(
+                    obrigatorio(registro, "remetente", linha), texto(registro, "destinatario", linha),
+                    texto(registro, "conteudo", linha), obrigatorio(registro, "tipoMensagem", linha)));
+        }
+        throw new IOException("Linha " + linha + ": tipo de registro desconhecido: " + tipo);
+    }
+
+    private static String texto(Map<String, Object> registro, String campo, int linha) throws IOException {
+        Object valor = registro.get(campo);
+        if (valor != null && !(valor instanceof String)) {
+            throw invalido(linha, campo);
+        }
+        return (String) valor;
+    }
+
+    private static String obrigatorio(Map<String, Object> registro, String campo, int linha) throws IOException {
+        String valor = texto(registro, campo, linha);
+        if (valor == null || valor.isEmpty()) {
+            throw invalido(linha, campo);
+        }
+        return valor;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> mapa(Map<String, Object> registro, String campo, int linha)
+            throws IOException {
+        Object valor = registro.get(campo);
+        if (valor == null) {
+            return Collections.emptyMap();
+        }
+        if (!(valor instanceof Map)) {
+            throw invalido(linha, campo);
+        }
+        return (Map<String, Object>) valor;
+    }
+
+    private static void textos(Map<String, Object> registro, String campo, int linha, Collection<String> destino)
+            throws IOException {
+        Object valor = registro.get(campo);
+        if (valor == null) {
+            return;
+        }
+        if (!(valor instanceof List)) {
+            throw invalido(linha, campo);
+        }
+        for (Object elemento : (List<?>) valor) {
+            if (!(elemento instanceof String)) {
+                throw invalido(linha, campo);
+            }
+            destino.add((String) elemento);
+        }
+    }
+
+    private static IOException invalido(int linha, String campo) {
+        return new IOException("Linha " + linha + ": campo inválido: " + campo);
+    }
+
+    /**
+     * Mensagem pendente lida de um registro, com o dono da caixa onde ela está.
+     */
+    private static class Mensagem {
+        private final String caixa;
+        private final Comunicacao mensagem;
+
+        private Mensagem(String caixa, Comunicacao mensagem) {
+            this.caixa = caixa;
+            this.mensagem = mensagem;
+        }
+    }
+
+    /**
+     * Escrita dos registros, um objeto JSON por linha.
+     */
+    private static class Escritor {
+        private final Writer out;
+        private boolean primeiroCampo;
+
+        private Escritor(Writer out) {
+            this.out = out;
+        }
+
+        private void usuario(Usuario usuario) {
+            try {
+                abrir("usuario");
+                texto("login", usuario.getLogin());
+                texto("senha", usuario.getSenha());
+                texto("nome", usuario.getNome());
+                campo("atributos");
+                out.write('{');
+                boolean primeiro = true;
+                for (Map.Entry<String, String> atributo : usuario.getAtributos().entrySet()) {
+                    if (!primeiro) {
+                        out.write(',');
+                    }
+                    primeiro = false;
+                    valor(atributo.getKey());
+                    out.write(':');
+                    valor(atributo.getValue());
+                }
+                out.write('}');
+                textos("comunidades", usuario.getComunidadesCadastradas());
+                Relacionamento relacionamentos = usuario.getRelacionamentos();
+                textos("amigos", relacionamentos.getAmigos());
+                textos("idolos", relacionamentos.getIdolos());
+                textos("paqueras", relacionamentos.getPaqueras());
+                textos("inimigos", relacionamentos.getInimigos());
+                textos("convites", relacionamentos.getConvitesAmizade());
+                fechar();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void comunidade(Comunidade comunidade) throws IOException {
+            abrir("comunidade");
+            texto("nome", comunidade.getNome());
+            texto("dono", comunidade.getDonoComunidade());
+            texto("descricao", comunidade.getDescricao());
+            texto("sessao", comunidade.getSessionID());
+            textos("membros", comunidade.getMembros());
+            fechar();
+        }
+
+        private void mensagem(String caixa, Comunicacao mensagem) {
+            try {
+                abrir("mensagem");
+                texto("caixa", caixa);
+                texto("remetente", mensagem.getRemetente());
+                texto("destinatario", mensagem.getDestinatario());
+                texto("conteudo", mensagem.getConteudo());
+                texto("tipoMensagem", mensagem.getTipo());
+                fechar();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void abrir(String tipo) throws IOException {
+            out.write('{');
+            primeiroCampo = true;
+            texto("tipo", tipo);
+        }
+
+        private void fechar() throws IOException {
+            out.write("}\n");
+        }
+
+        private void campo(String nome) throws IOException {
+            if (!primeiroCampo) {
+                out.write(',');
+            }
+            primeiroCampo = false;
+            valor(nome);
+            out.write(':');
+        }
+
+        private void numero(String nome, long valor) throws IOException {
+            campo(nome);
+            out.write(Long.toString(valor));
+        }
+
+        private void texto(String nome, String valor) throws IOException {
+            campo(nome);
+            valor(valor);
+        }
+
+        private void textos(String nome, Collection<String> valores) throws IOException {
+            campo(nome);
+            out.write('[');
+            boolean primeiro = true;
+            for (String valor : valores) {
+                if (!primeiro) {
+                    out.write(',');
+                }
+                primeiro = false;
+                valor(valor);
+            }
+            out.write(']');
+        }
+
+        private void valor(String texto) throws IOException {
+            escreverTexto(out, texto);
+        }
+    }
+
+    /**
+     * Leitura de uma linha JSON: objetos, listas, textos, inteiros, booleanos e null.
+     */
+    private static class Leitor {
+        private final String linha;
+        private final int numero;
+        private int posicao;
+
+        private Leitor(String linha, int numero) {
+            this.linha = linha;
+            this.numero = numero;
+        }
+
+        /**
+         * @param linha Linha com um objeto JSON
+         * @param numero Número da linha, para as mensagens de erro
+         * @return Campos do objeto
+         * @throws IOException Se a linha não contiver exatamente um objeto JSON
+         */
+        @SuppressWarnings("unchecked")
+        static Map<String, Object> objeto(String linha, int numero) throws IOException {
+            Leitor leitor = new Leitor(linha, numero);
+            Object valor = leitor.valor();
+            leitor.espacos();
+            if (!(valor instanceof Map) || leitor.posicao != linha.length()) {
+                throw leitor.erro("objeto JSON esperado");
+            }
+            return (Map<String, Object>) valor;
+        }
+
+        private Object valor() throws IOException {
+            espacos();
+            if (posicao >= linha.length()) {
+                throw erro("valor esperado");
+            }
+            char c = linha.charAt(posicao);
+            switch (c) {
+                case '{':
+                    return lerObjeto();
+                case '[':
+                    return lerLista();
+                case '"':
+                    return lerTexto();
+                default:
+                    if (linha.startsWith("null", posicao)) {
+                        posicao += 4;
+                        return null;
+                    }
+                    if (linha.startsWith("true", posicao)) {
+                        posicao += 4;
+                        return Boolean.TRUE;
+                    }
+                    if (linha.startsWith("false", posicao)) {
+                        posicao += 5;
+                        return Boolean.FALSE;
+                    }
+                    return lerNumero();
+            }
+        }
+
+        private Map<String, Object> lerObjeto() throws IOException {
+            Map<String, Object> objeto = new LinkedHashMap<>();
+            posicao++;
+            espacos();
+            if (consumir('}')) {
+                return objeto;
+            }
+            do {
+                espacos();
+                if (posicao >= linha.length() || linha.charAt(posicao) != '"') {
+                    throw erro("nome de campo esperado");
+                }
+                String nome = lerTexto();
+                espacos();
+                if (!consumir(':')) {
+                    throw erro("':' esperado");
+                }
+                objeto.put(nome, valor());
+                espacos();
+            } while (consumir(','));
+            if (!consumir('}')) {
+                throw erro("'}' esperado");
+            }
+            return objeto;
+        }
+
+        private List<Object> lerLista() throws IOException {
+            List<Object> lista = new ArrayList<>();
+            posicao++;
+            espacos();
+            if (consumir(']')) {
+                return lista;
+            }
+            do {
+                lista.add(valor());
+                espacos();
+            } while (consumir(','));
+            if (!consumir(']')) {
+                throw erro("']' esperado");
+            }
+            return lista;
+        }
+
+        private String lerTexto() throws IOException {
+            StringBuilder texto = new StringBuilder();
+            posicao++;
+            while (posicao < linha.length()) {
+                char c = linha.charAt(posicao++);
+                if (c == '"') {
+                    return texto.toString();
+                }
+                if (c != '\\') {
+                    texto.append(c);
+                    continue;
+                }
+                if (posicao >= linha.length()) {
+                    break;
+                }
+                char escape = linha.charAt(posicao++);
+                switch (escape) {
+                    case 'n':
+                        texto.append('\n');
+                        break;
+                    case 'r':
+                        texto.append('\r');
+                        break;
+                    case 't':
+                        texto.append('\t');
+                        break;
+                    case 'b':
+                        texto.append('\b');
+                        break;
+                    case 'f':
+                        texto.append('\f');
+                        break;
+                    case 'u':
+                        if (posicao + 4 > linha.length()) {
+                            throw erro("escape unicode incompleto");
+                        }
+                        try {
+                            texto.append((char) Integer.parseInt(linha.substring(posicao, posicao + 4), 16));
+                        } catch (NumberFormatException e) {
+                            throw erro("escape unicode inválido");
+                        }
+                        posicao += 4;
+                        break;
+                    default:
+                        texto.append(escape);
+                }
+            }
+            throw erro("texto não terminado");
+        }
+
+        private Long lerNumero() throws IOException {
+            int inicio = posicao;
+            if (posicao < linha.length() && linha.charAt(posicao) == '-') {
+                posicao++;
+            }
+            while (posicao < linha.length() && Character.isDigit(linha.charAt(posicao))) {
+                posicao++;
+            }
+            try {
+                return Long.parseLong(linha.substring(inicio, posicao));
+            } catch (NumberFormatException e) {
+                throw erro("valor inválido");
+            }
+        }
+
+        private boolean consumir(char c) {
+            if (posicao < linha.length() && linha.charAt(posicao) == c) {
+                posicao++;
+                return true;
+            }
+            return false;
+        }
+
+        private void espacos() {
+            while (posicao < linha.length() && Character.isWhitespace(linha.charAt(posicao))) {
+                posicao++;
+            }
+        }
+
+        private IOException erro(String descricao) {
+            return new IOException("Linha " + numero + ", coluna " + (posicao + 1) + ": " + descricao);
+        }
+    }
+}
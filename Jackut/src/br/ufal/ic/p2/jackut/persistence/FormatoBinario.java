@@ -0,0 +1,976 @@
+package br.ufal.ic.p2.jackut.persistence;
+
+import br.ufal.ic.p2.jackut.entities.Comunicacao;
+import br.ufal.ic.p2.jackut.entities.Comunidade;
+import br.ufal.ic.p2.jackut.entities.MuralComunidade;
+import br.ufal.ic.p2.jackut.entities.Relacionamento;
+import br.ufal.ic.p2.jackut.entities.Usuario;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Formato binário versionado dos snapshots e segmentos delta.
+ * <pre>
+ * cabeçalho  : "JKUT" versão(byte) flags(byte) sequência(long) próximoIdSessão(varint)
+ * seções     : tipo(byte) tamanho(long) quantidade(varint) entradas...
+ * fragmentos : (bases fragmentadas) nomes dos arquivos com o restante da base
+ * cursores   : (log de mensagens) posição final do log e cursores de leitura alterados
+ * índice     : (versão 2, só em snapshots base) logins ordenados, com a posição de cada usuário
+ * dicionário : seção com todos os textos distintos, na ordem das referências
+ * posições   : (versão 2) posição de cada texto do dicionário, em entradas de tamanho fixo
+ * rodapé     : posições das seções de dicionário, índice (-1 se ausente) e posições (versão 2)
+ *              ou apenas a posição do dicionário (versão 1)
+ * </pre>
+ * Todo texto é gravado como uma referência varint ao dicionário (0 = null),
+ * de modo que logins repetidos em listas de amigos, membros e caixas de
+ * mensagens ocupam poucos bytes. O prefixo de tamanho de cada seção permite
+ * saltar seções desconhecidas. O dicionário fica no final para que a escrita
+ * seja feita em uma única passada.
+ * <p>
+ * O índice de usuários e a tabela de posições do dicionário têm entradas de
+ * tamanho fixo, o que permite localizar um usuário por busca binária direto
+ * no arquivo, sem ler o resto do snapshot (ver {@link IndiceUsuarios}).
+ * <p>
+ * A versão do cabeçalho é a versão do esquema dos registros, e a leitura
+ * aceita todas as anteriores. A partir da versão 3, cada usuário e cada
+ * comunidade é precedido do tamanho do registro: campos novos são
+ * acrescentados ao final, e o leitor salta o que não conhece. A partir da
+ * versão 4, cada mensagem das caixas termina com a ordem de chegada no mural
+ * de onde veio (0 se não veio de um mural). Arquivos de
+ * versões anteriores são convertidos registro a registro por
+ * {@link MigracaoSnapshot}, sem montar o repositório em memória.
+ */
+public final class FormatoBinario {
+
+    /** Assinatura dos arquivos no formato binário */
+    private static final byte[] MAGICO = {'J', 'K', 'U', 'T'};
+
+    /** Versão atual do formato */
+    public static final int VERSAO = 4;
+
+    /** Primeira versão com o tamanho de cada registro de usuário e de comunidade */
+    private static final int VERSAO_REGISTROS_COM_TAMANHO = 3;
+
+    /** Primeira versão com a ordem de chegada no mural de cada mensagem das caixas */
+    private static final int VERSAO_ORDEM_NAS_CAIXAS = 4;
+
+    /** Flag do cabeçalho: o segmento substitui todo o estado */
+    private static final int FLAG_LIMPAR = 1;
+
+    /** Tipos de seção */
+    private static final int SECAO_USUARIOS = 1;
+    private static final int SECAO_DONOS = 2;
+    private static final int SECAO_COMUNIDADES = 3;
+    private static final int SECAO_MENSAGENS = 4;
+    private static final int SECAO_SESSOES = 5;
+    private static final int SECAO_DICIONARIO = 6;
+    private static final int SECAO_INDICE_USUARIOS = 7;
+    private static final int SECAO_POSICOES_DICIONARIO = 8;
+    private static final int SECAO_FRAGMENTOS = 9;
+    private static final int SECAO_CURSORES = 10;
+
+    /** Tamanho de uma entrada do índice de usuários: referência do login (int) e posição (long) */
+    static final int TAMANHO_ENTRADA_INDICE = 12;
+
+    private FormatoBinario() {
+    }
+
+    /**
+     * Verifica se um arquivo começa com a assinatura do formato binário,
+     * diretamente ou depois de descomprimido ({@link BlocosComprimidos}).
+     *
+     * @param arquivo Arquivo a verificar
+     * @return true se o arquivo estiver no formato binário
+     * @throws IOException Se o arquivo não puder ser lido
+     */
+    public static boolean isFormatoBinario(Path arquivo) throws IOException {
+        try (FileChannel canal = FileChannel.open(arquivo, StandardOpenOption.READ)) {
+            if (BlocosComprimidos.isComprimido(canal)) {
+                return true;
+            }
+            ByteBuffer inicio = ByteBuffer.allocate(MAGICO.length);
+            while (inicio.hasRemaining() && canal.read(inicio) >= 0) {
+                // lê até completar a assinatura ou o arquivo terminar
+            }
+            return !inicio.hasRemaining() && Arrays.equals(inicio.array(), MAGICO);
+        }
+    }
+
+    /**
+     * Grava um segmento em um arquivo, em uma única passada.
+     *
+     * @param arquivo Arquivo de destino (sobrescrito)
+     * @param segmento Segmento a ser gravado
+     * @throws IOException Se ocorrer um erro de escrita
+     */
+    public static void gravar(Path arquivo, SegmentoDelta segmento) throws IOException {
+        try (FileChannel canal = FileChannel.open(arquivo, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            CanalSaida out = new CanalSaida(canal);
+            escrever(out, segmento);
+            out.close();
+            canal.force(true);
+        }
+    }
+
+    /**
+     * Grava um segmento em um arquivo, opcionalmente comprimido em blocos.
+     * O segmento comprimido é primeiro gravado sem compressão em um arquivo
+     * auxiliar, para que a memória usada não dependa do tamanho da base.
+     *
+     * @param arquivo Arquivo de destino (sobrescrito)
+     * @param segmento Segmento a ser gravado
+     * @param comprimir Se o arquivo deve ser comprimido com {@link BlocosComprimidos}
+     * @throws IOException Se ocorrer um erro de escrita
+     */
+    public static void gravar(Path arquivo, SegmentoDelta segmento, boolean comprimir) throws IOException {
+        if (!comprimir) {
+            gravar(arquivo, segmento);
+            return;
+        }
+        Path descomprimido = arquivo.resolveSibling(arquivo.getFileName() + ".raw");
+        try {
+            gravar(descomprimido, segmento);
+            BlocosComprimidos.comprimir(descomprimido, arquivo);
+        } finally {
+            Files.deleteIfExists(descomprimido);
+        }
+    }
+
+    /**
+     * Codifica um segmento em memória.
+     *
+     * @param segmento Segmento a ser codificado
+     * @return Bytes do segmento
+     * @throws IOException Se ocorrer um erro de codificação
+     */
+    public static byte[] codificar(SegmentoDelta segmento) throws IOException {
+        CanalSaida out = new CanalSaida();
+        escrever(out, segmento);
+        return out.getBytes();
+    }
+
+    /**
+     * Lê um segmento de um arquivo.
+     *
+     * @param arquivo Arquivo de origem
+     * @return Segmento lido
+     * @throws IOException Se o arquivo não puder ser lido ou não estiver no formato esperado
+     */
+    public static SegmentoDelta ler(Path arquivo) throws IOException {
+        try (FileChannel canal = FileChannel.open(arquivo, StandardOpenOption.READ)) {
+            return ler(CanalEntrada.abrir(canal));
+        }
+    }
+
+    /**
+     * Escreve um segmento completo: cabeçalho, seções, dicionário e rodapé.
+     *
+     * @param out Destino
+     * @param segmento Segmento a ser escrito
+     * @throws IOException Se ocorrer um erro de escrita
+     */
+    public static void escrever(CanalSaida out, SegmentoDelta segmento) throws IOException {
+        Escritor escritor = new Escritor(out);
+        escreverCabecalho(out, segmento.isLimpar() ? FLAG_LIMPAR : 0, segmento.getSequencia(),
+                segmento.getNextSessionId());
+
+        Map<String, Long> posicoesUsuarios = new TreeMap<>();
+        long secao = escritor.abrirSecao(SECAO_USUARIOS, segmento.getUsuarios().size());
+        for (Map.Entry<String, Usuario> entrada : segmento.getUsuarios().entrySet()) {
+            if (entrada.getValue() != null) {
+                posicoesUsuarios.put(entrada.getKey(), out.posicao());
+            }
+            escritor.texto(entrada.getKey());
+            escritor.escreverUsuario(entrada.getValue());
+        }
+        escritor.fecharSecao(secao);
+
+        // Em um snapshot completo, donos sem comunidades equivalem a donos ausentes
+        List<Map.Entry<String, Set<String>>> donos = new ArrayList<>();
+        for (Map.Entry<String, Set<String>> entrada : segmento.getDonos().entrySet()) {
+            if (!segmento.isLimpar() || (entrada.getValue() != null && !entrada.getValue().isEmpty())) {
+                donos.add(entrada);
+            }
+        }
+        secao = escritor.abrirSecao(SECAO_DONOS, donos.size());
+        for (Map.Entry<String, Set<String>> entrada : donos) {
+            escritor.texto(entrada.getKey());
+            out.escreverByte(entrada.getValue() == null ? 0 : 1);
+            if (entrada.getValue() != null) {
+                escritor.textos(entrada.getValue());
+            }
+        }
+        escritor.fecharSecao(secao);
+
+        secao = escritor.abrirSecao(SECAO_COMUNIDADES, segmento.getComunidades().size());
+        for (Map.Entry<String, Comunidade> entrada : segmento.getComunidades().entrySet()) {
+            escritor.texto(entrada.getKey());
+            escritor.escreverComunidade(entrada.getValue());
+        }
+        escritor.fecharSecao(secao);
+
+        secao = escritor.abrirSecao(SECAO_MENSAGENS, segmento.getMensagens().size());
+        for (Map.Entry<String, List<Comunicacao>> entrada : segmento.getMensagens().entrySet()) {
+            escritor.texto(entrada.getKey());
+            escritor.escreverCaixa(entrada.getValue());
+        }
+        escritor.fecharSecao(secao);
+
+        Map<String, String> sessoes = segmento.getSessoes();
+        secao = escritor.abrirSecao(SECAO_SESSOES, sessoes == null ? 0 : sessoes.size());
+        out.escreverByte(sessoes == null ? 0 : 1);
+        if (sessoes != null) {
+            for (Map.Entry<String, String> entrada : sessoes.entrySet()) {
+                escritor.texto(entrada.getKey());
+                escritor.texto(entrada.getValue());
+            }
+        }
+        escritor.fecharSecao(secao);
+
+        if (!segmento.getFragmentos().isEmpty()) {
+            secao = escritor.abrirSecao(SECAO_FRAGMENTOS, segmento.getFragmentos().size());
+            for (String fragmento : segmento.getFragmentos()) {
+                escritor.texto(fragmento);
+            }
+            escritor.fecharSecao(secao);
+        }
+
+        if (segmento.getFimLog() >= 0) {
+            secao = escritor.abrirSecao(SECAO_CURSORES, segmento.getCursores().size());
+            out.escreverLong(segmento.getFimLog());
+            for (Map.Entry<String, long[]> entrada : segmento.getCursores().entrySet()) {
+                escritor.texto(entrada.getKey());
+                long[] cursor = entrada.getValue();
+                out.escreverByte(cursor == null ? 0 : 1);
+                if (cursor != null) {
+                    // Cursores valem -1 enquanto nenhuma mensagem do tipo foi lida
+                    out.escreverVarint(cursor[0] + 1);
+                    out.escreverVarint(cursor[1] + 1);
+                }
+            }
+            escritor.fecharSecao(secao);
+        }
+
+        escreverFinal(escritor, segmento.isLimpar() ? posicoesUsuarios : null);
+    }
+
+    /**
+     * Escreve o cabeçalho na versão atual.
+     */
+    private static void escreverCabecalho(CanalSaida out, int flags, long sequencia, int nextSessionId)
+            throws IOException {
+        out.escreverBytes(MAGICO);
+        out.escreverByte(VERSAO);
+        out.escreverByte(flags);
+        out.escreverLong(sequencia);
+        out.escreverVarint(nextSessionId);
+    }
+
+    /**
+     * Escreve o que vem depois das seções: índice de usuários, dicionário,
+     * posições dos textos e rodapé.
+     *
+     * @param escritor Escritor com o dicionário das seções já escritas
+     * @param posicoesUsuarios Posição de cada usuário, ou null se o segmento não tiver índice
+     */
+    private static void escreverFinal(Escritor escritor, Map<String, Long> posicoesUsuarios) throws IOException {
+        CanalSaida out = escritor.out;
+        long secao;
+        long posicaoIndice = -1;
+        if (posicoesUsuarios != null) {
+            posicaoIndice = out.posicao();
+            secao = escritor.abrirSecao(SECAO_INDICE_USUARIOS, posicoesUsuarios.size());
+            for (Map.Entry<String, Long> entrada : posicoesUsuarios.entrySet()) {
+                out.escreverInt(escritor.referencias.get(entrada.getKey()));
+                out.escreverLong(entrada.getValue());
+            }
+            escritor.fecharSecao(secao);
+        }
+
+        long posicaoDicionario = out.posicao();
+        long[] posicoesTextos = new long[escritor.dicionario.size()];
+        secao = escritor.abrirSecao(SECAO_DICIONARIO, escritor.dicionario.size());
+        for (int i = 0; i < posicoesTextos.length; i++) {
+            posicoesTextos[i] = out.posicao();
+            out.escreverTexto(escritor.dicionario.get(i));
+        }
+        escritor.fecharSecao(secao);
+
+        long posicaoPosicoes = out.posicao();
+        secao = escritor.abrirSecao(SECAO_POSICOES_DICIONARIO, posicoesTextos.length);
+        for (long posicao : posicoesTextos) {
+            out.escreverLong(posicao);
+        }
+        escritor.fecharSecao(secao);
+
+        out.escreverLong(posicaoDicionario);
+        out.escreverLong(posicaoIndice);
+        out.escreverLong(posicaoPosicoes);
+    }
+
+    /**
+     * Lê um segmento completo. O dicionário é lido primeiro (a partir do
+     * rodapé) e as seções de tipo desconhecido são saltadas.
+     *
+     * @param in Origem
+     * @return Segmento lido
+     * @throws IOException Se o conteúdo não estiver no formato esperado
+     */
+    public static SegmentoDelta ler(CanalEntrada in) throws IOException {
+        return ler(in, true);
+    }
+
+    /**
+     * Lê um segmento, opcionalmente sem a seção de usuários. Sem os usuários,
+     * os textos são lidos do dicionário um a um, conforme referenciados, em
+     * vez de o dicionário inteiro ser carregado.
+     *
+     * @param in Origem
+     * @param incluirUsuarios Se false, a seção de usuários é saltada
+     * @return Segmento lido
+     * @throws IOException Se o conteúdo não estiver no formato esperado
+     */
+    public static SegmentoDelta ler(CanalEntrada in, boolean incluirUsuarios) throws IOException {
+        Rodape rodape = lerRodape(in);
+        in.posicionar(MAGICO.length + 1);
+        int flags = in.lerByte();
+        long sequencia = in.lerLong();
+        int nextSessionId = in.lerVarintInt();
+        long inicioSecoes = in.posicao();
+        long posicaoDicionario = rodape.posicaoDicionario;
+
+        Dicionario dicionario = incluirUsuarios || rodape.posicaoPosicoes < 0
+                ? lerDicionario(in, posicaoDicionario)
+                : new DicionarioSobDemanda(in.duplicar(), rodape.posicaoPosicoes, true);
+        Leitor leitor = new Leitor(in, dicionario, rodape.versao);
+
+        Map<String, String> sessoes = null;
+        Map<String, Usuario> usuarios = new HashMap<>();
+        Map<String, Set<String>> donos = new HashMap<>();
+        Map<String, Comunidade> comunidades = new HashMap<>();
+        Map<String, List<Comunicacao>> mensagens = new HashMap<>();
+        List<String> fragmentos = null;
+        Map<String, long[]> cursores = new HashMap<>();
+        long fimLog = -1;
+
+        in.posicionar(inicioSecoes);
+        while (in.posicao() < posicaoDicionario) {
+            int tipo = in.lerByte();
+            long tamanho = in.lerLong();
+            long inicio = in.posicao();
+            int quantidade = in.lerVarintInt();
+
+            switch (tipo) {
+                case SECAO_USUARIOS:
+                    for (int i = 0; i < quantidade && incluirUsuarios; i++) {
+                        String login = leitor.texto();
+                        usuarios.put(login, leitor.lerUsuario(login));
+                    }
+                    break;
+                case SECAO_DONOS:
+                    for (int i = 0; i < quantidade; i++) {
+                        String login = leitor.texto();
+                        donos.put(login, in.lerByte() == 0 ? null : leitor.textos(new HashSet<>()));
+                    }
+                    break;
+                case SECAO_COMUNIDADES:
+                    for (int i = 0; i < quantidade; i++) {
+                        String nome = leitor.texto();
+                        comunidades.put(nome, leitor.lerComunidade(nome));
+                    }
+                    break;
+                case SECAO_MENSAGENS:
+                    for (int i = 0; i < quantidade; i++) {
+                        String login = leitor.texto();
+                        mensagens.put(login, leitor.lerCaixa());
+                    }
+                    break;
+                case SECAO_SESSOES:
+                    if (in.lerByte() != 0) {
+                        sessoes = new HashMap<>();
+                        for (int i = 0; i < quantidade; i++) {
+                            sessoes.put(leitor.texto(), leitor.texto());
+                        }
+                    }
+                    break;
+                case SECAO_FRAGMENTOS:
+                    fragmentos = new ArrayList<>(quantidade);
+                    for (int i = 0; i < quantidade; i++) {
+                        fragmentos.add(leitor.texto());
+                    }
+                    break;
+                case SECAO_CURSORES:
+                    fimLog = in.lerLong();
+                    for (int i = 0; i < quantidade; i++) {
+                        String login = leitor.texto();
+                        cursores.put(login, in.lerByte() == 0 ? null
+                                : new long[]{in.lerVarint() - 1, in.lerVarint() - 1});
+                    }
+                    break;
+                default:
+                    // Seção de uma versão mais nova: ignorada
+                    break;
+            }
+            in.posicionar(inicio + tamanho);
+        }
+
+        SegmentoDelta segmento = new SegmentoDelta(sequencia, (flags & FLAG_LIMPAR) != 0, sessoes, nextSessionId);
+        segmento.getUsuarios().putAll(usuarios);
+        segmento.getDonos().putAll(donos);
+        segmento.getComunidades().putAll(comunidades);
+        segmento.getMensagens().putAll(mensagens);
+        segmento.getCursores().putAll(cursores);
+        segmento.setFimLog(fimLog);
+        segmento.setFragmentos(fragmentos);
+        return segmento;
+    }
+
+    /**
+     * Reescreve um arquivo de qualquer versão na versão atual, um registro de
+     * cada vez: cada usuário, comunidade ou caixa de mensagens é lido e logo
+     * escrito, sem que o segmento seja montado em memória. Ficam em memória
+     * apenas os dicionários de textos e, nas bases, as posições dos usuários
+     * para o índice.
+     *
+     * @param in Origem, em qualquer versão do formato
+     * @param out Destino, escrito na versão atual
+     * @throws IOException Se a origem não estiver no formato esperado ou ocorrer um erro de escrita
+     */
+    static void recodificar(CanalEntrada in, CanalSaida out) throws IOException {
+        Rodape rodape = lerRodape(in);
+        in.posicionar(MAGICO.length + 1);
+        int flags = in.lerByte();
+        long sequencia = in.lerLong();
+        int nextSessionId = in.lerVarintInt();
+        long inicioSecoes = in.posicao();
+
+        Leitor leitor = new Leitor(in, lerDicionario(in, rodape.posicaoDicionario), rodape.versao);
+        Escritor escritor = new Escritor(out);
+        escreverCabecalho(out, flags, sequencia, nextSessionId);
+
+        Map<String, Long> posicoesUsuarios = new TreeMap<>();
+        in.posicionar(inicioSecoes);
+        while (in.posicao() < rodape.posicaoDicionario) {
+            int tipo = in.lerByte();
+            long tamanho = in.lerLong();
+            long inicio = in.posicao();
+            int quantidade = in.lerVarintInt();
+            if (tipo == SECAO_INDICE_USUARIOS) {
+                // Refeito no final com as posições novas
+                in.posicionar(inicio + tamanho);
+                continue;
+            }
+
+            long secao = escritor.abrirSecao(tipo, quantidade);
+            switch (tipo) {
+                case SECAO_USUARIOS:
+                    for (int i = 0; i < quantidade; i++) {
+                        String login = leitor.texto();
+                        long posicao = out.posicao();
+                        Usuario usuario = leitor.lerUsuario(login);
+                        if (usuario != null) {
+                            posicoesUsuarios.put(login, posicao);
+                        }
+                        escritor.texto(login);
+                        escritor.escreverUsuario(usuario);
+                    }
+                    break;
+                case SECAO_DONOS:
+                    for (int i = 0; i < quantidade; i++) {
+                        escritor.texto(leitor.texto());
+                        int presente = in.lerByte();
+                        out.escreverByte(presente);
+                        if (presente != 0) {
+                            escritor.textos(leitor.textos(new ArrayList<>()));
+                        }
+                    }
+                    break;
+                case SECAO_COMUNIDADES:
+                    for (int i = 0; i < quantidade; i++) {
+                        String nome = leitor.texto();
+                        escritor.texto(nome);
+                        escritor.escreverComunidade(leitor.lerComunidade(nome));
+                    }
+                    break;
+                case SECAO_MENSAGENS:
+                    for (int i = 0; i < quantidade; i++) {
+                        escritor.texto(leitor.texto());
+                        escritor.escreverCaixa(leitor.lerCaixa());
+                    }
+                    break;
+                case SECAO_SESSOES:
+                    int presentes = in.lerByte();
+                    out.escreverByte(presentes);
+                    for (int i = 0; i < quantidade && presentes != 0; i++) {
+                        escritor.texto(leitor.texto());
+                        escritor.texto(leitor.texto());
+                    }
+                    break;
+                case SECAO_FRAGMENTOS:
+                    for (int i = 0; i < quantidade; i++) {
+                        escritor.texto(leitor.texto());
+                    }
+                    break;
+                case SECAO_CURSORES:
+                    out.escreverLong(in.lerLong());
+                    for (int i = 0; i < quantidade; i++) {
+                        escritor.texto(leitor.texto());
+                        int presente = in.lerByte();
+                        out.escreverByte(presente);
+                        if (presente != 0) {
+                            out.escreverVarint(in.lerVarint());
+                            out.escreverVarint(in.lerVarint());
+                        }
+                    }
+                    break;
+                default:
+                    // Toda versão até a atual só tem seções conhecidas
+                    throw new IOException("Seção desconhecida: " + tipo);
+            }
+            escritor.fecharSecao(secao);
+            in.posicionar(inicio + tamanho);
+        }
+
+        escreverFinal(escritor, (flags & FLAG_LIMPAR) != 0 ? posicoesUsuarios : null);
+    }
+
+    /**
+     * Lê a versão de um arquivo no formato binário, comprimido ou não.
+     *
+     * @param arquivo Arquivo no formato binário
+     * @return Versão do formato do arquivo
+     * @throws IOException Se o arquivo não estiver no formato esperado
+     */
+    static int lerVersao(Path arquivo) throws IOException {
+        try (FileChannel canal = FileChannel.open(arquivo, StandardOpenOption.READ)) {
+            CanalEntrada in = CanalEntrada.abrir(canal, 64);
+            if (!Arrays.equals(in.lerBytes(MAGICO.length), MAGICO)) {
+                throw new IOException("Arquivo não está no formato binário do Jackut");
+            }
+            return in.lerByte();
+        }
+    }
+
+    /**
+     * Valida o cabeçalho e lê o rodapé de um arquivo no formato binário.
+     *
+     * @param in Origem
+     * @return Posições das seções indicadas no rodapé
+     * @throws IOException Se o conteúdo não estiver no formato esperado
+     */
+    static Rodape lerRodape(CanalEntrada in) throws IOException {
+        in.posicionar(0);
+        if (!Arrays.equals(in.lerBytes(MAGICO.length), MAGICO)) {
+            throw new IOException("Arquivo não está no formato binário do Jackut");
+        }
+        int versao = in.lerByte();
+        if (versao < 1 || versao > VERSAO) {
+            throw new IOException("Versão de snapshot não suportada: " + versao);
+        }
+
+        if (in.tamanho() < (versao == 1 ? 8 : 24) + in.posicao()) {
+            throw new IOException("Arquivo de snapshot truncado");
+        }
+        if (versao == 1) {
+            in.posicionar(in.tamanho() - 8);
+            return new Rodape(versao, in.lerLong(), -1, -1);
+        }
+        in.posicionar(in.tamanho() - 24);
+        return new Rodape(versao, in.lerLong(), in.lerLong(), in.lerLong());
+    }
+
+    /**
+     * Posiciona a leitura no início das entradas de uma seção.
+     *
+     * @param in Origem
+     * @param posicao Posição da seção
+     * @param tipo Tipo esperado da seção
+     * @return Quantidade de entradas da seção
+     * @throws IOException Se a seção não for do tipo esperado
+     */
+    static int abrirSecao(CanalEntrada in, long posicao, int tipo) throws IOException {
+        in.posicionar(posicao);
+        if (in.lerByte() != tipo) {
+            throw new IOException("Seção " + tipo + " não encontrada");
+        }
+        in.lerLong();
+        return in.lerVarintInt();
+    }
+
+    /**
+     * Lê a seção do dicionário inteira.
+     *
+     * @param in Origem
+     * @param posicao Posição da seção do dicionário
+     * @return Textos do dicionário, na ordem das referências
+     * @throws IOException Se a seção não estiver no formato esperado
+     */
+    private static Dicionario lerDicionario(CanalEntrada in, long posicao) throws IOException {
+        String[] textos = new String[abrirSecao(in, posicao, SECAO_DICIONARIO)];
+        for (int i = 0; i < textos.length; i++) {
+            textos[i] = in.lerTexto();
+        }
+        return referencia -> {
+            if (referencia > textos.length) {
+                throw new IOException("Referência de texto inválida: " + referencia);
+            }
+            return textos[referencia - 1];
+        };
+    }
+
+    /**
+     * Lê um usuário do índice a partir da posição da sua entrada na seção de usuários.
+     *
+     * @param in Origem, que é reposicionada
+     * @param dicionario Dicionário de textos do arquivo
+     * @param versao Versão do arquivo
+     * @param posicao Posição da entrada do usuário
+     * @return Usuário lido
+     * @throws IOException Se a entrada não estiver no formato esperado
+     */
+    static Usuario lerUsuarioEm(CanalEntrada in, Dicionario dicionario, int versao, long posicao)
+            throws IOException {
+        in.posicionar(posicao);
+        Leitor leitor = new Leitor(in, dicionario, versao);
+        String login = leitor.texto();
+        return leitor.lerUsuario(login);
+    }
+
+    /**
+     * Versão do arquivo e posições das seções indicadas no rodapé (-1 = seção ausente).
+     */
+    static class Rodape {
+        final int versao;
+        final long posicaoDicionario;
+        final long posicaoIndice;
+        final long posicaoPosicoes;
+
+        private Rodape(int versao, long posicaoDicionario, long posicaoIndice, long posicaoPosicoes) {
+            this.versao = versao;
+            this.posicaoDicionario = posicaoDicionario;
+            this.posicaoIndice = posicaoIndice;
+            this.posicaoPosicoes = posicaoPosicoes;
+        }
+    }
+
+    /**
+     * Resolução de referências de texto (a referência 0, null, é tratada pelo leitor).
+     */
+    interface Dicionario {
+        String texto(int referencia) throws IOException;
+    }
+
+    /**
+     * Dicionário que lê cada texto do arquivo quando é referenciado, pela
+     * tabela de posições, opcionalmente memorizando os textos já lidos.
+     */
+    static class DicionarioSobDemanda implements Dicionario {
+        private final CanalEntrada in;
+        private final long inicioPosicoes;
+        private final int quantidade;
+        private final Map<Integer, String> lidos;
+
+        DicionarioSobDemanda(CanalEntrada in, long posicaoPosicoes, boolean memorizar) throws IOException {
+            this.in = in;
+            this.quantidade = abrirSecao(in, posicaoPosicoes, SECAO_POSICOES_DICIONARIO);
+            this.inicioPosicoes = in.posicao();
+            this.lidos = memorizar ? new HashMap<>() : null;
+        }
+
+        @Override
+        public String texto(int referencia) throws IOException {
+            if (referencia > quantidade) {
+                throw new IOException("Referência de texto inválida: " + referencia);
+            }
+            String texto = lidos == null ? null : lidos.get(referencia);
+            if (texto == null) {
+                in.posicionar(inicioPosicoes + 8L * (referencia - 1));
+                in.posicionar(in.lerLong());
+                texto = in.lerTexto();
+                if (lidos != null) {
+                    lidos.put(referencia, texto);
+                }
+            }
+            return texto;
+        }
+    }
+
+    /**
+     * Estado de escrita: o dicionário de textos em construção.
+     */
+    private static class Escritor {
+        private final CanalSaida out;
+        private final Map<String, Integer> referencias;
+        private final List<String> dicionario;
+
+        private Escritor(CanalSaida out) {
+            this.out = out;
+            this.referencias = new HashMap<>();
+            this.dicionario = new ArrayList<>();
+        }
+
+        /**
+         * Inicia uma seção, reservando espaço para o seu tamanho.
+         *
+         * @return Posição do campo de tamanho
+         */
+        private long abrirSecao(int tipo, int quantidade) throws IOException {
+            out.escreverByte(tipo);
+            long posicaoTamanho = out.posicao();
+            out.escreverLong(0);
+            out.escreverVarint(quantidade);
+            return posicaoTamanho;
+        }
+
+        /**
+         * Preenche o tamanho de uma seção já escrita.
+         */
+        private void fecharSecao(long posicaoTamanho) throws IOException {
+            out.reescreverLong(posicaoTamanho, out.posicao() - posicaoTamanho - 8);
+        }
+
+        /**
+         * Inicia um registro de usuário ou comunidade, reservando espaço para o seu tamanho.
+         *
+         * @return Posição do campo de tamanho
+         */
+        private long abrirRegistro() throws IOException {
+            long posicaoTamanho = out.posicao();
+            out.escreverInt(0);
+            return posicaoTamanho;
+        }
+
+        /**
+         * Preenche o tamanho de um registro já escrito.
+         */
+        private void fecharRegistro(long posicaoTamanho) throws IOException {
+            out.reescreverInt(posicaoTamanho, (int) (out.posicao() - posicaoTamanho - 4));
+        }
+
+        /**
+         * Escreve a referência de um texto, incluindo-o no dicionário se necessário.
+         */
+        private void texto(String texto) throws IOException {
+            if (texto == null) {
+                out.escreverVarint(0);
+                return;
+            }
+            Integer referencia = referencias.get(texto);
+            if (referencia == null) {
+                dicionario.add(texto);
+                referencia = dicionario.size();
+                referencias.put(texto, referencia);
+            }
+            out.escreverVarint(referencia);
+        }
+
+        private void textos(Collection<String> textos) throws IOException {
+            out.escreverVarint(textos.size());
+            for (String texto : textos) {
+                texto(texto);
+            }
+        }
+
+        private void escreverUsuario(Usuario usuario) throws IOException {
+            out.escreverByte(usuario == null ? 0 : 1);
+            if (usuario == null) {
+                return;
+            }
+            long registro = abrirRegistro();
+            texto(usuario.getSenha());
+            texto(usuario.getNome());
+            out.escreverVarint(usuario.getAtributos().size());
+            for (Map.Entry<String, String> atributo : usuario.getAtributos().entrySet()) {
+                texto(atributo.getKey());
+                texto(atributo.getValue());
+            }
+            textos(usuario.getComunidadesCadastradas());
+
+            Relacionamento relacionamentos = usuario.getRelacionamentos();
+            textos(relacionamentos.getAmigos());
+            textos(relacionamentos.getIdolos());
+            textos(relacionamentos.getPaqueras());
+            textos(relacionamentos.getInimigos());
+            textos(relacionamentos.getConvitesAmizade());
+            fecharRegistro(registro);
+        }
+
+        private void escreverComunidade(Comunidade comunidade) throws IOException {
+            out.escreverByte(comunidade == null ? 0 : 1);
+            if (comunidade == null) {
+                return;
+            }
+            long registro = abrirRegistro();
+            texto(comunidade.getSessionID());
+            texto(comunidade.getDonoComunidade());
+            texto(comunidade.getDescricao());
+            textos(comunidade.getMembros());
+            escreverMural(comunidade.getMural());
+            fecharRegistro(registro);
+        }
+
+        /**
+         * Escreve o mural no final do registro da comunidade: a ordem da última
+         * mensagem, as mensagens (ordem, remetente, conteúdo) e os cursores.
+         */
+        private void escreverMural(MuralComunidade mural) throws IOException {
+            out.escreverVarint(mural.getUltimaOrdem());
+            List<MuralComunidade.Entrada> entradas = mural.getEntradas();
+            out.escreverVarint(entradas.size());
+            for (MuralComunidade.Entrada entrada : entradas) {
+                out.escreverVarint(entrada.getOrdem());
+                texto(entrada.getMensagem().getRemetente());
+                texto(entrada.getMensagem().getConteudo());
+            }
+            Map<String, Long> cursores = mural.getCursores();
+            out.escreverVarint(cursores.size());
+            for (Map.Entry<String, Long> cursor : cursores.entrySet()) {
+                texto(cursor.getKey());
+                out.escreverVarint(cursor.getValue());
+            }
+        }
+
+        private void escreverCaixa(List<Comunicacao> caixa) throws IOException {
+            out.escreverByte(caixa == null ? 0 : 1);
+            if (caixa == null) {
+                return;
+            }
+            out.escreverVarint(caixa.size());
+            for (Comunicacao mensagem : caixa) {
+                texto(mensagem.getRemetente());
+                texto(mensagem.getDestinatario());
+                texto(mensagem.getConteudo());
+                texto(mensagem.getTipo());
+                out.escreverVarint(mensagem.getOrdem());
+            }
+        }
+    }
+
+    /**
+     * Estado de leitura: o dicionário de textos já carregado.
+     */
+    private static class Leitor {
+        private final CanalEntrada in;
+        private final Dicionario dicionario;
+        private final int versao;
+
+        private Leitor(CanalEntrada in, Dicionario dicionario, int versao) {
+            this.in = in;
+            this.dicionario = dicionario;
+            this.versao = versao;
+        }
+
+        /**
+         * Lê o tamanho de um registro, nas versões que o gravam.
+         *
+         * @return Posição do fim do registro, ou -1 se a versão não grava o tamanho
+         */
+        private long abrirRegistro() throws IOException {
+            if (versao < VERSAO_REGISTROS_COM_TAMANHO) {
+                return -1;
+            }
+            int tamanho = in.lerInt();
+            return in.posicao() + tamanho;
+        }
+
+        /**
+         * Salta os campos de uma versão mais nova que não foram lidos.
+         */
+        private void fecharRegistro(long fim) throws IOException {
+            if (fim >= 0 && in.posicao() != fim) {
+                in.posicionar(fim);
+            }
+        }
+
+        private String texto() throws IOException {
+            int referencia = in.lerVarintInt();
+            return referencia == 0 ? null : dicionario.texto(referencia);
+        }
+
+        private <C extends Collection<String>> C textos(C destino) throws IOException {
+            int quantidade = in.lerVarintInt();
+            for (int i = 0; i < quantidade; i++) {
+                destino.add(texto());
+            }
+            return destino;
+        }
+
+        private Usuario lerUsuario(String login) throws IOException {
+            if (in.lerByte() == 0) {
+                return null;
+            }
+            long fim = abrirRegistro();
+            Usuario usuario = new Usuario(login, texto(), texto());
+            int atributos = in.lerVarintInt();
+            for (int i = 0; i < atributos; i++) {
+                usuario.getAtributos().put(texto(), texto());
+            }
+            textos(usuario.getComunidadesCadastradas());
+
+            Relacionamento relacionamentos = usuario.getRelacionamentos();
+            textos(relacionamentos.getAmigos());
+            textos(relacionamentos.getIdolos());
+            textos(relacionamentos.getPaqueras());
+            textos(relacionamentos.getInimigos());
+            textos(relacionamentos.getConvitesAmizade());
+            fecharRegistro(fim);
+            return usuario;
+        }
+
+        private Comunidade lerComunidade(String nome) throws IOException {
+            if (in.lerByte() == 0) {
+                return null;
+            }
+            long fim = abrirRegistro();
+            Comunidade comunidade = new Comunidade(texto(), texto(), nome, texto());
+            textos(comunidade.getMembros());
+            if (fim >= 0 && in.posicao() < fim) {
+                lerMural(comunidade);
+            }
+            fecharRegistro(fim);
+            return comunidade;
+        }
+
+        /**
+         * Lê o mural escrito no final do registro. Registros sem mural são de
+         * antes dos murais, e a comunidade recebe um mural vazio no primeiro acesso.
+         */
+        private void lerMural(Comunidade comunidade) throws IOException {
+            long ultimaOrdem = in.lerVarint();
+            int quantidade = in.lerVarintInt();
+            List<MuralComunidade.Entrada> entradas = new ArrayList<>(quantidade);
+            for (int i = 0; i < quantidade; i++) {
+                long ordem = in.lerVarint();
+                entradas.add(new MuralComunidade.Entrada(ordem,
+                        new Comunicacao(texto(), comunidade.getNome(), texto(), "comunidade")));
+            }
+            int leitores = in.lerVarintInt();
+            Map<String, Long> cursores = new HashMap<>(leitores * 2);
+            for (int i = 0; i < leitores; i++) {
+                String login = texto();
+                cursores.put(login, in.lerVarint());
+            }
+            comunidade.getMural().restaurar(ultimaOrdem, entradas, cursores);
+        }
+
+        private List<Comunicacao> lerCaixa() throws IOException {
+            if (in.lerByte() == 0) {
+                return null;
+            }
+            int quantidade = in.lerVarintInt();
+            List<Comunicacao> caixa = new ArrayList<>(quantidade);
+            for (int i = 0; i < quantidade; i++) {
+                caixa.add(new Comunicacao(texto(), texto(), texto(), texto(),
+                        versao < VERSAO_ORDEM_NAS_CAIXAS ? 0 : in.lerVarint()));
+            }
+            return caixa;
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package br.ufal.ic.p2.jackut.persistence;
+
+import br.ufal.ic.p2.jackut.entities.Usuario;
+import br.ufal.ic.p2.jackut.storage.OrigemUsuarios;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Usuários de um snapshot base lidos diretamente do arquivo, pelo índice
+ * login -> posição do {@link FormatoBinario}. Um usuário é localizado por
+ * busca binária no índice e decodificado com os textos lidos um a um do
+ * dicionário; nada é carregado na abertura além do rodapé.
+ * <p>
+ * O arquivo fica aberto enquanto o índice estiver em uso. Como um snapshot
+ * publicado nunca é alterado (a mesclagem publica um arquivo novo com um
+ * rename), o conteúdo lido continua válido mesmo depois de uma mesclagem.
+ */
+public class IndiceUsuarios implements OrigemUsuarios {
+
+    /** Tamanho do buffer das leituras esparsas */
+    private static final int TAMANHO_BUFFER = 512;
+
+    /** Canal do snapshot */
+    private final FileChannel canal;
+
+    /** Leitura das entradas do índice e dos usuários */
+    private final CanalEntrada in;
+
+    /** Leitura dos textos do dicionário */
+    private final FormatoBinario.Dicionario dicionario;
+
+    /** Posição da primeira entrada do índice */
+    private final long inicioIndice;
+
+    /** Quantidade de entradas do índice */
+    private final int quantidade;
+
+    /** Versão do snapshot, que define o formato dos registros */
+    private final int versao;
+
+    private IndiceUsuarios(FileChannel canal, CanalEntrada in, FormatoBinario.Dicionario dicionario,
+                           long inicioIndice, int quantidade, int versao) {
+        this.canal = canal;
+        this.versao = versao;
+        this.in = in;
+        this.dicionario = dicionario;
+        this.inicioIndice = inicioIndice;
+        this.quantidade = quantidade;
+    }
+
+    /**
+     * Abre o índice de usuários de um snapshot base.
+     *
+     * @param arquivo Snapshot base no formato binário
+     * @return Índice aberto, ou null se o snapshot não tiver índice (ex.: versão 1)
+     * @throws IOException Se o arquivo não puder ser lido
+     */
+    public static IndiceUsuarios abrir(Path arquivo) throws IOException {
+        FileChannel canal = FileChannel.open(arquivo, StandardOpenOption.READ);
+        try {
+            CanalEntrada in = CanalEntrada.abrir(canal, TAMANHO_BUFFER);
+            FormatoBinario.Rodape rodape = FormatoBinario.lerRodape(in);
+            if (rodape.posicaoIndice < 0 || rodape.posicaoPosicoes < 0) {
+                canal.close();
+                return null;
+            }
+            int quantidade = FormatoBinario.abrirSecao(in, rodape.posicaoIndice, 7);
+            long inicioIndice = in.posicao();
+            FormatoBinario.Dicionario dicionario =
+                    new FormatoBinario.DicionarioSobDemanda(in.duplicar(), rodape.posicaoPosicoes, false);
+            return new IndiceUsuarios(canal, in, dicionario, inicioIndice, quantidade, rodape.versao);
+        } catch (IOException | RuntimeException e) {
+            canal.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public synchronized Usuario carregar(String login) {
+        try {
+            int entrada = buscar(login);
+            if (entrada < 0) {
+                return null;
+            }
+            in.posicionar(inicioIndice + (long) entrada * FormatoBinario.TAMANHO_ENTRADA_INDICE + 4);
+            return FormatoBinario.lerUsuarioEm(in, dicionario, versao, in.lerLong());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Erro ao carregar o usuário " + login + " do snapshot", e);
+        }
+    }
+
+    @Override
+    public synchronized boolean contem(String login) {
+        try {
+            return buscar(login) >= 0;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Erro ao consultar o índice do snapshot", e);
+        }
+    }
+
+    @Override
+    public Iterable<String> logins() {
+        return () -> new Iterator<>() {
+            private int proxima;
+
+            @Override
+            public boolean hasNext() {
+                return proxima < quantidade;
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                synchronized (IndiceUsuarios.this) {
+                    try {
+                        return login(proxima++);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException("Erro ao ler o índice do snapshot", e);
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Percorre as entradas do índice em ordem, sem a busca binária de
+     * {@link #carregar(String)}: cada usuário é lido da posição da sua entrada.
+     */
+    @Override
+    public void percorrer(Predicate<String> incluir, Consumer<Usuario> destino) {
+        for (int entrada = 0; entrada < quantidade; entrada++) {
+            Usuario usuario = null;
+            synchronized (this) {
+                try {
+                    String login = login(entrada);
+                    if (incluir.test(login)) {
+                        in.posicionar(inicioIndice + (long) entrada * FormatoBinario.TAMANHO_ENTRADA_INDICE + 4);
+                        usuario = FormatoBinario.lerUsuarioEm(in, dicionario, versao, in.lerLong());
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Erro ao ler os usuários do snapshot", e);
+                }
+            }
+            if (usuario != null) {
+                destino.accept(usuario);
+            }
+        }
+    }
+
+    @Override
+    public int quantidade() {
+        return quantidade;
+    }
+
+    @Override
+    public void close() {
+        try {
+            canal.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Busca binária de um login no índice, que está em ordem de {@link String#compareTo}.
+     *
+     * @param login Login procurado
+     * @return Número da entrada, ou -1 se o login não estiver no índice
+     * @throws IOException Se o índice não puder ser lido
+     */
+    private int buscar(String login) throws IOException {
+        int inicio = 0;
+        int fim = quantidade - 1;
+        while (inicio <= fim) {
+            int meio = (inicio + fim) >>> 1;
+            int comparacao = login(meio).compareTo(login);
+            if (comparacao == 0) {
+                return meio;
+            }
+            if (comparacao < 0) {
+                inicio = meio + 1;
+            } else {
+                fim = meio - 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param entrada Número da entrada do índice
+     * @return Login da entrada
+     * @throws IOException Se o índice não puder ser lido
+     */
+    private String login(int entrada) throws IOException {
+        in.posicionar(inicioIndice + (long) entrada * FormatoBinario.TAMANHO_ENTRADA_INDICE);
+        return dicionario.texto(in.lerInt());
+    }
+}
@@ -0,0 +1,776 @@
+package br.ufal.ic.p2.jackut.persistence;
+
+import br.ufal.ic.p2.jackut.Comando;
+import br.ufal.ic.p2.jackut.exceptions.SystemSaveException;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.ObjLongConsumer;
+import java.util.zip.CRC32;
+
+/**
+ * Journal sequencial (append-only) das mutações feitas pela Facade.
+ * Cada comando recebe um número de sequência crescente e é gravado como um
+ * registro no formato [tamanho][crc32][sequência, operação, argumentos].
+ * <p>
+ * As gravações são agrupadas (group commit): os comandos registrados enquanto
+ * uma sincronização está em andamento são escritos e sincronizados com o disco
+ * de uma só vez pela thread sincronizadora, de modo que o custo de cada
+ * mutação é proporcional ao tamanho da própria mutação e não ao dos dados.
+ * <p>
+ * Com a compressão ativada, cada lote é gravado como um único quadro
+ * comprimido, no formato [-tamanho][crc32][tamanho original, registros
+ * comprimidos com deflate]; o tamanho negativo distingue o quadro de um
+ * registro avulso. Lotes que não encolhem são gravados sem compressão, e a
+ * leitura aceita os dois formatos misturados no mesmo arquivo.
+ * <p>
+ * A cada checkpoint o arquivo ativo é rotacionado para um segmento arquivado
+ * ({@code <arquivo>.<última sequência>}), que é apagado assim que o snapshot
+ * correspondente estiver gravado.
+ * <p>
+ * Cada lote sincronizado também é entregue, sem compressão, aos ouvintes
+ * registrados com {@link #acompanhar(ObjLongConsumer)} (ex.: a replicação
+ * para seguidores), na ordem das sequências.
+ */
+public class Journal implements Closeable {
+
+    /** Tamanho do cabeçalho de cada registro: tamanho (int) + crc32 (int) */
+    private static final int TAMANHO_CABECALHO = 8;
+
+    /** Maior registro ou quadro aceito, para não alocar memória a partir de um tamanho corrompido */
+    private static final int TAMANHO_MAXIMO = 64 * 1024 * 1024;
+
+    /** Tamanho mínimo de um lote para que valha a pena tentar comprimi-lo */
+    private static final int MINIMO_COMPRESSAO = 256;
+
+    /** Caminho do arquivo ativo do journal */
+    private final Path arquivo;
+
+    /** Canal de escrita do arquivo ativo */
+    private FileChannel canal;
+
+    /** Indica se o arquivo ativo contém algum registro */
+    private boolean arquivoAtivoVazio;
+
+    /** Se true, registrar() só retorna depois que o comando estiver no disco */
+    private final boolean aguardarSincronizacao;
+
+    /** Intervalo máximo entre sincronizações quando não se aguarda o disco */
+    private final long intervaloMs;
+
+    /** Se os lotes são gravados como quadros comprimidos */
+    private final boolean comprimir;
+
+    /** Registros codificados que ainda não foram escritos */
+    private ByteArrayOutputStream pendentes;
+
+    /** Última sequência atribuída a um comando */
+    private long ultimaSequencia;
+
+    /** Última sequência garantidamente gravada no disco */
+    private long sequenciaDuravel;
+
+    /** Falha de escrita que invalida o journal */
+    private IOException falha;
+
+    /** Indica se o journal foi fechado */
+    private boolean fechado;
+
+    /** Thread responsável por escrever e sincronizar os lotes */
+    private final Thread sincronizador;
+
+    /** Recebem cada lote sincronizado e a última sequência contida nele */
+    private final List<ObjLongConsumer<byte[]>> ouvintes;
+
+    /** Futuros que aguardam uma sequência ficar durável, indexados pela sequência */
+    private final TreeMap<Long, List<CompletableFuture<Void>>> aguardando;
+
+    private Journal(Path arquivo, FileChannel canal, long ultimaSequencia,
+                    boolean aguardarSincronizacao, long intervaloMs, boolean comprimir) throws IOException {
+        this.arquivo = arquivo;
+        this.canal = canal;
+        this.arquivoAtivoVazio = canal.size() == 0;
+        this.ultimaSequencia = ultimaSequencia;
+        this.sequenciaDuravel = ultimaSequencia;
+        this.aguardarSincronizacao = aguardarSincronizacao;
+        this.intervaloMs = Math.max(1, intervaloMs);
+        this.comprimir = comprimir;
+        this.pendentes = new ByteArrayOutputStream();
+        this.ouvintes = new CopyOnWriteArrayList<>();
+        this.aguardando = new TreeMap<>();
+        this.sincronizador = new Thread(this::sincronizar, "jackut-journal");
+        this.sincronizador.setDaemon(true);
+        this.sincronizador.start();
+    }
+
+    /**
+     * Abre o journal, reaplicando os comandos posteriores ao último snapshot.
+     * Os segmentos arquivados são lidos em ordem, seguidos do arquivo ativo.
+     * Só o final do arquivo ativo pode ter um registro incompleto (escrita
+     * interrompida por uma queda), que é descartado; qualquer outro registro
+     * inválido interrompe a recuperação.
+     *
+     * @param arquivo Caminho do arquivo do journal
+     * @param sequenciaSnapshot Última sequência já contida no snapshot carregado
+     * @param reaplicador Função que reaplica um comando no sistema
+     * @param aguardarSincronizacao Se true, cada registro aguarda a sincronização do seu lote
+     * @param intervaloMs Intervalo máximo entre sincronizações periódicas
+     * @return Journal aberto e pronto para novos registros
+     * @throws IOException Se o arquivo não puder ser aberto, estiver corrompido
+     *         ou um comando não puder ser reaplicado
+     */
+    public static Journal abrir(Path arquivo, long sequenciaSnapshot, Consumer<Comando> reaplicador,
+                                boolean aguardarSincronizacao, long intervaloMs) throws IOException {
+        return abrir(arquivo, sequenciaSnapshot, reaplicador, aguardarSincronizacao, intervaloMs, false);
+    }
+
+    /**
+     * Abre o journal, reaplicando os comandos posteriores ao último snapshot,
+     * e grava os próximos lotes comprimidos ou não. Arquivos existentes são
+     * lidos qualquer que seja o formato com que foram gravados.
+     *
+     * @param arquivo Caminho do arquivo do journal
+     * @param sequenciaSnapshot Última sequência já contida no snapshot carregado
+     * @param reaplicador Função que reaplica um comando no sistema
+     * @param aguardarSincronizacao Se true, cada registro aguarda a sincronização do seu lote
+     * @param intervaloMs Intervalo máximo entre sincronizações periódicas
+     * @param comprimir Se os lotes são gravados como quadros comprimidos
+     * @return Journal aberto e pronto para novos registros
+     * @throws IOException Se o arquivo não puder ser aberto, estiver corrompido
+     *         ou um comando não puder ser reaplicado
+     */
+    public static Journal abrir(Path arquivo, long sequenciaSnapshot, Consumer<Comando> reaplicador,
+                                boolean aguardarSincronizacao, long intervaloMs, boolean comprimir)
+            throws IOException {
+        long[] ultimaSequencia = {sequenciaSnapshot};
+
+        for (Path segmento : listarSegmentos(arquivo).values()) {
+            reaplicarArquivo(segmento, sequenciaSnapshot, reaplicador, ultimaSequencia, false);
+        }
+        long posicaoValida = reaplicarArquivo(arquivo, sequenciaSnapshot, reaplicador, ultimaSequencia, true);
+
+        FileChannel canal = FileChannel.open(arquivo, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        canal.truncate(posicaoValida);
+        return new Journal(arquivo, canal, ultimaSequencia[0], aguardarSincronizacao, intervaloMs, comprimir);
+    }
+
+    /**
+     * Reaplica os registros de um arquivo do journal. Um quadro inválido só é
+     * aceito no final do arquivo ativo, como a escrita interrompida de um
+     * lote que ainda não tinha sido sincronizado.
+     *
+     * @param arquivo Arquivo a ser lido
+     * @param sequenciaSnapshot Última sequência já contida no snapshot carregado
+     * @param reaplicador Função que reaplica um comando no sistema
+     * @param ultimaSequencia Maior sequência encontrada até agora (atualizada)
+     * @param ativo Se o arquivo é o arquivo ativo, cujo final pode estar incompleto
+     * @return Posição logo após o último registro válido do arquivo
+     * @throws IOException Se ocorrer um erro de leitura, o arquivo estiver
+     *         corrompido ou um comando não puder ser reaplicado
+     */
+    private static long reaplicarArquivo(Path arquivo, long sequenciaSnapshot, Consumer<Comando> reaplicador,
+                                         long[] ultimaSequencia, boolean ativo) throws IOException {
+        long posicaoValida = 0;
+        if (!Files.exists(arquivo)) {
+            return posicaoValida;
+        }
+
+        long tamanhoArquivo = Files.size(arquivo);
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(arquivo)))) {
+            while (posicaoValida < tamanhoArquivo) {
+                Quadro quadro;
+                try {
+                    quadro = lerQuadro(in, tamanhoArquivo - posicaoValida);
+                } catch (IOException e) {
+                    if (ativo && isFinalInterrompido(arquivo, posicaoValida, e)) {
+                        break;
+                    }
+                    throw new IOException("Journal corrompido em " + arquivo.getFileName()
+                            + ", posição " + posicaoValida + ": " + e.getMessage(), e);
+                }
+                for (byte[] registro : quadro.registros) {
+                    DataInputStream dados = new DataInputStream(new ByteArrayInputStream(registro));
+                    long sequencia = dados.readLong();
+                    Comando comando = lerComando(dados);
+                    if (sequencia > sequenciaSnapshot && sequencia > ultimaSequencia[0]) {
+                        try {
+                            reaplicador.accept(comando);
+                        } catch (RuntimeException e) {
+                            // Só comandos bem-sucedidos são registrados: a falha indica um estado divergente
+                            throw new IOException("Comando " + sequencia + " (" + comando.getOperacao()
+                                    + ") do journal não pôde ser reaplicado: " + e.getMessage(), e);
+                        }
+                    }
+                    ultimaSequencia[0] = Math.max(ultimaSequencia[0], sequencia);
+                }
+                posicaoValida += quadro.tamanho;
+            }
+        }
+        return posicaoValida;
+    }
+
+    /**
+     * Verifica se um quadro inválido é a escrita interrompida do último lote:
+     * o quadro termina depois do fim do arquivo, ou o restante do arquivo
+     * está zerado (espaço reservado pelo sistema de arquivos e não escrito).
+     *
+     * @param arquivo Arquivo ativo do journal
+     * @param posicao Início do quadro inválido
+     * @param erro Erro da leitura do quadro
+     * @return true se o restante do arquivo pode ser descartado
+     * @throws IOException Se ocorrer um erro de leitura
+     */
+    private static boolean isFinalInterrompido(Path arquivo, long posicao, IOException erro) throws IOException {
+        if (erro instanceof EOFException) {
+            return true;
+        }
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(arquivo))) {
+            in.skipNBytes(posicao);
+            int b;
+            while ((b = in.read()) != -1) {
+                if (b != 0) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Apaga o arquivo ativo e os segmentos arquivados de um journal fechado,
+     * cujos comandos já estão todos em um snapshot gravado.
+     *
+     * @param arquivo Caminho do arquivo ativo do journal
+     * @throws IOException Se algum arquivo não puder ser apagado
+     */
+    public static void apagar(Path arquivo) throws IOException {
+        for (Path segmento : listarSegmentos(arquivo).values()) {
+            Files.deleteIfExists(segmento);
+        }
+        Files.deleteIfExists(arquivo);
+    }
+
+    /**
+     * Lista os segmentos arquivados do journal, ordenados pela última sequência de cada um.
+     *
+     * @param arquivo Caminho do arquivo ativo do journal
+     * @return Mapa da última sequência de cada segmento para o seu caminho
+     * @throws IOException Se o diretório não puder ser lido
+     */
+    private static TreeMap<Long, Path> listarSegmentos(Path arquivo) throws IOException {
+        TreeMap<Long, Path> segmentos = new TreeMap<>();
+        Path diretorio = arquivo.toAbsolutePath().getParent();
+        String prefixo = arquivo.getFileName().toString() + ".";
+
+        try (DirectoryStream<Path> arquivos = Files.newDirectoryStream(diretorio, prefixo + "*")) {
+            for (Path segmento : arquivos) {
+                try {
+                    segmentos.put(Long.parseLong(segmento.getFileName().toString().substring(prefixo.length())),
+                            segmento);
+                } catch (NumberFormatException e) {
+                    // Não é um segmento do journal
+                }
+            }
+        }
+        return segmentos;
+    }
+
+    /**
+     * Registra um comando no journal.
+     *
+     * @param comando Comando já aplicado com sucesso
+     * @throws SystemSaveException Se o journal não puder ser gravado
+     */
+    public synchronized void registrar(Comando comando) {
+        aguardar(anexar(comando));
+    }
+
+    /**
+     * Acrescenta um comando ao próximo lote sem aguardar a sincronização.
+     * Quem chama deve aguardar a sequência devolvida com {@link #aguardar(long)}
+     * antes de confirmar a mutação.
+     *
+     * @param comando Comando já aplicado com sucesso
+     * @return Sequência atribuída ao comando
+     * @throws SystemSaveException Se o journal não puder ser gravado ou já tiver sido fechado
+     */
+    public synchronized long anexar(Comando comando) {
+        verificarFalha();
+        if (fechado) {
+            throw new SystemSaveException("Erro ao salvar o sistema: o journal foi fechado");
+        }
+
+        long sequencia = ++ultimaSequencia;
+        try {
+            escreverRegistro(new DataOutputStream(pendentes), sequencia, comando);
+        } catch (IOException e) {
+            throw new SystemSaveException("Erro ao salvar o sistema");
+        }
+        notifyAll();
+        return sequencia;
+    }
+
+    /**
+     * Aguarda, conforme a política de sincronização, que uma sequência esteja no disco.
+     *
+     * @param sequencia Sequência aguardada
+     * @throws SystemSaveException Se o journal não puder ser gravado
+     */
+    public synchronized void aguardar(long sequencia) {
+        if (aguardarSincronizacao) {
+            aguardarDuravel(sequencia);
+        }
+    }
+
+    /**
+     * Versão sem bloqueio de {@link #aguardar(long)}: devolve um futuro
+     * completado, pela thread sincronizadora, quando a sequência estiver no
+     * disco. Quem encadeia etapas no futuro não deve ocupar essa thread.
+     *
+     * @param sequencia Sequência aguardada
+     * @return Futuro completado conforme a política de sincronização, ou com
+     *         {@link SystemSaveException} se o journal não puder ser gravado
+     */
+    public synchronized CompletableFuture<Void> quandoDuravel(long sequencia) {
+        if (falha != null) {
+            return CompletableFuture.failedFuture(new SystemSaveException("Erro ao salvar o sistema"));
+        }
+        if (!aguardarSincronizacao || sequenciaDuravel >= sequencia || fechado) {
+            return CompletableFuture.completedFuture(null);
+        }
+        CompletableFuture<Void> futuro = new CompletableFuture<>();
+        aguardando.computeIfAbsent(sequencia, chave -> new ArrayList<>()).add(futuro);
+        return futuro;
+    }
+
+    /**
+     * @return Última sequência atribuída a um comando
+     */
+    public synchronized long getUltimaSequencia() {
+        return ultimaSequencia;
+    }
+
+    /**
+     * @return Última sequência garantidamente gravada no disco
+     */
+    public synchronized long getSequenciaDuravel() {
+        return sequenciaDuravel;
+    }
+
+    /**
+     * Passa a entregar a um ouvinte cada lote sincronizado com o disco: os
+     * registros do lote, no formato do arquivo e sem compressão, e a última
+     * sequência contida nele. Quem registra o ouvinte com as mutações
+     * bloqueadas recebe todos os comandos posteriores a
+     * {@link #getUltimaSequencia()}, e possivelmente alguns anteriores, que
+     * devem ser ignorados pela sequência. O ouvinte é chamado pela thread
+     * sincronizadora e não deve bloqueá-la.
+     *
+     * @param ouvinte Recebe os registros e a última sequência de cada lote
+     */
+    public void acompanhar(ObjLongConsumer<byte[]> ouvinte) {
+        ouvintes.add(ouvinte);
+    }
+
+    /**
+     * Deixa de entregar os lotes a um ouvinte.
+     *
+     * @param ouvinte Ouvinte registrado com {@link #acompanhar(ObjLongConsumer)}
+     */
+    public void deixarDeAcompanhar(ObjLongConsumer<byte[]> ouvinte) {
+        ouvintes.remove(ouvinte);
+    }
+
+    /**
+     * Fecha o arquivo ativo como um segmento arquivado e começa um novo.
+     * Deve ser chamado sem mutações em andamento, no momento em que o
+     * estado a ser gravado no snapshot é capturado.
+     *
+     * @return Última sequência contida no segmento arquivado
+     * @throws IOException Se o arquivo não puder ser rotacionado
+     */
+    public synchronized long rotacionar() throws IOException {
+        aguardarDuravel(ultimaSequencia);
+
+        if (!arquivoAtivoVazio) {
+            canal.close();
+            Files.move(arquivo, arquivo.resolveSibling(arquivo.getFileName() + "." + ultimaSequencia),
+                    StandardCopyOption.REPLACE_EXISTING);
+            canal = FileChannel.open(arquivo, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            arquivoAtivoVazio = true;
+        }
+        return ultimaSequencia;
+    }
+
+    /**
+     * Apaga os segmentos arquivados cujos comandos já estão em um snapshot.
+     *
+     * @param sequencia Última sequência contida no snapshot gravado
+     * @throws IOException Se algum segmento não puder ser apagado
+     */
+    public void removerSegmentosAte(long sequencia) throws IOException {
+        for (Path segmento : listarSegmentos(arquivo).headMap(sequencia, true).values()) {
+            Files.deleteIfExists(segmento);
+        }
+    }
+
+    /**
+     * Grava os registros pendentes e encerra a thread sincronizadora.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            fechado = true;
+            notifyAll();
+        }
+
+        try {
+            sincronizador.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        canal.close();
+    }
+
+    /**
+     * Bloqueia até que a sequência informada esteja gravada no disco.
+     *
+     * @param sequencia Sequência aguardada
+     */
+    private void aguardarDuravel(long sequencia) {
+        while (sequenciaDuravel < sequencia && falha == null && !fechado) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        verificarFalha();
+    }
+
+    /**
+     * @throws SystemSaveException Se uma gravação anterior tiver falhado
+     */
+    private void verificarFalha() {
+        if (falha != null) {
+            throw new SystemSaveException("Erro ao salvar o sistema");
+        }
+    }
+
+    /**
+     * Laço da thread sincronizadora: troca o buffer de pendentes por um vazio,
+     * escreve o lote inteiro e faz um único fsync para todos os seus comandos.
+     */
+    private void sincronizar() {
+        while (true) {
+            byte[] lote;
+            long ateSequencia;
+            FileChannel destino;
+
+            synchronized (this) {
+                while (pendentes.size() == 0 && !fechado) {
+                    esperar(0);
+                }
+
+                if (!aguardarSincronizacao && !fechado) {
+                    // Modo periódico: acumula comandos durante o intervalo
+                    long limite = System.currentTimeMillis() + intervaloMs;
+                    long restante;
+                    while (!fechado && (restante = limite - System.currentTimeMillis()) > 0) {
+                        esperar(restante);
+                    }
+                }
+
+                if (pendentes.size() == 0) {
+                    // Encerrado: tudo o que foi registrado está no disco
+                    retirarAguardando(Long.MAX_VALUE).forEach(futuro -> futuro.complete(null));
+                    return;
+                }
+
+                lote = pendentes.toByteArray();
+                ateSequencia = ultimaSequencia;
+                pendentes = new ByteArrayOutputStream();
+                arquivoAtivoVazio = false;
+                destino = canal;
+            }
+
+            byte[] registros = lote;
+            try {
+                if (comprimir && lote.length >= MINIMO_COMPRESSAO) {
+                    lote = comprimirLote(lote);
+                }
+                ByteBuffer buffer = ByteBuffer.wrap(lote);
+                while (buffer.hasRemaining()) {
+                    destino.write(buffer);
+                }
+                destino.force(false);
+            } catch (IOException e) {
+                List<CompletableFuture<Void>> falhos;
+                synchronized (this) {
+                    falha = e;
+                    notifyAll();
+                    falhos = retirarAguardando(Long.MAX_VALUE);
+                }
+                for (CompletableFuture<Void> futuro : falhos) {
+                    futuro.completeExceptionally(new SystemSaveException("Erro ao salvar o sistema"));
+                }
+                return;
+            }
+
+            List<CompletableFuture<Void>> duraveis;
+            synchronized (this) {
+                sequenciaDuravel = ateSequencia;
+                notifyAll();
+                duraveis = retirarAguardando(ateSequencia);
+            }
+            duraveis.forEach(futuro -> futuro.complete(null));
+            for (ObjLongConsumer<byte[]> ouvinte : ouvintes) {
+                ouvinte.accept(registros, ateSequencia);
+            }
+        }
+    }
+
+    /**
+     * Retira os futuros que aguardam sequências até a informada. Deve ser
+     * chamado com o monitor do journal; os futuros são completados fora dele.
+     *
+     * @param sequencia Última sequência alcançada
+     * @return Futuros retirados
+     */
+    private List<CompletableFuture<Void>> retirarAguardando(long sequencia) {
+        List<CompletableFuture<Void>> retirados = new ArrayList<>();
+        for (List<CompletableFuture<Void>> futuros : aguardando.headMap(sequencia, true).values()) {
+            retirados.addAll(futuros);
+        }
+        aguardando.headMap(sequencia, true).clear();
+        return retirados;
+    }
+
+    /**
+     * Aguarda uma notificação no monitor do journal.
+     *
+     * @param milissegundos Tempo máximo de espera, ou 0 para esperar indefinidamente
+     */
+    private void esperar(long milissegundos) {
+        try {
+            wait(milissegundos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            fechado = true;
+        }
+    }
+
+    /**
+     * Codifica um registro completo (cabeçalho e conteúdo).
+     *
+     * @param out Destino do registro
+     * @param sequencia Sequência do comando
+     * @param comando Comando a ser gravado
+     * @throws IOException Se ocorrer um erro de escrita
+     */
+    static void escreverRegistro(DataOutputStream out, long sequencia, Comando comando) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream dados = new DataOutputStream(bytes);
+        dados.writeLong(sequencia);
+        escreverComando(dados, comando);
+        dados.flush();
+
+        byte[] conteudo = bytes.toByteArray();
+        if (conteudo.length > TAMANHO_MAXIMO) {
+            throw new IOException("Comando grande demais para o journal: " + conteudo.length + " bytes");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(conteudo);
+
+        out.writeInt(conteudo.length);
+        out.writeInt((int) crc.getValue());
+        out.write(conteudo);
+        out.flush();
+    }
+
+    /**
+     * Codifica um lote de registros como um quadro comprimido.
+     *
+     * @param lote Registros codificados
+     * @return Quadro comprimido, ou o próprio lote se a compressão não o reduzir
+     * @throws IOException Se ocorrer um erro de codificação
+     */
+    static byte[] comprimirLote(byte[] lote) throws IOException {
+        if (lote.length > TAMANHO_MAXIMO) {
+            return lote;
+        }
+        byte[] comprimido = BlocosComprimidos.comprimir(lote);
+        if (TAMANHO_CABECALHO + 4 + comprimido.length >= lote.length) {
+            return lote;
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(TAMANHO_CABECALHO + 4 + comprimido.length);
+        DataOutputStream dados = new DataOutputStream(bytes);
+        dados.writeInt(lote.length);
+        dados.write(comprimido);
+        byte[] conteudo = bytes.toByteArray();
+
+        CRC32 crc = new CRC32();
+        crc.update(conteudo);
+        ByteArrayOutputStream quadro = new ByteArrayOutputStream(TAMANHO_CABECALHO + conteudo.length);
+        DataOutputStream out = new DataOutputStream(quadro);
+        out.writeInt(-conteudo.length);
+        out.writeInt((int) crc.getValue());
+        out.write(conteudo);
+        return quadro.toByteArray();
+    }
+
+    /**
+     * Lê um registro avulso ou um quadro comprimido, validando seu tamanho e
+     * seu crc32. O tamanho é validado antes de o conteúdo ser alocado.
+     *
+     * @param in Origem dos registros
+     * @param restante Quantidade de bytes entre a posição atual e o fim do arquivo
+     * @return Registros do quadro
+     * @throws EOFException Se o quadro estiver incompleto: termina depois do
+     *         fim do arquivo, ou é o último e o seu crc32 não confere
+     * @throws IOException Se o quadro estiver corrompido ou ocorrer um erro de leitura
+     */
+    static Quadro lerQuadro(DataInputStream in, long restante) throws IOException {
+        if (restante < TAMANHO_CABECALHO) {
+            throw new EOFException("Cabeçalho incompleto");
+        }
+        int tamanho = in.readInt();
+        int crcEsperado = in.readInt();
+        if (tamanho == 0 || tamanho == Integer.MIN_VALUE || Math.abs(tamanho) > TAMANHO_MAXIMO) {
+            throw new IOException("Tamanho de quadro inválido: " + tamanho);
+        }
+        if (Math.abs(tamanho) > restante - TAMANHO_CABECALHO) {
+            throw new EOFException("Quadro incompleto");
+        }
+
+        byte[] conteudo = new byte[Math.abs(tamanho)];
+        in.readFully(conteudo);
+        CRC32 crc = new CRC32();
+        crc.update(conteudo);
+        if ((int) crc.getValue() != crcEsperado) {
+            if (Math.abs(tamanho) == restante - TAMANHO_CABECALHO) {
+                throw new EOFException("Último quadro incompleto");
+            }
+            throw new IOException("crc32 do quadro não confere");
+        }
+        if (tamanho > 0) {
+            return new Quadro(TAMANHO_CABECALHO + tamanho, List.of(conteudo));
+        }
+
+        DataInputStream dados = new DataInputStream(new ByteArrayInputStream(conteudo));
+        int tamanhoOriginal = dados.readInt();
+        if (tamanhoOriginal <= 0 || tamanhoOriginal > TAMANHO_MAXIMO) {
+            throw new IOException("Tamanho original inválido: " + tamanhoOriginal);
+        }
+        byte[] lote = BlocosComprimidos.descomprimir(dados.readAllBytes(), tamanhoOriginal);
+        DataInputStream registros = new DataInputStream(new ByteArrayInputStream(lote));
+        List<byte[]> lidos = new ArrayList<>();
+        while (registros.available() > 0) {
+            byte[] registro = lerRegistro(registros);
+            if (registro == null) {
+                throw new IOException("Registro corrompido no quadro comprimido");
+            }
+            lidos.add(registro);
+        }
+        return new Quadro(TAMANHO_CABECALHO - tamanho, lidos);
+    }
+
+    /**
+     * Lê o conteúdo de um registro, validando seu tamanho e seu crc32.
+     *
+     * @param in Origem dos registros, já em memória
+     * @return Conteúdo do registro ou null se o arquivo terminou ou o registro está incompleto
+     * @throws IOException Se ocorrer um erro de leitura
+     */
+    static byte[] lerRegistro(DataInputStream in) throws IOException {
+        try {
+            int tamanho = in.readInt();
+            int crcEsperado = in.readInt();
+            if (tamanho <= 0 || tamanho > TAMANHO_MAXIMO || tamanho > in.available()) {
+                return null;
+            }
+
+            byte[] conteudo = new byte[tamanho];
+            in.readFully(conteudo);
+
+            CRC32 crc = new CRC32();
+            crc.update(conteudo);
+            return (int) crc.getValue() == crcEsperado ? conteudo : null;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Registros lidos de um quadro do journal e o espaço que ele ocupa no arquivo.
+     */
+    static class Quadro {
+        /** Tamanho do quadro no arquivo, incluindo o cabeçalho */
+        final long tamanho;
+
+        /** Conteúdo de cada registro do quadro */
+        final List<byte[]> registros;
+
+        private Quadro(long tamanho, List<byte[]> registros) {
+            this.tamanho = tamanho;
+            this.registros = registros;
+        }
+    }
+
+    /**
+     * Escreve a operação e os argumentos de um comando.
+     *
+     * @param out Destino dos dados
+     * @param comando Comando a ser escrito
+     * @throws IOException Se ocorrer um erro de escrita
+     */
+    static void escreverComando(DataOutputStream out, Comando comando) throws IOException {
+        out.writeUTF(comando.getOperacao());
+        out.writeInt(comando.getArgumentos().length);
+        for (String argumento : comando.getArgumentos()) {
+            if (argumento == null) {
+                out.writeInt(-1);
+            } else {
+                byte[] bytes = argumento.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+        }
+    }
+
+    /**
+     * Lê a operação e os argumentos de um comando.
+     *
+     * @param in Origem dos dados
+     * @return Comando lido
+     * @throws IOException Se ocorrer um erro de leitura
+     */
+    static Comando lerComando(DataInputStream in) throws IOException {
+        String operacao = in.readUTF();
+        String[] argumentos = new String[in.readInt()];
+        for (int i = 0; i < argumentos.length; i++) {
+            int tamanho = in.readInt();
+            if (tamanho >= 0) {
+                byte[] bytes = new byte[tamanho];
+                in.readFully(bytes);
+                argumentos[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+        }
+        return new Comando(operacao, argumentos);
+    }
+}
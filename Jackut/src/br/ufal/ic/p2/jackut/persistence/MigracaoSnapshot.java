@@ -0,0 +1,127 @@
+package br.ufal.ic.p2.jackut.persistence;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Atualização dos arquivos de snapshot para a versão atual do
+ * {@link FormatoBinario}.
+ * <p>
+ * Cada arquivo é reescrito em uma única passada, registro a registro
+ * ({@link FormatoBinario#recodificar}), e publicado com um rename atômico: a
+ * memória usada depende do dicionário de textos do arquivo, e não do grafo de
+ * objetos, e uma queda no meio da migração deixa o arquivo antigo intacto.
+ * Arquivos comprimidos continuam comprimidos. Os arquivos no formato antigo,
+ * de serialização Java, não podem ser lidos aos poucos e são convertidos pelo
+ * {@link ConversorFormatoAntigo}.
+ * <p>
+ * O {@link Snapshotter} migra o estado persistido antes de carregá-lo. Para
+ * migrar sem iniciar o sistema:
+ * <pre>java br.ufal.ic.p2.jackut.persistence.MigracaoSnapshot [arquivo]</pre>
+ */
+public final class MigracaoSnapshot {
+
+    /** Sufixos dos arquivos auxiliares, que não são migrados */
+    private static final String SUFIXO_TEMPORARIO = ".tmp";
+    private static final String SUFIXO_DESCOMPRIMIDO = ".raw";
+
+    private MigracaoSnapshot() {
+    }
+
+    /**
+     * Migra um arquivo para a versão atual do formato, no mesmo lugar.
+     * Arquivos já na versão atual ou no formato antigo não são alterados.
+     *
+     * @param arquivo Snapshot base, fragmento ou segmento delta
+     * @return true se o arquivo foi migrado
+     * @throws IOException Se o arquivo não puder ser lido ou gravado
+     */
+    public static boolean migrarArquivo(Path arquivo) throws IOException {
+        if (!FormatoBinario.isFormatoBinario(arquivo) || FormatoBinario.lerVersao(arquivo) == FormatoBinario.VERSAO) {
+            return false;
+        }
+
+        boolean comprimido;
+        try (FileChannel canal = FileChannel.open(arquivo, StandardOpenOption.READ)) {
+            comprimido = BlocosComprimidos.isComprimido(canal);
+        }
+        Path temporario = arquivo.resolveSibling(arquivo.getFileName() + SUFIXO_TEMPORARIO);
+        Path descomprimido = arquivo.resolveSibling(arquivo.getFileName() + SUFIXO_DESCOMPRIMIDO);
+        try {
+            recodificar(arquivo, comprimido ? descomprimido : temporario);
+            if (comprimido) {
+                BlocosComprimidos.comprimir(descomprimido, temporario);
+            }
+            Snapshotter.publicar(temporario, arquivo);
+        } finally {
+            Files.deleteIfExists(descomprimido);
+            Files.deleteIfExists(temporario);
+        }
+        return true;
+    }
+
+    /**
+     * Migra um snapshot base, os seus fragmentos e os seus segmentos delta.
+     *
+     * @param arquivoBase Caminho do snapshot base
+     * @return Arquivos migrados
+     * @throws IOException Se algum arquivo não puder ser migrado
+     */
+    public static List<Path> migrar(Path arquivoBase) throws IOException {
+        arquivoBase = arquivoBase.toAbsolutePath();
+        List<Path> migrados = new ArrayList<>();
+        if (Files.exists(arquivoBase) && migrarArquivo(arquivoBase)) {
+            migrados.add(arquivoBase);
+        }
+        try (DirectoryStream<Path> arquivos = Files.newDirectoryStream(arquivoBase.getParent(),
+                arquivoBase.getFileName() + ".*")) {
+            for (Path arquivo : arquivos) {
+                String nome = arquivo.getFileName().toString();
+                if ((nome.contains(".delta.") || nome.contains(".frag."))
+                        && !nome.endsWith(SUFIXO_TEMPORARIO) && !nome.endsWith(SUFIXO_DESCOMPRIMIDO)
+                        && migrarArquivo(arquivo)) {
+                    migrados.add(arquivo);
+                }
+            }
+        }
+        return migrados;
+    }
+
+    /**
+     * Reescreve um arquivo na versão atual, sem compressão.
+     */
+    private static void recodificar(Path origem, Path destino) throws IOException {
+        try (FileChannel entrada = FileChannel.open(origem, StandardOpenOption.READ);
+             FileChannel saida = FileChannel.open(destino, StandardOpenOption.CREATE,
+                     StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            CanalSaida out = new CanalSaida(saida);
+            FormatoBinario.recodificar(CanalEntrada.abrir(entrada), out);
+            out.close();
+            saida.force(true);
+        }
+    }
+
+    /**
+     * Migra um snapshot base e os seus arquivos.
+     *
+     * @param args Caminho do snapshot base (padrão: sistema.dat)
+     * @throws IOException Se algum arquivo não puder ser migrado
+     */
+    public static void main(String[] args) throws IOException {
+        Path base = Paths.get(args.length > 0 ? args[0] : "sistema.dat");
+        List<Path> migrados = migrar(base);
+        for (Path arquivo : migrados) {
+            System.out.println(arquivo.getFileName() + ": migrado para a versão " + FormatoBinario.VERSAO);
+        }
+        if (migrados.isEmpty()) {
+            System.out.println("Nenhum arquivo a migrar");
+        }
+    }
+}
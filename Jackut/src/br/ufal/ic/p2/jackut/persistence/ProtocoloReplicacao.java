@@ -0,0 +1,76 @@
+package br.ufal.ic.p2.jackut.persistence;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Protocolo entre o {@link ReplicacaoLider} e o {@link ReplicacaoSeguidor}.
+ * <p>
+ * Ao conectar, o seguidor envia a versão do protocolo. O líder responde com
+ * uma {@link #TRANSFERENCIA} do estado inteiro e, em seguida, envia cada lote
+ * do journal sincronizado com o disco ({@link #LOTE}). Quando não há lotes,
+ * o líder envia um {@link #PULSO} a cada {@link #INTERVALO_PULSO_MS}, de
+ * modo que o seguidor percebe uma conexão perdida e mede a defasagem mesmo
+ * sem mutações. Cada mensagem começa pelo tipo (1 byte):
+ * <ul>
+ *   <li>{@link #TRANSFERENCIA}: sequência do estado, instante no líder e o
+ *   estado como um {@link SegmentoDelta} no {@link FormatoBinario}.</li>
+ *   <li>{@link #LOTE}: última sequência do lote, instante em que ele ficou
+ *   durável no líder e os registros, no formato do {@link Journal}.</li>
+ *   <li>{@link #PULSO}: última sequência durável no líder e o instante.</li>
+ * </ul>
+ * Os instantes são do relógio do líder, em milissegundos; o conteúdo de
+ * tamanho variável é precedido do tamanho em 4 bytes.
+ */
+final class ProtocoloReplicacao {
+
+    /** Versão enviada pelo seguidor ao conectar */
+    static final int VERSAO = 1;
+
+    /** Tipos de mensagem */
+    static final int TRANSFERENCIA = 1;
+    static final int LOTE = 2;
+    static final int PULSO = 3;
+
+    /** Intervalo entre pulsos sem lotes */
+    static final long INTERVALO_PULSO_MS = 100;
+
+    /** Tempo sem mensagens após o qual o seguidor considera a conexão perdida */
+    static final int TEMPO_LIMITE_MS = 5000;
+
+    /** Maior conteúdo aceito, para não alocar memória a partir de um tamanho corrompido */
+    private static final int TAMANHO_MAXIMO = Integer.MAX_VALUE - 8;
+
+    private ProtocoloReplicacao() {
+    }
+
+    /**
+     * Escreve um conteúdo de tamanho variável.
+     *
+     * @param out Destino
+     * @param conteudo Bytes a serem escritos
+     * @throws IOException Se ocorrer um erro de escrita
+     */
+    static void escreverBytes(DataOutputStream out, byte[] conteudo) throws IOException {
+        out.writeInt(conteudo.length);
+        out.write(conteudo);
+    }
+
+    /**
+     * Lê um conteúdo escrito por {@link #escreverBytes}.
+     *
+     * @param in Origem
+     * @return Bytes lidos
+     * @throws IOException Se a conexão terminar, o tamanho for inválido ou ocorrer um erro de leitura
+     */
+    static byte[] lerBytes(DataInputStream in) throws IOException {
+        int tamanho = in.readInt();
+        if (tamanho < 0 || tamanho > TAMANHO_MAXIMO) {
+            throw new IOException("Conteúdo inválido na replicação: " + tamanho + " bytes");
+        }
+        byte[] conteudo = new byte[tamanho];
+        in.readFully(conteudo);
+        return conteudo;
+    }
+}
@@ -0,0 +1,240 @@
+package br.ufal.ic.p2.jackut.persistence;
+
+import br.ufal.ic.p2.jackut.services.DataRepository;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.function.ObjLongConsumer;
+
+import static br.ufal.ic.p2.jackut.persistence.ProtocoloReplicacao.*;
+
+/**
+ * Lado do líder na replicação: aceita seguidores ({@link ReplicacaoSeguidor})
+ * e envia a cada um o estado inteiro seguido do journal.
+ * <p>
+ * O estado é capturado com as mutações bloqueadas, na mesma sequência em que
+ * o seguidor passa a acompanhar o journal, de modo que nenhum comando fica
+ * de fora; a captura custa o tamanho dos dados e só acontece quando um
+ * seguidor conecta. Os lotes são entregues pela thread sincronizadora do
+ * journal a uma fila de cada seguidor e enviados por uma thread da conexão,
+ * sem atrasar as mutações. Um seguidor lento demais para a fila é
+ * desconectado e, ao reconectar, recebe o estado novamente.
+ */
+public class ReplicacaoLider implements Closeable {
+
+    /** Lotes aguardando envio a um seguidor antes que ele seja desconectado */
+    private static final int LIMITE_FILA = 4096;
+
+    /** Socket que aceita os seguidores */
+    private final ServerSocket servidor;
+
+    /** Repositório vivo do sistema */
+    private final DataRepository repository;
+
+    /** Journal de mutações do sistema */
+    private final Journal journal;
+
+    /** Bloqueio que exclui as mutações durante a captura do estado */
+    private final Lock bloqueio;
+
+    /** Seguidores conectados */
+    private final Set<Seguidor> seguidores;
+
+    /**
+     * Construtor que abre a porta da replicação. Os seguidores só são aceitos
+     * depois de {@link #iniciar()}.
+     *
+     * @param endereco Endereço local onde o líder escuta
+     * @param porta Porta (0 = qualquer porta livre)
+     * @param repository Repositório vivo do sistema
+     * @param journal Journal de mutações do sistema
+     * @param bloqueio Bloqueio que exclui as mutações durante a captura
+     * @throws IOException Se a porta não puder ser aberta
+     */
+    public ReplicacaoLider(InetAddress endereco, int porta, DataRepository repository, Journal journal,
+                           Lock bloqueio) throws IOException {
+        this.servidor = new ServerSocket(porta, 50, endereco);
+        this.repository = repository;
+        this.journal = journal;
+        this.bloqueio = bloqueio;
+        this.seguidores = ConcurrentHashMap.newKeySet();
+    }
+
+    /**
+     * @return Porta onde o líder aceita seguidores
+     */
+    public int getPorta() {
+        return servidor.getLocalPort();
+    }
+
+    /**
+     * @return Quantidade de seguidores conectados
+     */
+    public int getSeguidores() {
+        return seguidores.size();
+    }
+
+    /**
+     * Passa a aceitar seguidores em uma thread própria.
+     */
+    public void iniciar() {
+        Thread aceitacao = new Thread(this::aceitar, "jackut-replicacao-" + getPorta());
+        aceitacao.setDaemon(true);
+        aceitacao.start();
+    }
+
+    /**
+     * Desconecta os seguidores para que, ao reconectar, recebam o estado
+     * inteiro. Usado depois de uma alteração que não passa pelo journal (ex.:
+     * uma importação), ainda com as mutações bloqueadas.
+     */
+    public void reenviarEstado() {
+        for (Seguidor seguidor : seguidores) {
+            seguidor.descartar();
+        }
+    }
+
+    /**
+     * Fecha a porta e desconecta os seguidores.
+     */
+    @Override
+    public void close() throws IOException {
+        servidor.close();
+        for (Seguidor seguidor : seguidores) {
+            seguidor.descartar();
+        }
+    }
+
+    private void aceitar() {
+        while (!servidor.isClosed()) {
+            Socket conexao;
+            try {
+                conexao = servidor.accept();
+            } catch (IOException e) {
+                // Porta fechada
+                return;
+            }
+            Thread envio = new Thread(() -> atender(new Seguidor(conexao)), "jackut-replicacao-seguidor");
+            envio.setDaemon(true);
+            envio.start();
+        }
+    }
+
+    /**
+     * Envia o estado e, depois, os lotes do journal a um seguidor, até que a
+     * conexão seja perdida ou o líder encerrado.
+     */
+    private void atender(Seguidor seguidor) {
+        seguidores.add(seguidor);
+        try (Socket conexao = seguidor.conexao) {
+            if (servidor.isClosed()) {
+                return;
+            }
+            conexao.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(conexao.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(conexao.getOutputStream()));
+            int versao = in.readInt();
+            if (versao != VERSAO) {
+                throw new IOException("Versão da replicação não suportada: " + versao);
+            }
+
+            long sequencia;
+            byte[] estado;
+            bloqueio.lock();
+            try {
+                sequencia = journal.getUltimaSequencia();
+                estado = FormatoBinario.codificar(SegmentoDelta.transferencia(repository, sequencia));
+                journal.acompanhar(seguidor);
+            } finally {
+                bloqueio.unlock();
+            }
+            out.writeByte(TRANSFERENCIA);
+            out.writeLong(sequencia);
+            out.writeLong(System.currentTimeMillis());
+            escreverBytes(out, estado);
+            out.flush();
+
+            while (!seguidor.descartado) {
+                Lote lote = seguidor.fila.poll(INTERVALO_PULSO_MS, TimeUnit.MILLISECONDS);
+                if (lote == null) {
+                    out.writeByte(PULSO);
+                    out.writeLong(journal.getSequenciaDuravel());
+                    out.writeLong(System.currentTimeMillis());
+                } else {
+                    out.writeByte(LOTE);
+                    out.writeLong(lote.sequencia);
+                    out.writeLong(lote.instante);
+                    escreverBytes(out, lote.registros);
+                }
+                if (seguidor.fila.isEmpty()) {
+                    out.flush();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // Seguidor desconectado: ele reconecta e recebe o estado novamente
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            journal.deixarDeAcompanhar(seguidor);
+            seguidores.remove(seguidor);
+        }
+    }
+
+    /**
+     * Lote do journal aguardando envio.
+     */
+    private static final class Lote {
+        private final byte[] registros;
+        private final long sequencia;
+        private final long instante;
+
+        private Lote(byte[] registros, long sequencia, long instante) {
+            this.registros = registros;
+            this.sequencia = sequencia;
+            this.instante = instante;
+        }
+    }
+
+    /**
+     * Conexão de um seguidor e a fila dos lotes ainda não enviados a ele.
+     */
+    private final class Seguidor implements ObjLongConsumer<byte[]> {
+        private final Socket conexao;
+        private final LinkedBlockingQueue<Lote> fila = new LinkedBlockingQueue<>(LIMITE_FILA);
+        private volatile boolean descartado;
+
+        private Seguidor(Socket conexao) {
+            this.conexao = conexao;
+        }
+
+        /**
+         * Chamado pela thread sincronizadora do journal a cada lote durável.
+         */
+        @Override
+        public void accept(byte[] registros, long sequencia) {
+            if (!fila.offer(new Lote(registros, sequencia, System.currentTimeMillis()))) {
+                descartar();
+            }
+        }
+
+        /**
+         * Desconecta o seguidor, sem esperar pela thread que envia os lotes.
+         */
+        private void descartar() {
+            descartado = true;
+            journal.deixarDeAcompanhar(this);
+            try {
+                conexao.close();
+            } catch (IOException e) {
+                // A thread de envio termina com a conexão fechada
+            }
+        }
+    }
+}
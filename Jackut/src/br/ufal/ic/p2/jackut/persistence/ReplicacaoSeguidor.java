@@ -0,0 +1,262 @@
+package br.ufal.ic.p2.jackut.persistence;
+
+import br.ufal.ic.p2.jackut.Comando;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static br.ufal.ic.p2.jackut.persistence.ProtocoloReplicacao.*;
+
+/**
+ * Lado do seguidor na replicação: recebe do {@link ReplicacaoLider} o estado
+ * inteiro e, em seguida, os comandos do journal do líder, aplicados em ordem
+ * por uma única thread. Se a conexão for perdida, o seguidor reconecta e
+ * recebe o estado novamente.
+ * <p>
+ * A defasagem é medida em comandos (sequência durável conhecida no líder
+ * menos a última aplicada) e em tempo (idade, pelo relógio do líder, do
+ * estado mais recente do líder já aplicado). Sem mutações, os pulsos do
+ * líder mantêm a defasagem em tempo abaixo de
+ * {@link ProtocoloReplicacao#INTERVALO_PULSO_MS} mais a latência da rede;
+ * com o líder inacessível, ela cresce até a reconexão.
+ */
+public class ReplicacaoSeguidor implements Closeable {
+
+    /** Espera entre tentativas de conexão ao líder */
+    private static final long ESPERA_RECONEXAO_MS = 500;
+
+    /** Endereço do líder */
+    private final InetSocketAddress lider;
+
+    /** Substitui o estado do sistema pelo estado recebido */
+    private final Consumer<SegmentoDelta> instalador;
+
+    /** Aplica um comando do journal do líder */
+    private final Consumer<Comando> aplicador;
+
+    /** Thread que recebe e aplica o estado e os comandos */
+    private final Thread aplicadora;
+
+    /** Liberado quando o primeiro estado é instalado */
+    private final CountDownLatch primeiroEstado;
+
+    /** Conexão atual com o líder, ou null se desconectado */
+    private volatile Socket conexao;
+
+    /** Indica se o seguidor foi encerrado */
+    private volatile boolean fechado;
+
+    /** Última sequência do líder aplicada a este sistema */
+    private volatile long sequenciaAplicada;
+
+    /** Maior sequência durável conhecida no líder */
+    private volatile long sequenciaLider;
+
+    /** Instante, no relógio do líder, do estado mais recente já aplicado */
+    private volatile long instanteAplicado;
+
+    /**
+     * Construtor que prepara o seguidor. A conexão só é aberta em {@link #iniciar(long)}.
+     *
+     * @param lider Endereço do líder
+     * @param instalador Substitui o estado do sistema pelo estado recebido
+     * @param aplicador Aplica um comando do journal do líder
+     */
+    public ReplicacaoSeguidor(InetSocketAddress lider, Consumer<SegmentoDelta> instalador,
+                              Consumer<Comando> aplicador) {
+        this.lider = lider;
+        this.instalador = instalador;
+        this.aplicador = aplicador;
+        this.primeiroEstado = new CountDownLatch(1);
+        this.aplicadora = new Thread(this::acompanhar, "jackut-replicacao-seguidor");
+        this.aplicadora.setDaemon(true);
+    }
+
+    /**
+     * Conecta ao líder e aguarda a instalação do primeiro estado. Depois
+     * disso, os comandos são aplicados em segundo plano.
+     *
+     * @param esperaMs Tempo máximo de espera pelo primeiro estado
+     * @throws IOException Se o estado não for recebido dentro do prazo
+     */
+    public void iniciar(long esperaMs) throws IOException {
+        aplicadora.start();
+        try {
+            if (primeiroEstado.await(esperaMs, TimeUnit.MILLISECONDS)) {
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        close();
+        throw new IOException("Estado não recebido do líder " + lider.getHostString() + ":" + lider.getPort());
+    }
+
+    /**
+     * @return true se a thread atual é a que aplica o estado e os comandos do líder
+     */
+    public boolean isAplicando() {
+        return Thread.currentThread() == aplicadora;
+    }
+
+    /**
+     * @return true se há uma conexão aberta com o líder
+     */
+    public boolean isConectado() {
+        return conexao != null;
+    }
+
+    /**
+     * @return Última sequência do journal do líder aplicada a este sistema
+     */
+    public long getSequenciaAplicada() {
+        return sequenciaAplicada;
+    }
+
+    /**
+     * @return Comandos duráveis no líder ainda não aplicados, pelo que o seguidor conhece do líder
+     */
+    public long getAtraso() {
+        return Math.max(0, sequenciaLider - sequenciaAplicada);
+    }
+
+    /**
+     * @return Idade, em milissegundos, do estado do líder mais recente já aplicado
+     */
+    public long getAtrasoMs() {
+        return Math.max(0, System.currentTimeMillis() - instanteAplicado);
+    }
+
+    /**
+     * Desconecta do líder e aguarda o fim do comando em aplicação. Depois
+     * disso, o estado do sistema não muda mais pela replicação.
+     */
+    @Override
+    public void close() {
+        fechado = true;
+        Socket atual = conexao;
+        if (atual != null) {
+            try {
+                atual.close();
+            } catch (IOException e) {
+                // A thread aplicadora termina com a conexão fechada
+            }
+        }
+        aplicadora.interrupt();
+        if (!isAplicando()) {
+            try {
+                aplicadora.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Laço da thread aplicadora: conecta ao líder e aplica o que receber,
+     * reconectando enquanto o seguidor não for encerrado.
+     */
+    private void acompanhar() {
+        while (!fechado) {
+            try (Socket socket = new Socket()) {
+                conexao = socket;
+                if (fechado) {
+                    return;
+                }
+                socket.connect(lider, TEMPO_LIMITE_MS);
+                socket.setSoTimeout(TEMPO_LIMITE_MS);
+                socket.setTcpNoDelay(true);
+                DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                out.writeInt(VERSAO);
+                out.flush();
+                receber(new DataInputStream(new BufferedInputStream(socket.getInputStream())));
+            } catch (IOException e) {
+                // Líder inacessível ou conexão perdida: tenta novamente
+            } finally {
+                conexao = null;
+            }
+
+            try {
+                Thread.sleep(ESPERA_RECONEXAO_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Recebe e aplica as mensagens do líder até que a conexão seja perdida.
+     */
+    private void receber(DataInputStream in) throws IOException {
+        while (!fechado) {
+            int tipo = in.readByte();
+            switch (tipo) {
+                case TRANSFERENCIA: {
+                    long sequencia = in.readLong();
+                    long instante = in.readLong();
+                    SegmentoDelta estado = FormatoBinario.ler(new CanalEntrada(lerBytes(in)));
+                    if (fechado) {
+                        return;
+                    }
+                    instalador.accept(estado);
+                    sequenciaAplicada = sequencia;
+                    sequenciaLider = sequencia;
+                    instanteAplicado = instante;
+                    primeiroEstado.countDown();
+                    break;
+                }
+                case LOTE: {
+                    long sequencia = in.readLong();
+                    long instante = in.readLong();
+                    byte[] registros = lerBytes(in);
+                    sequenciaLider = Math.max(sequenciaLider, sequencia);
+                    aplicar(registros);
+                    instanteAplicado = instante;
+                    break;
+                }
+                case PULSO: {
+                    long sequencia = in.readLong();
+                    long instante = in.readLong();
+                    sequenciaLider = Math.max(sequenciaLider, sequencia);
+                    if (sequenciaAplicada >= sequencia) {
+                        instanteAplicado = instante;
+                    }
+                    break;
+                }
+                default:
+                    throw new IOException("Mensagem desconhecida na replicação: " + tipo);
+            }
+        }
+    }
+
+    /**
+     * Aplica, em ordem, os comandos de um lote posteriores ao estado já aplicado.
+     */
+    private void aplicar(byte[] registros) throws IOException {
+        DataInputStream lote = new DataInputStream(new ByteArrayInputStream(registros));
+        while (lote.available() > 0 && !fechado) {
+            byte[] registro = Journal.lerRegistro(lote);
+            if (registro == null) {
+                throw new IOException("Registro corrompido na replicação");
+            }
+            DataInputStream dados = new DataInputStream(new ByteArrayInputStream(registro));
+            long sequencia = dados.readLong();
+            if (sequencia <= sequenciaAplicada) {
+                continue;
+            }
+            Comando comando = Journal.lerComando(dados);
+            try {
+                aplicador.accept(comando);
+            } catch (RuntimeException e) {
+                // Estado divergente: a reconexão recebe de novo o estado inteiro do líder
+                throw new IOException("Comando " + sequencia + " (" + comando.getOperacao()
+                        + ") do líder não pôde ser aplicado: " + e.getMessage(), e);
+            }
+            sequenciaAplicada = sequencia;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package br.ufal.ic.p2.jackut.persistence;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Arquivo com o fim do último bloco de IDs de sessão reservado
+ * ({@code sistema.dat.sessoes}). Cada reserva é sincronizada com o disco
+ * antes de qualquer ID do bloco ser entregue, de modo que, depois de uma
+ * queda, o contador recomeça além de todos os IDs que já podem ter sido vistos.
+ */
+public final class ReservaSessoes {
+
+    /** Sufixo do arquivo, acrescentado ao nome do snapshot base */
+    private static final String SUFIXO = ".sessoes";
+
+    /** Caminho do arquivo de reserva */
+    private final Path arquivo;
+
+    /**
+     * Construtor que associa a reserva ao snapshot base.
+     *
+     * @param arquivoBase Caminho do snapshot base
+     */
+    public ReservaSessoes(Path arquivoBase) {
+        this.arquivo = arquivoBase.resolveSibling(arquivoBase.getFileName() + SUFIXO);
+    }
+
+    /**
+     * @return Fim do último bloco reservado, ou 1 se nenhum bloco foi reservado
+     * @throws IOException Se o arquivo existir mas não puder ser lido
+     */
+    public int ler() throws IOException {
+        if (!Files.exists(arquivo)) {
+            return 1;
+        }
+        byte[] conteudo = Files.readAllBytes(arquivo);
+        if (conteudo.length != Integer.BYTES) {
+            throw new IOException("Reserva de sessões inválida: " + arquivo);
+        }
+        return ByteBuffer.wrap(conteudo).getInt();
+    }
+
+    /**
+     * Grava o fim de um novo bloco reservado, sincronizado com o disco.
+     *
+     * @param limite Primeiro ID fora do bloco
+     * @throws IOException Se o arquivo não puder ser gravado
+     */
+    public void gravar(int limite) throws IOException {
+        Path temporario = arquivo.resolveSibling(arquivo.getFileName() + ".tmp");
+        try (FileChannel canal = FileChannel.open(temporario, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES).putInt(limite).flip();
+            while (buffer.hasRemaining()) {
+                canal.write(buffer);
+            }
+            canal.force(true);
+        }
+        Snapshotter.publicar(temporario, arquivo);
+    }
+}
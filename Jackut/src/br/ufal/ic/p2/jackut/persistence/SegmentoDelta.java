@@ -0,0 +1,331 @@
+package br.ufal.ic.p2.jackut.persistence;
+
+import br.ufal.ic.p2.jackut.entities.Comunicacao;
+import br.ufal.ic.p2.jackut.entities.Comunidade;
+import br.ufal.ic.p2.jackut.entities.Usuario;
+import br.ufal.ic.p2.jackut.services.DataRepository;
+import br.ufal.ic.p2.jackut.services.RastreadorAlteracoes;
+import br.ufal.ic.p2.jackut.storage.CaixasEmLog;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * Segmento incremental de snapshot: contém apenas as entidades alteradas
+ * desde o checkpoint anterior. Um valor null indica entidade removida.
+ * Aplicar a base e, em ordem, todos os segmentos reconstrói o repositório
+ * no estado da última sequência do journal incluída.
+ * <p>
+ * Com o log de mensagens ativado, as caixas não são gravadas: o segmento
+ * guarda apenas os cursores de leitura alterados e a posição final do log.
+ */
+public class SegmentoDelta implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    /** Última sequência do journal refletida neste segmento */
+    private final long sequencia;
+
+    /** Se true, o repositório deve ser esvaziado antes de aplicar o segmento */
+    private final boolean limpar;
+
+    /** Usuários alterados, indexados por login */
+    private final Map<String, Usuario> usuarios;
+
+    /** Comunidades de cada dono alterado, indexadas por login */
+    private final Map<String, Set<String>> donos;
+
+    /** Comunidades alteradas, indexadas por nome */
+    private final Map<String, Comunidade> comunidades;
+
+    /** Caixas de mensagens alteradas, indexadas por login do destinatário */
+    private final Map<String, List<Comunicacao>> mensagens;
+
+    /** Tabela completa de sessões, ou null se não foi alterada */
+    private final Map<String, String> sessoes;
+
+    /** Próximo ID de sessão no momento da captura */
+    private final int nextSessionId;
+
+    /** Cursores de leitura alterados ({recado, comunidade}), indexados por login (null = removidos) */
+    private final Map<String, long[]> cursores;
+
+    /** Posição final do log de mensagens, ou -1 se as caixas não ficam no log */
+    private long fimLog = -1;
+
+    /** Arquivos de uma base fragmentada com o restante do conteúdo (null = nenhum) */
+    private List<String> fragmentos;
+
+    /**
+     * Construtor que inicializa um segmento sem entidades.
+     *
+     * @param sequencia Última sequência do journal refletida no segmento
+     * @param limpar Se true, o repositório deve ser esvaziado antes de aplicar o segmento
+     * @param sessoes Tabela completa de sessões, ou null se não foi alterada
+     * @param nextSessionId Próximo ID de sessão no momento da captura
+     */
+    SegmentoDelta(long sequencia, boolean limpar, Map<String, String> sessoes, int nextSessionId) {
+        this.sequencia = sequencia;
+        this.limpar = limpar;
+        this.usuarios = new HashMap<>();
+        this.donos = new HashMap<>();
+        this.comunidades = new HashMap<>();
+        this.mensagens = new HashMap<>();
+        this.cursores = new HashMap<>();
+        this.sessoes = sessoes;
+        this.nextSessionId = nextSessionId;
+    }
+
+    /**
+     * Captura as entidades alteradas do repositório.
+     * Deve ser chamado com o repositório bloqueado para escrita; o segmento
+     * referencia as entidades vivas e precisa ser serializado antes de o
+     * bloqueio ser liberado.
+     *
+     * @param repository Repositório de onde as entidades são lidas
+     * @param alteracoes Entidades alteradas desde o último checkpoint
+     * @param sequencia Última sequência do journal refletida no repositório
+     * @return Segmento com as entidades alteradas
+     */
+    public static SegmentoDelta capturar(DataRepository repository, RastreadorAlteracoes alteracoes,
+                                         long sequencia) {
+        Map<String, String> sessoes = alteracoes.isSessoes() ? new HashMap<>(repository.getSessoes()) : null;
+        SegmentoDelta delta = new SegmentoDelta(sequencia, alteracoes.isTudo(), sessoes,
+                repository.getNextSessionId());
+
+        Set<String> logins = new HashSet<>(alteracoes.getUsuarios());
+        Set<String> nomes = new HashSet<>(alteracoes.getComunidades());
+        Set<String> destinatarios = new HashSet<>(alteracoes.getMensagens());
+        CaixasEmLog caixas = repository.getCaixasEmLog();
+        if (alteracoes.isTudo()) {
+            logins.addAll(repository.getUsuarios().keySet());
+            logins.addAll(repository.getDonoParaComunidades().keySet());
+            nomes.addAll(repository.getComunidades().keySet());
+            destinatarios.addAll(caixas != null ? caixas.getCursores().keySet() : repository.getMensagens().keySet());
+        }
+
+        for (String login : logins) {
+            delta.usuarios.put(login, repository.getUsuario(login));
+            delta.donos.put(login, repository.getDonoParaComunidades().get(login));
+        }
+        for (String nome : nomes) {
+            delta.comunidades.put(nome, repository.getComunidade(nome));
+        }
+        if (caixas != null) {
+            delta.fimLog = caixas.getFim();
+            for (String destinatario : destinatarios) {
+                delta.cursores.put(destinatario, caixas.getCursor(destinatario));
+            }
+        } else {
+            for (String destinatario : destinatarios) {
+                delta.mensagens.put(destinatario, repository.getMensagens().get(destinatario));
+            }
+        }
+        return delta;
+    }
+
+    /**
+     * Captura o repositório inteiro como um segmento que substitui todo o estado.
+     * É o conteúdo de um snapshot base.
+     *
+     * @param repository Repositório de onde as entidades são lidas
+     * @param sequencia Última sequência do journal refletida no repositório
+     * @return Segmento com todas as entidades
+     */
+    public static SegmentoDelta completo(DataRepository repository, long sequencia) {
+        RastreadorAlteracoes tudo = new RastreadorAlteracoes();
+        tudo.marcarTudo();
+        return capturar(repository, tudo, sequencia);
+    }
+
+    /**
+     * Captura o repositório inteiro como um segmento autossuficiente, com as
+     * mensagens não lidas dentro do segmento mesmo quando as caixas ficam no
+     * log de mensagens. É o estado enviado a um processo que não tem acesso
+     * aos arquivos deste (ex.: um seguidor da replicação).
+     *
+     * @param repository Repositório de onde as entidades são lidas
+     * @param sequencia Última sequência do journal refletida no repositório
+     * @return Segmento com todas as entidades e mensagens
+     */
+    public static SegmentoDelta transferencia(DataRepository repository, long sequencia) {
+        SegmentoDelta segmento = completo(repository, sequencia);
+        if (segmento.fimLog >= 0) {
+            segmento.fimLog = -1;
+            segmento.cursores.clear();
+            repository.percorrerMensagens((login, mensagem) ->
+                    segmento.mensagens.computeIfAbsent(login, chave -> new ArrayList<>()).add(mensagem));
+        }
+        return segmento;
+    }
+
+    /**
+     * Aplica este segmento a um repositório.
+     *
+     * @param repository Repositório a ser atualizado
+     */
+    public void aplicar(DataRepository repository) {
+        if (limpar) {
+            repository.getUsuarios().clear();
+            repository.getComunidades().clear();
+            repository.getMensagens().clear();
+            repository.getDonoParaComunidades().clear();
+            repository.usarCaixasEmLog(fimLog >= 0 ? new CaixasEmLog() : null);
+        }
+
+        aplicarMapa(repository.getUsuarios(), usuarios);
+        aplicarMapa(repository.getDonoParaComunidades(), donos);
+        aplicarMapa(repository.getComunidades(), comunidades);
+        aplicarMapa(repository.getMensagens(), mensagens);
+        if (fimLog >= 0) {
+            if (repository.getCaixasEmLog() == null) {
+                repository.usarCaixasEmLog(new CaixasEmLog());
+            }
+            aplicarMapa(repository.getCaixasEmLog().getCursores(), cursores);
+            repository.getCaixasEmLog().setFim(fimLog);
+        }
+
+        if (sessoes != null) {
+            repository.getSessoes().clear();
+            repository.getSessoes().putAll(sessoes);
+        }
+        repository.setNextSessionId(nextSessionId);
+        repository.descartarIndicesRemetentes();
+    }
+
+    /**
+     * Acrescenta a este segmento as entidades lidas de um fragmento da mesma base.
+     *
+     * @param fragmento Segmento lido de um arquivo de fragmento
+     */
+    void incorporar(SegmentoDelta fragmento) {
+        usuarios.putAll(fragmento.usuarios);
+        comunidades.putAll(fragmento.comunidades);
+        mensagens.putAll(fragmento.mensagens);
+        cursores.putAll(fragmento.cursores);
+        fimLog = Math.max(fimLog, fragmento.fimLog);
+    }
+
+    /**
+     * Reconstrói as comunidades de cada dono a partir do dono de cada comunidade.
+     * Usado nas bases fragmentadas, que não gravam essa relação.
+     */
+    void reconstruirDonos() {
+        donos.clear();
+        for (Comunidade comunidade : comunidades.values()) {
+            if (comunidade != null) {
+                donos.computeIfAbsent(comunidade.getDonoComunidade(), login -> new HashSet<>())
+                        .add(comunidade.getNome());
+            }
+        }
+    }
+
+    /**
+     * Copia as entradas do segmento para o mapa de destino, removendo as nulas.
+     *
+     * @param destino Mapa do repositório
+     * @param alteradas Entradas alteradas
+     * @param <V> Tipo dos valores
+     */
+    private static <V> void aplicarMapa(Map<String, V> destino, Map<String, V> alteradas) {
+        for (Map.Entry<String, V> entrada : alteradas.entrySet()) {
+            if (entrada.getValue() == null) {
+                destino.remove(entrada.getKey());
+            } else {
+                destino.put(entrada.getKey(), entrada.getValue());
+            }
+        }
+    }
+
+    /**
+     * @return Última sequência do journal refletida neste segmento
+     */
+    public long getSequencia() {
+        return sequencia;
+    }
+
+    /**
+     * @return true se o repositório deve ser esvaziado antes de aplicar o segmento
+     */
+    boolean isLimpar() {
+        return limpar;
+    }
+
+    /**
+     * @return Usuários do segmento, indexados por login (null = removido)
+     */
+    Map<String, Usuario> getUsuarios() {
+        return usuarios;
+    }
+
+    /**
+     * @return Comunidades de cada dono, indexadas por login (null = removido)
+     */
+    Map<String, Set<String>> getDonos() {
+        return donos;
+    }
+
+    /**
+     * @return Comunidades do segmento, indexadas por nome (null = removida)
+     */
+    Map<String, Comunidade> getComunidades() {
+        return comunidades;
+    }
+
+    /**
+     * @return Caixas de mensagens do segmento, indexadas por destinatário (null = removida)
+     */
+    Map<String, List<Comunicacao>> getMensagens() {
+        return mensagens;
+    }
+
+    /**
+     * @return Cursores de leitura do segmento, indexados por login (null = removidos)
+     */
+    Map<String, long[]> getCursores() {
+        return cursores;
+    }
+
+    /**
+     * @return Posição final do log de mensagens, ou -1 se as caixas não ficam no log
+     */
+    long getFimLog() {
+        return fimLog;
+    }
+
+    /**
+     * @param fimLog Posição final do log de mensagens, ou -1 se as caixas não ficam no log
+     */
+    void setFimLog(long fimLog) {
+        this.fimLog = fimLog;
+    }
+
+    /**
+     * @return Tabela completa de sessões, ou null se não foi alterada
+     */
+    Map<String, String> getSessoes() {
+        return sessoes;
+    }
+
+    /**
+     * @return Próximo ID de sessão no momento da captura
+     */
+    int getNextSessionId() {
+        return nextSessionId;
+    }
+
+    /**
+     * @return Nomes dos arquivos de fragmento da base, ou uma lista vazia se ela não for fragmentada
+     */
+    List<String> getFragmentos() {
+        return fragmentos == null ? Collections.emptyList() : fragmentos;
+    }
+
+    /**
+     * @param fragmentos Nomes dos arquivos de fragmento da base
+     */
+    void setFragmentos(List<String> fragmentos) {
+        this.fragmentos = fragmentos;
+    }
+}
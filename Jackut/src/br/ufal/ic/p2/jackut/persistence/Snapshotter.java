@@ -0,0 +1,718 @@
+package br.ufal.ic.p2.jackut.persistence;
+
+import br.ufal.ic.p2.jackut.services.DataRepository;
+import br.ufal.ic.p2.jackut.services.RastreadorAlteracoes;
+import br.ufal.ic.p2.jackut.services.ServiceLocator;
+import br.ufal.ic.p2.jackut.storage.CaixasEmLog;
+import br.ufal.ic.p2.jackut.storage.LogMensagens;
+import br.ufal.ic.p2.jackut.storage.MotorArmazenamento;
+import br.ufal.ic.p2.jackut.storage.MotorMemoria;
+import br.ufal.ic.p2.jackut.storage.OrigemUsuarios;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Supplier;
+
+/**
+ * Responsável pelos snapshots incrementais do sistema.
+ * <p>
+ * O estado persistido é composto por um snapshot base ({@code sistema.dat})
+ * e por segmentos delta ({@code sistema.dat.delta.<sequência>}), cada um com
+ * apenas as entidades alteradas desde o checkpoint anterior. Os checkpoints
+ * rodam periodicamente em uma thread de fundo e, quando há segmentos demais,
+ * eles são mesclados em uma nova base. Todo arquivo é gravado em um arquivo
+ * temporário e publicado com um rename atômico, de modo que uma queda no meio
+ * da gravação nunca corrompe o estado já publicado.
+ * <p>
+ * Os arquivos são gravados no {@link FormatoBinario}; arquivos no formato
+ * antigo, de serialização Java, continuam sendo lidos por meio do
+ * {@link ConversorFormatoAntigo}, e arquivos de versões anteriores do
+ * formato binário podem ser atualizados pela {@link MigracaoSnapshot} antes
+ * da carga. Com mais de um fragmento configurado, a
+ * mesclagem grava a base como uma {@link BaseFragmentada}, e a carga lê os
+ * fragmentos em paralelo. Com a compressão ativada, bases, fragmentos e
+ * segmentos delta são gravados em {@link BlocosComprimidos}; a leitura
+ * reconhece cada arquivo pela assinatura, então estados comprimidos e não
+ * comprimidos podem conviver durante a troca da opção.
+ */
+public class Snapshotter implements Closeable {
+
+    /** Sufixo dos segmentos delta */
+    private static final String SUFIXO_DELTA = ".delta.";
+
+    /** Sufixo dos arquivos ainda em gravação */
+    private static final String SUFIXO_TEMPORARIO = ".tmp";
+
+    /** Caminho do snapshot base */
+    private final Path arquivoBase;
+
+    /** Quantidade de segmentos delta que dispara uma mesclagem */
+    private final int maxDeltas;
+
+    /** Cria o motor de armazenamento de cada repositório carregado */
+    private final Supplier<MotorArmazenamento> fabricaMotor;
+
+    /** Quantidade de fragmentos de usuários das bases gravadas (1 = base em um único arquivo) */
+    private final int fragmentos;
+
+    /** Se os arquivos gravados são comprimidos em blocos */
+    private final boolean comprimir;
+
+    /** Thread de fundo onde rodam checkpoints e mesclagens */
+    private final ScheduledExecutorService executor;
+
+    /** Pool onde os fragmentos de uma base são lidos e gravados em paralelo */
+    private final ForkJoinPool paralelo;
+
+    /** Repositório vivo do sistema */
+    private DataRepository repository;
+
+    /** Journal de mutações do sistema */
+    private Journal journal;
+
+    /** Bloqueio que exclui as mutações durante a captura */
+    private Lock bloqueio;
+
+    /** Tarefa periódica de checkpoint */
+    private ScheduledFuture<?> agendamento;
+
+    /** Última sequência do journal contida no estado persistido */
+    private long sequencia;
+
+    /** Falha do último checkpoint periódico, ou null se ele foi gravado */
+    private IOException falhaCheckpoint;
+
+    /** Falha da última mesclagem em segundo plano, ou null se ela foi concluída */
+    private IOException falhaMesclagem;
+
+    /**
+     * Construtor que prepara o snapshotter para um arquivo base.
+     *
+     * @param arquivoBase Caminho do snapshot base
+     * @param maxDeltas Quantidade de segmentos delta que dispara uma mesclagem
+     */
+    public Snapshotter(Path arquivoBase, int maxDeltas) {
+        this(arquivoBase, maxDeltas, MotorMemoria::new);
+    }
+
+    /**
+     * Construtor que prepara o snapshotter para um arquivo base, carregando
+     * os repositórios no motor de armazenamento informado.
+     *
+     * @param arquivoBase Caminho do snapshot base
+     * @param maxDeltas Quantidade de segmentos delta que dispara uma mesclagem
+     * @param fabricaMotor Cria o motor de armazenamento de cada repositório carregado
+     */
+    public Snapshotter(Path arquivoBase, int maxDeltas, Supplier<MotorArmazenamento> fabricaMotor) {
+        this(arquivoBase, maxDeltas, fabricaMotor, 1);
+    }
+
+    /**
+     * Construtor que prepara o snapshotter para gravar bases fragmentadas.
+     *
+     * @param arquivoBase Caminho do snapshot base
+     * @param maxDeltas Quantidade de segmentos delta que dispara uma mesclagem
+     * @param fabricaMotor Cria o motor de armazenamento de cada repositório carregado
+     * @param fragmentos Quantidade de fragmentos de usuários das bases gravadas (1 = um único arquivo)
+     */
+    public Snapshotter(Path arquivoBase, int maxDeltas, Supplier<MotorArmazenamento> fabricaMotor,
+                       int fragmentos) {
+        this(arquivoBase, maxDeltas, fabricaMotor, fragmentos, false);
+    }
+
+    /**
+     * Construtor que prepara o snapshotter para gravar bases fragmentadas,
+     * opcionalmente comprimidas.
+     *
+     * @param arquivoBase Caminho do snapshot base
+     * @param maxDeltas Quantidade de segmentos delta que dispara uma mesclagem
+     * @param fabricaMotor Cria o motor de armazenamento de cada repositório carregado
+     * @param fragmentos Quantidade de fragmentos de usuários das bases gravadas (1 = um único arquivo)
+     * @param comprimir Se bases e segmentos delta são gravados comprimidos em blocos
+     */
+    public Snapshotter(Path arquivoBase, int maxDeltas, Supplier<MotorArmazenamento> fabricaMotor,
+                       int fragmentos, boolean comprimir) {
+        this.arquivoBase = arquivoBase.toAbsolutePath();
+        this.maxDeltas = Math.max(1, maxDeltas);
+        this.fabricaMotor = fabricaMotor;
+        this.fragmentos = Math.max(1, fragmentos);
+        this.comprimir = comprimir;
+        this.paralelo = new ForkJoinPool(Math.max(1, Runtime.getRuntime().availableProcessors()));
+        this.executor = Executors.newSingleThreadScheduledExecutor(tarefa -> {
+            Thread thread = new Thread(tarefa, "jackut-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Carrega o snapshot base e aplica, em ordem, os segmentos delta posteriores a ele.
+     *
+     * @return ServiceLocator com o estado persistido, ou um novo se não houver snapshot
+     * @throws IOException Se algum arquivo não puder ser lido
+     */
+    public ServiceLocator carregar() throws IOException {
+        return carregar(false);
+    }
+
+    /**
+     * Carrega o snapshot base e aplica, em ordem, os segmentos delta posteriores a ele.
+     * <p>
+     * Sob demanda, os usuários do snapshot base não são lidos na carga: cada um
+     * é lido pelo {@link IndiceUsuarios} do arquivo na primeira vez que é acessado.
+     * Bases sem índice (formato antigo ou versão 1) são lidas por inteiro.
+     *
+     * @param usuariosSobDemanda Se os usuários do snapshot base são carregados sob demanda
+     * @return ServiceLocator com o estado persistido, ou um novo se não houver snapshot
+     * @throws IOException Se algum arquivo não puder ser lido
+     */
+    public ServiceLocator carregar(boolean usuariosSobDemanda) throws IOException {
+        Base base = usuariosSobDemanda ? lerBaseSobDemanda() : lerBase();
+        long carregada;
+        try {
+            carregada = aplicarDeltas(base.repository, base.sequencia);
+        } catch (IOException | RuntimeException e) {
+            base.repository.getMotor().close();
+            throw e;
+        }
+        base.repository.getAlteracoes().drenar();
+
+        synchronized (this) {
+            sequencia = carregada;
+        }
+        return new ServiceLocator(base.repository);
+    }
+
+    /**
+     * Atualiza o snapshot base, os seus fragmentos e os segmentos delta para
+     * a versão atual do {@link FormatoBinario}, um arquivo de cada vez, antes
+     * da carga.
+     *
+     * @return Arquivos migrados
+     * @throws IOException Se algum arquivo não puder ser migrado
+     */
+    public List<Path> migrar() throws IOException {
+        return MigracaoSnapshot.migrar(arquivoBase);
+    }
+
+    /**
+     * @return Última sequência do journal contida no estado carregado ou gravado
+     */
+    public synchronized long getSequencia() {
+        return sequencia;
+    }
+
+    /**
+     * Substitui o estado persistido pelo estado inteiro de um repositório,
+     * gravado como uma nova base, e apaga os segmentos delta. Usado quando o
+     * estado não veio destes arquivos (ex.: uma réplica promovida a líder).
+     * Deve ser chamado antes de {@link #iniciar}, sem mutações em andamento.
+     *
+     * @param repository Repositório cujo estado passa a ser o persistido
+     * @param sequenciaBase Última sequência do journal refletida no repositório
+     * @throws IOException Se a base não puder ser gravada
+     */
+    public void substituir(DataRepository repository, long sequenciaBase) throws IOException {
+        gravarBase(SegmentoDelta.completo(repository, sequenciaBase));
+        for (Path delta : listarDeltas().values()) {
+            Files.deleteIfExists(delta);
+        }
+        repository.getAlteracoes().drenar();
+
+        synchronized (this) {
+            sequencia = sequenciaBase;
+        }
+    }
+
+    /**
+     * Inicia os checkpoints periódicos sobre o sistema carregado.
+     *
+     * @param repository Repositório vivo do sistema
+     * @param journal Journal de mutações do sistema
+     * @param bloqueio Bloqueio que exclui as mutações durante a captura
+     * @param intervaloSegundos Intervalo entre checkpoints periódicos
+     */
+    public void iniciar(DataRepository repository, Journal journal, Lock bloqueio, long intervaloSegundos) {
+        this.repository = repository;
+        this.journal = journal;
+        this.bloqueio = bloqueio;
+        long intervalo = Math.max(1, intervaloSegundos);
+        this.agendamento = executor.scheduleWithFixedDelay(this::checkpointPeriodico,
+                intervalo, intervalo, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Aplica ao repositório vivo uma alteração que não é registrada no
+     * journal (ex.: uma importação) e grava o estado inteiro como uma nova
+     * base, que substitui os segmentos delta. Roda na thread de fundo, depois
+     * de qualquer checkpoint ou mesclagem já em andamento, e com as mutações
+     * bloqueadas até a base ser publicada: a recuperação nunca encontra
+     * mutações posteriores à alteração sem a alteração.
+     *
+     * @param alteracao Alteração a ser aplicada; se falhar, nada é gravado
+     * @throws IOException Se a base não puder ser gravada
+     */
+    public void substituirApos(Runnable alteracao) throws IOException {
+        RuntimeException[] falha = new RuntimeException[1];
+        executarNoFundo(() -> {
+            bloqueio.lock();
+            try {
+                try {
+                    alteracao.run();
+                } catch (RuntimeException e) {
+                    falha[0] = e;
+                    return null;
+                }
+                long sequenciaBase = journal.rotacionar();
+                SegmentoDelta completo = SegmentoDelta.completo(repository, sequenciaBase);
+                CaixasEmLog caixas = repository.getCaixasEmLog();
+                if (caixas != null) {
+                    caixas.getLog().sincronizar();
+                }
+                gravarBase(completo);
+                for (Path delta : listarDeltas().values()) {
+                    Files.deleteIfExists(delta);
+                }
+                repository.getAlteracoes().drenar();
+                synchronized (this) {
+                    sequencia = sequenciaBase;
+                }
+                journal.removerSegmentosAte(sequenciaBase);
+            } finally {
+                bloqueio.unlock();
+            }
+            return null;
+        });
+        if (falha[0] != null) {
+            throw falha[0];
+        }
+    }
+
+    /**
+     * Encerra os checkpoints periódicos, grava um checkpoint final e mescla
+     * na base os segmentos delta que restarem, depois de qualquer mesclagem
+     * em andamento: um sistema encerrado deixa apenas a base no disco. A
+     * falha guardada de um checkpoint periódico também é informada aqui; a
+     * de uma mesclagem em segundo plano é superada pela mesclagem final.
+     * Depois de {@link #close()}, não faz nada.
+     *
+     * @throws IOException Se o checkpoint final ou a mesclagem final não puderem ser gravados
+     */
+    public void encerrar() throws IOException {
+        if (executor.isShutdown()) {
+            return;
+        }
+        if (agendamento != null) {
+            agendamento.cancel(false);
+        }
+        try {
+            executarNoFundo(() -> {
+                checkpoint();
+                return null;
+            });
+        } catch (IOException e) {
+            IOException anterior;
+            synchronized (this) {
+                anterior = falhaCheckpoint;
+            }
+            if (anterior != null && anterior != e) {
+                e.addSuppressed(anterior);
+            }
+            throw e;
+        }
+        try {
+            executarNoFundo(() -> {
+                if (!listarDeltas().isEmpty()) {
+                    mesclar();
+                }
+                return null;
+            });
+        } catch (IOException e) {
+            throw new IOException("A mesclagem dos segmentos delta falhou: " + e.getMessage(), e);
+        }
+
+        synchronized (this) {
+            falhaCheckpoint = null;
+            falhaMesclagem = null;
+        }
+    }
+
+    /**
+     * Interrompe a thread de fundo sem gravar um checkpoint.
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        paralelo.shutdownNow();
+    }
+
+    /**
+     * Tarefa periódica: a falha é guardada até o próximo checkpoint gravado,
+     * pois as alterações continuam no journal e são tentadas novamente; se
+     * persistir, {@link #encerrar()} a informa junto com a falha do checkpoint final.
+     */
+    private void checkpointPeriodico() {
+        IOException falha = null;
+        try {
+            checkpoint();
+        } catch (IOException e) {
+            falha = e;
+        } catch (RuntimeException e) {
+            falha = new IOException(e);
+        }
+        synchronized (this) {
+            falhaCheckpoint = falha;
+        }
+    }
+
+    /**
+     * Grava um segmento delta com as entidades alteradas desde o checkpoint anterior.
+     * A captura é feita com as mutações bloqueadas e custa apenas o tamanho das
+     * alterações; a escrita em disco acontece com as mutações liberadas.
+     * Com o log de mensagens, o log é sincronizado antes de o segmento ser
+     * publicado, e os segmentos do log que só têm mensagens já lidas são apagados depois.
+     *
+     * @throws IOException Se o segmento não puder ser gravado
+     */
+    private void checkpoint() throws IOException {
+        RastreadorAlteracoes alteracoes;
+        long sequenciaDelta;
+        byte[] conteudo;
+        LogMensagens log = null;
+        long consumidas = 0;
+
+        bloqueio.lock();
+        try {
+            alteracoes = repository.getAlteracoes().drenar();
+            if (alteracoes.isVazio()) {
+                return;
+            }
+            try {
+                sequenciaDelta = journal.rotacionar();
+                conteudo = FormatoBinario.codificar(SegmentoDelta.capturar(repository, alteracoes, sequenciaDelta));
+                CaixasEmLog caixas = repository.getCaixasEmLog();
+                if (caixas != null) {
+                    log = caixas.getLog();
+                    consumidas = caixas.getPrimeiraPendente();
+                }
+            } catch (IOException | RuntimeException e) {
+                repository.getAlteracoes().incorporar(alteracoes);
+                throw e;
+            }
+        } finally {
+            bloqueio.unlock();
+        }
+
+        try {
+            if (comprimir) {
+                conteudo = comprimir(conteudo);
+            }
+            if (log != null) {
+                log.sincronizar();
+            }
+            gravarAtomicamente(arquivoDelta(sequenciaDelta), conteudo);
+        } catch (IOException e) {
+            repository.getAlteracoes().incorporar(alteracoes);
+            throw e;
+        }
+
+        synchronized (this) {
+            sequencia = sequenciaDelta;
+        }
+        journal.removerSegmentosAte(sequenciaDelta);
+        if (log != null) {
+            log.descartarAte(consumidas);
+        }
+
+        if (listarDeltas().size() >= maxDeltas) {
+            executor.execute(this::mesclarNoFundo);
+        }
+    }
+
+    /**
+     * Tarefa de fundo de mesclagem: em caso de falha, os segmentos continuam
+     * válidos e a mesclagem é tentada novamente no próximo checkpoint; a
+     * falha é guardada até uma mesclagem ser concluída.
+     */
+    private void mesclarNoFundo() {
+        IOException falha = null;
+        try {
+            mesclar();
+        } catch (IOException e) {
+            falha = e;
+        } catch (RuntimeException e) {
+            falha = new IOException(e);
+        }
+        synchronized (this) {
+            falhaMesclagem = falha;
+        }
+    }
+
+    /**
+     * Mescla os segmentos delta em uma nova base, lida e gravada a partir do disco,
+     * sem tocar no repositório vivo. Os segmentos mesclados são apagados depois
+     * que a nova base é publicada.
+     *
+     * @throws IOException Se algum arquivo não puder ser lido ou gravado
+     */
+    private void mesclar() throws IOException {
+        Base base = lerBase();
+        long sequenciaBase;
+        try {
+            sequenciaBase = aplicarDeltas(base.repository, base.sequencia);
+            gravarBase(SegmentoDelta.completo(base.repository, sequenciaBase));
+        } finally {
+            base.repository.getMotor().close();
+        }
+
+        for (Map.Entry<Long, Path> delta : listarDeltas().headMap(sequenciaBase, true).entrySet()) {
+            Files.deleteIfExists(delta.getValue());
+        }
+    }
+
+    /**
+     * Publica uma nova base, fragmentada se configurado, e apaga os
+     * fragmentos da base anterior que não fazem parte dela.
+     *
+     * @param completo Estado inteiro do repositório
+     * @throws IOException Se a base não puder ser gravada
+     */
+    private void gravarBase(SegmentoDelta completo) throws IOException {
+        List<String> publicados = Collections.emptyList();
+        if (fragmentos > 1) {
+            publicados = BaseFragmentada.gravar(arquivoBase, completo, fragmentos, comprimir, paralelo);
+        } else {
+            Path temporario = arquivoBase.resolveSibling(arquivoBase.getFileName() + SUFIXO_TEMPORARIO);
+            FormatoBinario.gravar(temporario, completo, comprimir);
+            publicar(temporario, arquivoBase);
+        }
+        BaseFragmentada.removerObsoletos(arquivoBase, publicados);
+    }
+
+    /**
+     * Lê o snapshot base.
+     *
+     * @return Conteúdo do snapshot base, ou um repositório vazio se ele não existir
+     * @throws IOException Se o arquivo não puder ser lido
+     */
+    private Base lerBase() throws IOException {
+        DataRepository destino;
+        try {
+            destino = new DataRepository(fabricaMotor.get());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        if (!Files.exists(arquivoBase)) {
+            return new Base(destino, 0);
+        }
+
+        try {
+            SegmentoDelta base = lerSegmento(arquivoBase);
+            if (!base.getFragmentos().isEmpty()) {
+                base = BaseFragmentada.completar(arquivoBase, base, true, paralelo);
+            }
+            base.aplicar(destino);
+            return new Base(destino, base.getSequencia());
+        } catch (IOException | RuntimeException e) {
+            destino.getMotor().close();
+            throw e;
+        }
+    }
+
+    /**
+     * Lê o snapshot base deixando os usuários no arquivo, atrás do seu índice.
+     *
+     * @return Conteúdo do snapshot base, lido por inteiro se ele não tiver índice
+     * @throws IOException Se o arquivo não puder ser lido
+     */
+    private Base lerBaseSobDemanda() throws IOException {
+        if (!Files.exists(arquivoBase) || !FormatoBinario.isFormatoBinario(arquivoBase)) {
+            return lerBase();
+        }
+        IndiceUsuarios indice = IndiceUsuarios.abrir(arquivoBase);
+        if (indice == null) {
+            return lerBase();
+        }
+
+        DataRepository destino = null;
+        OrigemUsuarios origem = indice;
+        try (FileChannel canal = FileChannel.open(arquivoBase, StandardOpenOption.READ)) {
+            destino = new DataRepository(fabricaMotor.get());
+            SegmentoDelta base = FormatoBinario.ler(CanalEntrada.abrir(canal), false);
+            if (!base.getFragmentos().isEmpty()) {
+                // O índice do manifesto é vazio: os usuários estão nos fragmentos
+                indice.close();
+                origem = null;
+                base = BaseFragmentada.completar(arquivoBase, base, false, paralelo);
+                origem = BaseFragmentada.abrirIndices(arquivoBase, base);
+            }
+            base.aplicar(destino);
+            destino.usarUsuariosSobDemanda(origem);
+            return new Base(destino, base.getSequencia());
+        } catch (IOException | RuntimeException e) {
+            if (origem != null) {
+                origem.close();
+            }
+            if (destino != null) {
+                destino.getMotor().close();
+            }
+            if (e instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e).getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Aplica ao repositório os segmentos delta posteriores à sequência informada.
+     *
+     * @param destino Repositório a ser atualizado
+     * @param aPartirDe Sequência já contida no repositório
+     * @return Última sequência aplicada
+     * @throws IOException Se algum segmento não puder ser lido
+     */
+    private long aplicarDeltas(DataRepository destino, long aPartirDe) throws IOException {
+        long ultima = aPartirDe;
+        for (Path arquivo : listarDeltas().tailMap(aPartirDe, false).values()) {
+            SegmentoDelta delta = lerSegmento(arquivo);
+            delta.aplicar(destino);
+            ultima = delta.getSequencia();
+        }
+        return ultima;
+    }
+
+    /**
+     * Lê um snapshot base ou segmento delta, no formato binário ou no antigo.
+     *
+     * @param arquivo Arquivo a ser lido
+     * @return Segmento lido
+     * @throws IOException Se o arquivo não puder ser lido
+     */
+    private static SegmentoDelta lerSegmento(Path arquivo) throws IOException {
+        if (FormatoBinario.isFormatoBinario(arquivo)) {
+            return FormatoBinario.ler(arquivo);
+        }
+        return ConversorFormatoAntigo.ler(arquivo);
+    }
+
+    /**
+     * Lista os segmentos delta publicados, ordenados pela sequência.
+     *
+     * @return Mapa da sequência de cada segmento para o seu caminho
+     * @throws IOException Se o diretório não puder ser lido
+     */
+    private TreeMap<Long, Path> listarDeltas() throws IOException {
+        TreeMap<Long, Path> deltas = new TreeMap<>();
+        String prefixo = arquivoBase.getFileName() + SUFIXO_DELTA;
+
+        try (DirectoryStream<Path> arquivos = Files.newDirectoryStream(arquivoBase.getParent(), prefixo + "*")) {
+            for (Path arquivo : arquivos) {
+                try {
+                    deltas.put(Long.parseLong(arquivo.getFileName().toString().substring(prefixo.length())),
+                            arquivo);
+                } catch (NumberFormatException e) {
+                    // Arquivo temporário ou que não é um segmento
+                }
+            }
+        }
+        return deltas;
+    }
+
+    /**
+     * @param sequencia Sequência do segmento
+     * @return Caminho do segmento delta
+     */
+    private Path arquivoDelta(long sequencia) {
+        return arquivoBase.resolveSibling(arquivoBase.getFileName() + SUFIXO_DELTA + sequencia);
+    }
+
+    /**
+     * Executa uma tarefa na thread de fundo e aguarda o seu término.
+     *
+     * @param tarefa Tarefa a ser executada
+     * @throws IOException Se a tarefa falhar com um erro de E/S
+     */
+    private void executarNoFundo(Callable<Void> tarefa) throws IOException {
+        try {
+            executor.submit(tarefa).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Grava um arquivo em um temporário sincronizado com o disco e o publica
+     * com um rename atômico.
+     *
+     * @param destino Caminho final do arquivo
+     * @param conteudo Conteúdo do arquivo
+     * @throws IOException Se o arquivo não puder ser gravado
+     */
+    static void gravarAtomicamente(Path destino, byte[] conteudo) throws IOException {
+        Path temporario = destino.resolveSibling(destino.getFileName() + SUFIXO_TEMPORARIO);
+        try (FileChannel canal = FileChannel.open(temporario, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(conteudo);
+            while (buffer.hasRemaining()) {
+                canal.write(buffer);
+            }
+            canal.force(true);
+        }
+        publicar(temporario, destino);
+    }
+
+    /**
+     * Comprime em blocos um segmento já codificado em memória.
+     *
+     * @param conteudo Segmento codificado
+     * @return Arquivo comprimido
+     * @throws IOException Se ocorrer um erro de compressão
+     */
+    private static byte[] comprimir(byte[] conteudo) throws IOException {
+        CanalSaida out = new CanalSaida();
+        BlocosComprimidos.comprimir(new ByteArrayInputStream(conteudo), out);
+        return out.getBytes();
+    }
+
+    /**
+     * Conteúdo de um snapshot base: o repositório e a última sequência do journal nele contida.
+     */
+    private static class Base {
+        private final DataRepository repository;
+        private final long sequencia;
+
+        private Base(DataRepository repository, long sequencia) {
+            this.repository = repository;
+            this.sequencia = sequencia;
+        }
+    }
+
+    /**
+     * Publica um arquivo temporário já sincronizado com um rename atômico.
+     *
+     * @param temporario Arquivo temporário
+     * @param destino Caminho final do arquivo
+     * @throws IOException Se o rename falhar
+     */
+    static void publicar(Path temporario, Path destino) throws IOException {
+        try {
+            Files.move(temporario, destino, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporario, destino, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
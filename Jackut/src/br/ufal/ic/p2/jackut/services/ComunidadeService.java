@@ -7,27 +7,29 @@ import br.ufal.ic.p2.jackut.exceptions.UserNotFoundException;
 
 import java.io.Serial;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
 
 /**
- * Servio responsvel por gerenciar as operaes relacionadas s comunidades.
+ * Serviço responsável por gerenciar as operações relacionadas às comunidades.
  * Permite criar, consultar e gerenciar membros de comunidades.
  */
 public class ComunidadeService implements Serializable {
     @Serial
     private static final long serialVersionUID = 1L;
 
-    /** Repositrio central de dados */
+    /** Repositório central de dados */
     private final DataRepository repository;
 
-    /** Servio de usurios */
+    /** Serviço de usuários */
     private final UsuarioService usuarioService;
 
     /**
-     * Construtor que inicializa o servio com as dependncias necessrias.
+     * Construtor que inicializa o serviço com as dependências necessárias.
      *
-     * @param repository Repositrio central de dados
-     * @param usuarioService Servio de usurios
+     * @param repository Repositório central de dados
+     * @param usuarioService Serviço de usuários
      */
     public ComunidadeService(DataRepository repository, UsuarioService usuarioService) {
         this.repository = repository;
@@ -37,14 +39,14 @@ public class ComunidadeService implements Serializable {
     /**
      * Cria uma nova comunidade.
      *
-     * @param login Login do usurio que est criando a comunidade
-     * @param nome Nome nico da comunidade
-     * @param descricao Descrio da comunidade
-     * @throws CommunityException Se j existir uma comunidade com o mesmo nome
+     * @param login Login do usuário que está criando a comunidade
+     * @param nome Nome único da comunidade
+     * @param descricao Descrição da comunidade
+     * @throws CommunityException Se já existir uma comunidade com o mesmo nome
      */
     public void criarComunidade(String login, String nome, String descricao) {
         if (repository.existeComunidade(nome)) {
-            throw new CommunityException("Comunidade com esse nome j existe.");
+            throw new CommunityException("Comunidade com esse nome já existe.");
         }
 
         Usuario usuario = usuarioService.getUsuario(login);
@@ -60,39 +62,39 @@ public class ComunidadeService implements Serializable {
     }
 
     /**
-     * Obtm uma comunidade pelo nome.
+     * Obtém uma comunidade pelo nome.
      *
      * @param nome Nome da comunidade
      * @return A comunidade encontrada
-     * @throws CommunityException Se a comunidade no existir
+     * @throws CommunityException Se a comunidade não existir
      */
     public Comunidade getComunidade(String nome) {
         Comunidade comunidade = repository.getComunidade(nome);
 
         if (comunidade == null) {
-            throw new CommunityException("Comunidade no existe.");
+            throw new CommunityException("Comunidade não existe.");
         }
 
         return comunidade;
     }
 
     /**
-     * Obtm a descrio de uma comunidade.
+     * Obtém a descrição de uma comunidade.
      *
      * @param nome Nome da comunidade
-     * @return Descrio da comunidade
-     * @throws CommunityException Se a comunidade no existir
+     * @return Descrição da comunidade
+     * @throws CommunityException Se a comunidade não existir
      */
     public String getDescricaoComunidade(String nome) {
         return getComunidade(nome).getDescricao();
     }
 
     /**
-     * Obtm o login do dono de uma comunidade.
+     * Obtém o login do dono de uma comunidade.
      *
      * @param nome Nome da comunidade
      * @return Login do dono da comunidade
-     * @throws CommunityException Se a comunidade no existir
+     * @throws CommunityException Se a comunidade não existir
      */
     public String getDonoComunidade(String nome) {
         Comunidade comunidade = getComunidade(nome);
@@ -100,11 +102,11 @@ public class ComunidadeService implements Serializable {
     }
 
     /**
-     * Obtm a lista de membros de uma comunidade formatada como string.
+     * Obtém a lista de membros de uma comunidade formatada como string.
      *
      * @param nome Nome da comunidade
      * @return String formatada com a lista de membros: "{membro1,membro2,...}"
-     * @throws CommunityException Se a comunidade no existir
+     * @throws CommunityException Se a comunidade não existir
      */
     public String getMembrosComunidade(String nome) {
         Comunidade comunidade = getComunidade(nome);
@@ -112,15 +114,26 @@ public class ComunidadeService implements Serializable {
     }
 
     /**
-     * Obtm a lista de comunidades de um usurio formatada como string.
+     * Obtém uma cópia da lista de membros de uma comunidade.
      *
-     * @param login Login do usurio
+     * @param nome Nome da comunidade
+     * @return Logins dos membros, na ordem de entrada
+     * @throws CommunityException Se a comunidade não existir
+     */
+    public List<String> listarMembrosComunidade(String nome) {
+        return new ArrayList<>(getComunidade(nome).getMembros());
+    }
+
+    /**
+     * Obtém a lista de comunidades de um usuário formatada como string.
+     *
+     * @param login Login do usuário
      * @return String formatada com a lista de comunidades: "{comunidade1,comunidade2,...}"
-     * @throws UserNotFoundException Se o usurio no existir
+     * @throws UserNotFoundException Se o usuário não existir
      */
     public String getComunidadesDoUsuario(String login) {
         if (login == null || login.isEmpty() || !usuarioService.existeUsuario(login)) {
-            throw new UserNotFoundException("Usurio no cadastrado.");
+            throw new UserNotFoundException("Usuário não cadastrado.");
         }
 
         Usuario usuario = usuarioService.getUsuario(login);
@@ -128,19 +141,19 @@ public class ComunidadeService implements Serializable {
     }
 
     /**
-     * Adiciona um usurio a uma comunidade.
+     * Adiciona um usuário a uma comunidade.
      *
-     * @param login Login do usurio a ser adicionado
+     * @param login Login do usuário a ser adicionado
      * @param nomeComunidade Nome da comunidade
-     * @throws CommunityException Se a comunidade no existir ou se o usurio j for membro
-     * @throws UserNotFoundException Se o usurio no existir
+     * @throws CommunityException Se a comunidade não existir ou se o usuário já for membro
+     * @throws UserNotFoundException Se o usuário não existir
      */
     public void adicionarUsuarioAComunidade(String login, String nomeComunidade) {
         Comunidade comunidade = getComunidade(nomeComunidade);
         Usuario usuario = usuarioService.getUsuario(login);
 
         if (isMembro(comunidade, login)) {
-            throw new CommunityException("Usuario j faz parte dessa comunidade.");
+            throw new CommunityException("Usuario já faz parte dessa comunidade.");
         }
 
         adicionarMembroComunidade(comunidade, login);
@@ -148,13 +161,13 @@ public class ComunidadeService implements Serializable {
     }
 
     /**
-     * Remove um usurio de todas as comunidades que ele  dono.
-     * Tambm remove essas comunidades de todos os membros.
+     * Remove um usuário de todas as comunidades que ele é dono.
+     * Também remove essas comunidades de todos os membros.
      *
-     * @param login Login do usurio
+     * @param login Login do usuário
      */
     public void removerUsuarioDeComunidades(String login) {
-        // Remove comunidades onde o usurio  dono
+        // Remove comunidades onde o usuário é dono
         Set<String> comunidadesDoDono = repository.getComunidadesDonoUsuario(login);
 
         for (String nomeComunidade : comunidadesDoDono) {
@@ -169,11 +182,24 @@ public class ComunidadeService implements Serializable {
                     }
                 }
 
+                // As mensagens ainda não lidas do mural continuam com os membros
+                repository.entregarMuralNasCaixas(comunidade);
                 repository.removerComunidade(nomeComunidade);
             }
         }
 
         repository.getDonoParaComunidades().remove(login);
+        repository.marcarUsuarioAlterado(login);
+    }
+
+    /**
+     * Acrescenta uma comunidade importada, substituindo uma comunidade
+     * existente com o mesmo nome.
+     *
+     * @param comunidade Comunidade importada
+     */
+    public void importarComunidade(Comunidade comunidade) {
+        repository.importarComunidade(comunidade);
     }
 
     /**
@@ -182,50 +208,56 @@ public class ComunidadeService implements Serializable {
     public void zerarComunidades() {
         repository.getComunidades().clear();
         repository.getDonoParaComunidades().clear();
+        repository.marcarTudoAlterado();
     }
 
     /**
-     * Verifica se um usurio  membro de uma comunidade.
+     * Verifica se um usuário é membro de uma comunidade.
      *
      * @param comunidade A comunidade a verificar
-     * @param login Login do usurio
-     * @return true se o usurio for membro, false caso contrrio
+     * @param login Login do usuário
+     * @return true se o usuário for membro, false caso contrário
      */
     private boolean isMembro(Comunidade comunidade, String login) {
         return comunidade.getMembros().contains(login);
     }
 
     /**
-     * Adiciona um usurio como membro de uma comunidade.
+     * Adiciona um usuário como membro de uma comunidade.
      *
      * @param comunidade A comunidade
-     * @param login Login do usurio
+     * @param login Login do usuário
      */
     private void adicionarMembroComunidade(Comunidade comunidade, String login) {
         if (!comunidade.getMembros().contains(login)) {
             comunidade.getMembros().add(login);
+            comunidade.getMural().adicionarLeitor(login);
+            repository.marcarComunidadeAlterada(comunidade.getNome());
         }
     }
 
     /**
-     * Adiciona uma comunidade  lista de comunidades de um usurio.
+     * Adiciona uma comunidade à lista de comunidades de um usuário.
      *
-     * @param usuario O usurio
+     * @param usuario O usuário
      * @param nomeComunidade Nome da comunidade
      */
     private void adicionarComunidadeAoUsuario(Usuario usuario, String nomeComunidade) {
         if (!usuario.getComunidadesCadastradas().contains(nomeComunidade)) {
             usuario.getComunidadesCadastradas().add(nomeComunidade);
+            repository.marcarUsuarioAlterado(usuario.getLogin());
         }
     }
 
     /**
-     * Remove uma comunidade da lista de comunidades de um usurio.
+     * Remove uma comunidade da lista de comunidades de um usuário.
      *
-     * @param usuario O usurio
+     * @param usuario O usuário
      * @param nome Nome da comunidade
      */
     private void removerComunidadeCadastrada(Usuario usuario, String nome) {
-        usuario.getComunidadesCadastradas().removeIf(com -> com.equals(nome));
+        if (usuario.getComunidadesCadastradas().removeIf(com -> com.equals(nome))) {
+            repository.marcarUsuarioAlterado(usuario.getLogin());
+        }
     }
 }
\ No newline at end of file
@@ -1,148 +1,258 @@
 package br.ufal.ic.p2.jackut.services;
 
 import br.ufal.ic.p2.jackut.entities.*;
+import br.ufal.ic.p2.jackut.storage.CaixasEmLog;
+import br.ufal.ic.p2.jackut.storage.LogMensagens;
+import br.ufal.ic.p2.jackut.storage.MapaSobDemanda;
+import br.ufal.ic.p2.jackut.storage.MotorArmazenamento;
+import br.ufal.ic.p2.jackut.storage.MotorMemoria;
+import br.ufal.ic.p2.jackut.storage.OrigemUsuarios;
 
-import java.io.Serial;
-import java.io.Serializable;
+import java.io.*;
 import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 /**
- * Repositrio central de dados do sistema.
- * Armazena todas as entidades e gerencia o acesso a elas.
+ * Repositório central de dados do sistema.
+ * Gerencia o acesso às entidades, que ficam guardadas em um {@link MotorArmazenamento}.
+ * As caixas de mensagens ficam no motor ou, quando o log de mensagens está
+ * ativado, em {@link CaixasEmLog}. As mensagens de comunidade ficam no
+ * {@link MuralComunidade} de cada comunidade.
  */
 public class DataRepository implements Serializable {
     @Serial
     private static final long serialVersionUID = 1L;
 
-    /** Mapa de usurios indexados por login */
-    private Map<String, Usuario> usuarios;
+    /** Campos gravados pela serialização Java, mantidos por compatibilidade com snapshots antigos */
+    @Serial
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("usuarios", Map.class),
+            new ObjectStreamField("sessoes", Map.class),
+            new ObjectStreamField("comunidades", Map.class),
+            new ObjectStreamField("mensagens", Map.class),
+            new ObjectStreamField("donoParaComunidades", Map.class),
+            new ObjectStreamField("nextSessionId", int.class)
+    };
+
+    /** Motor onde as entidades ficam guardadas */
+    private transient MotorArmazenamento motor;
+
+    /**
+     * Mapa de usuários indexados por login. Os mapas podem ser concorrentes, que
+     * não aceitam chaves nulas, por isso as consultas tratam null antes deles.
+     */
+    private transient Map<String, Usuario> usuarios;
 
-    /** Mapa de sesses indexadas por ID de sesso */
-    private Map<String, String> sessoes;
+    /** Mapa de sessões indexadas por ID de sessão */
+    private transient Map<String, String> sessoes;
 
     /** Mapa de comunidades indexadas por nome */
-    private Map<String, Comunidade> comunidades;
+    private transient Map<String, Comunidade> comunidades;
+
+    /** Mapa de mensagens indexadas por login do destinatário */
+    private transient Map<String, List<Comunicacao>> mensagens;
+
+    /** Mapa que relaciona donos (login) às suas comunidades */
+    private transient Map<String, Set<String>> donoParaComunidades;
+
+    /** Caixas de mensagens guardadas no log, ou null se elas ficam no motor */
+    private transient CaixasEmLog caixasEmLog;
+
+    /** Gerador dos IDs de sessão, persistido como o campo nextSessionId */
+    private transient GeradorSessoes geradorSessoes;
 
-    /** Mapa de mensagens indexadas por login do destinatrio */
-    private Map<String, List<Comunicacao>> mensagens;
+    /** Ordem de chegada da última mensagem publicada nos murais, ou -1 se ainda não foi calculada */
+    private transient long ultimaOrdemMural = -1;
 
-    /** Mapa que relaciona donos (login) s suas comunidades */
-    private Map<String, Set<String>> donoParaComunidades;
+    /** Caixas com mensagens de cada remetente, ou null se o índice ainda não foi construído */
+    private transient volatile IndiceRemetentes caixasPorRemetente;
 
-    /** Contador para gerar IDs de sesso nicos */
-    private int nextSessionId;
+    /** Murais com mensagens de cada remetente, ou null se o índice ainda não foi construído */
+    private transient volatile IndiceRemetentes muraisPorRemetente;
+
+    /** Entidades alteradas desde o último checkpoint (não é persistido) */
+    private transient volatile RastreadorAlteracoes alteracoes;
 
     /**
-     * Construtor que inicializa todas as estruturas de dados.
+     * Construtor que inicializa um repositório vazio em memória.
      */
     public DataRepository() {
-        this.usuarios = new HashMap<>();
-        this.sessoes = new HashMap<>();
-        this.comunidades = new HashMap<>();
-        this.mensagens = new HashMap<>();
-        this.donoParaComunidades = new HashMap<>();
-        this.nextSessionId = 1;
+        this(new MotorMemoria());
+    }
+
+    /**
+     * Construtor que inicializa um repositório vazio sobre um motor de armazenamento.
+     *
+     * @param motor Motor onde as entidades ficam guardadas
+     */
+    public DataRepository(MotorArmazenamento motor) {
+        usarMotor(motor);
+        this.geradorSessoes = new GeradorSessoes(1);
+    }
+
+    /**
+     * Associa o repositório a um motor de armazenamento.
+     *
+     * @param motor Motor onde as entidades ficam guardadas
+     */
+    private void usarMotor(MotorArmazenamento motor) {
+        this.motor = motor;
+        this.usuarios = motor.getUsuarios();
+        this.sessoes = motor.getSessoes();
+        this.comunidades = motor.getComunidades();
+        this.mensagens = motor.getMensagens();
+        this.donoParaComunidades = motor.getDonoParaComunidades();
+    }
+
+    /**
+     * Passa a carregar sob demanda os usuários de uma origem, na primeira vez
+     * que cada um for acessado. Os usuários já presentes no motor continuam valendo.
+     *
+     * @param origem Origem dos usuários ainda não carregados
+     */
+    public void usarUsuariosSobDemanda(OrigemUsuarios origem) {
+        this.usuarios = new MapaSobDemanda(motor.getUsuarios(), origem);
+    }
+
+    /**
+     * @return Motor onde as entidades ficam guardadas
+     */
+    public MotorArmazenamento getMotor() {
+        return motor;
     }
 
-    // Mtodos para usurios
+    // Métodos para usuários
 
     /**
-     * @return Mapa de todos os usurios
+     * @return Mapa de todos os usuários
      */
     public Map<String, Usuario> getUsuarios() {
         return usuarios;
     }
 
     /**
-     * Adiciona um novo usurio ao repositrio.
+     * Adiciona um novo usuário ao repositório.
      *
      * @param usuario Objeto Usuario a ser adicionado
      */
     public void adicionarUsuario(Usuario usuario) {
         usuarios.put(usuario.getLogin(), usuario);
         donoParaComunidades.putIfAbsent(usuario.getLogin(), new HashSet<>());
+        getAlteracoes().marcarUsuario(usuario.getLogin());
     }
 
     /**
-     * Obtm um usurio pelo login.
+     * Obtém um usuário pelo login.
      *
-     * @param login Login do usurio
-     * @return Objeto Usuario correspondente ou null se no existir
+     * @param login Login do usuário
+     * @return Objeto Usuario correspondente ou null se não existir
      */
     public Usuario getUsuario(String login) {
-        return usuarios.get(login);
+        return login == null ? null : usuarios.get(login);
     }
 
     /**
-     * Verifica se existe um usurio com o login especificado.
+     * Verifica se existe um usuário com o login especificado.
      *
-     * @param login Login do usurio
-     * @return true se o usurio existir, false caso contrrio
+     * @param login Login do usuário
+     * @return true se o usuário existir, false caso contrário
      */
     public boolean existeUsuario(String login) {
-        return usuarios.containsKey(login);
+        return login != null && usuarios.containsKey(login);
     }
 
     /**
-     * Remove um usurio do repositrio.
+     * Remove um usuário do repositório e os seus cursores nos murais das
+     * comunidades de que ele participa.
      *
-     * @param login Login do usurio a ser removido
+     * @param login Login do usuário a ser removido
      */
     public void removerUsuario(String login) {
+        Usuario usuario = usuarios.get(login);
+        if (usuario != null) {
+            for (String nome : usuario.getComunidadesCadastradas()) {
+                Comunidade comunidade = getComunidade(nome);
+                if (comunidade != null && comunidade.getMural().removerLeitor(login)) {
+                    marcarMuralAlterado(nome);
+                }
+            }
+        }
         usuarios.remove(login);
+        getAlteracoes().marcarUsuario(login);
     }
 
-    // Mtodos para sesses
+    // Métodos para sessões
 
     /**
-     * @return Mapa de todas as sesses
+     * @return Mapa de todas as sessões
      */
     public Map<String, String> getSessoes() {
         return sessoes;
     }
 
     /**
-     * Cria uma nova sesso para um usurio.
+     * Cria uma nova sessão para um usuário. Não é sincronizado: o ID vem do
+     * {@link GeradorSessoes} e a tabela de sessões aceita acessos simultâneos.
      *
-     * @param login Login do usurio
-     * @return ID da sesso criada
+     * @param login Login do usuário
+     * @return ID da sessão criada
      */
     public String criarSessao(String login) {
-        String sessionId = String.valueOf(nextSessionId++);
+        String sessionId = String.valueOf(geradorSessoes.gerar());
         sessoes.put(sessionId, login);
+        getAlteracoes().marcarSessoes();
         return sessionId;
     }
 
     /**
-     * Obtm o login associado a uma sesso.
+     * Restaura uma sessão com um ID já conhecido, garantindo que o contador
+     * nunca gere novamente esse mesmo ID.
+     *
+     * @param sessionId ID da sessão
+     * @param login Login do usuário
+     */
+    public void restaurarSessao(String sessionId, String login) {
+        sessoes.put(sessionId, login);
+        getAlteracoes().marcarSessoes();
+        try {
+            geradorSessoes.registrarUsado(Integer.parseInt(sessionId));
+        } catch (NumberFormatException e) {
+            // IDs não numéricos não interferem no contador
+        }
+    }
+
+    /**
+     * Obtém o login associado a uma sessão.
      *
-     * @param sessionId ID da sesso
-     * @return Login do usurio ou null se a sesso no existir
+     * @param sessionId ID da sessão
+     * @return Login do usuário ou null se a sessão não existir
      */
     public String getLoginDaSessao(String sessionId) {
-        return sessoes.get(sessionId);
+        return sessionId == null ? null : sessoes.get(sessionId);
     }
 
     /**
-     * Verifica se existe uma sesso com o ID especificado.
+     * Verifica se existe uma sessão com o ID especificado.
      *
-     * @param sessionId ID da sesso
-     * @return true se a sesso existir, false caso contrrio
+     * @param sessionId ID da sessão
+     * @return true se a sessão existir, false caso contrário
      */
     public boolean existeSessao(String sessionId) {
-        return sessoes.containsKey(sessionId);
+        return sessionId != null && sessoes.containsKey(sessionId);
     }
 
     /**
-     * Remove uma sesso do repositrio.
+     * Remove uma sessão do repositório.
      *
-     * @param sessionId ID da sesso a ser removida
+     * @param sessionId ID da sessão a ser removida
      */
     public void removerSessao(String sessionId) {
         sessoes.remove(sessionId);
+        getAlteracoes().marcarSessoes();
     }
 
-    // Mtodos para comunidades
+    // Métodos para comunidades
 
     /**
      * @return Mapa de todas as comunidades
@@ -152,84 +262,540 @@ public class DataRepository implements Serializable {
     }
 
     /**
-     * Adiciona uma nova comunidade ao repositrio.
+     * Adiciona uma nova comunidade ao repositório.
      *
      * @param comunidade Objeto Comunidade a ser adicionado
      */
     public void adicionarComunidade(Comunidade comunidade) {
         comunidades.put(comunidade.getNome(), comunidade);
+        getAlteracoes().marcarComunidade(comunidade.getNome());
     }
 
     /**
-     * Obtm uma comunidade pelo nome.
+     * Obtém uma comunidade pelo nome.
      *
      * @param nome Nome da comunidade
-     * @return Objeto Comunidade correspondente ou null se no existir
+     * @return Objeto Comunidade correspondente ou null se não existir
      */
     public Comunidade getComunidade(String nome) {
-        return comunidades.get(nome);
+        return nome == null ? null : comunidades.get(nome);
     }
 
     /**
      * Verifica se existe uma comunidade com o nome especificado.
      *
      * @param nome Nome da comunidade
-     * @return true se a comunidade existir, false caso contrrio
+     * @return true se a comunidade existir, false caso contrário
      */
     public boolean existeComunidade(String nome) {
-        return comunidades.containsKey(nome);
+        return nome != null && comunidades.containsKey(nome);
     }
 
     /**
-     * Remove uma comunidade do repositrio.
+     * Remove uma comunidade do repositório.
      *
      * @param nome Nome da comunidade a ser removida
      */
     public void removerComunidade(String nome) {
         comunidades.remove(nome);
+        getAlteracoes().marcarComunidade(nome);
     }
 
-    // Mtodos para mensagens
+    // Métodos para mensagens
 
     /**
-     * @return Mapa de todas as mensagens
+     * @return Mapa de todas as mensagens guardadas no motor (vazio com o log de mensagens ativado)
      */
     public Map<String, List<Comunicacao>> getMensagens() {
         return mensagens;
     }
 
     /**
-     * Obtm a lista de mensagens de um usurio.
+     * @return Caixas de mensagens guardadas no log, ou null se elas ficam no motor
+     */
+    public CaixasEmLog getCaixasEmLog() {
+        return caixasEmLog;
+    }
+
+    /**
+     * Define onde ficam as caixas de mensagens. Usado ao restaurar o estado persistido.
+     *
+     * @param caixasEmLog Caixas guardadas no log, ou null para guardá-las no motor
+     */
+    public void usarCaixasEmLog(CaixasEmLog caixasEmLog) {
+        this.caixasEmLog = caixasEmLog;
+    }
+
+    /**
+     * Passa a guardar as caixas de mensagens em um log segmentado. As caixas
+     * são reconstruídas a partir do log e dos cursores restaurados, e as
+     * mensagens ainda guardadas no motor são movidas para o log.
+     *
+     * @param log Log aberto na posição final restaurada
+     * @throws IOException Se o log não puder ser percorrido
+     */
+    public void usarLogMensagens(LogMensagens log) throws IOException {
+        if (caixasEmLog == null) {
+            caixasEmLog = new CaixasEmLog();
+        }
+        caixasEmLog.anexar(log);
+        if (!mensagens.isEmpty()) {
+            for (Map.Entry<String, List<Comunicacao>> caixa : mensagens.entrySet()) {
+                for (Comunicacao mensagem : caixa.getValue()) {
+                    caixasEmLog.adicionar(caixa.getKey(), mensagem);
+                }
+            }
+            mensagens.clear();
+            getAlteracoes().marcarTudo();
+        }
+    }
+
+    /**
+     * Volta a guardar as caixas de mensagens no motor, copiando as mensagens
+     * não lidas do log, e fecha o log.
+     */
+    public void encerrarLogMensagens() {
+        if (caixasEmLog == null) {
+            return;
+        }
+        for (Map.Entry<String, List<Comunicacao>> caixa : caixasEmLog.copiarPendentes().entrySet()) {
+            for (Comunicacao mensagem : caixa.getValue()) {
+                motor.adicionarMensagem(caixa.getKey(), mensagem);
+            }
+        }
+        if (caixasEmLog.getLog() != null) {
+            caixasEmLog.getLog().close();
+        }
+        caixasEmLog = null;
+        getAlteracoes().marcarTudo();
+    }
+
+    /**
+     * Obtém a lista de mensagens de um usuário.
      *
-     * @param login Login do usurio
-     * @return Lista de mensagens ou uma lista vazia se no houver mensagens
+     * @param login Login do usuário
+     * @return Lista de mensagens ou uma lista vazia se não houver mensagens
      */
     public List<Comunicacao> getMensagensDoUsuario(String login) {
         return mensagens.getOrDefault(login, new ArrayList<>());
     }
 
     /**
-     * Adiciona uma mensagem para um destinatrio.
+     * Adiciona uma mensagem para um destinatário.
      *
-     * @param destinatario Login do destinatrio
+     * @param destinatario Login do destinatário
      * @param mensagem Objeto Comunicacao a ser adicionado
      */
     public void adicionarMensagem(String destinatario, Comunicacao mensagem) {
-        mensagens.putIfAbsent(destinatario, new ArrayList<>());
-        mensagens.get(destinatario).add(mensagem);
+        if (caixasEmLog != null) {
+            caixasEmLog.adicionar(destinatario, mensagem);
+        } else {
+            motor.adicionarMensagem(destinatario, mensagem);
+        }
+        IndiceRemetentes indice = caixasPorRemetente;
+        if (indice != null) {
+            indice.adicionar(mensagem.getRemetente(), destinatario);
+        }
+        getAlteracoes().marcarMensagens(destinatario);
+    }
+
+    /**
+     * Adiciona a mesma mensagem às caixas de vários destinatários. Com o
+     * motor fragmentado, os destinatários de cada fragmento recebem a
+     * mensagem de uma só vez.
+     *
+     * @param destinatarios Logins dos destinatários
+     * @param mensagem Objeto Comunicacao a ser adicionado
+     */
+    public void entregarMensagem(Collection<String> destinatarios, Comunicacao mensagem) {
+        if (caixasEmLog != null) {
+            for (String destinatario : destinatarios) {
+                caixasEmLog.adicionar(destinatario, mensagem);
+            }
+        } else {
+            motor.entregarMensagem(destinatarios, mensagem);
+        }
+        IndiceRemetentes indice = caixasPorRemetente;
+        for (String destinatario : destinatarios) {
+            if (indice != null) {
+                indice.adicionar(mensagem.getRemetente(), destinatario);
+            }
+            getAlteracoes().marcarMensagens(destinatario);
+        }
+    }
+
+    /**
+     * Remove uma mensagem da caixa de um destinatário.
+     *
+     * @param destinatario Login do destinatário
+     * @param mensagem Objeto Comunicacao a ser removido
+     */
+    public void removerMensagem(String destinatario, Comunicacao mensagem) {
+        if (motor.removerMensagem(destinatario, mensagem)) {
+            IndiceRemetentes indice = caixasPorRemetente;
+            if (indice != null) {
+                indice.remover(mensagem.getRemetente(), destinatario);
+            }
+            getAlteracoes().marcarMensagens(destinatario);
+        }
+    }
+
+    /**
+     * Devolve, sem removê-la, a mensagem mais antiga de um tipo na caixa de um usuário.
+     *
+     * @param login Login do dono da caixa
+     * @param tipo Tipo da mensagem ("recado" ou "comunidade")
+     * @return Mensagem mais antiga do tipo, ou null se não houver mensagens do tipo
+     */
+    public Comunicacao consultarProximaMensagem(String login, String tipo) {
+        if (caixasEmLog != null) {
+            return caixasEmLog.consultarProxima(login, tipo);
+        }
+        return motor.consultarProximaMensagem(login, tipo);
+    }
+
+    /**
+     * Remove e devolve a mensagem mais antiga de um tipo na caixa de um usuário.
+     * Com o log de mensagens, apenas avança o cursor de leitura do usuário.
+     *
+     * @param login Login do dono da caixa
+     * @param tipo Tipo da mensagem ("recado" ou "comunidade")
+     * @return Mensagem removida, ou null se não houver mensagens do tipo
+     */
+    public Comunicacao removerProximaMensagem(String login, String tipo) {
+        Comunicacao proxima = null;
+        if (caixasEmLog != null) {
+            proxima = caixasEmLog.removerProxima(login, tipo);
+        } else {
+            proxima = motor.removerProximaMensagem(login, tipo);
+        }
+        if (proxima != null) {
+            IndiceRemetentes indice = caixasPorRemetente;
+            if (indice != null) {
+                indice.remover(proxima.getRemetente(), login);
+            }
+            getAlteracoes().marcarMensagens(login);
+        }
+        return proxima;
+    }
+
+    /**
+     * Remove e devolve as mensagens mais antigas de um tipo na caixa de um
+     * usuário, até uma quantidade. A caixa é registrada como alterada uma
+     * única vez para todas elas.
+     *
+     * @param login Login do dono da caixa
+     * @param tipo Tipo da mensagem ("recado" ou "comunidade")
+     * @param quantidade Quantidade máxima de mensagens
+     * @return Mensagens removidas, da mais antiga para a mais nova
+     */
+    public List<Comunicacao> removerProximasMensagens(String login, String tipo, int quantidade) {
+        List<Comunicacao> removidas;
+        if (caixasEmLog != null) {
+            removidas = new ArrayList<>();
+            Comunicacao proxima;
+            while (removidas.size() < quantidade && (proxima = caixasEmLog.removerProxima(login, tipo)) != null) {
+                removidas.add(proxima);
+            }
+        } else {
+            removidas = motor.removerProximasMensagens(login, tipo, quantidade);
+        }
+        if (!removidas.isEmpty()) {
+            IndiceRemetentes indice = caixasPorRemetente;
+            if (indice != null) {
+                for (Comunicacao mensagem : removidas) {
+                    indice.remover(mensagem.getRemetente(), login);
+                }
+            }
+            getAlteracoes().marcarMensagens(login);
+        }
+        return removidas;
+    }
+
+    /**
+     * Acrescenta uma mensagem ao mural de uma comunidade. O custo não depende
+     * da quantidade de membros: cada um a lê do mural com o seu cursor.
+     * <p>
+     * A ordem de chegada é gerada, o envio é registrado e a mensagem é
+     * publicada sem que outro envio se intercale. Assim, os murais seguem a
+     * ordem do journal, e os membros, que leem com apenas a própria faixa
+     * bloqueada, só veem a mensagem depois de o envio ter sido registrado.
+     *
+     * @param nome Nome da comunidade
+     * @param mensagem Mensagem enviada à comunidade
+     * @param registro Registro do envio no journal, que não deve aguardar o disco
+     */
+    public void publicarNoMural(String nome, Comunicacao mensagem, Runnable registro) {
+        MuralComunidade mural = getComunidade(nome).getMural();
+        synchronized (this) {
+            long ordem = proximaOrdemMural();
+            registro.run();
+            mural.publicar(ordem, mensagem);
+        }
+        IndiceRemetentes indice = muraisPorRemetente;
+        if (indice != null) {
+            indice.adicionar(mensagem.getRemetente(), nome);
+        }
+        marcarMuralAlterado(nome);
+    }
+
+    /**
+     * Lê a mensagem de comunidade mais antiga ainda não lida por um usuário,
+     * entre a caixa dele e os murais das comunidades dele. As mensagens da
+     * caixa que vieram de um mural (de comunidades removidas) são intercaladas
+     * com as dos murais pela ordem de chegada; as demais (importadas ou de
+     * snapshots anteriores aos murais) são lidas primeiro.
+     *
+     * @param login Login do usuário
+     * @return Mensagem lida, ou null se não houver mensagens não lidas
+     */
+    public Comunicacao lerProximaDeComunidade(String login) {
+        Comunicacao daCaixa = consultarProximaMensagem(login, "comunidade");
+        Comunicacao doMural = lerProximaDoMural(login, daCaixa != null ? daCaixa.getOrdem() : Long.MAX_VALUE);
+        return doMural != null ? doMural : removerProximaMensagem(login, "comunidade");
+    }
+
+    /**
+     * Lê a mensagem mais antiga ainda não lida nos murais das comunidades de
+     * um usuário, avançando o cursor dele no mural de onde ela veio.
+     *
+     * @param login Login do usuário
+     * @param antesDe Ordem de chegada a partir da qual as mensagens dos murais não são lidas
+     * @return Mensagem lida, ou null se não houver mensagens não lidas antes da ordem
+     */
+    private Comunicacao lerProximaDoMural(String login, long antesDe) {
+        Usuario usuario = getUsuario(login);
+        if (usuario == null) {
+            return null;
+        }
+        Comunidade origem = null;
+        MuralComunidade.Entrada proxima = null;
+        for (String nome : usuario.getComunidadesCadastradas()) {
+            Comunidade comunidade = getComunidade(nome);
+            if (comunidade == null) {
+                continue;
+            }
+            MuralComunidade.Entrada entrada = comunidade.getMural().proxima(login);
+            if (entrada != null && (proxima == null || entrada.getOrdem() < proxima.getOrdem())) {
+                origem = comunidade;
+                proxima = entrada;
+            }
+        }
+        if (proxima == null || proxima.getOrdem() >= antesDe) {
+            return null;
+        }
+        origem.getMural().marcarLida(login, proxima.getOrdem());
+        marcarMuralAlterado(origem.getNome());
+        return proxima.getMensagem();
+    }
+
+    /**
+     * Lê as mensagens de comunidade mais antigas ainda não lidas por um
+     * usuário, até uma quantidade, na mesma ordem de {@link #lerProximaDeComunidade}:
+     * a caixa e os murais são intercalados pela ordem de chegada. O cursor de
+     * cada mural é avançado uma única vez.
+     *
+     * @param login Login do usuário
+     * @param quantidade Quantidade máxima de mensagens
+     * @return Mensagens lidas, da mais antiga para a mais nova
+     */
+    public List<Comunicacao> lerProximasDeComunidades(String login, int quantidade) {
+        Usuario usuario = getUsuario(login);
+        if (usuario == null || quantidade <= 0) {
+            return new ArrayList<>();
+        }
+        List<Map.Entry<Comunidade, MuralComunidade.Entrada>> pendentes = new ArrayList<>();
+        for (String nome : usuario.getComunidadesCadastradas()) {
+            Comunidade comunidade = getComunidade(nome);
+            if (comunidade == null) {
+                continue;
+            }
+            for (MuralComunidade.Entrada entrada : comunidade.getMural().getPendentes(login, quantidade)) {
+                pendentes.add(new AbstractMap.SimpleImmutableEntry<>(comunidade, entrada));
+            }
+        }
+        pendentes.sort(Comparator.comparingLong(pendente -> pendente.getValue().getOrdem()));
+
+        List<Comunicacao> lidas = new ArrayList<>();
+        Map<Comunidade, Long> ultimaLida = new LinkedHashMap<>();
+        Iterator<Map.Entry<Comunidade, MuralComunidade.Entrada>> murais = pendentes.iterator();
+        Map.Entry<Comunidade, MuralComunidade.Entrada> doMural = murais.hasNext() ? murais.next() : null;
+        Comunicacao daCaixa = consultarProximaMensagem(login, "comunidade");
+        while (lidas.size() < quantidade && (doMural != null || daCaixa != null)) {
+            if (doMural != null && (daCaixa == null || doMural.getValue().getOrdem() < daCaixa.getOrdem())) {
+                lidas.add(doMural.getValue().getMensagem());
+                ultimaLida.put(doMural.getKey(), doMural.getValue().getOrdem());
+                doMural = murais.hasNext() ? murais.next() : null;
+            } else {
+                lidas.add(removerProximaMensagem(login, "comunidade"));
+                daCaixa = consultarProximaMensagem(login, "comunidade");
+            }
+        }
+        for (Map.Entry<Comunidade, Long> lida : ultimaLida.entrySet()) {
+            lida.getKey().getMural().marcarLida(login, lida.getValue());
+            marcarMuralAlterado(lida.getKey().getNome());
+        }
+        return lidas;
+    }
+
+    /**
+     * Entrega nas caixas dos membros as mensagens do mural de uma comunidade
+     * que eles ainda não leram. Usado antes de a comunidade ser removida.
+     * <p>
+     * Cada mensagem leva a sua ordem de chegada no mural, e as mensagens de
+     * comunidade que já estavam na caixa são regravadas intercaladas com elas
+     * por essa ordem, para que a caixa continue ordenada quando mais de uma
+     * comunidade do membro for removida.
+     *
+     * @param comunidade Comunidade que será removida
+     */
+    public void entregarMuralNasCaixas(Comunidade comunidade) {
+        MuralComunidade mural = comunidade.getMural();
+        for (String leitor : mural.getCursores().keySet()) {
+            List<MuralComunidade.Entrada> pendentes = mural.getPendentes(leitor);
+            if (pendentes.isEmpty()) {
+                continue;
+            }
+            List<Comunicacao> caixa = new ArrayList<>(removerProximasMensagens(leitor, "comunidade", Integer.MAX_VALUE));
+            for (MuralComunidade.Entrada entrada : pendentes) {
+                Comunicacao mensagem = entrada.getMensagem();
+                caixa.add(new Comunicacao(mensagem.getRemetente(), mensagem.getDestinatario(),
+                        mensagem.getConteudo(), mensagem.getTipo(), entrada.getOrdem()));
+            }
+            caixa.sort(Comparator.comparingLong(Comunicacao::getOrdem));
+            for (Comunicacao mensagem : caixa) {
+                adicionarMensagem(leitor, mensagem);
+            }
+        }
+    }
+
+    /**
+     * Remove de todas as caixas e de todos os murais as mensagens enviadas por
+     * um usuário. Só as caixas e os murais onde o índice de remetentes aponta
+     * mensagens dele são visitados; o índice é construído na primeira remoção.
+     *
+     * @param remetente Login do remetente
+     */
+    public void removerMensagensDoRemetente(String remetente) {
+        for (String nome : getMuraisPorRemetente().retirar(remetente)) {
+            Comunidade comunidade = getComunidade(nome);
+            if (comunidade != null && comunidade.getMural().removerDoRemetente(remetente)) {
+                marcarMuralAlterado(nome);
+            }
+        }
+        Set<String> destinatarios = getCaixasPorRemetente().retirar(remetente);
+        if (caixasEmLog != null) {
+            caixasEmLog.removerDoRemetente(remetente, destinatarios);
+            return;
+        }
+        for (String destinatario : destinatarios) {
+            List<Comunicacao> caixa = mensagens.get(destinatario);
+            if (caixa != null && caixa.removeIf(mensagem -> mensagem.getRemetente().equals(remetente))) {
+                marcarMensagensAlteradas(destinatario);
+            }
+        }
+    }
+
+    /**
+     * Remove a caixa de mensagens de um usuário. Os cursores dele nos murais
+     * são removidos junto com o usuário.
+     *
+     * @param login Login do dono da caixa
+     */
+    public void removerCaixaDeMensagens(String login) {
+        if (caixasEmLog != null) {
+            caixasEmLog.removerCaixa(login);
+        } else {
+            mensagens.remove(login);
+        }
+        marcarMensagensAlteradas(login);
+    }
+
+    /**
+     * Remove todas as caixas de mensagens e as mensagens de todos os murais.
+     */
+    public void limparMensagens() {
+        if (caixasEmLog != null) {
+            caixasEmLog.limpar();
+        }
+        mensagens.clear();
+        for (Comunidade comunidade : comunidades.values()) {
+            comunidade.getMural().limpar();
+        }
+        descartarIndicesRemetentes();
+        getAlteracoes().marcarTudo();
+    }
+
+    /**
+     * Descarta os índices de remetentes, que são reconstruídos na próxima
+     * remoção. Usado quando as caixas ou os murais são substituídos sem passar
+     * pelo repositório (ex.: ao aplicar um segmento).
+     */
+    public void descartarIndicesRemetentes() {
+        caixasPorRemetente = null;
+        muraisPorRemetente = null;
+    }
+
+    /**
+     * @return Índice das caixas com mensagens de cada remetente, construído
+     *         percorrendo todas as caixas na primeira chamada
+     */
+    private IndiceRemetentes getCaixasPorRemetente() {
+        IndiceRemetentes indice = caixasPorRemetente;
+        if (indice == null) {
+            IndiceRemetentes novo = new IndiceRemetentes();
+            percorrerMensagens((destinatario, mensagem) -> novo.adicionar(mensagem.getRemetente(), destinatario));
+            caixasPorRemetente = indice = novo;
+        }
+        return indice;
+    }
+
+    /**
+     * @return Índice dos murais com mensagens de cada remetente, construído
+     *         percorrendo todos os murais na primeira chamada
+     */
+    private IndiceRemetentes getMuraisPorRemetente() {
+        IndiceRemetentes indice = muraisPorRemetente;
+        if (indice == null) {
+            IndiceRemetentes novo = new IndiceRemetentes();
+            for (Comunidade comunidade : comunidades.values()) {
+                for (MuralComunidade.Entrada entrada : comunidade.getMural().getEntradas()) {
+                    novo.adicionar(entrada.getMensagem().getRemetente(), comunidade.getNome());
+                }
+            }
+            muraisPorRemetente = indice = novo;
+        }
+        return indice;
+    }
+
+    /**
+     * Gera a ordem de chegada de uma nova mensagem de mural. Na primeira vez,
+     * parte da maior ordem já usada nos murais restaurados.
+     *
+     * @return Ordem maior que a de todas as mensagens dos murais
+     */
+    private synchronized long proximaOrdemMural() {
+        if (ultimaOrdemMural < 0) {
+            long maior = 0;
+            for (Comunidade comunidade : comunidades.values()) {
+                maior = Math.max(maior, comunidade.getMural().getUltimaOrdem());
+            }
+            ultimaOrdemMural = maior;
+        }
+        return ++ultimaOrdemMural;
     }
 
-    // Mtodos para relao dono-comunidade
+    // Métodos para relação dono-comunidade
 
     /**
-     * @return Mapa que relaciona donos s suas comunidades
+     * @return Mapa que relaciona donos às suas comunidades
      */
     public Map<String, Set<String>> getDonoParaComunidades() {
         return donoParaComunidades;
     }
 
     /**
-     * Obtm o conjunto de comunidades de um dono.
+     * Obtém o conjunto de comunidades de um dono.
      *
      * @param login Login do dono
      * @return Conjunto de nomes de comunidades ou um conjunto vazio
@@ -239,7 +805,7 @@ public class DataRepository implements Serializable {
     }
 
     /**
-     * Adiciona uma comunidade  lista de comunidades de um dono.
+     * Adiciona uma comunidade à lista de comunidades de um dono.
      *
      * @param login Login do dono
      * @param comunidade Nome da comunidade
@@ -247,6 +813,7 @@ public class DataRepository implements Serializable {
     public void adicionarComunidadeAoDono(String login, String comunidade) {
         donoParaComunidades.putIfAbsent(login, new HashSet<>());
         donoParaComunidades.get(login).add(comunidade);
+        marcarUsuarioAlterado(login);
     }
 
     /**
@@ -258,19 +825,306 @@ public class DataRepository implements Serializable {
     public void removerComunidadeDoDono(String login, String comunidade) {
         if (donoParaComunidades.containsKey(login)) {
             donoParaComunidades.get(login).remove(comunidade);
+            marcarUsuarioAlterado(login);
         }
     }
 
     /**
-     * Limpa todos os dados do repositrio.
+     * Limpa todos os dados do repositório.
      * Usado para reiniciar o sistema.
      */
     public void zerarTudo() {
         usuarios.clear();
-        sessoes.clear();
-        comunidades.clear();
-        mensagens.clear();
-        donoParaComunidades.clear();
-        nextSessionId = 1;
+        motor.limpar();
+        if (caixasEmLog != null) {
+            caixasEmLog.limpar();
+        }
+        descartarIndicesRemetentes();
+        // O contador de sessões não volta ao início: IDs antigos nunca são reutilizados
+        getAlteracoes().marcarTudo();
+    }
+
+    // Métodos para exportação e importação
+
+    /**
+     * Percorre todos os usuários. Os usuários de um snapshot carregado sob
+     * demanda que ainda não foram acessados são lidos um a um, sem ficar em memória.
+     *
+     * @param destino Recebe cada usuário
+     */
+    public void percorrerUsuarios(Consumer<Usuario> destino) {
+        if (usuarios instanceof MapaSobDemanda) {
+            ((MapaSobDemanda) usuarios).percorrer(destino);
+        } else {
+            usuarios.values().forEach(destino);
+        }
+    }
+
+    /**
+     * Percorre as mensagens não lidas de todas as caixas, na ordem de chegada.
+     * Com o log de mensagens, cada mensagem é lida do log apenas quando é entregue.
+     *
+     * @param destino Recebe o login do dono da caixa e cada mensagem
+     */
+    public void percorrerMensagens(BiConsumer<String, Comunicacao> destino) {
+        if (caixasEmLog != null) {
+            caixasEmLog.percorrerPendentes(destino);
+            return;
+        }
+        for (Map.Entry<String, List<Comunicacao>> caixa : mensagens.entrySet()) {
+            for (Comunicacao mensagem : caixa.getValue()) {
+                destino.accept(caixa.getKey(), mensagem);
+            }
+        }
+    }
+
+    /**
+     * Percorre as mensagens não lidas das caixas e dos murais, de modo que as
+     * de cada tipo cheguem na ordem em que o usuário as leria: as mensagens da
+     * caixa que vieram de um mural (de comunidades removidas) são guardadas e
+     * entregues junto com as dos murais ainda não lidas pelo usuário,
+     * intercaladas pela ordem de chegada.
+     *
+     * @param destino Recebe o login do leitor e cada mensagem
+     */
+    public void percorrerMensagensEMurais(BiConsumer<String, Comunicacao> destino) {
+        Map<String, List<Comunicacao>> dosMurais = new HashMap<>();
+        percorrerMensagens((login, mensagem) -> {
+            if (mensagem.getOrdem() != 0) {
+                dosMurais.computeIfAbsent(login, chave -> new ArrayList<>()).add(mensagem);
+            } else {
+                destino.accept(login, mensagem);
+            }
+        });
+
+        percorrerUsuarios(usuario -> {
+            List<Comunicacao> pendentes = dosMurais.getOrDefault(usuario.getLogin(), new ArrayList<>());
+            dosMurais.remove(usuario.getLogin());
+            for (String nome : usuario.getComunidadesCadastradas()) {
+                Comunidade comunidade = getComunidade(nome);
+                if (comunidade != null) {
+                    for (MuralComunidade.Entrada entrada : comunidade.getMural().getPendentes(usuario.getLogin())) {
+                        Comunicacao mensagem = entrada.getMensagem();
+                        pendentes.add(new Comunicacao(mensagem.getRemetente(), mensagem.getDestinatario(),
+                                mensagem.getConteudo(), mensagem.getTipo(), entrada.getOrdem()));
+                    }
+                }
+            }
+            pendentes.sort(Comparator.comparingLong(Comunicacao::getOrdem));
+            for (Comunicacao mensagem : pendentes) {
+                destino.accept(usuario.getLogin(), mensagem);
+            }
+        });
+        dosMurais.forEach((login, pendentes) -> pendentes.forEach(mensagem -> destino.accept(login, mensagem)));
+    }
+
+    /**
+     * Procura os usuários que têm um usuário como ídolo. A busca é feita
+     * pelo motor (em cada fragmento, no motor fragmentado), exceto quando há
+     * usuários ainda não carregados do snapshot.
+     *
+     * @param idolo Login do ídolo
+     * @return Logins dos fãs, sem o próprio ídolo
+     */
+    public List<String> buscarFas(String idolo) {
+        if (!(usuarios instanceof MapaSobDemanda)) {
+            return motor.buscarFas(idolo);
+        }
+        List<String> fas = new ArrayList<>();
+        percorrerUsuarios(usuario -> {
+            if (!usuario.getLogin().equals(idolo) && usuario.getRelacionamentos().getIdolos().contains(idolo)) {
+                fas.add(usuario.getLogin());
+            }
+        });
+        return fas;
+    }
+
+    /**
+     * Acrescenta ou substitui um usuário importado. As alterações só são
+     * registradas em {@link #concluirImportacao()}.
+     *
+     * @param usuario Usuário importado
+     */
+    public void importarUsuario(Usuario usuario) {
+        usuarios.put(usuario.getLogin(), usuario);
+    }
+
+    /**
+     * Acrescenta ou substitui uma comunidade importada. As comunidades de cada
+     * dono só são atualizadas em {@link #concluirImportacao()}.
+     *
+     * @param comunidade Comunidade importada
+     */
+    public void importarComunidade(Comunidade comunidade) {
+        comunidades.put(comunidade.getNome(), comunidade);
+    }
+
+    /**
+     * Conclui uma importação: reconstrói as comunidades de cada dono a partir
+     * das comunidades e registra o repositório inteiro como alterado.
+     */
+    public void concluirImportacao() {
+        Map<String, Set<String>> donos = new HashMap<>();
+        for (Comunidade comunidade : comunidades.values()) {
+            donos.computeIfAbsent(comunidade.getDonoComunidade(), login -> new HashSet<>()).add(comunidade.getNome());
+        }
+        for (Map.Entry<String, Set<String>> dono : donos.entrySet()) {
+            if (!dono.getValue().equals(donoParaComunidades.get(dono.getKey()))) {
+                donoParaComunidades.put(dono.getKey(), dono.getValue());
+            }
+        }
+        // As comunidades importadas trazem as ordens dos seus murais
+        synchronized (this) {
+            ultimaOrdemMural = -1;
+        }
+        descartarIndicesRemetentes();
+        getAlteracoes().marcarTudo();
+    }
+
+    // Métodos para o contador de sessões
+
+    /**
+     * @return Próximo ID de sessão a ser gerado
+     */
+    public int getNextSessionId() {
+        return geradorSessoes.getProximo();
+    }
+
+    /**
+     * Define o próximo ID de sessão a ser gerado.
+     * Usado apenas ao restaurar o estado persistido.
+     *
+     * @param nextSessionId Próximo ID de sessão
+     */
+    public void setNextSessionId(int nextSessionId) {
+        geradorSessoes.setProximo(nextSessionId);
+    }
+
+    /**
+     * @return Gerador dos IDs de sessão
+     */
+    public GeradorSessoes getGeradorSessoes() {
+        return geradorSessoes;
+    }
+
+    // Métodos para rastreamento de alterações
+
+    /**
+     * @return Rastreador das entidades alteradas desde o último checkpoint
+     */
+    public RastreadorAlteracoes getAlteracoes() {
+        RastreadorAlteracoes atual = alteracoes;
+        if (atual == null) {
+            synchronized (this) {
+                if (alteracoes == null) {
+                    alteracoes = new RastreadorAlteracoes();
+                }
+                atual = alteracoes;
+            }
+        }
+        return atual;
+    }
+
+    /**
+     * Registra que um usuário (atributos, relacionamentos ou comunidades) foi alterado.
+     *
+     * @param login Login do usuário
+     */
+    public void marcarUsuarioAlterado(String login) {
+        motor.usuarioAlterado(login);
+        getAlteracoes().marcarUsuario(login);
+    }
+
+    /**
+     * Registra que uma comunidade (ex.: sua lista de membros) foi alterada.
+     *
+     * @param nome Nome da comunidade
+     */
+    public void marcarComunidadeAlterada(String nome) {
+        motor.comunidadeAlterada(nome);
+        getAlteracoes().marcarComunidade(nome);
+    }
+
+    /**
+     * Registra que o mural de uma comunidade foi alterado. Os membros não
+     * mudam, e as versões de consulta não são refeitas.
+     *
+     * @param nome Nome da comunidade
+     */
+    public void marcarMuralAlterado(String nome) {
+        motor.comunidadeAlterada(nome);
+        getAlteracoes().marcarMural(nome);
+    }
+
+    /**
+     * Registra que a caixa de mensagens de um usuário foi alterada.
+     *
+     * @param login Login do destinatário
+     */
+    public void marcarMensagensAlteradas(String login) {
+        motor.mensagensAlteradas(login);
+        getAlteracoes().marcarMensagens(login);
+    }
+
+    /**
+     * Registra que as sessões foram alteradas.
+     */
+    public void marcarSessoesAlteradas() {
+        getAlteracoes().marcarSessoes();
+    }
+
+    /**
+     * Registra que o repositório inteiro foi alterado.
+     */
+    public void marcarTudoAlterado() {
+        getAlteracoes().marcarTudo();
+    }
+
+    // Serialização Java (snapshots antigos)
+
+    /**
+     * Grava as coleções no formato de campos dos snapshots antigos.
+     *
+     * @param out Destino da serialização
+     * @throws IOException Se ocorrer um erro de escrita
+     */
+    @Serial
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField campos = out.putFields();
+        campos.put("usuarios", new HashMap<>(usuarios));
+        campos.put("sessoes", new HashMap<>(sessoes));
+        campos.put("comunidades", new HashMap<>(comunidades));
+        campos.put("mensagens", new HashMap<>(mensagens));
+        campos.put("donoParaComunidades", new HashMap<>(donoParaComunidades));
+        campos.put("nextSessionId", geradorSessoes.getProximo());
+        out.writeFields();
+    }
+
+    /**
+     * Lê um repositório de um snapshot antigo para um motor em memória.
+     *
+     * @param in Origem da serialização
+     * @throws IOException Se ocorrer um erro de leitura
+     * @throws ClassNotFoundException Se o snapshot contiver classes desconhecidas
+     */
+    @Serial
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField campos = in.readFields();
+        usarMotor(new MotorMemoria(
+                lerCampo(campos, "usuarios"),
+                lerCampo(campos, "sessoes"),
+                lerCampo(campos, "comunidades"),
+                lerCampo(campos, "mensagens"),
+                lerCampo(campos, "donoParaComunidades")));
+        geradorSessoes = new GeradorSessoes(campos.get("nextSessionId", 1));
+    }
+
+    /**
+     * @return Mapa gravado no campo, ou um mapa vazio se ele estiver ausente
+     */
+    @SuppressWarnings("unchecked")
+    private static <V> Map<String, V> lerCampo(ObjectInputStream.GetField campos, String nome) throws IOException {
+        Map<String, V> mapa = (Map<String, V>) campos.get(nome, null);
+        return mapa != null ? mapa : new HashMap<>();
     }
-}
\ No newline at end of file
+}
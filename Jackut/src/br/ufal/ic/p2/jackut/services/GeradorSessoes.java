@@ -0,0 +1,105 @@
+package br.ufal.ic.p2.jackut.services;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+
+/**
+ * Gera os IDs de sessão sem bloqueio: cada ID é retirado de um contador
+ * atômico, e sessões abertas ao mesmo tempo nunca esperam uma pela outra.
+ * <p>
+ * Para que um ID nunca se repita depois de uma reinicialização, mesmo que o
+ * registro da sessão no journal ainda não estivesse no disco, os IDs podem
+ * ser reservados em blocos: antes de entregar o primeiro ID de um bloco, o
+ * fim do bloco é gravado pela reserva, e na inicialização o contador começa
+ * depois do último bloco reservado. Só a reserva de um novo bloco é serializada.
+ */
+public class GeradorSessoes {
+
+    /** Próximo ID a ser entregue */
+    private final AtomicInteger proximo;
+
+    /** Primeiro ID ainda não reservado (Integer.MAX_VALUE sem reserva) */
+    private volatile int limite;
+
+    /** Grava o fim de um novo bloco reservado, ou null se os IDs não são reservados */
+    private IntConsumer reserva;
+
+    /** Quantidade de IDs reservados de cada vez */
+    private int tamanhoBloco;
+
+    /**
+     * Construtor que inicia a contagem em um ID, sem reserva de blocos.
+     *
+     * @param proximo Próximo ID a ser entregue
+     */
+    public GeradorSessoes(int proximo) {
+        this.proximo = new AtomicInteger(proximo);
+        this.limite = Integer.MAX_VALUE;
+    }
+
+    /**
+     * Passa a reservar os IDs em blocos. Deve ser chamado antes de qualquer
+     * sessão ser aberta.
+     *
+     * @param ultimoReservado Fim do último bloco reservado antes da reinicialização
+     * @param tamanhoBloco Quantidade de IDs reservados de cada vez
+     * @param reserva Grava o fim de cada novo bloco, de forma durável
+     */
+    public synchronized void usarReserva(int ultimoReservado, int tamanhoBloco, IntConsumer reserva) {
+        proximo.accumulateAndGet(ultimoReservado, Math::max);
+        this.tamanhoBloco = Math.max(1, tamanhoBloco);
+        this.reserva = reserva;
+        this.limite = proximo.get();
+    }
+
+    /**
+     * Entrega um novo ID, reservando um novo bloco quando o atual se esgota.
+     *
+     * @return ID nunca entregue antes
+     */
+    public int gerar() {
+        int id = proximo.getAndIncrement();
+        if (id >= limite) {
+            reservarAte(id);
+        }
+        return id;
+    }
+
+    /**
+     * Garante que um ID já conhecido (ex.: restaurado do journal) não seja gerado novamente.
+     *
+     * @param id ID em uso
+     */
+    public void registrarUsado(int id) {
+        proximo.accumulateAndGet(id + 1, Math::max);
+    }
+
+    /**
+     * @return Próximo ID a ser entregue
+     */
+    public int getProximo() {
+        return proximo.get();
+    }
+
+    /**
+     * Define o próximo ID ao restaurar o estado persistido.
+     *
+     * @param proximo Próximo ID a ser entregue
+     */
+    public void setProximo(int proximo) {
+        this.proximo.set(proximo);
+    }
+
+    /**
+     * Reserva um bloco que contenha o ID. Outras threads que esgotarem o bloco
+     * ao mesmo tempo esperam a reserva e encontram o ID já coberto.
+     */
+    private synchronized void reservarAte(int id) {
+        if (id < limite) {
+            return;
+        }
+        int fim = (int) Math.min(Integer.MAX_VALUE, (long) Math.max(id + 1, proximo.get()) + tamanhoBloco);
+        reserva.accept(fim);
+        limite = fim;
+    }
+}
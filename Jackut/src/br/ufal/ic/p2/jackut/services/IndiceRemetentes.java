@@ -0,0 +1,70 @@
+package br.ufal.ic.p2.jackut.services;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Índice reverso dos remetentes: para cada remetente, onde estão as mensagens
+ * enviadas por ele (as caixas dos destinatários ou os murais das comunidades)
+ * e quantas são em cada lugar.
+ * <p>
+ * Permite remover as mensagens de um usuário visitando apenas os lugares onde
+ * ele tem mensagens, sem percorrer todas as caixas e todos os murais. O índice
+ * pode apontar para lugares que já não têm mensagens do remetente (que são
+ * apenas visitados à toa), mas nunca deixa de apontar para um que tenha.
+ * <p>
+ * Os métodos podem ser chamados por várias threads: as alterações de um
+ * mesmo remetente são serializadas pela entrada dele no mapa.
+ */
+public class IndiceRemetentes {
+
+    /** Quantidade de mensagens em cada lugar, indexada pelo remetente e pelo lugar */
+    private final Map<String, Map<String, Integer>> porRemetente;
+
+    /**
+     * Construtor que inicializa um índice vazio.
+     */
+    public IndiceRemetentes() {
+        this.porRemetente = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Registra uma mensagem de um remetente em um lugar.
+     *
+     * @param remetente Login do remetente
+     * @param lugar Login do destinatário ou nome da comunidade
+     */
+    public void adicionar(String remetente, String lugar) {
+        porRemetente.compute(remetente, (chave, lugares) -> {
+            if (lugares == null) {
+                lugares = new HashMap<>(4);
+            }
+            lugares.merge(lugar, 1, Integer::sum);
+            return lugares;
+        });
+    }
+
+    /**
+     * Registra que uma mensagem de um remetente saiu de um lugar.
+     *
+     * @param remetente Login do remetente
+     * @param lugar Login do destinatário ou nome da comunidade
+     */
+    public void remover(String remetente, String lugar) {
+        porRemetente.computeIfPresent(remetente, (chave, lugares) -> {
+            lugares.computeIfPresent(lugar, (nome, quantidade) -> quantidade > 1 ? quantidade - 1 : null);
+            return lugares.isEmpty() ? null : lugares;
+        });
+    }
+
+    /**
+     * Retira do índice um remetente, cujas mensagens serão removidas.
+     *
+     * @param remetente Login do remetente
+     * @return Lugares onde o remetente pode ter mensagens
+     */
+    public Set<String> retirar(String remetente) {
+        Map<String, Integer> lugares = porRemetente.remove(remetente);
+        return lugares != null ? lugares.keySet() : Collections.emptySet();
+    }
+}
\ No newline at end of file
@@ -10,28 +10,28 @@ import java.util.ArrayList;
 import java.util.List;
 
 /**
- * Servio responsvel por gerenciar as mensagens entre usurios e comunidades.
+ * Serviço responsável por gerenciar as mensagens entre usuários e comunidades.
  * Permite enviar e ler recados e mensagens de comunidade.
  */
 public class MensagemService implements Serializable {
     @Serial
     private static final long serialVersionUID = 1L;
 
-    /** Repositrio central de dados */
+    /** Repositório central de dados */
     private final DataRepository repository;
 
-    /** Servio de usurios */
+    /** Serviço de usuários */
     private final UsuarioService usuarioService;
 
-    /** Servio de comunidades */
+    /** Serviço de comunidades */
     private final ComunidadeService comunidadeService;
 
     /**
-     * Construtor que inicializa o servio com as dependncias necessrias.
+     * Construtor que inicializa o serviço com as dependências necessárias.
      *
-     * @param repository Repositrio central de dados
-     * @param usuarioService Servio de usurios
-     * @param comunidadeService Servio de comunidades
+     * @param repository Repositório central de dados
+     * @param usuarioService Serviço de usuários
+     * @param comunidadeService Serviço de comunidades
      */
     public MensagemService(DataRepository repository, UsuarioService usuarioService, ComunidadeService comunidadeService) {
         this.repository = repository;
@@ -40,14 +40,14 @@ public class MensagemService implements Serializable {
     }
 
     /**
-     * Envia um recado de um usurio para outro.
+     * Envia um recado de um usuário para outro.
      *
-     * @param remetente Login do usurio remetente
-     * @param destinatario Login do usurio destinatrio
-     * @param recado Contedo do recado
-     * @throws MessageException Se o usurio tentar enviar recado para si mesmo
-     * @throws RelacionamentoException Se o destinatrio for inimigo do remetente
-     * @throws UserNotFoundException Se algum dos usurios no existir
+     * @param remetente Login do usuário remetente
+     * @param destinatario Login do usuário destinatário
+     * @param recado Conteúdo do recado
+     * @throws MessageException Se o usuário tentar enviar recado para si mesmo
+     * @throws RelacionamentoException Se o destinatário for inimigo do remetente
+     * @throws UserNotFoundException Se algum dos usuários não existir
      */
     public void enviarRecado(String remetente, String destinatario, String recado)
             throws MessageException, RelacionamentoException, UserNotFoundException {
@@ -55,11 +55,11 @@ public class MensagemService implements Serializable {
         Usuario usuarioDestinatario = usuarioService.getUsuario(destinatario);
 
         if (remetente.equals(destinatario)) {
-            throw new MessageException("Usurio no pode enviar recado para si mesmo.");
+            throw new MessageException("Usuário não pode enviar recado para si mesmo.");
         }
 
         if (ehInimigo(destinatario, remetente)) {
-            throw new RelacionamentoException("Funo invlida: " + usuarioDestinatario.getNome() + "  seu inimigo.");
+            throw new RelacionamentoException("Função inválida: " + usuarioDestinatario.getNome() + " é seu inimigo.");
         }
 
         Comunicacao novaMensagem = criarRecado(remetente, destinatario, recado);
@@ -67,128 +67,141 @@ public class MensagemService implements Serializable {
     }
 
     /**
-     * L o prximo recado disponvel para um usurio.
+     * Lê o próximo recado disponível para um usuário.
      *
-     * @param login Login do usurio
-     * @return Contedo do recado
-     * @throws MessageException Se no houver recados
+     * @param login Login do usuário
+     * @return Conteúdo do recado
+     * @throws MessageException Se não houver recados
      */
     public String lerRecado(String login) throws MessageException {
-        List<Comunicacao> recados = getMensagensDoTipo(login, "recado");
+        Comunicacao recado = repository.removerProximaMensagem(login, "recado");
 
-        if (recados.isEmpty()) {
-            throw new MessageException("No h recados.");
+        if (recado == null) {
+            throw new MessageException("Não há recados.");
         }
 
-        Comunicacao recado = recados.remove(0);
-        repository.getMensagensDoUsuario(login).remove(recado);
-
         return recado.getConteudo();
     }
 
     /**
-     * Envia uma mensagem para todos os membros de uma comunidade.
+     * Lê de uma vez os recados mais antigos de um usuário, até uma quantidade.
      *
-     * @param login Login do usurio remetente
+     * @param login Login do usuário
+     * @param quantidade Quantidade máxima de recados
+     * @return Conteúdos dos recados lidos, do mais antigo para o mais novo (vazia se não houver recados)
+     */
+    public List<String> lerRecados(String login, int quantidade) {
+        List<String> recados = new ArrayList<>();
+        for (Comunicacao recado : repository.removerProximasMensagens(login, "recado", quantidade)) {
+            recados.add(recado.getConteudo());
+        }
+        return recados;
+    }
+
+    /**
+     * Envia uma mensagem para todos os membros de uma comunidade. A mensagem
+     * é publicada uma única vez, no mural da comunidade, onde cada membro a lê.
+     *
+     * @param login Login do usuário remetente
      * @param comunidade Nome da comunidade
-     * @param mensagem Contedo da mensagem
-     * @throws CommunityException Se a comunidade no existir
+     * @param mensagem Conteúdo da mensagem
+     * @param registro Registro do envio no journal, executado antes de a mensagem ficar visível aos membros
+     * @throws CommunityException Se a comunidade não existir
      */
-    public void enviarMensagemComunidade(String login, String comunidade, String mensagem)
+    public void enviarMensagemComunidade(String login, String comunidade, String mensagem, Runnable registro)
             throws CommunityException {
         if (!repository.existeComunidade(comunidade)) {
-            throw new CommunityException("Comunidade no existe.");
+            throw new CommunityException("Comunidade não existe.");
         }
 
         Comunicacao novaMensagem = criarMensagemComunidade(login, comunidade, mensagem);
-
-        List<String> membros = repository.getComunidade(comunidade).getMembros();
-
-        for (String membro : membros) {
-            repository.adicionarMensagem(membro, novaMensagem);
-        }
+        repository.publicarNoMural(comunidade, novaMensagem, registro);
     }
 
     /**
-     * L a prxima mensagem de comunidade disponvel para um usurio.
+     * Lê a próxima mensagem de comunidade disponível para um usuário, na
+     * ordem de chegada entre a caixa dele (mensagens de comunidades removidas)
+     * e os murais das comunidades dele. As mensagens da caixa que não vieram
+     * de um mural (importadas ou de snapshots anteriores aos murais) são lidas primeiro.
      *
-     * @param login Login do usurio
-     * @return Contedo da mensagem formatada
-     * @throws MessageException Se no houver mensagens
+     * @param login Login do usuário
+     * @return Conteúdo da mensagem formatada
+     * @throws MessageException Se não houver mensagens
      */
     public String lerMensagemComunidade(String login) throws MessageException {
-        List<Comunicacao> mensagens = getMensagensDoTipo(login, "comunidade");
-
-        if (mensagens.isEmpty()) {
-            throw new MessageException("No h mensagens.");
+        Comunicacao mensagem = repository.lerProximaDeComunidade(login);
+        if (mensagem == null) {
+            throw new MessageException("Não há mensagens.");
         }
 
-        Comunicacao mensagem = mensagens.remove(0);
-        repository.getMensagensDoUsuario(login).remove(mensagem);
-
         return formatarMensagem(mensagem);
     }
 
     /**
-     * Adiciona um recado automtico do sistema Jackut para um usurio.
-     * Usado para notificar sobre paqueras mtuas.
+     * Lê de uma vez as mensagens de comunidade mais antigas de um usuário,
+     * até uma quantidade, na mesma ordem de {@link #lerMensagemComunidade}.
      *
-     * @param login Login do usurio destinatrio
-     * @param recado Contedo base do recado
+     * @param login Login do usuário
+     * @param quantidade Quantidade máxima de mensagens
+     * @return Mensagens lidas e formatadas, da mais antiga para a mais nova (vazia se não houver mensagens)
+     */
+    public List<String> lerMensagensComunidade(String login, int quantidade) {
+        List<Comunicacao> lidas = repository.lerProximasDeComunidades(login, quantidade);
+        List<String> mensagens = new ArrayList<>(lidas.size());
+        for (Comunicacao mensagem : lidas) {
+            mensagens.add(formatarMensagem(mensagem));
+        }
+        return mensagens;
+    }
+
+    /**
+     * Adiciona um recado automático do sistema Jackut para um usuário.
+     * Usado para notificar sobre paqueras mútuas.
+     *
+     * @param login Login do usuário destinatário
+     * @param recado Conteúdo base do recado
      */
     public void adicionarRecadoJackut(String login, String recado) {
-        Comunicacao mensagem = criarRecado("jackut", login, recado + "  seu paquera - Recado do Jackut.");
+        Comunicacao mensagem = criarRecado("jackut", login, recado + " é seu paquera - Recado do Jackut.");
         repository.adicionarMensagem(login, mensagem);
     }
 
     /**
-     * Obtm todas as mensagens de um determinado tipo para um usurio.
+     * Acrescenta uma mensagem importada ao final da caixa de um usuário.
      *
-     * @param login Login do usurio
-     * @param tipo Tipo da mensagem ("recado" ou "comunidade")
-     * @return Lista de mensagens do tipo especificado
+     * @param login Login do dono da caixa
+     * @param mensagem Mensagem importada
      */
-    private List<Comunicacao> getMensagensDoTipo(String login, String tipo) {
-        List<Comunicacao> mensagensDoTipo = new ArrayList<>();
-        List<Comunicacao> todasMensagens = repository.getMensagensDoUsuario(login);
-
-        for (Comunicacao mensagem : todasMensagens) {
-            if (tipo.equals(mensagem.getTipo())) {
-                mensagensDoTipo.add(mensagem);
-            }
-        }
-
-        return mensagensDoTipo;
+    public void importarMensagem(String login, Comunicacao mensagem) {
+        repository.adicionarMensagem(login, mensagem);
     }
 
     /**
-     * Remove todas as mensagens enviadas ou recebidas por um usurio.
+     * Remove todas as mensagens enviadas ou recebidas por um usuário.
      *
-     * @param login Login do usurio
+     * @param login Login do usuário
      */
     public void removerMensagensDoUsuario(String login) {
-        // Remove mensagens enviadas pelo usurio
-        for (List<Comunicacao> listaMensagens : repository.getMensagens().values()) {
-            listaMensagens.removeIf(mensagem -> mensagem.getRemetente().equals(login));
-        }
+        // Remove mensagens enviadas pelo usuário
+        repository.removerMensagensDoRemetente(login);
 
-        // Remove mensagens recebidas pelo usurio
-        repository.getMensagens().remove(login);
+        // Remove mensagens recebidas pelo usuário
+        repository.removerCaixaDeMensagens(login);
     }
 
     /**
      * Remove todas as mensagens do sistema.
      */
     public void zerarMensagens() {
-        repository.getMensagens().clear();
+        repository.limparMensagens();
     }
 
     /**
-     * Cria um novo objeto de comunicao do tipo recado.
+     * Cria um novo objeto de comunicação do tipo recado.
      *
-     * @param remetente Login do usurio remetente
-     * @param destinatario Login do usurio destinatrio
-     * @param conteudo Contedo do recado
+     * @param remetente Login do usuário remetente
+     * @param destinatario Login do usuário destinatário
+     * @param conteudo Conteúdo do recado
      * @return Objeto Comunicacao criado
      */
     private Comunicacao criarRecado(String remetente, String destinatario, String conteudo) {
@@ -196,11 +209,11 @@ public class MensagemService implements Serializable {
     }
 
     /**
-     * Cria um novo objeto de comunicao do tipo mensagem de comunidade.
+     * Cria um novo objeto de comunicação do tipo mensagem de comunidade.
      *
-     * @param remetente Login do usurio remetente
+     * @param remetente Login do usuário remetente
      * @param comunidade Nome da comunidade
-     * @param conteudo Contedo da mensagem
+     * @param conteudo Conteúdo da mensagem
      * @return Objeto Comunicacao criado
      */
     private Comunicacao criarMensagemComunidade(String remetente, String comunidade, String conteudo) {
@@ -208,7 +221,7 @@ public class MensagemService implements Serializable {
     }
 
     /**
-     * Formata uma mensagem para exibio.
+     * Formata uma mensagem para exibição.
      *
      * @param mensagem Objeto Comunicacao a ser formatado
      * @return String formatada da mensagem
@@ -221,12 +234,12 @@ public class MensagemService implements Serializable {
     }
 
     /**
-     * Verifica se um usurio  inimigo de outro.
+     * Verifica se um usuário é inimigo de outro.
      *
-     * @param login Login do primeiro usurio
-     * @param outroUsuario Login do segundo usurio
-     * @return true se o primeiro usurio tiver o segundo como inimigo
-     * @throws UserNotFoundException Se algum dos usurios no existir
+     * @param login Login do primeiro usuário
+     * @param outroUsuario Login do segundo usuário
+     * @return true se o primeiro usuário tiver o segundo como inimigo
+     * @throws UserNotFoundException Se algum dos usuários não existir
      */
     private boolean ehInimigo(String login, String outroUsuario) throws UserNotFoundException {
         Usuario usuario = usuarioService.getUsuario(login);
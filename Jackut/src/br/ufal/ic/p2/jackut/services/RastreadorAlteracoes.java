@@ -0,0 +1,187 @@
+package br.ufal.ic.p2.jackut.services;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Registra quais entidades do repositório foram alteradas desde o último
+ * checkpoint, permitindo que apenas elas sejam gravadas no próximo snapshot.
+ */
+public class RastreadorAlteracoes {
+
+    /** Logins dos usuários alterados (inclui suas comunidades como dono) */
+    private Set<String> usuarios;
+
+    /** Nomes das comunidades alteradas */
+    private Set<String> comunidades;
+
+    /** Logins dos destinatários cujas caixas de mensagens foram alteradas */
+    private Set<String> mensagens;
+
+    /**
+     * Indica se as sessões foram alteradas. É atômico para que abrir uma
+     * sessão não dependa do monitor do rastreador.
+     */
+    private final AtomicBoolean sessoes;
+
+    /** Indica se o repositório inteiro foi alterado (ex.: zerarSistema) */
+    private boolean tudo;
+
+    /** Versões de consulta avisadas das alterações, ou null */
+    private VisaoConsultas visao;
+
+    /**
+     * Construtor que inicializa um rastreador sem alterações.
+     */
+    public RastreadorAlteracoes() {
+        this.usuarios = new HashSet<>();
+        this.comunidades = new HashSet<>();
+        this.mensagens = new HashSet<>();
+        this.sessoes = new AtomicBoolean();
+    }
+
+    /**
+     * @param login Login do usuário alterado
+     */
+    public synchronized void marcarUsuario(String login) {
+        usuarios.add(login);
+        if (visao != null) {
+            visao.usuarioAlterado(login);
+        }
+    }
+
+    /**
+     * @param nome Nome da comunidade alterada
+     */
+    public synchronized void marcarComunidade(String nome) {
+        comunidades.add(nome);
+        if (visao != null) {
+            visao.comunidadeAlterada(nome);
+        }
+    }
+
+    /**
+     * Marca uma comunidade cujo mural foi alterado, sem avisar as versões de
+     * consulta, que só dependem dos membros.
+     *
+     * @param nome Nome da comunidade
+     */
+    public synchronized void marcarMural(String nome) {
+        comunidades.add(nome);
+    }
+
+    /**
+     * @param login Login do destinatário cuja caixa de mensagens foi alterada
+     */
+    public synchronized void marcarMensagens(String login) {
+        mensagens.add(login);
+    }
+
+    /**
+     * Marca as sessões como alteradas.
+     */
+    public void marcarSessoes() {
+        if (!sessoes.get()) {
+            sessoes.set(true);
+        }
+    }
+
+    /**
+     * Marca o repositório inteiro como alterado.
+     */
+    public synchronized void marcarTudo() {
+        tudo = true;
+        sessoes.set(true);
+        if (visao != null) {
+            visao.tudoAlterado();
+        }
+    }
+
+    /**
+     * Passa a avisar as versões de consulta dos usuários e das comunidades alterados.
+     * As alterações drenadas ou incorporadas não são avisadas.
+     *
+     * @param visao Versões de consulta
+     */
+    synchronized void acompanhar(VisaoConsultas visao) {
+        this.visao = visao;
+    }
+
+    /**
+     * Retira as alterações acumuladas, deixando este rastreador vazio.
+     *
+     * @return Rastreador com as alterações acumuladas até agora
+     */
+    public synchronized RastreadorAlteracoes drenar() {
+        RastreadorAlteracoes drenado = new RastreadorAlteracoes();
+        drenado.usuarios = usuarios;
+        drenado.comunidades = comunidades;
+        drenado.mensagens = mensagens;
+        drenado.sessoes.set(sessoes.getAndSet(false));
+        drenado.tudo = tudo;
+
+        usuarios = new HashSet<>();
+        comunidades = new HashSet<>();
+        mensagens = new HashSet<>();
+        tudo = false;
+        return drenado;
+    }
+
+    /**
+     * Devolve a este rastreador alterações drenadas que não puderam ser gravadas.
+     *
+     * @param outras Alterações a serem incorporadas
+     */
+    public synchronized void incorporar(RastreadorAlteracoes outras) {
+        usuarios.addAll(outras.usuarios);
+        comunidades.addAll(outras.comunidades);
+        mensagens.addAll(outras.mensagens);
+        if (outras.sessoes.get()) {
+            sessoes.set(true);
+        }
+        tudo |= outras.tudo;
+    }
+
+    /**
+     * @return true se nenhuma alteração foi registrada
+     */
+    public synchronized boolean isVazio() {
+        return !tudo && !sessoes.get() && usuarios.isEmpty() && comunidades.isEmpty() && mensagens.isEmpty();
+    }
+
+    /**
+     * @return Logins dos usuários alterados
+     */
+    public Set<String> getUsuarios() {
+        return usuarios;
+    }
+
+    /**
+     * @return Nomes das comunidades alteradas
+     */
+    public Set<String> getComunidades() {
+        return comunidades;
+    }
+
+    /**
+     * @return Logins das caixas de mensagens alteradas
+     */
+    public Set<String> getMensagens() {
+        return mensagens;
+    }
+
+    /**
+     * @return true se as sessões foram alteradas
+     */
+    public boolean isSessoes() {
+        return sessoes.get();
+    }
+
+    /**
+     * @return true se o repositório inteiro foi alterado
+     */
+    public boolean isTudo() {
+        return tudo;
+    }
+}
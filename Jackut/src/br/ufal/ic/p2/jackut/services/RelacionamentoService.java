@@ -8,33 +8,32 @@ import br.ufal.ic.p2.jackut.exceptions.UserNotFoundException;
 
 import java.io.Serial;
 import java.io.Serializable;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
 
 /**
- * Servio responsvel por gerenciar os relacionamentos entre usurios.
- * Permite adicionar e consultar amigos, dolos, paqueras e inimigos.
+ * Serviço responsável por gerenciar os relacionamentos entre usuários.
+ * Permite adicionar e consultar amigos, ídolos, paqueras e inimigos.
  */
 public class RelacionamentoService implements Serializable {
     @Serial
     private static final long serialVersionUID = 1L;
 
-    /** Repositrio central de dados */
+    /** Repositório central de dados */
     private final DataRepository repository;
 
-    /** Servio de usurios */
+    /** Serviço de usuários */
     private final UsuarioService usuarioService;
 
-    /** Servio de mensagens */
+    /** Serviço de mensagens */
     private final MensagemService mensagemService;
 
     /**
-     * Construtor que inicializa o servio com as dependncias necessrias.
+     * Construtor que inicializa o serviço com as dependências necessárias.
      *
-     * @param repository Repositrio central de dados
-     * @param usuarioService Servio de usurios
-     * @param mensagemService Servio de mensagens
+     * @param repository Repositório central de dados
+     * @param usuarioService Serviço de usuários
+     * @param mensagemService Serviço de mensagens
      */
     public RelacionamentoService(DataRepository repository, UsuarioService usuarioService, MensagemService mensagemService) {
         this.repository = repository;
@@ -43,11 +42,11 @@ public class RelacionamentoService implements Serializable {
     }
 
     /**
-     * Verifica se um usurio  amigo de outro.
+     * Verifica se um usuário é amigo de outro.
      *
-     * @param login Login do primeiro usurio
-     * @param amigo Login do possvel amigo
-     * @return true se forem amigos, false caso contrrio
+     * @param login Login do primeiro usuário
+     * @param amigo Login do possível amigo
+     * @return true se forem amigos, false caso contrário
      */
     public boolean ehAmigo(String login, String amigo) {
         if (!usuarioService.existeUsuario(login) || !usuarioService.existeUsuario(amigo)) {
@@ -59,33 +58,33 @@ public class RelacionamentoService implements Serializable {
     }
 
     /**
-     * Adiciona um usurio como amigo de outro.
-     * Se ambos enviaram convites, a amizade  estabelecida automaticamente.
+     * Adiciona um usuário como amigo de outro.
+     * Se ambos enviaram convites, a amizade é estabelecida automaticamente.
      *
-     * @param login Login do usurio que est adicionando
-     * @param amigo Login do usurio a ser adicionado como amigo
-     * @throws UserNotFoundException Se algum dos usurios no existir
-     * @throws FriendshipException Se o usurio tentar adicionar a si mesmo ou se j forem amigos
-     * @throws RelacionamentoException Se o usurio a ser adicionado for inimigo
+     * @param login Login do usuário que está adicionando
+     * @param amigo Login do usuário a ser adicionado como amigo
+     * @throws UserNotFoundException Se algum dos usuários não existir
+     * @throws FriendshipException Se o usuário tentar adicionar a si mesmo ou se já forem amigos
+     * @throws RelacionamentoException Se o usuário a ser adicionado for inimigo
      */
     public void adicionarAmigo(String login, String amigo) {
         if (login == null || login.isEmpty()) {
-            throw new UserNotFoundException("Usurio no cadastrado.");
+            throw new UserNotFoundException("Usuário não cadastrado.");
         }
 
         if (login.equals(amigo)) {
-            throw new FriendshipException("Usurio no pode adicionar a si mesmo como amigo.");
+            throw new FriendshipException("Usuário não pode adicionar a si mesmo como amigo.");
         }
 
         if (!usuarioService.existeUsuario(login) || !usuarioService.existeUsuario(amigo)) {
-            throw new UserNotFoundException("Usurio no cadastrado.");
+            throw new UserNotFoundException("Usuário não cadastrado.");
         }
 
         Usuario usuarioEnvia = usuarioService.getUsuario(login);
         Usuario usuarioRecebe = usuarioService.getUsuario(amigo);
 
         if (ehInimigo(amigo, login)) {
-            throw new RelacionamentoException("Funo invlida: " + usuarioRecebe.getNome() + "  seu inimigo.");
+            throw new RelacionamentoException("Função inválida: " + usuarioRecebe.getNome() + " é seu inimigo.");
         }
 
         Set<String> convitesAmizadeEnvia = usuarioEnvia.getRelacionamentos().getConvitesAmizade();
@@ -94,35 +93,38 @@ public class RelacionamentoService implements Serializable {
         Set<String> amigosRecebe = usuarioRecebe.getRelacionamentos().getAmigos();
 
         if (convitesAmizadeEnvia.contains(amigo)) {
-            // Aceitar convite pendente (ambos j enviaram convites)
+            // Aceitar convite pendente (ambos já enviaram convites)
             amigosRecebe.add(login);
             amigosEnvia.add(amigo);
             convitesAmizadeRecebe.remove(login);
             convitesAmizadeEnvia.remove(amigo);
+            repository.marcarUsuarioAlterado(login);
+            repository.marcarUsuarioAlterado(amigo);
             return;
         }
 
         if (convitesAmizadeRecebe.contains(login)) {
-            throw new FriendshipException("Usurio j est adicionado como amigo, esperando aceitao do convite.");
+            throw new FriendshipException("Usuário já está adicionado como amigo, esperando aceitação do convite.");
         }
 
         if (amigosRecebe.contains(login)) {
-            throw new FriendshipException("Usurio j est adicionado como amigo.");
+            throw new FriendshipException("Usuário já está adicionado como amigo.");
         }
 
         convitesAmizadeRecebe.add(login);
+        repository.marcarUsuarioAlterado(amigo);
     }
 
     /**
-     * Obtm a lista de amigos de um usurio formatada como string.
+     * Obtém a lista de amigos de um usuário formatada como string.
      *
-     * @param login Login do usurio
+     * @param login Login do usuário
      * @return String formatada com a lista de amigos: "{amigo1,amigo2,...}"
-     * @throws UserNotFoundException Se o usurio no existir
+     * @throws UserNotFoundException Se o usuário não existir
      */
     public String getAmigos(String login) {
         if (!usuarioService.existeUsuario(login)) {
-            throw new UserNotFoundException("Usurio no cadastrado.");
+            throw new UserNotFoundException("Usuário não cadastrado.");
         }
 
         Usuario usuario = usuarioService.getUsuario(login);
@@ -131,11 +133,11 @@ public class RelacionamentoService implements Serializable {
     }
 
     /**
-     * Verifica se um usurio  f de outro.
+     * Verifica se um usuário é fã de outro.
      *
-     * @param login Login do possvel f
-     * @param idolo Login do possvel dolo
-     * @return true se o primeiro for f do segundo, false caso contrrio
+     * @param login Login do possível fã
+     * @param idolo Login do possível ídolo
+     * @return true se o primeiro for fã do segundo, false caso contrário
      */
     public boolean ehFa(String login, String idolo) {
         Usuario usuario = usuarioService.getUsuario(login);
@@ -143,55 +145,60 @@ public class RelacionamentoService implements Serializable {
     }
 
     /**
-     * Adiciona um usurio como dolo de outro.
+     * Adiciona um usuário como ídolo de outro.
      *
-     * @param login Login do usurio que est adicionando (f)
-     * @param idolo Login do usurio a ser adicionado como dolo
-     * @throws RelacionamentoException Se o usurio tentar ser f de si mesmo, se j for f ou se o dolo for inimigo
+     * @param login Login do usuário que está adicionando (fã)
+     * @param idolo Login do usuário a ser adicionado como ídolo
+     * @throws RelacionamentoException Se o usuário tentar ser fã de si mesmo, se já for fã ou se o ídolo for inimigo
      */
     public void adicionarIdolo(String login, String idolo) {
         Usuario usuario = usuarioService.getUsuario(login);
         Usuario idoloObj = usuarioService.getUsuario(idolo);
 
         if (login.equals(idolo)) {
-            throw new RelacionamentoException("Usurio no pode ser f de si mesmo.");
+            throw new RelacionamentoException("Usuário não pode ser fã de si mesmo.");
         }
 
         if (usuario.getRelacionamentos().getIdolos().contains(idolo)) {
-            throw new RelacionamentoException("Usurio j est adicionado como dolo.");
+            throw new RelacionamentoException("Usuário já está adicionado como ídolo.");
         }
 
         if (ehInimigo(idolo, login)) {
-            throw new RelacionamentoException("Funo invlida: " + idoloObj.getNome() + "  seu inimigo.");
+            throw new RelacionamentoException("Função inválida: " + idoloObj.getNome() + " é seu inimigo.");
         }
 
         usuario.getRelacionamentos().getIdolos().add(idolo);
+        repository.marcarUsuarioAlterado(login);
     }
 
     /**
-     * Obtm a lista de fs de um usurio formatada como string.
+     * Obtém a lista de fãs de um usuário formatada como string.
      *
-     * @param login Login do usurio
-     * @return String formatada com a lista de fs: "{fa1,fa2,...}"
+     * @param login Login do usuário
+     * @return String formatada com a lista de fãs: "{fa1,fa2,...}"
      */
     public String getFas(String login) {
-        List<String> fasList = new ArrayList<>();
-
-        for (Usuario usuario : repository.getUsuarios().values()) {
-            if (!usuario.getLogin().equals(login) && usuario.getRelacionamentos().getIdolos().contains(login)) {
-                fasList.add(usuario.getLogin());
-            }
-        }
+        List<String> fasList = repository.buscarFas(login);
 
         return "{" + String.join(",", fasList) + "}";
     }
 
     /**
-     * Verifica se um usurio tem outro como paquera.
+     * Obtém a lista de fãs de um usuário.
+     *
+     * @param login Login do usuário
+     * @return Logins dos fãs
+     */
+    public List<String> listarFas(String login) {
+        return repository.buscarFas(login);
+    }
+
+    /**
+     * Verifica se um usuário tem outro como paquera.
      *
-     * @param login Login do primeiro usurio
-     * @param paquera Login do possvel paquera
-     * @return true se o segundo for paquera do primeiro, false caso contrrio
+     * @param login Login do primeiro usuário
+     * @param paquera Login do possível paquera
+     * @return true se o segundo for paquera do primeiro, false caso contrário
      */
     public boolean ehPaquera(String login, String paquera) {
         Usuario usuario = usuarioService.getUsuario(login);
@@ -199,30 +206,31 @@ public class RelacionamentoService implements Serializable {
     }
 
     /**
-     * Adiciona um usurio como paquera de outro.
-     * Se ambos se adicionarem como paquera, o sistema envia recados automticos.
+     * Adiciona um usuário como paquera de outro.
+     * Se ambos se adicionarem como paquera, o sistema envia recados automáticos.
      *
-     * @param login Login do usurio que est adicionando
-     * @param paquera Login do usurio a ser adicionado como paquera
-     * @throws RelacionamentoException Se o usurio tentar adicionar a si mesmo, se j for paquera ou se for inimigo
+     * @param login Login do usuário que está adicionando
+     * @param paquera Login do usuário a ser adicionado como paquera
+     * @throws RelacionamentoException Se o usuário tentar adicionar a si mesmo, se já for paquera ou se for inimigo
      */
     public void adicionarPaquera(String login, String paquera) {
         Usuario usuario = usuarioService.getUsuario(login);
         Usuario paqueraObj = usuarioService.getUsuario(paquera);
 
         if (usuario.getRelacionamentos().getPaqueras().contains(paquera)) {
-            throw new RelacionamentoException("Usurio j est adicionado como paquera.");
+            throw new RelacionamentoException("Usuário já está adicionado como paquera.");
         }
 
         if (login.equals(paquera)) {
-            throw new RelacionamentoException("Usurio no pode ser paquera de si mesmo.");
+            throw new RelacionamentoException("Usuário não pode ser paquera de si mesmo.");
         }
 
         if (ehInimigo(paquera, login)) {
-            throw new RelacionamentoException("Funo invlida: " + paqueraObj.getNome() + "  seu inimigo.");
+            throw new RelacionamentoException("Função inválida: " + paqueraObj.getNome() + " é seu inimigo.");
         }
 
         usuario.getRelacionamentos().getPaqueras().add(paquera);
+        repository.marcarUsuarioAlterado(login);
 
         if (usuario.getRelacionamentos().getPaqueras().contains(paquera) &&
                 paqueraObj.getRelacionamentos().getPaqueras().contains(login)) {
@@ -232,9 +240,9 @@ public class RelacionamentoService implements Serializable {
     }
 
     /**
-     * Obtm a lista de paqueras de um usurio formatada como string.
+     * Obtém a lista de paqueras de um usuário formatada como string.
      *
-     * @param login Login do usurio
+     * @param login Login do usuário
      * @return String formatada com a lista de paqueras: "{paquera1,paquera2,...}"
      */
     public String getPaqueras(String login) {
@@ -244,38 +252,39 @@ public class RelacionamentoService implements Serializable {
     }
 
     /**
-     * Adiciona um usurio como inimigo de outro.
+     * Adiciona um usuário como inimigo de outro.
      *
-     * @param login Login do usurio que est adicionando
-     * @param inimigo Login do usurio a ser adicionado como inimigo
-     * @throws UserNotFoundException Se o usurio a ser adicionado no existir
-     * @throws RelacionamentoException Se o usurio tentar adicionar a si mesmo ou se j for inimigo
+     * @param login Login do usuário que está adicionando
+     * @param inimigo Login do usuário a ser adicionado como inimigo
+     * @throws UserNotFoundException Se o usuário a ser adicionado não existir
+     * @throws RelacionamentoException Se o usuário tentar adicionar a si mesmo ou se já for inimigo
      */
     public void adicionarInimigo(String login, String inimigo) {
         if (!usuarioService.existeUsuario(inimigo)) {
-            throw new UserNotFoundException("Usurio no cadastrado.");
+            throw new UserNotFoundException("Usuário não cadastrado.");
         }
 
         if (login.equals(inimigo)) {
-            throw new RelacionamentoException("Usurio no pode ser inimigo de si mesmo.");
+            throw new RelacionamentoException("Usuário não pode ser inimigo de si mesmo.");
         }
 
         Usuario usuario = usuarioService.getUsuario(login);
         Set<String> inimigos = usuario.getRelacionamentos().getInimigos();
 
         if (inimigos.contains(inimigo)) {
-            throw new RelacionamentoException("Usurio j est adicionado como inimigo.");
+            throw new RelacionamentoException("Usuário já está adicionado como inimigo.");
         }
 
         inimigos.add(inimigo);
+        repository.marcarUsuarioAlterado(login);
     }
 
     /**
-     * Verifica se um usurio tem outro como inimigo.
+     * Verifica se um usuário tem outro como inimigo.
      *
-     * @param login Login do primeiro usurio
-     * @param inimigo Login do possvel inimigo
-     * @return true se o segundo for inimigo do primeiro, false caso contrrio
+     * @param login Login do primeiro usuário
+     * @param inimigo Login do possível inimigo
+     * @return true se o segundo for inimigo do primeiro, false caso contrário
      */
     public boolean ehInimigo(String login, String inimigo) {
         Usuario usuario = usuarioService.getUsuario(login);
@@ -283,24 +292,26 @@ public class RelacionamentoService implements Serializable {
     }
 
     /**
-     * Adiciona um convite de amizade para um usurio.
+     * Adiciona um convite de amizade para um usuário.
      *
-     * @param login Login do usurio que receber o convite
-     * @param id Login do usurio que enviou o convite
+     * @param login Login do usuário que receberá o convite
+     * @param id Login do usuário que enviou o convite
      */
     public void adicionarConviteAmizade(String login, String id) {
         Usuario usuario = usuarioService.getUsuario(login);
         usuario.getRelacionamentos().getConvitesAmizade().add(id);
+        repository.marcarUsuarioAlterado(login);
     }
 
     /**
-     * Remove um convite de amizade de um usurio.
+     * Remove um convite de amizade de um usuário.
      *
-     * @param login Login do usurio que tem o convite
-     * @param id Login do usurio que enviou o convite
+     * @param login Login do usuário que tem o convite
+     * @param id Login do usuário que enviou o convite
      */
     public void removerConviteAmizade(String login, String id) {
         Usuario usuario = usuarioService.getUsuario(login);
         usuario.getRelacionamentos().getConvitesAmizade().remove(id);
+        repository.marcarUsuarioAlterado(login);
     }
 }
\ No newline at end of file
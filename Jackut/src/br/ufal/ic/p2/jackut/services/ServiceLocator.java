@@ -4,34 +4,47 @@ import java.io.Serial;
 import java.io.Serializable;
 
 /**
- * Localizador de servios que facilita o acesso aos diferentes servios do sistema.
- * Implementa o padro de projeto Service Locator.
+ * Localizador de serviços que facilita o acesso aos diferentes serviços do sistema.
+ * Implementa o padrão de projeto Service Locator.
  */
 public class ServiceLocator implements Serializable {
     @Serial
     private static final long serialVersionUID = 1L;
 
-    /** Servio de usurios */
+    /** Repositório central compartilhado pelos serviços */
+    private DataRepository repository;
+
+    /** Serviço de usuários */
     private final UsuarioService usuarioService;
 
-    /** Servio de sesses */
+    /** Serviço de sessões */
     private final SessaoService sessaoService;
 
-    /** Servio de comunidades */
+    /** Serviço de comunidades */
     private final ComunidadeService comunidadeService;
 
-    /** Servio de mensagens */
+    /** Serviço de mensagens */
     private final MensagemService mensagemService;
 
-    /** Servio de relacionamentos */
+    /** Serviço de relacionamentos */
     private final RelacionamentoService relacionamentoService;
 
     /**
-     * Cria um novo localizador de servios com instncias padro.
-     * Inicializa todos os servios com um repositrio compartilhado.
+     * Cria um novo localizador de serviços com instâncias padrão.
+     * Inicializa todos os serviços com um repositório compartilhado.
      */
     public ServiceLocator() {
-        DataRepository repository = new DataRepository();
+        this(new DataRepository());
+    }
+
+    /**
+     * Cria um localizador de serviços sobre um repositório já existente.
+     * Usado ao restaurar o sistema a partir de um snapshot.
+     *
+     * @param repository Repositório central de dados
+     */
+    public ServiceLocator(DataRepository repository) {
+        this.repository = repository;
         this.usuarioService = new UsuarioService(repository);
         this.sessaoService = new SessaoService(repository, usuarioService);
         this.comunidadeService = new ComunidadeService(repository, usuarioService);
@@ -40,14 +53,14 @@ public class ServiceLocator implements Serializable {
     }
 
     /**
-     * Cria um localizador de servios com servios especficos.
-     * til para testes e injeo de dependncias.
+     * Cria um localizador de serviços com serviços específicos.
+     * Útil para testes e injeção de dependências.
      *
-     * @param usuarioService Servio de usurios
-     * @param sessaoService Servio de sesses
-     * @param comunidadeService Servio de comunidades
-     * @param mensagemService Servio de mensagens
-     * @param relacionamentoService Servio de relacionamentos
+     * @param usuarioService Serviço de usuários
+     * @param sessaoService Serviço de sessões
+     * @param comunidadeService Serviço de comunidades
+     * @param mensagemService Serviço de mensagens
+     * @param relacionamentoService Serviço de relacionamentos
      */
     public ServiceLocator(
             UsuarioService usuarioService,
@@ -55,6 +68,7 @@ public class ServiceLocator implements Serializable {
             ComunidadeService comunidadeService,
             MensagemService mensagemService,
             RelacionamentoService relacionamentoService) {
+        this.repository = usuarioService.getRepository();
         this.usuarioService = usuarioService;
         this.sessaoService = sessaoService;
         this.comunidadeService = comunidadeService;
@@ -63,35 +77,55 @@ public class ServiceLocator implements Serializable {
     }
 
     /**
-     * @return Servio de usurios
+     * Completa localizadores gravados antes do campo repository existir.
+     *
+     * @return Este localizador
+     */
+    @Serial
+    private Object readResolve() {
+        if (repository == null) {
+            repository = usuarioService.getRepository();
+        }
+        return this;
+    }
+
+    /**
+     * @return Repositório central de dados
+     */
+    public DataRepository getRepository() {
+        return repository;
+    }
+
+    /**
+     * @return Serviço de usuários
      */
     public UsuarioService getUsuarioService() {
         return usuarioService;
     }
 
     /**
-     * @return Servio de sesses
+     * @return Serviço de sessões
      */
     public SessaoService getSessaoService() {
         return sessaoService;
     }
 
     /**
-     * @return Servio de comunidades
+     * @return Serviço de comunidades
      */
     public ComunidadeService getComunidadeService() {
         return comunidadeService;
     }
 
     /**
-     * @return Servio de mensagens
+     * @return Serviço de mensagens
      */
     public MensagemService getMensagemService() {
         return mensagemService;
     }
 
     /**
-     * @return Servio de relacionamentos
+     * @return Serviço de relacionamentos
      */
     public RelacionamentoService getRelacionamentoService() {
         return relacionamentoService;
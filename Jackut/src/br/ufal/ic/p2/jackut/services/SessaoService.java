@@ -7,24 +7,24 @@ import java.io.Serial;
 import java.io.Serializable;
 
 /**
- * Servio responsvel por gerenciar sesses de usurios.
- * Permite abrir e encerrar sesses, alm de validar credenciais.
+ * Serviço responsável por gerenciar sessões de usuários.
+ * Permite abrir e encerrar sessões, além de validar credenciais.
  */
 public class SessaoService implements Serializable {
     @Serial
     private static final long serialVersionUID = 1L;
 
-    /** Repositrio central de dados */
+    /** Repositório central de dados */
     private final DataRepository repository;
 
-    /** Servio de usurios */
+    /** Serviço de usuários */
     private final UsuarioService usuarioService;
 
     /**
-     * Construtor que inicializa o servio com as dependncias necessrias.
+     * Construtor que inicializa o serviço com as dependências necessárias.
      *
-     * @param repository Repositrio central de dados
-     * @param usuarioService Servio de usurios
+     * @param repository Repositório central de dados
+     * @param usuarioService Serviço de usuários
      */
     public SessaoService(DataRepository repository, UsuarioService usuarioService) {
         this.repository = repository;
@@ -32,12 +32,12 @@ public class SessaoService implements Serializable {
     }
 
     /**
-     * Abre uma sesso para um usurio aps validar suas credenciais.
+     * Abre uma sessão para um usuário após validar suas credenciais.
      *
-     * @param login Login do usurio
-     * @param senha Senha do usurio
-     * @return ID da sesso criada
-     * @throws AuthenticationException Se as credenciais forem invlidas
+     * @param login Login do usuário
+     * @param senha Senha do usuário
+     * @return ID da sessão criada
+     * @throws AuthenticationException Se as credenciais forem inválidas
      */
     public String abrirSessao(String login, String senha) {
         if (!usuarioService.existeUsuario(login)) {
@@ -52,10 +52,21 @@ public class SessaoService implements Serializable {
     }
 
     /**
-     * Encerra uma sesso especfica.
+     * Restaura uma sessão com um ID já conhecido.
+     * Usado na recuperação do journal para recriar exatamente as mesmas sessões.
      *
-     * @param sessionId ID da sesso a ser encerrada
-     * @return true se a sesso foi encerrada, false se no existia
+     * @param sessionId ID da sessão
+     * @param login Login do usuário
+     */
+    public void restaurarSessao(String sessionId, String login) {
+        repository.restaurarSessao(sessionId, login);
+    }
+
+    /**
+     * Encerra uma sessão específica.
+     *
+     * @param sessionId ID da sessão a ser encerrada
+     * @return true se a sessão foi encerrada, false se não existia
      */
     public boolean encerrarSessao(String sessionId) {
         if (repository.existeSessao(sessionId)) {
@@ -66,57 +77,58 @@ public class SessaoService implements Serializable {
     }
 
     /**
-     * Verifica se uma sesso existe.
+     * Verifica se uma sessão existe.
      *
-     * @param sessionId ID da sesso
-     * @return true se a sesso existir, false caso contrrio
+     * @param sessionId ID da sessão
+     * @return true se a sessão existir, false caso contrário
      */
     public boolean existeSessao(String sessionId) {
         return repository.existeSessao(sessionId);
     }
 
     /**
-     * Obtm o login do usurio associado a uma sesso.
+     * Obtém o login do usuário associado a uma sessão.
      *
-     * @param sessionId ID da sesso
-     * @return Login do usurio ou null se a sesso no existir
+     * @param sessionId ID da sessão
+     * @return Login do usuário ou null se a sessão não existir
      */
     public String getLoginDaSessao(String sessionId) {
         return repository.getLoginDaSessao(sessionId);
     }
 
     /**
-     * Valida uma sesso e retorna o login associado.
-     * Tambm suporta o caso em que o prprio sessionId  um login vlido.
+     * Valida uma sessão e retorna o login associado.
+     * Também suporta o caso em que o próprio sessionId é um login válido.
      *
-     * @param sessionId ID da sesso ou login do usurio
-     * @return Login do usurio
-     * @throws SessionNotFoundException Se a sesso no existir e o sessionId no for um login vlido
+     * @param sessionId ID da sessão ou login do usuário
+     * @return Login do usuário
+     * @throws SessionNotFoundException Se a sessão não existir e o sessionId não for um login válido
      */
     public String validarEObterLogin(String sessionId) {
-        // Verifica se o sessionId  null ou vazio
+        // Verifica se o sessionId é null ou vazio
         if (sessionId == null || sessionId.isEmpty()) {
-            throw new SessionNotFoundException("Usurio no cadastrado.");
+            throw new SessionNotFoundException("Usuário não cadastrado.");
         }
 
         String login = getLoginDaSessao(sessionId);
 
-        // Se no encontrou o login na sesso, verifica se o prprio sessionId  um login vlido
+        // Se não encontrou o login na sessão, verifica se o próprio sessionId é um login válido
         // (compatibilidade com o comportamento original)
         if (login == null) {
             if (usuarioService.existeUsuario(sessionId)) {
                 return sessionId;
             }
-            throw new SessionNotFoundException("Usurio no cadastrado.");
+            throw new SessionNotFoundException("Usuário não cadastrado.");
         }
 
         return login;
     }
 
     /**
-     * Remove todas as sesses do sistema.
+     * Remove todas as sessões do sistema.
      */
     public void zerarSessoes() {
         repository.getSessoes().clear();
+        repository.marcarSessoesAlteradas();
     }
 }
\ No newline at end of file
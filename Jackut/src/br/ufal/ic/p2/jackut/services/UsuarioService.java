@@ -9,39 +9,39 @@ import java.io.Serial;
 import java.io.Serializable;
 
 /**
- * Servio responsvel por gerenciar os usurios do sistema Jackut.
- * Fornece operaes para criar, consultar, editar e remover usurios,
- * alm de gerenciar seus atributos de perfil.
+ * Serviço responsável por gerenciar os usuários do sistema Jackut.
+ * Fornece operações para criar, consultar, editar e remover usuários,
+ * além de gerenciar seus atributos de perfil.
  */
 public class UsuarioService implements Serializable {
     @Serial
     private static final long serialVersionUID = 1L;
 
-    /** Repositrio central de dados do sistema */
+    /** Repositório central de dados do sistema */
     private final DataRepository repository;
 
     /**
-     * Construtor que inicializa o servio com o repositrio de dados.
+     * Construtor que inicializa o serviço com o repositório de dados.
      *
-     * @param repository Repositrio central de dados
+     * @param repository Repositório central de dados
      */
     public UsuarioService(DataRepository repository) {
         this.repository = repository;
     }
 
     /**
-     * Cria um novo usurio no sistema aps validar seus dados.
+     * Cria um novo usuário no sistema após validar seus dados.
      *
-     * @param login Login nico do usurio
-     * @param senha Senha para autenticao
-     * @param nome Nome completo do usurio
-     * @throws InvalidUserDataException Se o login j existir ou se os dados forem invlidos
+     * @param login Login único do usuário
+     * @param senha Senha para autenticação
+     * @param nome Nome completo do usuário
+     * @throws InvalidUserDataException Se o login já existir ou se os dados forem inválidos
      */
     public void criarUsuario(String login, String senha, String nome) {
         validarDadosUsuario(login, senha);
 
         if (repository.existeUsuario(login)) {
-            throw new InvalidUserDataException("Conta com esse nome j existe.");
+            throw new InvalidUserDataException("Conta com esse nome já existe.");
         }
 
         Usuario novoUsuario = new Usuario(login, senha, nome);
@@ -49,58 +49,70 @@ public class UsuarioService implements Serializable {
     }
 
     /**
-     * Valida os dados bsicos de um usurio.
+     * Acrescenta um usuário importado, com seu perfil e relacionamentos,
+     * substituindo um usuário existente com o mesmo login.
      *
-     * @param login Login do usurio
-     * @param senha Senha do usurio
+     * @param usuario Usuário importado
+     * @throws InvalidUserDataException Se o login ou a senha forem nulos ou vazios
+     */
+    public void importarUsuario(Usuario usuario) {
+        validarDadosUsuario(usuario.getLogin(), usuario.getSenha());
+        repository.importarUsuario(usuario);
+    }
+
+    /**
+     * Valida os dados básicos de um usuário.
+     *
+     * @param login Login do usuário
+     * @param senha Senha do usuário
      * @throws InvalidUserDataException Se o login ou senha forem nulos ou vazios
      */
     private void validarDadosUsuario(String login, String senha) {
         if (login == null || login.isEmpty()) {
-            throw new InvalidUserDataException("Login invlido.");
+            throw new InvalidUserDataException("Login inválido.");
         }
 
         if (senha == null || senha.isEmpty()) {
-            throw new InvalidUserDataException("Senha invlida.");
+            throw new InvalidUserDataException("Senha inválida.");
         }
     }
 
     /**
-     * Obtm um usurio pelo login.
+     * Obtém um usuário pelo login.
      *
-     * @param login Login do usurio
+     * @param login Login do usuário
      * @return Objeto Usuario correspondente
-     * @throws UserNotFoundException Se o usurio no existir
+     * @throws UserNotFoundException Se o usuário não existir
      */
     public Usuario getUsuario(String login) {
         Usuario usuario = repository.getUsuario(login);
 
         if (usuario == null) {
-            throw new UserNotFoundException("Usurio no cadastrado.");
+            throw new UserNotFoundException("Usuário não cadastrado.");
         }
 
         return usuario;
     }
 
     /**
-     * Verifica se existe um usurio com o login especificado.
+     * Verifica se existe um usuário com o login especificado.
      *
-     * @param login Login do usurio
-     * @return true se o usurio existir, false caso contrrio
+     * @param login Login do usuário
+     * @return true se o usuário existir, false caso contrário
      */
     public boolean existeUsuario(String login) {
         return repository.existeUsuario(login);
     }
 
     /**
-     * Obtm o valor de um atributo de um usurio.
+     * Obtém o valor de um atributo de um usuário.
      * Suporta atributos especiais (nome, login) e atributos personalizados.
      *
-     * @param login Login do usurio
+     * @param login Login do usuário
      * @param atributo Nome do atributo
      * @return Valor do atributo
-     * @throws UserNotFoundException Se o usurio no existir
-     * @throws ProfileAttributeException Se o atributo personalizado no estiver preenchido
+     * @throws UserNotFoundException Se o usuário não existir
+     * @throws ProfileAttributeException Se o atributo personalizado não estiver preenchido
      */
     public String getAtributoUsuario(String login, String atributo) {
         Usuario usuario = getUsuario(login);
@@ -112,46 +124,47 @@ public class UsuarioService implements Serializable {
                 return usuario.getLogin();
             default:
                 if (!usuario.getAtributos().containsKey(atributo)) {
-                    throw new ProfileAttributeException("Atributo no preenchido.");
+                    throw new ProfileAttributeException("Atributo não preenchido.");
                 }
                 return usuario.getAtributos().get(atributo);
         }
     }
 
     /**
-     * Edita um atributo personalizado do perfil de um usurio.
+     * Edita um atributo personalizado do perfil de um usuário.
      *
-     * @param login Login do usurio
+     * @param login Login do usuário
      * @param atributo Nome do atributo
      * @param valor Novo valor do atributo
-     * @throws UserNotFoundException Se o usurio no existir
+     * @throws UserNotFoundException Se o usuário não existir
      */
     public void editarPerfil(String login, String atributo, String valor) {
         Usuario usuario = getUsuario(login);
         usuario.getAtributos().put(atributo, valor);
+        repository.marcarUsuarioAlterado(login);
     }
 
     /**
-     * Remove um usurio do sistema.
+     * Remove um usuário do sistema.
      *
-     * @param login Login do usurio a ser removido
-     * @throws UserNotFoundException Se o usurio no existir
+     * @param login Login do usuário a ser removido
+     * @throws UserNotFoundException Se o usuário não existir
      */
     public void removerUsuario(String login) {
         if (!repository.existeUsuario(login)) {
-            throw new UserNotFoundException("Usurio no cadastrado.");
+            throw new UserNotFoundException("Usuário não cadastrado.");
         }
 
         repository.removerUsuario(login);
     }
 
     /**
-     * Valida a senha de um usurio.
+     * Valida a senha de um usuário.
      *
-     * @param login Login do usurio
+     * @param login Login do usuário
      * @param senha Senha a ser validada
-     * @return true se a senha for vlida, false caso contrrio
-     * @throws UserNotFoundException Se o usurio no existir
+     * @return true se a senha for válida, false caso contrário
+     * @throws UserNotFoundException Se o usuário não existir
      */
     public boolean validarSenha(String login, String senha) {
         Usuario usuario = getUsuario(login);
@@ -159,9 +172,17 @@ public class UsuarioService implements Serializable {
     }
 
     /**
-     * Remove todos os usurios do sistema.
+     * @return Repositório central de dados usado pelo serviço
+     */
+    DataRepository getRepository() {
+        return repository;
+    }
+
+    /**
+     * Remove todos os usuários do sistema.
      */
     public void zerarUsuarios() {
         repository.getUsuarios().clear();
+        repository.marcarTudoAlterado();
     }
 }
\ No newline at end of file
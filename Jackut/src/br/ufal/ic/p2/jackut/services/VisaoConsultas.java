@@ -0,0 +1,295 @@
+package br.ufal.ic.p2.jackut.services;
+
+import br.ufal.ic.p2.jackut.entities.Comunidade;
+import br.ufal.ic.p2.jackut.entities.Usuario;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Versões imutáveis dos dados lidos pelas consultas mais frequentes
+ * (atributos, amigos, comunidades, fãs e membros), lidas sem bloqueio.
+ * <p>
+ * Cada usuário e cada comunidade tem uma versão publicada, substituída
+ * inteira a cada alteração: quem lê recebe uma versão completa, anterior ou
+ * posterior a uma operação, nunca um estado intermediário, e nunca espera
+ * por quem escreve. As alterações de uma operação são anotadas à medida que
+ * o {@link RastreadorAlteracoes} as registra e publicadas juntas em
+ * {@link #publicar()}, chamado ao fim da operação enquanto ela ainda detém os
+ * bloqueios das chaves alteradas. Os fãs de cada usuário são mantidos a
+ * partir da diferença entre os ídolos da versão anterior e da nova.
+ * <p>
+ * Alterações no repositório inteiro (ex.: zerarSistema, removerUsuario)
+ * reconstroem todas as versões em tabelas novas, trocadas de uma só vez.
+ */
+public class VisaoConsultas {
+
+    /** Repositório de onde as versões são construídas */
+    private final DataRepository repository;
+
+    /** Tabelas publicadas, substituídas inteiras nas reconstruções */
+    private volatile Tabelas tabelas;
+
+    /** Alterações da operação em andamento em cada thread */
+    private final ThreadLocal<Pendentes> pendentes = ThreadLocal.withInitial(Pendentes::new);
+
+    /**
+     * Construtor que constrói as versões de todos os usuários e comunidades
+     * e passa a acompanhar as alterações do repositório.
+     *
+     * @param repository Repositório já carregado
+     */
+    public VisaoConsultas(DataRepository repository) {
+        this.repository = repository;
+        this.tabelas = construir();
+        repository.getAlteracoes().acompanhar(this);
+    }
+
+    // Consultas
+
+    /**
+     * @param login Login do usuário
+     * @param atributo Nome do atributo (inclui "nome" e "login")
+     * @return Valor publicado, ou null se o usuário não existir ou o atributo não estiver preenchido
+     */
+    public String getAtributo(String login, String atributo) {
+        VersaoUsuario versao = getUsuario(login);
+        if (versao == null) {
+            return null;
+        }
+        switch (atributo) {
+            case "nome":
+                return versao.nome;
+            case "login":
+                return versao.login;
+            default:
+                return versao.atributos.get(atributo);
+        }
+    }
+
+    /**
+     * @param login Login do usuário
+     * @return Amigos formatados ("{amigo1,amigo2,...}"), ou null se o usuário não existir
+     */
+    public String getAmigos(String login) {
+        VersaoUsuario versao = getUsuario(login);
+        return versao == null ? null : versao.amigos;
+    }
+
+    /**
+     * @param login Login do usuário
+     * @return Comunidades formatadas ("{comunidade1,...}"), ou null se o usuário não existir
+     */
+    public String getComunidades(String login) {
+        VersaoUsuario versao = getUsuario(login);
+        return versao == null ? null : versao.comunidades;
+    }
+
+    /**
+     * @param login Login do ídolo
+     * @return Fãs formatados ("{fa1,fa2,...}"), vazio se o usuário não tiver fãs ou não existir
+     */
+    public String getFas(String login) {
+        List<String> fas = login == null ? null : tabelas.fas.get(login);
+        return formatar(fas == null ? List.of() : fas);
+    }
+
+    /**
+     * @param login Login do ídolo
+     * @return Fãs (lista imutável), vazia se o usuário não tiver fãs ou não existir
+     */
+    public List<String> listarFas(String login) {
+        List<String> fas = login == null ? null : tabelas.fas.get(login);
+        return fas == null ? List.of() : fas;
+    }
+
+    /**
+     * @param nome Nome da comunidade
+     * @return Membros formatados ("{membro1,...}"), ou null se a comunidade não existir
+     */
+    public String getMembros(String nome) {
+        return nome == null ? null : tabelas.membros.get(nome);
+    }
+
+    /**
+     * @param login Login do usuário
+     * @return true se o usuário existir na versão publicada
+     */
+    public boolean existeUsuario(String login) {
+        return getUsuario(login) != null;
+    }
+
+    private VersaoUsuario getUsuario(String login) {
+        return login == null ? null : tabelas.usuarios.get(login);
+    }
+
+    // Alterações
+
+    /**
+     * Anota um usuário alterado pela operação em andamento.
+     *
+     * @param login Login do usuário
+     */
+    void usuarioAlterado(String login) {
+        pendentes.get().usuarios.add(login);
+    }
+
+    /**
+     * Anota uma comunidade alterada pela operação em andamento.
+     *
+     * @param nome Nome da comunidade
+     */
+    void comunidadeAlterada(String nome) {
+        pendentes.get().comunidades.add(nome);
+    }
+
+    /**
+     * Anota que a operação em andamento alterou o repositório inteiro.
+     */
+    void tudoAlterado() {
+        pendentes.get().tudo = true;
+    }
+
+    /**
+     * Publica as novas versões de tudo o que a operação em andamento alterou.
+     * Deve ser chamado antes de a operação liberar os seus bloqueios.
+     */
+    public void publicar() {
+        Pendentes alteradas = pendentes.get();
+        if (alteradas.isVazio()) {
+            return;
+        }
+        try {
+            if (alteradas.tudo) {
+                tabelas = construir();
+                return;
+            }
+            Tabelas atuais = tabelas;
+            for (String login : alteradas.usuarios) {
+                publicarUsuario(atuais, login);
+            }
+            for (String nome : alteradas.comunidades) {
+                Comunidade comunidade = repository.getComunidade(nome);
+                if (comunidade == null) {
+                    atuais.membros.remove(nome);
+                } else {
+                    atuais.membros.put(nome, formatar(comunidade.getMembros()));
+                }
+            }
+        } finally {
+            alteradas.limpar();
+        }
+    }
+
+    /**
+     * Substitui a versão de um usuário e atualiza os fãs dos ídolos que ele ganhou ou perdeu.
+     */
+    private void publicarUsuario(Tabelas atuais, String login) {
+        Usuario usuario = repository.getUsuario(login);
+        VersaoUsuario nova = usuario == null ? null : new VersaoUsuario(usuario);
+        VersaoUsuario anterior = nova == null ? atuais.usuarios.remove(login) : atuais.usuarios.put(login, nova);
+
+        Set<String> idolosAnteriores = anterior == null ? Set.of() : anterior.idolos;
+        Set<String> idolosNovos = nova == null ? Set.of() : nova.idolos;
+        for (String idolo : idolosAnteriores) {
+            if (!idolosNovos.contains(idolo)) {
+                atuais.fas.computeIfPresent(idolo, (chave, fas) -> semElemento(fas, login));
+            }
+        }
+        for (String idolo : idolosNovos) {
+            if (!idolosAnteriores.contains(idolo) && !idolo.equals(login)) {
+                atuais.fas.merge(idolo, List.of(login), VisaoConsultas::concatenar);
+            }
+        }
+    }
+
+    /**
+     * @return Tabelas com as versões de todos os usuários e comunidades do repositório
+     */
+    private Tabelas construir() {
+        Tabelas novas = new Tabelas();
+        Map<String, List<String>> fas = new HashMap<>();
+        repository.percorrerUsuarios(usuario -> {
+            VersaoUsuario versao = new VersaoUsuario(usuario);
+            novas.usuarios.put(versao.login, versao);
+            for (String idolo : versao.idolos) {
+                if (!idolo.equals(versao.login)) {
+                    fas.computeIfAbsent(idolo, chave -> new ArrayList<>()).add(versao.login);
+                }
+            }
+        });
+        for (Map.Entry<String, List<String>> entrada : fas.entrySet()) {
+            novas.fas.put(entrada.getKey(), List.copyOf(entrada.getValue()));
+        }
+        for (Comunidade comunidade : repository.getComunidades().values()) {
+            novas.membros.put(comunidade.getNome(), formatar(comunidade.getMembros()));
+        }
+        return novas;
+    }
+
+    private static List<String> concatenar(List<String> fas, List<String> novos) {
+        List<String> lista = new ArrayList<>(fas.size() + novos.size());
+        lista.addAll(fas);
+        lista.addAll(novos);
+        return Collections.unmodifiableList(lista);
+    }
+
+    private static List<String> semElemento(List<String> fas, String login) {
+        List<String> lista = new ArrayList<>(fas);
+        lista.remove(login);
+        return lista.isEmpty() ? null : Collections.unmodifiableList(lista);
+    }
+
+    private static String formatar(Collection<String> elementos) {
+        return "{" + String.join(",", elementos) + "}";
+    }
+
+    /**
+     * Versão imutável dos dados consultados de um usuário.
+     */
+    private static final class VersaoUsuario {
+        private final String login;
+        private final String nome;
+        private final Map<String, String> atributos;
+        private final String amigos;
+        private final String comunidades;
+        private final Set<String> idolos;
+
+        private VersaoUsuario(Usuario usuario) {
+            this.login = usuario.getLogin();
+            this.nome = usuario.getNome();
+            this.atributos = Collections.unmodifiableMap(new HashMap<>(usuario.getAtributos()));
+            this.amigos = formatar(usuario.getRelacionamentos().getAmigos());
+            this.comunidades = formatar(usuario.getComunidadesCadastradas());
+            this.idolos = Collections.unmodifiableSet(new HashSet<>(usuario.getRelacionamentos().getIdolos()));
+        }
+    }
+
+    /**
+     * Tabelas de versões publicadas.
+     */
+    private static final class Tabelas {
+        private final Map<String, VersaoUsuario> usuarios = new ConcurrentHashMap<>();
+        private final Map<String, List<String>> fas = new ConcurrentHashMap<>();
+        private final Map<String, String> membros = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Chaves alteradas pela operação em andamento em uma thread.
+     */
+    private static final class Pendentes {
+        private final Set<String> usuarios = new LinkedHashSet<>();
+        private final Set<String> comunidades = new LinkedHashSet<>();
+        private boolean tudo;
+
+        private boolean isVazio() {
+            return !tudo && usuarios.isEmpty() && comunidades.isEmpty();
+        }
+
+        private void limpar() {
+            usuarios.clear();
+            comunidades.clear();
+            tudo = false;
+        }
+    }
+}
@@ -0,0 +1,295 @@
+package br.ufal.ic.p2.jackut.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Arquivo dividido em páginas de tamanho fixo, mapeado em memória por regiões.
+ * <pre>
+ * página : tipo(byte) reservado(byte) usados(short) próxima(int) dados...
+ * </pre>
+ * As páginas são encadeadas pelo campo "próxima" (0 = fim da cadeia; a
+ * página 0 é reservada). Páginas liberadas formam uma lista encadeada e são
+ * reaproveitadas pelas próximas alocações. O conteúdo fica fora do heap: é o
+ * cache de páginas do sistema operacional que decide o que está em memória.
+ */
+class ArquivoPaginado implements Closeable {
+
+    /** Tamanho de uma página: pequeno, pois a maioria dos registros tem poucas centenas de bytes */
+    static final int TAMANHO_PAGINA = 512;
+
+    /** Tamanho do cabeçalho de uma página */
+    static final int CABECALHO = 8;
+
+    /** Bytes de dados de uma página */
+    static final int DADOS = TAMANHO_PAGINA - CABECALHO;
+
+    /** Tipo de uma página livre */
+    static final int LIVRE = 0;
+
+    /** Quantidade de páginas de cada região mapeada (16 MB) */
+    private static final int PAGINAS_POR_REGIAO = 32768;
+
+    /** Canal do arquivo */
+    private final FileChannel canal;
+
+    /** Regiões mapeadas, em ordem */
+    private final List<MappedByteBuffer> regioes;
+
+    /** Quantidade de páginas já usadas, incluindo a reservada */
+    private int totalPaginas;
+
+    /** Primeira página da lista de páginas livres (0 = vazia) */
+    private int livre;
+
+    /**
+     * Cria um arquivo paginado vazio, descartando o conteúdo anterior do
+     * arquivo. O arquivo é apagado ao ser fechado.
+     *
+     * @param arquivo Caminho do arquivo
+     * @throws IOException Se o arquivo não puder ser criado
+     */
+    ArquivoPaginado(Path arquivo) throws IOException {
+        this.canal = FileChannel.open(arquivo, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.DELETE_ON_CLOSE);
+        this.regioes = new ArrayList<>();
+        this.totalPaginas = 1;
+    }
+
+    /**
+     * Aloca uma página, reaproveitando uma livre se houver.
+     *
+     * @param tipo Tipo da página
+     * @return Número da página
+     */
+    int alocar(int tipo) {
+        int pagina;
+        if (livre != 0) {
+            pagina = livre;
+            livre = getProxima(pagina);
+        } else {
+            pagina = totalPaginas++;
+            garantirRegiao(pagina);
+        }
+        MappedByteBuffer regiao = regiao(pagina);
+        int base = base(pagina);
+        regiao.put(base, (byte) tipo);
+        regiao.putShort(base + 2, (short) 0);
+        regiao.putInt(base + 4, 0);
+        return pagina;
+    }
+
+    /**
+     * Devolve uma página à lista de livres.
+     *
+     * @param pagina Número da página
+     */
+    void liberar(int pagina) {
+        regiao(pagina).put(base(pagina), (byte) LIVRE);
+        setProxima(pagina, livre);
+        livre = pagina;
+    }
+
+    /**
+     * Devolve todas as páginas de uma cadeia à lista de livres.
+     *
+     * @param primeira Primeira página da cadeia (0 = cadeia vazia)
+     */
+    void liberarCadeia(int primeira) {
+        int pagina = primeira;
+        while (pagina != 0) {
+            int proxima = getProxima(pagina);
+            liberar(pagina);
+            pagina = proxima;
+        }
+    }
+
+    /**
+     * Grava bytes em uma cadeia de páginas, reaproveitando as páginas de uma
+     * cadeia existente e liberando as que sobrarem.
+     *
+     * @param existente Primeira página da cadeia atual (0 = nenhuma)
+     * @param tipo Tipo das páginas novas
+     * @param dados Bytes a serem gravados
+     * @return Primeira página da cadeia (0 se não houver bytes)
+     */
+    int gravarCadeia(int existente, int tipo, byte[] dados) {
+        if (dados.length == 0) {
+            liberarCadeia(existente);
+            return 0;
+        }
+        int primeira = existente != 0 ? existente : alocar(tipo);
+        int pagina = primeira;
+        int gravados = 0;
+        while (true) {
+            int parte = Math.min(DADOS, dados.length - gravados);
+            escrever(pagina, 0, dados, gravados, parte);
+            setUsados(pagina, parte);
+            gravados += parte;
+
+            int proxima = getProxima(pagina);
+            if (gravados == dados.length) {
+                setProxima(pagina, 0);
+                liberarCadeia(proxima);
+                return primeira;
+            }
+            if (proxima == 0) {
+                proxima = alocar(tipo);
+                setProxima(pagina, proxima);
+            }
+            pagina = proxima;
+        }
+    }
+
+    /**
+     * Lê todos os bytes de uma cadeia de páginas.
+     *
+     * @param primeira Primeira página da cadeia
+     * @return Bytes da cadeia
+     */
+    byte[] lerCadeia(int primeira) {
+        int tamanho = 0;
+        for (int pagina = primeira; pagina != 0; pagina = getProxima(pagina)) {
+            tamanho += getUsados(pagina);
+        }
+        byte[] dados = new byte[tamanho];
+        int lidos = 0;
+        for (int pagina = primeira; pagina != 0; pagina = getProxima(pagina)) {
+            int usados = getUsados(pagina);
+            ler(pagina, 0, dados, lidos, usados);
+            lidos += usados;
+        }
+        return dados;
+    }
+
+    /**
+     * Copia bytes da área de dados de uma página.
+     */
+    void ler(int pagina, int deslocamento, byte[] destino, int inicio, int quantidade) {
+        regiao(pagina).get(base(pagina) + CABECALHO + deslocamento, destino, inicio, quantidade);
+    }
+
+    /**
+     * Copia bytes para a área de dados de uma página.
+     */
+    void escrever(int pagina, int deslocamento, byte[] origem, int inicio, int quantidade) {
+        regiao(pagina).put(base(pagina) + CABECALHO + deslocamento, origem, inicio, quantidade);
+    }
+
+    /**
+     * @return Byte da área de dados de uma página, sem sinal
+     */
+    int lerByte(int pagina, int deslocamento) {
+        return regiao(pagina).get(base(pagina) + CABECALHO + deslocamento) & 0xFF;
+    }
+
+    /**
+     * @return Inteiro da área de dados de uma página
+     */
+    int lerInt(int pagina, int deslocamento) {
+        return regiao(pagina).getInt(base(pagina) + CABECALHO + deslocamento);
+    }
+
+    /**
+     * Grava um inteiro na área de dados de uma página.
+     */
+    void escreverInt(int pagina, int deslocamento, int valor) {
+        regiao(pagina).putInt(base(pagina) + CABECALHO + deslocamento, valor);
+    }
+
+    /**
+     * Grava um byte na área de dados de uma página.
+     */
+    void escreverByte(int pagina, int deslocamento, int valor) {
+        regiao(pagina).put(base(pagina) + CABECALHO + deslocamento, (byte) valor);
+    }
+
+    /**
+     * @return Bytes de dados usados em uma página
+     */
+    int getUsados(int pagina) {
+        return regiao(pagina).getShort(base(pagina) + 2) & 0xFFFF;
+    }
+
+    /**
+     * Define os bytes de dados usados em uma página.
+     */
+    void setUsados(int pagina, int usados) {
+        regiao(pagina).putShort(base(pagina) + 2, (short) usados);
+    }
+
+    /**
+     * @return Próxima página da cadeia (0 = fim)
+     */
+    int getProxima(int pagina) {
+        return regiao(pagina).getInt(base(pagina) + 4);
+    }
+
+    /**
+     * Define a próxima página da cadeia.
+     */
+    void setProxima(int pagina, int proxima) {
+        regiao(pagina).putInt(base(pagina) + 4, proxima);
+    }
+
+    /**
+     * Libera todas as páginas de uma vez, sem encolher o arquivo.
+     */
+    void limpar() {
+        totalPaginas = 1;
+        livre = 0;
+    }
+
+    /**
+     * @return Tamanho ocupado pelas páginas em uso, em bytes
+     */
+    long getTamanho() {
+        return (long) totalPaginas * TAMANHO_PAGINA;
+    }
+
+    /**
+     * Fecha e apaga o arquivo.
+     */
+    @Override
+    public void close() {
+        try {
+            canal.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        regioes.clear();
+    }
+
+    /**
+     * Mapeia a região de uma página, se ainda não estiver mapeada.
+     *
+     * @param pagina Número da página
+     */
+    private void garantirRegiao(int pagina) {
+        int indice = pagina / PAGINAS_POR_REGIAO;
+        while (regioes.size() <= indice) {
+            long inicio = (long) regioes.size() * PAGINAS_POR_REGIAO * TAMANHO_PAGINA;
+            try {
+                regioes.add(canal.map(FileChannel.MapMode.READ_WRITE, inicio,
+                        (long) PAGINAS_POR_REGIAO * TAMANHO_PAGINA));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Erro ao mapear o armazenamento", e);
+            }
+        }
+    }
+
+    private MappedByteBuffer regiao(int pagina) {
+        return regioes.get(pagina / PAGINAS_POR_REGIAO);
+    }
+
+    private static int base(int pagina) {
+        return (pagina % PAGINAS_POR_REGIAO) * TAMANHO_PAGINA;
+    }
+}
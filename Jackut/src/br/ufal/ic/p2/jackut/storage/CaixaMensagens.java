@@ -0,0 +1,389 @@
+package br.ufal.ic.p2.jackut.storage;
+
+import br.ufal.ic.p2.jackut.entities.Comunicacao;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * Caixa de mensagens de um usuário guardada em memória, com uma fila por tipo
+ * de mensagem ("recado" e "comunidade"). Acrescentar uma mensagem, ler a
+ * mais antiga de um tipo e saber se há mensagens de um tipo custam O(1),
+ * qualquer que seja a quantidade de mensagens do outro tipo na caixa.
+ * <p>
+ * Como lista, a caixa apresenta as mensagens na ordem de chegada, intercalando
+ * os tipos: é assim que ela é percorrida pelos snapshots, pela exportação e
+ * pelos motores que a copiam. Acesso por posição e remoção de uma mensagem
+ * qualquer percorrem a caixa. Na serialização, a caixa é gravada como um
+ * {@link ArrayList}, e o formato dos snapshots não muda.
+ * <p>
+ * Com {@link PaginasMensagens}, cada fila mantém em memória no máximo a
+ * janela configurada: as mensagens que chegam com a janela cheia vão para uma
+ * cadeia de páginas em disco e voltam, em ordem, à medida que as da janela são
+ * lidas. O heap ocupado por uma caixa não depende mais do acúmulo de mensagens.
+ */
+public class CaixaMensagens extends AbstractList<Comunicacao> implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    /** Filas de cada tipo de mensagem, indexadas pelo tipo */
+    private final Map<String, Fila> filas;
+
+    /** Páginas onde as filas derramam o que passa da janela, ou null se tudo fica em memória */
+    private final transient PaginasMensagens paginas;
+
+    /** Ordem de chegada da próxima mensagem */
+    private long proximaOrdem;
+
+    /** Quantidade de mensagens na caixa */
+    private int tamanho;
+
+    /**
+     * Construtor que inicializa uma caixa vazia.
+     */
+    public CaixaMensagens() {
+        this((PaginasMensagens) null);
+    }
+
+    /**
+     * Construtor que inicializa uma caixa vazia que mantém em memória apenas a janela.
+     *
+     * @param paginas Páginas onde as filas derramam o que passa da janela, ou null para manter tudo em memória
+     */
+    public CaixaMensagens(PaginasMensagens paginas) {
+        this.filas = new HashMap<>(4);
+        this.paginas = paginas;
+    }
+
+    /**
+     * Construtor que inicializa uma caixa com as mensagens de outra lista, na mesma ordem.
+     *
+     * @param mensagens Mensagens, da mais antiga para a mais nova
+     */
+    public CaixaMensagens(Collection<Comunicacao> mensagens) {
+        this(null, mensagens);
+    }
+
+    /**
+     * Construtor que inicializa uma caixa com as mensagens de outra lista, na
+     * mesma ordem, mantendo em memória apenas a janela.
+     *
+     * @param paginas Páginas onde as filas derramam o que passa da janela, ou null para manter tudo em memória
+     * @param mensagens Mensagens, da mais antiga para a mais nova
+     */
+    public CaixaMensagens(PaginasMensagens paginas, Collection<Comunicacao> mensagens) {
+        this(paginas);
+        for (Comunicacao mensagem : mensagens) {
+            add(mensagem);
+        }
+    }
+
+    /**
+     * Acrescenta uma mensagem ao final da fila do seu tipo. Com a janela
+     * cheia, a mensagem vai para as páginas em disco.
+     *
+     * @param mensagem Mensagem a ser acrescentada
+     * @return true
+     */
+    @Override
+    public boolean add(Comunicacao mensagem) {
+        Fila fila = filas.computeIfAbsent(mensagem.getTipo(), tipo -> new Fila());
+        Entrada entrada = new Entrada(proximaOrdem++, mensagem);
+        if (paginas != null && (fila.derramadas.getQuantidade() > 0 || fila.janela.size() >= paginas.getJanela())) {
+            paginas.anexar(fila.derramadas, entrada);
+        } else {
+            fila.janela.addLast(entrada);
+        }
+        tamanho++;
+        return true;
+    }
+
+    /**
+     * Devolve a mensagem mais antiga de um tipo, sem removê-la.
+     *
+     * @param tipo Tipo da mensagem ("recado" ou "comunidade")
+     * @return Mensagem mais antiga do tipo, ou null se não houver mensagens do tipo
+     */
+    public Comunicacao consultarProxima(String tipo) {
+        Fila fila = filas.get(tipo);
+        return fila == null || fila.janela.isEmpty() ? null : fila.janela.peekFirst().mensagem;
+    }
+
+    /**
+     * Remove e devolve a mensagem mais antiga de um tipo.
+     *
+     * @param tipo Tipo da mensagem ("recado" ou "comunidade")
+     * @return Mensagem removida, ou null se não houver mensagens do tipo
+     */
+    public Comunicacao removerProxima(String tipo) {
+        Fila fila = filas.get(tipo);
+        if (fila == null || fila.janela.isEmpty()) {
+            return null;
+        }
+        tamanho--;
+        Comunicacao proxima = fila.janela.pollFirst().mensagem;
+        recarregar(fila);
+        return proxima;
+    }
+
+    /**
+     * @param tipo Tipo da mensagem ("recado" ou "comunidade")
+     * @return true se houver mensagens do tipo na caixa
+     */
+    public boolean temMensagens(String tipo) {
+        Fila fila = filas.get(tipo);
+        return fila != null && !fila.janela.isEmpty();
+    }
+
+    /**
+     * @return Páginas onde as filas derramam o que passa da janela, ou null se tudo fica em memória
+     */
+    PaginasMensagens getPaginas() {
+        return paginas;
+    }
+
+    @Override
+    public int size() {
+        return tamanho;
+    }
+
+    @Override
+    public void clear() {
+        if (paginas != null) {
+            for (Fila fila : filas.values()) {
+                paginas.liberar(fila.derramadas);
+            }
+        }
+        filas.clear();
+        tamanho = 0;
+    }
+
+    @Override
+    public Comunicacao get(int indice) {
+        return entrada(indice).mensagem;
+    }
+
+    @Override
+    public Comunicacao remove(int indice) {
+        Entrada entrada = entrada(indice);
+        // A entrada é procurada pela ordem de chegada, na fila do seu tipo
+        remover(filas.get(entrada.mensagem.getTipo()), candidata -> candidata.ordem == entrada.ordem, true);
+        return entrada.mensagem;
+    }
+
+    @Override
+    public boolean remove(Object mensagem) {
+        if (!(mensagem instanceof Comunicacao)) {
+            return false;
+        }
+        Fila fila = filas.get(((Comunicacao) mensagem).getTipo());
+        return fila != null && remover(fila, entrada -> mesmaMensagem(entrada.mensagem, (Comunicacao) mensagem), true);
+    }
+
+    @Override
+    public boolean removeIf(Predicate<? super Comunicacao> filtro) {
+        boolean removeu = false;
+        for (Fila fila : filas.values()) {
+            removeu |= remover(fila, entrada -> filtro.test(entrada.mensagem), false);
+        }
+        return removeu;
+    }
+
+    /**
+     * Percorre as mensagens na ordem de chegada. O iterador não remove
+     * mensagens: use {@link #removeIf} ou {@link #removerProxima}.
+     */
+    @Override
+    public Iterator<Comunicacao> iterator() {
+        Iterator<Entrada> entradas = entradas();
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return entradas.hasNext();
+            }
+
+            @Override
+            public Comunicacao next() {
+                return entradas.next().mensagem;
+            }
+        };
+    }
+
+    /**
+     * @return Entrada na posição informada da ordem de chegada
+     */
+    private Entrada entrada(int indice) {
+        Objects.checkIndex(indice, tamanho);
+        Iterator<Entrada> entradas = entradas();
+        for (int i = 0; i < indice; i++) {
+            entradas.next();
+        }
+        return entradas.next();
+    }
+
+    /**
+     * Remove de uma fila as entradas aceitas por um filtro. As páginas em
+     * disco são lidas uma mensagem de cada vez e regravadas sem as removidas.
+     *
+     * @param fila Fila de um tipo de mensagem
+     * @param filtro Entradas a serem removidas
+     * @param apenasPrimeira Se só a primeira entrada aceita é removida
+     * @return true se alguma entrada foi removida
+     */
+    private boolean remover(Fila fila, Predicate<Entrada> filtro, boolean apenasPrimeira) {
+        int anterior = tamanho;
+        Iterator<Entrada> janela = fila.janela.iterator();
+        while (janela.hasNext() && !(apenasPrimeira && tamanho != anterior)) {
+            if (filtro.test(janela.next())) {
+                janela.remove();
+                tamanho--;
+            }
+        }
+        if (fila.derramadas.getQuantidade() > 0 && !(apenasPrimeira && tamanho != anterior)) {
+            PaginasMensagens.Cadeia restantes = new PaginasMensagens.Cadeia();
+            Iterator<Entrada> derramadas = paginas.percorrer(fila.derramadas);
+            while (derramadas.hasNext()) {
+                Entrada entrada = derramadas.next();
+                if (!(apenasPrimeira && tamanho != anterior) && filtro.test(entrada)) {
+                    tamanho--;
+                } else {
+                    paginas.anexar(restantes, entrada);
+                }
+            }
+            paginas.liberar(fila.derramadas);
+            fila.derramadas = restantes;
+        }
+        recarregar(fila);
+        return tamanho != anterior;
+    }
+
+    /**
+     * As mensagens lidas de volta das páginas são objetos novos: além da
+     * identidade, duas mensagens são a mesma se tiverem o mesmo conteúdo.
+     */
+    private static boolean mesmaMensagem(Comunicacao armazenada, Comunicacao procurada) {
+        return armazenada == procurada
+                || Objects.equals(armazenada.getRemetente(), procurada.getRemetente())
+                && Objects.equals(armazenada.getDestinatario(), procurada.getDestinatario())
+                && Objects.equals(armazenada.getConteudo(), procurada.getConteudo())
+                && Objects.equals(armazenada.getTipo(), procurada.getTipo());
+    }
+
+    /**
+     * Completa a janela de uma fila com as mensagens mais antigas das páginas em disco.
+     */
+    private void recarregar(Fila fila) {
+        while (fila.derramadas.getQuantidade() > 0 && fila.janela.size() < paginas.getJanela()) {
+            fila.janela.addLast(paginas.retirar(fila.derramadas));
+        }
+    }
+
+    /**
+     * Intercala as filas pela ordem de chegada de cada entrada.
+     */
+    private Iterator<Entrada> entradas() {
+        List<Iterator<Entrada>> iteradores = new ArrayList<>(filas.size());
+        for (Fila fila : filas.values()) {
+            if (!fila.janela.isEmpty()) {
+                iteradores.add(fila.iterator());
+            }
+        }
+        Entrada[] proximas = new Entrada[iteradores.size()];
+        for (int i = 0; i < proximas.length; i++) {
+            proximas[i] = iteradores.get(i).next();
+        }
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                for (Entrada entrada : proximas) {
+                    if (entrada != null) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+
+            @Override
+            public Entrada next() {
+                int escolhida = -1;
+                for (int i = 0; i < proximas.length; i++) {
+                    if (proximas[i] != null && (escolhida < 0 || proximas[i].ordem < proximas[escolhida].ordem)) {
+                        escolhida = i;
+                    }
+                }
+                if (escolhida < 0) {
+                    throw new NoSuchElementException();
+                }
+                Entrada entrada = proximas[escolhida];
+                Iterator<Entrada> fila = iteradores.get(escolhida);
+                proximas[escolhida] = fila.hasNext() ? fila.next() : null;
+                return entrada;
+            }
+        };
+    }
+
+    /**
+     * Grava a caixa como uma lista comum, na ordem de chegada.
+     */
+    @Serial
+    private Object writeReplace() {
+        return new ArrayList<>(this);
+    }
+
+    /**
+     * Fila de um tipo de mensagem: a janela em memória, com as mais antigas,
+     * seguida das páginas em disco, com as que chegaram com a janela cheia.
+     */
+    private final class Fila {
+        private final ArrayDeque<Entrada> janela = new ArrayDeque<>();
+        private PaginasMensagens.Cadeia derramadas = new PaginasMensagens.Cadeia();
+
+        /**
+         * Percorre a janela e, em seguida, as páginas em disco.
+         */
+        private Iterator<Entrada> iterator() {
+            Iterator<Entrada> memoria = janela.iterator();
+            if (derramadas.getQuantidade() == 0) {
+                return memoria;
+            }
+            Iterator<Entrada> disco = paginas.percorrer(derramadas);
+            return new Iterator<>() {
+                @Override
+                public boolean hasNext() {
+                    return memoria.hasNext() || disco.hasNext();
+                }
+
+                @Override
+                public Entrada next() {
+                    return memoria.hasNext() ? memoria.next() : disco.next();
+                }
+            };
+        }
+    }
+
+    /**
+     * Mensagem e a sua ordem de chegada na caixa.
+     */
+    static final class Entrada implements Serializable {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        private final long ordem;
+        private final Comunicacao mensagem;
+
+        Entrada(long ordem, Comunicacao mensagem) {
+            this.ordem = ordem;
+            this.mensagem = mensagem;
+        }
+
+        long getOrdem() {
+            return ordem;
+        }
+
+        Comunicacao getMensagem() {
+            return mensagem;
+        }
+    }
+}
@@ -0,0 +1,382 @@
+package br.ufal.ic.p2.jackut.storage;
+
+import br.ufal.ic.p2.jackut.entities.Comunicacao;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.LongConsumer;
+import java.util.function.LongPredicate;
+
+/**
+ * Caixas de mensagens guardadas em um {@link LogMensagens}.
+ * <p>
+ * O conteúdo das mensagens fica apenas no log; em memória, cada caixa guarda
+ * a posição das suas mensagens ainda não lidas. Cada usuário tem um cursor
+ * por tipo de mensagem com a posição da última mensagem lida, de modo que ler
+ * uma mensagem apenas avança o cursor. Só os cursores e a posição final do
+ * log são gravados no snapshot: as caixas são reconstruídas percorrendo o
+ * log na carga, e o tamanho do snapshot não depende mais das mensagens acumuladas.
+ * <p>
+ * Sem um log associado (ex.: durante a mesclagem de snapshots), o objeto
+ * guarda apenas os cursores e a posição final, que são copiados de um
+ * snapshot para outro.
+ * <p>
+ * Caixas de usuários diferentes podem ser alteradas ao mesmo tempo; cada
+ * caixa deve ser alterada por uma thread de cada vez.
+ */
+public class CaixasEmLog {
+
+    /** Índice do cursor de cada tipo de mensagem */
+    private static final int RECADO = 0;
+    private static final int COMUNIDADE = 1;
+
+    /** Última mensagem lida de cada tipo ({recado, comunidade}), indexada por login */
+    private final Map<String, long[]> cursores;
+
+    /** Mensagens não lidas de cada caixa, indexadas por login */
+    private final Map<String, Caixa> caixas;
+
+    /** Posição final do log, quando não há log associado */
+    private long fim;
+
+    /** Log das mensagens, ou null se as caixas ainda não foram reconstruídas */
+    private LogMensagens log;
+
+    /**
+     * Construtor que inicializa caixas vazias, sem log associado.
+     */
+    public CaixasEmLog() {
+        this.cursores = new ConcurrentHashMap<>();
+        this.caixas = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Associa o log e reconstrói as caixas a partir dele e dos cursores.
+     * As mensagens anuladas por remoções posteriores e as já lidas são ignoradas.
+     *
+     * @param log Log aberto na posição final dos cursores
+     * @throws IOException Se o log não puder ser percorrido
+     */
+    public void anexar(LogMensagens log) throws IOException {
+        Map<String, Long> remetentesRemovidos = new HashMap<>();
+        Map<String, Long> caixasRemovidas = new HashMap<>();
+        long[] limpeza = {-1};
+        log.percorrer(registro -> {
+            if (registro.tipo == LogMensagens.REMETENTE_REMOVIDO) {
+                remetentesRemovidos.put(registro.login, registro.posicao);
+            } else if (registro.tipo == LogMensagens.CAIXA_REMOVIDA) {
+                caixasRemovidas.put(registro.login, registro.posicao);
+            } else if (registro.tipo == LogMensagens.LIMPEZA) {
+                limpeza[0] = registro.posicao;
+            }
+        });
+
+        caixas.clear();
+        log.percorrer(registro -> {
+            if (registro.tipo != LogMensagens.MENSAGEM || registro.posicao < limpeza[0]
+                    || registro.posicao < caixasRemovidas.getOrDefault(registro.login, -1L)
+                    || registro.posicao < remetentesRemovidos.getOrDefault(registro.mensagem.getRemetente(), -1L)) {
+                return;
+            }
+            int tipo = indice(registro.mensagem.getTipo());
+            long[] cursor = cursores.get(registro.login);
+            if (cursor == null || registro.posicao > cursor[tipo]) {
+                caixas.computeIfAbsent(registro.login, login -> new Caixa()).adicionar(registro.posicao, tipo);
+            }
+        });
+        this.log = log;
+    }
+
+    /**
+     * @return Log das mensagens, ou null se nenhum foi associado
+     */
+    public LogMensagens getLog() {
+        return log;
+    }
+
+    /**
+     * Adiciona uma mensagem ao final da caixa de um destinatário.
+     *
+     * @param destinatario Login do destinatário
+     * @param mensagem Mensagem a ser adicionada
+     */
+    public void adicionar(String destinatario, Comunicacao mensagem) {
+        long posicao = log.anexarMensagem(destinatario, mensagem);
+        caixas.computeIfAbsent(destinatario, login -> new Caixa()).adicionar(posicao, indice(mensagem.getTipo()));
+    }
+
+    /**
+     * Consulta a mensagem mais antiga de um tipo ainda não lida, sem avançar o cursor do usuário.
+     *
+     * @param login Login do dono da caixa
+     * @param tipo Tipo da mensagem ("recado" ou "comunidade")
+     * @return Mensagem consultada, ou null se não houver mensagens do tipo
+     */
+    public Comunicacao consultarProxima(String login, String tipo) {
+        Caixa caixa = caixas.get(login);
+        if (caixa == null) {
+            return null;
+        }
+        long posicao = caixa.consultar(indice(tipo));
+        return posicao < 0 ? null : log.ler(posicao);
+    }
+
+    /**
+     * Lê a mensagem mais antiga de um tipo ainda não lida, avançando o cursor do usuário.
+     *
+     * @param login Login do dono da caixa
+     * @param tipo Tipo da mensagem ("recado" ou "comunidade")
+     * @return Mensagem lida, ou null se não houver mensagens do tipo
+     */
+    public Comunicacao removerProxima(String login, String tipo) {
+        Caixa caixa = caixas.get(login);
+        if (caixa == null) {
+            return null;
+        }
+        int indice = indice(tipo);
+        long posicao = caixa.avancar(indice);
+        if (posicao < 0) {
+            return null;
+        }
+        cursores.computeIfAbsent(login, chave -> new long[]{-1, -1})[indice] = posicao;
+        if (caixa.isVazia()) {
+            caixas.remove(login);
+        }
+        return log.ler(posicao);
+    }
+
+    /**
+     * Remove das caixas informadas as mensagens não lidas enviadas por um usuário.
+     * Cada mensagem pendente dessas caixas é lida do log para se conhecer o seu remetente.
+     *
+     * @param remetente Login do remetente
+     * @param destinatarios Logins dos donos das caixas onde o remetente tem mensagens
+     */
+    public void removerDoRemetente(String remetente, Collection<String> destinatarios) {
+        log.anexarRemetenteRemovido(remetente);
+        for (String destinatario : destinatarios) {
+            Caixa caixa = caixas.get(destinatario);
+            if (caixa == null) {
+                continue;
+            }
+            caixa.removerSe(posicao -> remetente.equals(log.ler(posicao).getRemetente()));
+            if (caixa.isVazia()) {
+                caixas.remove(destinatario);
+            }
+        }
+    }
+
+    /**
+     * Remove a caixa e os cursores de um usuário.
+     *
+     * @param login Login do dono da caixa
+     */
+    public void removerCaixa(String login) {
+        log.anexarCaixaRemovida(login);
+        caixas.remove(login);
+        cursores.remove(login);
+    }
+
+    /**
+     * Remove todas as caixas e todos os cursores.
+     */
+    public void limpar() {
+        log.anexarLimpeza();
+        caixas.clear();
+        cursores.clear();
+    }
+
+    /**
+     * Copia as mensagens não lidas de cada caixa, na ordem de chegada.
+     *
+     * @return Mensagens não lidas, indexadas pelo login do dono da caixa
+     */
+    public Map<String, List<Comunicacao>> copiarPendentes() {
+        Map<String, List<Comunicacao>> pendentes = new HashMap<>();
+        percorrerPendentes((dono, mensagem) -> pendentes.computeIfAbsent(dono, login -> new ArrayList<>()).add(mensagem));
+        return pendentes;
+    }
+
+    /**
+     * Percorre as mensagens não lidas de cada caixa, na ordem de chegada,
+     * lendo uma de cada vez do log.
+     *
+     * @param destino Recebe o login do dono da caixa e cada mensagem
+     */
+    public void percorrerPendentes(BiConsumer<String, Comunicacao> destino) {
+        for (Map.Entry<String, Caixa> caixa : caixas.entrySet()) {
+            caixa.getValue().paraCada(posicao -> destino.accept(caixa.getKey(), log.ler(posicao)));
+        }
+    }
+
+    /**
+     * @return Posição da mensagem mais antiga ainda referenciada por alguma
+     *         caixa, ou a posição final do log se todas foram lidas. Os
+     *         segmentos anteriores a ela podem ser apagados.
+     */
+    public long getPrimeiraPendente() {
+        long primeira = getFim();
+        for (Caixa caixa : caixas.values()) {
+            primeira = Math.min(primeira, caixa.getPrimeira());
+        }
+        return primeira;
+    }
+
+    /**
+     * @return Cursores de leitura ({recado, comunidade}), indexados por login
+     */
+    public Map<String, long[]> getCursores() {
+        return cursores;
+    }
+
+    /**
+     * @param login Login do usuário
+     * @return Cópia dos cursores de leitura do usuário, ou null se ele nunca leu mensagens
+     */
+    public long[] getCursor(String login) {
+        long[] cursor = cursores.get(login);
+        return cursor == null ? null : cursor.clone();
+    }
+
+    /**
+     * @return Posição final do log
+     */
+    public long getFim() {
+        return log != null ? log.getFim() : fim;
+    }
+
+    /**
+     * Define a posição final do log. Usado apenas ao restaurar o estado persistido.
+     *
+     * @param fim Posição final do log
+     */
+    public void setFim(long fim) {
+        this.fim = fim;
+    }
+
+    /**
+     * @param tipo Tipo da mensagem
+     * @return Índice do cursor do tipo
+     */
+    private static int indice(String tipo) {
+        return "comunidade".equals(tipo) ? COMUNIDADE : RECADO;
+    }
+
+    /**
+     * Posições das mensagens de uma caixa, em ordem de chegada, com o tipo de
+     * cada uma no bit menos significativo. Cada tipo tem o seu próprio ponto
+     * de leitura, que só avança; as entradas anteriores aos dois pontos já
+     * foram lidas e são descartadas quando o vetor precisa crescer.
+     */
+    private static class Caixa {
+        private long[] entradas = new long[4];
+        private int tamanho;
+        private final int[] proxima = new int[2];
+
+        void adicionar(long posicao, int tipo) {
+            if (tamanho == entradas.length) {
+                int lidas = Math.min(proxima[RECADO], proxima[COMUNIDADE]);
+                if (lidas >= tamanho / 2) {
+                    System.arraycopy(entradas, lidas, entradas, 0, tamanho - lidas);
+                    tamanho -= lidas;
+                    proxima[RECADO] -= lidas;
+                    proxima[COMUNIDADE] -= lidas;
+                } else {
+                    entradas = Arrays.copyOf(entradas, tamanho * 2);
+                }
+            }
+            entradas[tamanho++] = posicao << 1 | tipo;
+        }
+
+        /**
+         * @return Posição da próxima mensagem do tipo, sem avançar, ou -1 se não houver
+         */
+        long consultar(int tipo) {
+            for (int i = proxima[tipo]; i < tamanho; i++) {
+                if (tipo(i) == tipo) {
+                    return entradas[i] >>> 1;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * @return Posição da próxima mensagem do tipo, ou -1 se não houver
+         */
+        long avancar(int tipo) {
+            int i = proxima[tipo];
+            while (i < tamanho && tipo(i) != tipo) {
+                i++;
+            }
+            proxima[tipo] = i;
+            if (i == tamanho) {
+                return -1;
+            }
+            proxima[tipo]++;
+            normalizar();
+            return entradas[i] >>> 1;
+        }
+
+        void removerSe(LongPredicate remover) {
+            int destino = 0;
+            int[] novaProxima = new int[2];
+            for (int i = 0; i < tamanho; i++) {
+                if (!isLida(i) && remover.test(entradas[i] >>> 1)) {
+                    continue;
+                }
+                for (int tipo = RECADO; tipo <= COMUNIDADE; tipo++) {
+                    if (i < proxima[tipo]) {
+                        novaProxima[tipo]++;
+                    }
+                }
+                entradas[destino++] = entradas[i];
+            }
+            tamanho = destino;
+            proxima[RECADO] = novaProxima[RECADO];
+            proxima[COMUNIDADE] = novaProxima[COMUNIDADE];
+            normalizar();
+        }
+
+        void paraCada(LongConsumer destino) {
+            for (int i = Math.min(proxima[RECADO], proxima[COMUNIDADE]); i < tamanho; i++) {
+                if (!isLida(i)) {
+                    destino.accept(entradas[i] >>> 1);
+                }
+            }
+        }
+
+        /**
+         * @return Posição da mensagem não lida mais antiga, ou Long.MAX_VALUE se não houver
+         */
+        long getPrimeira() {
+            int i = Math.min(proxima[RECADO], proxima[COMUNIDADE]);
+            return i < tamanho ? entradas[i] >>> 1 : Long.MAX_VALUE;
+        }
+
+        boolean isVazia() {
+            return Math.min(proxima[RECADO], proxima[COMUNIDADE]) == tamanho;
+        }
+
+        private int tipo(int i) {
+            return (int) (entradas[i] & 1);
+        }
+
+        private boolean isLida(int i) {
+            return i < proxima[tipo(i)];
+        }
+
+        /**
+         * Avança cada ponto de leitura sobre as mensagens do outro tipo já
+         * lidas, de modo que a entrada no menor ponto seja sempre não lida.
+         */
+        private void normalizar() {
+            for (int tipo = RECADO; tipo <= COMUNIDADE; tipo++) {
+                while (proxima[tipo] < tamanho && tipo(proxima[tipo]) != tipo && isLida(proxima[tipo])) {
+                    proxima[tipo]++;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,486 @@
+package br.ufal.ic.p2.jackut.storage;
+
+import br.ufal.ic.p2.jackut.entities.Comunicacao;
+import br.ufal.ic.p2.jackut.persistence.CanalEntrada;
+import br.ufal.ic.p2.jackut.persistence.CanalSaida;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Log segmentado, somente de acréscimo, das mensagens enviadas.
+ * <p>
+ * Os registros ficam em arquivos de segmento ({@code <base>.msg.<posição inicial>}).
+ * A posição de um registro é o seu deslocamento no log inteiro, de modo que
+ * ele é encontrado no segmento de maior posição inicial que não a ultrapassa.
+ * Cada registro tem o formato [tamanho][crc32][tipo, campos] e nunca é
+ * reescrito: remoções são gravadas como novos registros que anulam as
+ * mensagens anteriores a eles. Os registros de mensagem vindas de um mural
+ * terminam com a ordem de chegada no mural, ausente nas demais.
+ * <p>
+ * Os acréscimos ficam em memória até encherem um buffer ou até a próxima
+ * sincronização. O snapshot guarda a posição final do log no momento da
+ * captura; ao abrir, tudo que estiver depois dela é descartado, pois será
+ * gravado novamente quando o journal for reaplicado.
+ */
+public class LogMensagens implements Closeable {
+
+    /** Tipos de registro */
+    static final int MENSAGEM = 1;
+    static final int REMETENTE_REMOVIDO = 2;
+    static final int CAIXA_REMOVIDA = 3;
+    static final int LIMPEZA = 4;
+
+    /** Parte do nome que identifica os arquivos de segmento */
+    private static final String INFIXO = ".msg.";
+
+    /** Tamanho do cabeçalho de cada registro: tamanho (int) + crc32 (int) */
+    private static final int TAMANHO_CABECALHO = 8;
+
+    /** Quantidade de bytes acumulados em memória que dispara uma escrita */
+    private static final int LIMITE_PENDENTES = 64 * 1024;
+
+    /** Caminho do snapshot base, que dá nome aos segmentos */
+    private final Path arquivoBase;
+
+    /** Tamanho a partir do qual um novo segmento é iniciado */
+    private final long tamanhoSegmento;
+
+    /** Canal de cada segmento, indexado pela sua posição inicial */
+    private final TreeMap<Long, FileChannel> segmentos;
+
+    /** Posição inicial do segmento em que os registros são acrescentados */
+    private long inicioAtivo;
+
+    /** Posição até a qual os registros já foram escritos no segmento ativo */
+    private long escrito;
+
+    /** Registros ainda não escritos, a partir da posição {@link #escrito} */
+    private byte[] pendentes;
+
+    /** Bytes usados de {@link #pendentes} */
+    private int tamanhoPendentes;
+
+    private LogMensagens(Path arquivoBase, long tamanhoSegmento, TreeMap<Long, FileChannel> segmentos, long fim) {
+        this.arquivoBase = arquivoBase;
+        this.tamanhoSegmento = Math.max(TAMANHO_CABECALHO, tamanhoSegmento);
+        this.segmentos = segmentos;
+        this.inicioAtivo = segmentos.isEmpty() ? fim : segmentos.lastKey();
+        this.escrito = fim;
+        this.pendentes = new byte[1024];
+    }
+
+    /**
+     * Abre o log, descartando os registros posteriores à posição final gravada no snapshot.
+     *
+     * @param arquivoBase Caminho do snapshot base
+     * @param fim Posição final do log no snapshot carregado
+     * @param tamanhoSegmento Tamanho a partir do qual um novo segmento é iniciado
+     * @return Log aberto e pronto para novos registros
+     * @throws IOException Se os segmentos não puderem ser abertos ou não chegarem até a posição final
+     */
+    public static LogMensagens abrir(Path arquivoBase, long fim, long tamanhoSegmento) throws IOException {
+        Path base = arquivoBase.toAbsolutePath();
+        TreeMap<Long, FileChannel> segmentos = new TreeMap<>();
+        try {
+            for (Map.Entry<Long, Path> segmento : listarSegmentos(base).entrySet()) {
+                long inicio = segmento.getKey();
+                if (inicio >= fim) {
+                    Files.deleteIfExists(segmento.getValue());
+                    continue;
+                }
+                FileChannel canal = FileChannel.open(segmento.getValue(), StandardOpenOption.READ,
+                        StandardOpenOption.WRITE);
+                segmentos.put(inicio, canal);
+                if (canal.size() > fim - inicio) {
+                    canal.truncate(fim - inicio);
+                }
+            }
+            if (!segmentos.isEmpty() && segmentos.lastKey() + segmentos.lastEntry().getValue().size() < fim) {
+                throw new IOException("Log de mensagens incompleto: esperado até a posição " + fim);
+            }
+        } catch (IOException | RuntimeException e) {
+            for (FileChannel canal : segmentos.values()) {
+                canal.close();
+            }
+            throw e;
+        }
+        return new LogMensagens(base, tamanhoSegmento, segmentos, fim);
+    }
+
+    /**
+     * Acrescenta uma mensagem endereçada à caixa de um usuário.
+     *
+     * @param dono Login do dono da caixa
+     * @param mensagem Mensagem enviada
+     * @return Posição do registro
+     */
+    public synchronized long anexarMensagem(String dono, Comunicacao mensagem) {
+        return anexar(MENSAGEM, mensagem.getOrdem(), dono, mensagem.getRemetente(), mensagem.getDestinatario(),
+                mensagem.getConteudo(), mensagem.getTipo());
+    }
+
+    /**
+     * Acrescenta um registro que anula as mensagens anteriores enviadas por um usuário.
+     *
+     * @param remetente Login do remetente removido
+     * @return Posição do registro
+     */
+    public synchronized long anexarRemetenteRemovido(String remetente) {
+        return anexar(REMETENTE_REMOVIDO, 0, remetente);
+    }
+
+    /**
+     * Acrescenta um registro que anula as mensagens anteriores da caixa de um usuário.
+     *
+     * @param dono Login do dono da caixa removida
+     * @return Posição do registro
+     */
+    public synchronized long anexarCaixaRemovida(String dono) {
+        return anexar(CAIXA_REMOVIDA, 0, dono);
+    }
+
+    /**
+     * Acrescenta um registro que anula todas as mensagens anteriores.
+     *
+     * @return Posição do registro
+     */
+    public synchronized long anexarLimpeza() {
+        return anexar(LIMPEZA, 0);
+    }
+
+    /**
+     * Lê a mensagem gravada em uma posição.
+     *
+     * @param posicao Posição de um registro de mensagem
+     * @return Mensagem lida
+     * @throws UncheckedIOException Se o registro não puder ser lido
+     */
+    public synchronized Comunicacao ler(long posicao) {
+        try {
+            byte[] conteudo;
+            if (posicao >= escrito) {
+                int inicio = (int) (posicao - escrito);
+                int tamanho = ByteBuffer.wrap(pendentes, inicio, 4).getInt();
+                conteudo = Arrays.copyOfRange(pendentes, inicio + TAMANHO_CABECALHO,
+                        inicio + TAMANHO_CABECALHO + tamanho);
+            } else {
+                Map.Entry<Long, FileChannel> segmento = segmentos.floorEntry(posicao);
+                if (segmento == null) {
+                    throw new IOException("Mensagem fora do log: " + posicao);
+                }
+                long deslocamento = posicao - segmento.getKey();
+                ByteBuffer cabecalho = lerCompleto(segmento.getValue(), deslocamento, TAMANHO_CABECALHO);
+                conteudo = lerCompleto(segmento.getValue(), deslocamento + TAMANHO_CABECALHO,
+                        cabecalho.getInt()).array();
+            }
+            Registro registro = decodificar(posicao, conteudo);
+            if (registro.tipo != MENSAGEM) {
+                throw new IOException("Registro não é uma mensagem: " + posicao);
+            }
+            return registro.mensagem;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Erro ao ler a mensagem " + posicao + " do log", e);
+        }
+    }
+
+    /**
+     * Percorre, em ordem, todos os registros do log.
+     *
+     * @param destino Recebe cada registro lido
+     * @throws IOException Se algum segmento não puder ser lido ou estiver corrompido
+     */
+    synchronized void percorrer(Consumer<Registro> destino) throws IOException {
+        descarregar();
+        for (Map.Entry<Long, FileChannel> segmento : segmentos.entrySet()) {
+            CanalEntrada in = new CanalEntrada(segmento.getValue());
+            long tamanho = segmento.getValue().size();
+            while (in.posicao() < tamanho) {
+                long posicao = segmento.getKey() + in.posicao();
+                int tamanhoConteudo = in.lerInt();
+                int crcEsperado = in.lerInt();
+                byte[] conteudo = in.lerBytes(tamanhoConteudo);
+                CRC32 crc = new CRC32();
+                crc.update(conteudo);
+                if ((int) crc.getValue() != crcEsperado) {
+                    throw new IOException("Registro corrompido no log de mensagens: " + posicao);
+                }
+                destino.accept(decodificar(posicao, conteudo));
+            }
+        }
+    }
+
+    /**
+     * @return Posição logo após o último registro acrescentado
+     */
+    public synchronized long getFim() {
+        return escrito + tamanhoPendentes;
+    }
+
+    /**
+     * Escreve os registros pendentes e os sincroniza com o disco.
+     *
+     * @throws IOException Se ocorrer um erro de escrita
+     */
+    public synchronized void sincronizar() throws IOException {
+        descarregar();
+        FileChannel ativo = segmentos.get(inicioAtivo);
+        if (ativo != null) {
+            ativo.force(false);
+        }
+    }
+
+    /**
+     * Apaga os segmentos cujos registros estão todos antes da posição informada.
+     * O segmento ativo nunca é apagado.
+     *
+     * @param posicao Posição do registro mais antigo que ainda é necessário
+     * @throws IOException Se algum segmento não puder ser apagado
+     */
+    public synchronized void descartarAte(long posicao) throws IOException {
+        while (segmentos.size() > 1) {
+            Map.Entry<Long, FileChannel> primeiro = segmentos.firstEntry();
+            Long proximo = segmentos.higherKey(primeiro.getKey());
+            if (proximo > posicao || primeiro.getKey() == inicioAtivo) {
+                return;
+            }
+            primeiro.getValue().close();
+            segmentos.remove(primeiro.getKey());
+            Files.deleteIfExists(arquivoSegmento(primeiro.getKey()));
+        }
+    }
+
+    /**
+     * @return Quantidade de arquivos de segmento do log
+     */
+    public synchronized int getQuantidadeSegmentos() {
+        return segmentos.size();
+    }
+
+    /**
+     * Escreve os registros pendentes e fecha os segmentos.
+     */
+    @Override
+    public synchronized void close() {
+        try {
+            descarregar();
+        } catch (IOException e) {
+            // Os registros não escritos continuam no journal
+        }
+        for (FileChannel canal : segmentos.values()) {
+            try {
+                canal.close();
+            } catch (IOException e) {
+                // Nada mais a fazer com o canal
+            }
+        }
+        segmentos.clear();
+    }
+
+    /**
+     * Codifica um registro e o acrescenta aos pendentes, iniciando um novo
+     * segmento se o ativo já estiver cheio.
+     *
+     * @param ordem Ordem de chegada no mural, gravada no fim do registro se não for 0
+     * @return Posição do registro
+     */
+    private long anexar(int tipo, long ordem, String... campos) {
+        try {
+            CanalSaida saida = new CanalSaida(256);
+            saida.escreverByte(tipo);
+            for (String campo : campos) {
+                escreverTexto(saida, campo);
+            }
+            if (ordem != 0) {
+                saida.escreverVarint(ordem);
+            }
+            byte[] conteudo = saida.getBytes();
+
+            if (getFim() - inicioAtivo >= tamanhoSegmento) {
+                iniciarSegmento();
+            }
+            if (tamanhoPendentes >= LIMITE_PENDENTES) {
+                descarregar();
+            }
+
+            long posicao = getFim();
+            CRC32 crc = new CRC32();
+            crc.update(conteudo);
+            garantir(TAMANHO_CABECALHO + conteudo.length);
+            ByteBuffer.wrap(pendentes, tamanhoPendentes, TAMANHO_CABECALHO)
+                    .putInt(conteudo.length).putInt((int) crc.getValue());
+            System.arraycopy(conteudo, 0, pendentes, tamanhoPendentes + TAMANHO_CABECALHO, conteudo.length);
+            tamanhoPendentes += TAMANHO_CABECALHO + conteudo.length;
+            return posicao;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Erro ao gravar o log de mensagens", e);
+        }
+    }
+
+    /**
+     * Fecha o segmento ativo, sincronizado com o disco, e inicia outro no fim do log.
+     */
+    private void iniciarSegmento() throws IOException {
+        descarregar();
+        FileChannel ativo = segmentos.get(inicioAtivo);
+        if (ativo != null) {
+            ativo.force(false);
+        }
+        inicioAtivo = getFim();
+    }
+
+    /**
+     * Escreve os registros pendentes no segmento ativo, criando o arquivo se necessário.
+     */
+    private void descarregar() throws IOException {
+        if (tamanhoPendentes == 0) {
+            return;
+        }
+        FileChannel ativo = segmentos.get(inicioAtivo);
+        if (ativo == null) {
+            ativo = FileChannel.open(arquivoSegmento(inicioAtivo), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            segmentos.put(inicioAtivo, ativo);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(pendentes, 0, tamanhoPendentes);
+        while (buffer.hasRemaining()) {
+            ativo.write(buffer, escrito - inicioAtivo + buffer.position());
+        }
+        escrito += tamanhoPendentes;
+        tamanhoPendentes = 0;
+    }
+
+    /**
+     * Garante espaço em {@link #pendentes} para a quantidade de bytes informada.
+     */
+    private void garantir(int bytes) {
+        if (tamanhoPendentes + bytes > pendentes.length) {
+            pendentes = Arrays.copyOf(pendentes, Math.max(tamanhoPendentes + bytes, pendentes.length * 2));
+        }
+    }
+
+    /**
+     * @param inicio Posição inicial do segmento
+     * @return Caminho do arquivo do segmento
+     */
+    private Path arquivoSegmento(long inicio) {
+        return arquivoBase.resolveSibling(arquivoBase.getFileName() + INFIXO + inicio);
+    }
+
+    /**
+     * Lista os arquivos de segmento existentes, ordenados pela posição inicial.
+     */
+    private static TreeMap<Long, Path> listarSegmentos(Path arquivoBase) throws IOException {
+        TreeMap<Long, Path> segmentos = new TreeMap<>();
+        String prefixo = arquivoBase.getFileName() + INFIXO;
+        try (DirectoryStream<Path> arquivos = Files.newDirectoryStream(arquivoBase.getParent(), prefixo + "*")) {
+            for (Path arquivo : arquivos) {
+                try {
+                    segmentos.put(Long.parseLong(arquivo.getFileName().toString().substring(prefixo.length())),
+                            arquivo);
+                } catch (NumberFormatException e) {
+                    // Não é um segmento do log
+                }
+            }
+        }
+        return segmentos;
+    }
+
+    /**
+     * Lê uma quantidade exata de bytes de um canal.
+     */
+    private static ByteBuffer lerCompleto(FileChannel canal, long posicao, int quantidade) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(quantidade);
+        while (buffer.hasRemaining()) {
+            if (canal.read(buffer, posicao + buffer.position()) < 0) {
+                throw new IOException("Segmento do log de mensagens truncado");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Decodifica o conteúdo de um registro.
+     */
+    private static Registro decodificar(long posicao, byte[] conteudo) throws IOException {
+        CanalEntrada in = new CanalEntrada(conteudo);
+        int tipo = in.lerByte();
+        switch (tipo) {
+            case MENSAGEM:
+                String dono = lerTexto(in);
+                String remetente = lerTexto(in);
+                String destinatario = lerTexto(in);
+                String texto = lerTexto(in);
+                String tipoMensagem = lerTexto(in);
+                long ordem = in.posicao() < conteudo.length ? in.lerVarint() : 0;
+                return new Registro(posicao, tipo, dono,
+                        new Comunicacao(remetente, destinatario, texto, tipoMensagem, ordem));
+            case REMETENTE_REMOVIDO:
+            case CAIXA_REMOVIDA:
+                return new Registro(posicao, tipo, lerTexto(in), null);
+            case LIMPEZA:
+                return new Registro(posicao, tipo, null, null);
+            default:
+                throw new IOException("Tipo de registro desconhecido no log de mensagens: " + tipo);
+        }
+    }
+
+    /**
+     * Escreve um texto que pode ser nulo: 0 para null, ou o tamanho + 1 seguido dos bytes.
+     */
+    private static void escreverTexto(CanalSaida saida, String texto) throws IOException {
+        if (texto == null) {
+            saida.escreverVarint(0);
+            return;
+        }
+        byte[] bytes = texto.getBytes(StandardCharsets.UTF_8);
+        saida.escreverVarint(bytes.length + 1L);
+        saida.escreverBytes(bytes);
+    }
+
+    private static String lerTexto(CanalEntrada entrada) throws IOException {
+        int tamanho = entrada.lerVarintInt();
+        if (tamanho == 0) {
+            return null;
+        }
+        return new String(entrada.lerBytes(tamanho - 1), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Registro lido do log.
+     */
+    static class Registro {
+        /** Posição do registro no log */
+        final long posicao;
+
+        /** Tipo do registro */
+        final int tipo;
+
+        /** Dono da caixa (mensagem ou caixa removida) ou remetente removido */
+        final String login;
+
+        /** Mensagem, nos registros de mensagem */
+        final Comunicacao mensagem;
+
+        private Registro(long posicao, int tipo, String login, Comunicacao mensagem) {
+            this.posicao = posicao;
+            this.tipo = tipo;
+            this.login = login;
+            this.mensagem = mensagem;
+        }
+    }
+}
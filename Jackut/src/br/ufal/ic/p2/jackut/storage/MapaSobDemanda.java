@@ -0,0 +1,183 @@
+package br.ufal.ic.p2.jackut.storage;
+
+import br.ufal.ic.p2.jackut.entities.Usuario;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Mapa de usuários carregados sob demanda: cada usuário é lido da
+ * {@link OrigemUsuarios} na primeira vez que é acessado e, a partir daí,
+ * passa a viver no mapa do motor de armazenamento como qualquer outro.
+ * <p>
+ * Um usuário da origem que já foi carregado ou removido é "resolvido": a
+ * origem não é mais consultada para ele. Esvaziar o mapa descarta a origem.
+ */
+public class MapaSobDemanda extends AbstractMap<String, Usuario> {
+
+    /** Usuários já carregados ou criados depois da carga */
+    private final Map<String, Usuario> carregados;
+
+    /** Logins da origem que não precisam mais ser consultados nela */
+    private final Set<String> resolvidos;
+
+    /** Origem dos usuários ainda não carregados (null depois de esvaziado) */
+    private OrigemUsuarios origem;
+
+    /**
+     * Construtor que combina o mapa do motor com uma origem.
+     *
+     * @param carregados Mapa de usuários do motor de armazenamento
+     * @param origem Origem dos usuários ainda não carregados
+     */
+    public MapaSobDemanda(Map<String, Usuario> carregados, OrigemUsuarios origem) {
+        this.carregados = carregados;
+        this.resolvidos = new HashSet<>();
+        this.origem = origem;
+    }
+
+    @Override
+    public synchronized Usuario get(Object chave) {
+        Usuario usuario = carregados.get(chave);
+        if (usuario != null || !pendente(chave)) {
+            return usuario;
+        }
+
+        String login = (String) chave;
+        usuario = origem.carregar(login);
+        if (usuario != null) {
+            resolvidos.add(login);
+            carregados.put(login, usuario);
+        }
+        return usuario;
+    }
+
+    @Override
+    public synchronized boolean containsKey(Object chave) {
+        return carregados.containsKey(chave) || (pendente(chave) && origem.contem((String) chave));
+    }
+
+    /**
+     * Substitui um usuário sem carregar a versão da origem; por isso o valor
+     * devolvido é null quando a versão substituída ainda não tinha sido carregada.
+     */
+    @Override
+    public synchronized Usuario put(String login, Usuario usuario) {
+        if (pendente(login) && origem.contem(login)) {
+            resolvidos.add(login);
+        }
+        return carregados.put(login, usuario);
+    }
+
+    @Override
+    public synchronized Usuario remove(Object chave) {
+        // get() carrega o usuário da origem, deixando-o resolvido
+        Usuario anterior = get(chave);
+        if (anterior != null) {
+            carregados.remove(chave);
+        }
+        return anterior;
+    }
+
+    @Override
+    public synchronized int size() {
+        return carregados.size() + (origem == null ? 0 : origem.quantidade() - resolvidos.size());
+    }
+
+    @Override
+    public synchronized void clear() {
+        carregados.clear();
+        resolvidos.clear();
+        if (origem != null) {
+            origem.close();
+            origem = null;
+        }
+    }
+
+    /**
+     * Percorre todos os usuários sem carregá-los: os que ainda estão apenas na
+     * origem são lidos dela um a um e não ficam no mapa.
+     *
+     * @param destino Recebe cada usuário
+     */
+    public synchronized void percorrer(Consumer<Usuario> destino) {
+        for (Usuario usuario : carregados.values()) {
+            destino.accept(usuario);
+        }
+        if (origem == null) {
+            return;
+        }
+        origem.percorrer(login -> !resolvidos.contains(login), destino);
+    }
+
+    /**
+     * @return Quantidade de usuários da origem que ainda não foram carregados
+     */
+    public synchronized int getPendentes() {
+        return origem == null ? 0 : origem.quantidade() - resolvidos.size();
+    }
+
+    @Override
+    public Set<Entry<String, Usuario>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Entry<String, Usuario>> iterator() {
+                List<String> chaves;
+                synchronized (MapaSobDemanda.this) {
+                    chaves = new ArrayList<>(carregados.keySet());
+                    if (origem != null) {
+                        for (String login : origem.logins()) {
+                            if (!resolvidos.contains(login)) {
+                                chaves.add(login);
+                            }
+                        }
+                    }
+                }
+                Iterator<String> iterador = chaves.iterator();
+
+                return new Iterator<>() {
+                    private String atual;
+
+                    @Override
+                    public boolean hasNext() {
+                        return iterador.hasNext();
+                    }
+
+                    @Override
+                    public Entry<String, Usuario> next() {
+                        atual = iterador.next();
+                        String login = atual;
+                        return new AbstractMap.SimpleEntry<>(login, null) {
+                            @Override
+                            public Usuario getValue() {
+                                return get(login);
+                            }
+
+                            @Override
+                            public Usuario setValue(Usuario usuario) {
+                                return put(login, usuario);
+                            }
+                        };
+                    }
+
+                    @Override
+                    public void remove() {
+                        MapaSobDemanda.this.remove(atual);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return MapaSobDemanda.this.size();
+            }
+        };
+    }
+
+    /**
+     * @return true se o login ainda pode estar apenas na origem
+     */
+    private boolean pendente(Object chave) {
+        return origem != null && chave instanceof String && !resolvidos.contains(chave);
+    }
+}
@@ -0,0 +1,204 @@
+package br.ufal.ic.p2.jackut.storage;
+
+import br.ufal.ic.p2.jackut.entities.Comunicacao;
+import br.ufal.ic.p2.jackut.entities.Comunidade;
+import br.ufal.ic.p2.jackut.entities.Usuario;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Motor de armazenamento das entidades do {@link br.ufal.ic.p2.jackut.services.DataRepository}.
+ * <p>
+ * As coleções são expostas como mapas. Um motor que não guarda os objetos
+ * vivos (ex.: {@link MotorMapeado}) devolve cópias decodificadas; por isso
+ * toda alteração feita diretamente em uma entidade obtida do motor deve ser
+ * informada pelo método {@code ...Alterado} correspondente, que a grava de volta.
+ */
+public interface MotorArmazenamento extends Closeable {
+
+    /**
+     * @return Usuários indexados por login
+     */
+    Map<String, Usuario> getUsuarios();
+
+    /**
+     * @return Sessões indexadas por ID
+     */
+    Map<String, String> getSessoes();
+
+    /**
+     * @return Comunidades indexadas por nome
+     */
+    Map<String, Comunidade> getComunidades();
+
+    /**
+     * @return Caixas de mensagens indexadas por login do destinatário
+     */
+    Map<String, List<Comunicacao>> getMensagens();
+
+    /**
+     * @return Comunidades de cada dono, indexadas por login
+     */
+    Map<String, Set<String>> getDonoParaComunidades();
+
+    /**
+     * Adiciona uma mensagem ao final da caixa de um destinatário.
+     *
+     * @param destinatario Login do destinatário
+     * @param mensagem Mensagem a ser adicionada
+     */
+    void adicionarMensagem(String destinatario, Comunicacao mensagem);
+
+    /**
+     * Remove uma mensagem da caixa de um destinatário.
+     *
+     * @param destinatario Login do destinatário
+     * @param mensagem Mensagem a ser removida
+     * @return true se a mensagem estava na caixa
+     */
+    boolean removerMensagem(String destinatario, Comunicacao mensagem);
+
+    /**
+     * Devolve, sem removê-la, a mensagem mais antiga de um tipo na caixa de um destinatário.
+     *
+     * @param destinatario Login do destinatário
+     * @param tipo Tipo da mensagem ("recado" ou "comunidade")
+     * @return Mensagem mais antiga do tipo, ou null se não houver mensagens do tipo
+     */
+    default Comunicacao consultarProximaMensagem(String destinatario, String tipo) {
+        List<Comunicacao> caixa = getMensagens().get(destinatario);
+        if (caixa == null) {
+            return null;
+        }
+        for (Comunicacao mensagem : caixa) {
+            if (tipo.equals(mensagem.getTipo())) {
+                return mensagem;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Remove e devolve a mensagem mais antiga de um tipo na caixa de um destinatário.
+     *
+     * @param destinatario Login do destinatário
+     * @param tipo Tipo da mensagem ("recado" ou "comunidade")
+     * @return Mensagem removida, ou null se não houver mensagens do tipo
+     */
+    default Comunicacao removerProximaMensagem(String destinatario, String tipo) {
+        List<Comunicacao> caixa = getMensagens().get(destinatario);
+        if (caixa == null) {
+            return null;
+        }
+        for (Comunicacao mensagem : caixa) {
+            if (tipo.equals(mensagem.getTipo())) {
+                removerMensagem(destinatario, mensagem);
+                return mensagem;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Remove e devolve as mensagens mais antigas de um tipo, até uma
+     * quantidade. A caixa é obtida uma única vez para todas elas.
+     *
+     * @param destinatario Login do destinatário
+     * @param tipo Tipo da mensagem ("recado" ou "comunidade")
+     * @param quantidade Quantidade máxima de mensagens
+     * @return Mensagens removidas, da mais antiga para a mais nova
+     */
+    default List<Comunicacao> removerProximasMensagens(String destinatario, String tipo, int quantidade) {
+        List<Comunicacao> removidas = new ArrayList<>();
+        List<Comunicacao> caixa = getMensagens().get(destinatario);
+        if (caixa == null) {
+            return removidas;
+        }
+        for (Comunicacao mensagem : caixa) {
+            if (removidas.size() >= quantidade) {
+                break;
+            }
+            if (tipo.equals(mensagem.getTipo())) {
+                removidas.add(mensagem);
+            }
+        }
+        for (Comunicacao mensagem : removidas) {
+            removerMensagem(destinatario, mensagem);
+        }
+        return removidas;
+    }
+
+    /**
+     * Adiciona a mesma mensagem ao final das caixas de vários destinatários
+     * (ex.: os membros de uma comunidade).
+     *
+     * @param destinatarios Logins dos destinatários
+     * @param mensagem Mensagem a ser adicionada
+     */
+    default void entregarMensagem(Collection<String> destinatarios, Comunicacao mensagem) {
+        for (String destinatario : destinatarios) {
+            adicionarMensagem(destinatario, mensagem);
+        }
+    }
+
+    /**
+     * Procura os usuários que têm um usuário como ídolo.
+     *
+     * @param idolo Login do ídolo
+     * @return Logins dos fãs, sem o próprio ídolo
+     */
+    default List<String> buscarFas(String idolo) {
+        List<String> fas = new ArrayList<>();
+        for (Usuario usuario : getUsuarios().values()) {
+            if (!usuario.getLogin().equals(idolo) && usuario.getRelacionamentos().getIdolos().contains(idolo)) {
+                fas.add(usuario.getLogin());
+            }
+        }
+        return fas;
+    }
+
+    /**
+     * Grava de volta um usuário e as comunidades de que ele é dono.
+     *
+     * @param login Login do usuário alterado
+     */
+    void usuarioAlterado(String login);
+
+    /**
+     * Grava de volta uma comunidade.
+     *
+     * @param nome Nome da comunidade alterada
+     */
+    void comunidadeAlterada(String nome);
+
+    /**
+     * Grava de volta uma caixa de mensagens.
+     *
+     * @param login Login do destinatário
+     */
+    void mensagensAlteradas(String login);
+
+    /**
+     * @return true se os mapas do motor podem ser acessados por várias threads ao
+     *         mesmo tempo, desde que cada entidade seja alterada por uma de cada vez
+     */
+    default boolean isConcorrente() {
+        return false;
+    }
+
+    /**
+     * Remove todas as entidades.
+     */
+    void limpar();
+
+    /**
+     * Libera os recursos do motor. O motor não pode mais ser usado.
+     */
+    @Override
+    void close();
+}
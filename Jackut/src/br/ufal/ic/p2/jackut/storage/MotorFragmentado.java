@@ -0,0 +1,302 @@
+package br.ufal.ic.p2.jackut.storage;
+
+import br.ufal.ic.p2.jackut.entities.Comunicacao;
+import br.ufal.ic.p2.jackut.entities.Comunidade;
+import br.ufal.ic.p2.jackut.entities.Usuario;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Motor de armazenamento fragmentado: cada usuário, a sua caixa de mensagens
+ * e as comunidades de que ele é dono ficam no fragmento escolhido pelo hash
+ * do login, e cada comunidade no fragmento escolhido pelo hash do nome. Os
+ * fragmentos são outros motores, no mesmo processo (em memória ou mapeados)
+ * ou em outros processos ({@link MotorRemoto} e {@link ServidorFragmento}),
+ * de modo que os dados não precisam caber em um único heap. As sessões ficam
+ * neste motor, pois são poucas e consultadas sem bloqueio.
+ * <p>
+ * Operações que envolvem mais de um fragmento:
+ * <ul>
+ *   <li>Operações entre dois usuários (convites de amizade, recados,
+ *   paqueras): quem chama detém os bloqueios (ou os atores) dos dois logins,
+ *   altera as entidades de cada um e as grava de volta no fragmento de cada
+ *   um pelas notificações de alteração. Cada gravação substitui a entidade
+ *   inteira e pode ser repetida sem efeito adicional; o comando já está no
+ *   journal antes de a operação ser confirmada, e uma operação interrompida
+ *   entre duas gravações é refeita por inteiro na reaplicação do journal.</li>
+ *   <li>Mensagens de comunidade: os membros são agrupados por fragmento, e
+ *   cada fragmento recebe uma única entrega com todos os seus destinatários.</li>
+ *   <li>Fãs: a busca é enviada a todos os fragmentos, cada um procura entre
+ *   os seus próprios usuários, e os resultados são concatenados na ordem dos
+ *   fragmentos.</li>
+ * </ul>
+ */
+public class MotorFragmentado implements MotorArmazenamento {
+
+    /** Fragmentos, indexados pelo hash da chave */
+    private final MotorArmazenamento[] fragmentos;
+
+    /** Sessões indexadas por ID, consultadas sem bloqueio */
+    private final Map<String, String> sessoes;
+
+    /** Visões das coleções dos fragmentos como um único mapa */
+    private final Map<String, Usuario> usuarios;
+    private final Map<String, Comunidade> comunidades;
+    private final Map<String, List<Comunicacao>> mensagens;
+    private final Map<String, Set<String>> donoParaComunidades;
+
+    /**
+     * Construtor que distribui as entidades entre os fragmentos informados.
+     *
+     * @param fragmentos Motores dos fragmentos, vazios, na ordem de roteamento
+     * @throws IllegalArgumentException Se não houver nenhum fragmento
+     */
+    public MotorFragmentado(List<? extends MotorArmazenamento> fragmentos) {
+        if (fragmentos.isEmpty()) {
+            throw new IllegalArgumentException("Nenhum fragmento informado");
+        }
+        this.fragmentos = fragmentos.toArray(new MotorArmazenamento[0]);
+        this.sessoes = new ConcurrentHashMap<>();
+        this.usuarios = new Roteado<>(MotorArmazenamento::getUsuarios);
+        this.comunidades = new Roteado<>(MotorArmazenamento::getComunidades);
+        this.mensagens = new Roteado<>(MotorArmazenamento::getMensagens);
+        this.donoParaComunidades = new Roteado<>(MotorArmazenamento::getDonoParaComunidades);
+    }
+
+    /**
+     * Fragmento de uma chave. O mesmo cálculo vale em qualquer processo, de
+     * modo que a distribuição só depende da quantidade de fragmentos.
+     *
+     * @param chave Login ou nome de comunidade
+     * @param quantidade Quantidade de fragmentos
+     * @return Índice do fragmento, entre 0 e quantidade - 1
+     */
+    public static int indice(String chave, int quantidade) {
+        return Math.floorMod(chave.hashCode(), quantidade);
+    }
+
+    /**
+     * @param chave Login ou nome de comunidade
+     * @return Motor do fragmento onde a chave fica guardada
+     */
+    public MotorArmazenamento getFragmento(String chave) {
+        return fragmentos[indice(chave, fragmentos.length)];
+    }
+
+    /**
+     * @return Quantidade de fragmentos
+     */
+    public int getQuantidadeFragmentos() {
+        return fragmentos.length;
+    }
+
+    @Override
+    public Map<String, Usuario> getUsuarios() {
+        return usuarios;
+    }
+
+    @Override
+    public Map<String, String> getSessoes() {
+        return sessoes;
+    }
+
+    @Override
+    public Map<String, Comunidade> getComunidades() {
+        return comunidades;
+    }
+
+    @Override
+    public Map<String, List<Comunicacao>> getMensagens() {
+        return mensagens;
+    }
+
+    @Override
+    public Map<String, Set<String>> getDonoParaComunidades() {
+        return donoParaComunidades;
+    }
+
+    @Override
+    public void adicionarMensagem(String destinatario, Comunicacao mensagem) {
+        getFragmento(destinatario).adicionarMensagem(destinatario, mensagem);
+    }
+
+    @Override
+    public void entregarMensagem(Collection<String> destinatarios, Comunicacao mensagem) {
+        Map<Integer, List<String>> porFragmento = new TreeMap<>();
+        for (String destinatario : destinatarios) {
+            porFragmento.computeIfAbsent(indice(destinatario, fragmentos.length), i -> new ArrayList<>())
+                    .add(destinatario);
+        }
+        for (Map.Entry<Integer, List<String>> grupo : porFragmento.entrySet()) {
+            fragmentos[grupo.getKey()].entregarMensagem(grupo.getValue(), mensagem);
+        }
+    }
+
+    @Override
+    public boolean removerMensagem(String destinatario, Comunicacao mensagem) {
+        return getFragmento(destinatario).removerMensagem(destinatario, mensagem);
+    }
+
+    @Override
+    public Comunicacao consultarProximaMensagem(String destinatario, String tipo) {
+        return getFragmento(destinatario).consultarProximaMensagem(destinatario, tipo);
+    }
+
+    @Override
+    public Comunicacao removerProximaMensagem(String destinatario, String tipo) {
+        return getFragmento(destinatario).removerProximaMensagem(destinatario, tipo);
+    }
+
+    @Override
+    public List<Comunicacao> removerProximasMensagens(String destinatario, String tipo, int quantidade) {
+        return getFragmento(destinatario).removerProximasMensagens(destinatario, tipo, quantidade);
+    }
+
+    @Override
+    public List<String> buscarFas(String idolo) {
+        List<String> fas = new ArrayList<>();
+        for (MotorArmazenamento fragmento : fragmentos) {
+            fas.addAll(fragmento.buscarFas(idolo));
+        }
+        return fas;
+    }
+
+    @Override
+    public void usuarioAlterado(String login) {
+        getFragmento(login).usuarioAlterado(login);
+    }
+
+    @Override
+    public void comunidadeAlterada(String nome) {
+        getFragmento(nome).comunidadeAlterada(nome);
+    }
+
+    @Override
+    public void mensagensAlteradas(String login) {
+        getFragmento(login).mensagensAlteradas(login);
+    }
+
+    @Override
+    public boolean isConcorrente() {
+        for (MotorArmazenamento fragmento : fragmentos) {
+            if (!fragmento.isConcorrente()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void limpar() {
+        sessoes.clear();
+        for (MotorArmazenamento fragmento : fragmentos) {
+            fragmento.limpar();
+        }
+    }
+
+    @Override
+    public void close() {
+        for (MotorArmazenamento fragmento : fragmentos) {
+            fragmento.close();
+        }
+    }
+
+    /**
+     * Visão de uma coleção de todos os fragmentos como um único mapa: cada
+     * chave é lida e gravada no seu fragmento, e a iteração percorre os
+     * fragmentos em ordem.
+     */
+    private class Roteado<V> extends AbstractMap<String, V> {
+        private final List<Map<String, V>> mapas;
+
+        private Roteado(Function<MotorArmazenamento, Map<String, V>> colecao) {
+            this.mapas = new ArrayList<>(fragmentos.length);
+            for (MotorArmazenamento fragmento : fragmentos) {
+                mapas.add(colecao.apply(fragmento));
+            }
+        }
+
+        private Map<String, V> mapa(String chave) {
+            return mapas.get(indice(chave, mapas.size()));
+        }
+
+        @Override
+        public V get(Object chave) {
+            return chave instanceof String ? mapa((String) chave).get(chave) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object chave) {
+            return chave instanceof String && mapa((String) chave).containsKey(chave);
+        }
+
+        @Override
+        public V put(String chave, V valor) {
+            return mapa(chave).put(chave, valor);
+        }
+
+        @Override
+        public V remove(Object chave) {
+            return chave instanceof String ? mapa((String) chave).remove(chave) : null;
+        }
+
+        @Override
+        public int size() {
+            int tamanho = 0;
+            for (Map<String, V> mapa : mapas) {
+                tamanho += mapa.size();
+            }
+            return tamanho;
+        }
+
+        @Override
+        public void clear() {
+            for (Map<String, V> mapa : mapas) {
+                mapa.clear();
+            }
+        }
+
+        @Override
+        public Set<Entry<String, V>> entrySet() {
+            return new AbstractSet<>() {
+                @Override
+                public Iterator<Entry<String, V>> iterator() {
+                    return new Iterator<>() {
+                        private int fragmento;
+                        private Iterator<Entry<String, V>> atual = mapas.get(0).entrySet().iterator();
+                        private Iterator<Entry<String, V>> ultimo = atual;
+
+                        @Override
+                        public boolean hasNext() {
+                            while (!atual.hasNext() && fragmento < mapas.size() - 1) {
+                                atual = mapas.get(++fragmento).entrySet().iterator();
+                            }
+                            return atual.hasNext();
+                        }
+
+                        @Override
+                        public Entry<String, V> next() {
+                            if (!hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+                            ultimo = atual;
+                            return atual.next();
+                        }
+
+                        @Override
+                        public void remove() {
+                            ultimo.remove();
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return Roteado.this.size();
+                }
+            };
+        }
+    }
+}
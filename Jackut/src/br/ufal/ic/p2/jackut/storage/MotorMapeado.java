@@ -0,0 +1,840 @@
+package br.ufal.ic.p2.jackut.storage;
+
+import br.ufal.ic.p2.jackut.entities.Comunicacao;
+import br.ufal.ic.p2.jackut.entities.Comunidade;
+import br.ufal.ic.p2.jackut.entities.Relacionamento;
+import br.ufal.ic.p2.jackut.entities.Usuario;
+import br.ufal.ic.p2.jackut.persistence.CanalEntrada;
+import br.ufal.ic.p2.jackut.persistence.CanalSaida;
+
+import java.io.IOException;
+import java.io.Serial;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Motor de armazenamento mapeado em memória: as entidades ficam fora do heap,
+ * em um {@link ArquivoPaginado}, e apenas os índices (chave -> página) e um
+ * pequeno cache das entidades em uso ficam no heap.
+ * <ul>
+ *   <li>Usuários: registros de tamanho fixo em páginas de registros, cada um
+ *   apontando para uma cadeia de dados (senha, nome, atributos, comunidades)
+ *   e para uma cadeia de adjacência por conjunto do {@link Relacionamento}.</li>
+ *   <li>Caixas de mensagens: filas circulares de páginas. Novas mensagens
+ *   entram na última página e a leitura da mais antiga apenas avança o
+ *   início da fila, devolvendo as páginas consumidas para reaproveitamento.</li>
+ *   <li>Comunidades (com o mural) e donos: uma cadeia de dados por entrada.</li>
+ *   <li>Sessões: ficam no heap, pois são poucas e pequenas.</li>
+ * </ul>
+ * O arquivo é um espaço de trabalho: ele é recriado a cada execução a partir
+ * do snapshot e do journal, que continuam sendo os responsáveis pela durabilidade.
+ */
+public class MotorMapeado implements MotorArmazenamento {
+
+    /** Tipos de página */
+    private static final int PAGINA_REGISTROS = 1;
+    private static final int PAGINA_ADJACENCIA = 2;
+    private static final int PAGINA_CAIXA = 3;
+    private static final int PAGINA_DADOS = 4;
+
+    /** Tamanho de um registro de usuário: cadeia de dados e 5 cadeias de adjacência */
+    private static final int TAMANHO_REGISTRO = 24;
+
+    /** Quantidade de registros de usuário por página */
+    private static final int REGISTROS_POR_PAGINA = ArquivoPaginado.DADOS / TAMANHO_REGISTRO;
+
+    /** Buffer inicial da codificação de um registro */
+    private static final int TAMANHO_CODIFICACAO = 256;
+
+    /** Arquivo com as páginas */
+    private final ArquivoPaginado arquivo;
+
+    /** Registro de cada usuário, indexado por login */
+    private final Map<String, Integer> indiceUsuarios;
+
+    /** Registros de usuários removidos, para reaproveitamento */
+    private final Deque<Integer> registrosLivres;
+
+    /** Página de registros em preenchimento (0 = nenhuma) */
+    private int paginaRegistros;
+
+    /** Próximo registro livre da página em preenchimento */
+    private int proximoRegistro;
+
+    /** Cadeia de dados de cada comunidade, indexada por nome */
+    private final Map<String, Integer> indiceComunidades;
+
+    /** Cadeia de dados das comunidades de cada dono, indexada por login */
+    private final Map<String, Integer> indiceDonos;
+
+    /** Fila de páginas de cada caixa de mensagens, indexada por destinatário */
+    private final Map<String, Caixa> indiceCaixas;
+
+    /** Sessões indexadas por ID, consultadas sem bloqueio */
+    private final Map<String, String> sessoes;
+
+    /** Entidades decodificadas recentemente, que recebem as alterações in loco */
+    private final Map<String, Usuario> usuariosEmUso;
+    private final Map<String, Comunidade> comunidadesEmUso;
+    private final Map<String, Set<String>> donosEmUso;
+    private final Map<String, List<Comunicacao>> caixasEmUso;
+
+    /** Visões das coleções como mapas */
+    private final Map<String, Usuario> usuarios;
+    private final Map<String, Comunidade> comunidades;
+    private final Map<String, Set<String>> donos;
+    private final Map<String, List<Comunicacao>> mensagens;
+
+    /**
+     * Cria um motor vazio sobre um arquivo temporário no diretório informado.
+     *
+     * @param diretorio Diretório do arquivo mapeado
+     * @param capacidadeCache Quantidade de entidades de cada tipo mantidas decodificadas
+     * @throws IOException Se o arquivo não puder ser criado
+     */
+    public MotorMapeado(Path diretorio, int capacidadeCache) throws IOException {
+        this.arquivo = new ArquivoPaginado(Files.createTempFile(diretorio, "jackut-", ".mmap"));
+        this.indiceUsuarios = new HashMap<>();
+        this.registrosLivres = new ArrayDeque<>();
+        this.indiceComunidades = new HashMap<>();
+        this.indiceDonos = new HashMap<>();
+        this.indiceCaixas = new HashMap<>();
+        this.sessoes = new ConcurrentHashMap<>();
+        this.usuariosEmUso = new Cache<>(capacidadeCache);
+        this.comunidadesEmUso = new Cache<>(capacidadeCache);
+        this.donosEmUso = new Cache<>(capacidadeCache);
+        this.caixasEmUso = new Cache<>(capacidadeCache);
+
+        this.usuarios = new Visao<>(indiceUsuarios, this::lerUsuario, (login, usuario) -> gravarUsuario(usuario),
+                this::removerUsuario, this::limparUsuarios);
+        this.comunidades = new Visao<>(indiceComunidades, this::lerComunidade,
+                (nome, comunidade) -> gravarComunidade(comunidade), this::removerComunidade,
+                this::limparComunidades);
+        this.donos = new Visao<>(indiceDonos, this::lerDono, this::gravarDono, this::removerDono,
+                this::limparDonos);
+        this.mensagens = new Visao<>(indiceCaixas, this::lerCaixa, this::regravarCaixa, this::removerCaixa,
+                this::limparCaixas);
+    }
+
+    @Override
+    public Map<String, Usuario> getUsuarios() {
+        return usuarios;
+    }
+
+    @Override
+    public Map<String, String> getSessoes() {
+        return sessoes;
+    }
+
+    @Override
+    public Map<String, Comunidade> getComunidades() {
+        return comunidades;
+    }
+
+    @Override
+    public Map<String, List<Comunicacao>> getMensagens() {
+        return mensagens;
+    }
+
+    @Override
+    public Map<String, Set<String>> getDonoParaComunidades() {
+        return donos;
+    }
+
+    @Override
+    public synchronized void adicionarMensagem(String destinatario, Comunicacao mensagem) {
+        Caixa caixa = indiceCaixas.computeIfAbsent(destinatario, login -> new Caixa());
+        anexar(caixa, codificarMensagem(mensagem));
+
+        List<Comunicacao> emUso = caixasEmUso.get(destinatario);
+        if (emUso != null) {
+            emUso.add(mensagem);
+        }
+    }
+
+    @Override
+    public synchronized boolean removerMensagem(String destinatario, Comunicacao mensagem) {
+        List<Comunicacao> caixa = lerCaixa(destinatario);
+        int posicao = caixa == null ? -1 : caixa.indexOf(mensagem);
+        if (posicao < 0) {
+            return false;
+        }
+        caixa.remove(posicao);
+        if (posicao == 0) {
+            consumirPrimeira(indiceCaixas.get(destinatario));
+        } else {
+            regravarCaixa(destinatario, caixa);
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized void usuarioAlterado(String login) {
+        Usuario usuario = usuariosEmUso.get(login);
+        if (usuario != null && indiceUsuarios.containsKey(login)) {
+            gravarUsuario(usuario);
+        }
+        Set<String> comunidadesDoDono = donosEmUso.get(login);
+        if (comunidadesDoDono != null && indiceDonos.containsKey(login)) {
+            gravarDono(login, comunidadesDoDono);
+        }
+    }
+
+    @Override
+    public synchronized void comunidadeAlterada(String nome) {
+        Comunidade comunidade = comunidadesEmUso.get(nome);
+        if (comunidade != null && indiceComunidades.containsKey(nome)) {
+            gravarComunidade(comunidade);
+        }
+    }
+
+    @Override
+    public synchronized void mensagensAlteradas(String login) {
+        List<Comunicacao> caixa = caixasEmUso.get(login);
+        if (caixa != null && indiceCaixas.containsKey(login)) {
+            regravarCaixa(login, caixa);
+        }
+    }
+
+    @Override
+    public synchronized void limpar() {
+        indiceUsuarios.clear();
+        registrosLivres.clear();
+        paginaRegistros = 0;
+        indiceComunidades.clear();
+        indiceDonos.clear();
+        indiceCaixas.clear();
+        sessoes.clear();
+        usuariosEmUso.clear();
+        comunidadesEmUso.clear();
+        donosEmUso.clear();
+        caixasEmUso.clear();
+        arquivo.limpar();
+    }
+
+    /**
+     * @return Bytes ocupados pelas páginas em uso no arquivo mapeado
+     */
+    public synchronized long getTamanhoArquivo() {
+        return arquivo.getTamanho();
+    }
+
+    @Override
+    public synchronized void close() {
+        arquivo.close();
+    }
+
+    // Usuários
+
+    private Usuario lerUsuario(String login) {
+        Usuario usuario = usuariosEmUso.get(login);
+        Integer registro = indiceUsuarios.get(login);
+        if (usuario != null || registro == null) {
+            return usuario;
+        }
+
+        int pagina = registro / REGISTROS_POR_PAGINA;
+        int deslocamento = (registro % REGISTROS_POR_PAGINA) * TAMANHO_REGISTRO;
+        CanalEntrada dados = new CanalEntrada(arquivo.lerCadeia(arquivo.lerInt(pagina, deslocamento)));
+        try {
+            usuario = new Usuario(login, lerTexto(dados), lerTexto(dados));
+            int atributos = dados.lerVarintInt();
+            for (int i = 0; i < atributos; i++) {
+                usuario.getAtributos().put(lerTexto(dados), lerTexto(dados));
+            }
+            lerTextos(dados, usuario.getComunidadesCadastradas());
+
+            List<Set<String>> conjuntos = conjuntos(usuario.getRelacionamentos());
+            for (int i = 0; i < conjuntos.size(); i++) {
+                int adjacencia = arquivo.lerInt(pagina, deslocamento + 4 * (i + 1));
+                lerTextos(new CanalEntrada(arquivo.lerCadeia(adjacencia)), conjuntos.get(i));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Registro de usuário corrompido: " + login, e);
+        }
+        usuariosEmUso.put(login, usuario);
+        return usuario;
+    }
+
+    private void gravarUsuario(Usuario usuario) {
+        Integer registro = indiceUsuarios.get(usuario.getLogin());
+        if (registro == null) {
+            registro = alocarRegistro();
+            indiceUsuarios.put(usuario.getLogin(), registro);
+        }
+        int pagina = registro / REGISTROS_POR_PAGINA;
+        int deslocamento = (registro % REGISTROS_POR_PAGINA) * TAMANHO_REGISTRO;
+
+        CanalSaida dados = new CanalSaida(TAMANHO_CODIFICACAO);
+        try {
+            escreverTexto(dados, usuario.getSenha());
+            escreverTexto(dados, usuario.getNome());
+            dados.escreverVarint(usuario.getAtributos().size());
+            for (Map.Entry<String, String> atributo : usuario.getAtributos().entrySet()) {
+                escreverTexto(dados, atributo.getKey());
+                escreverTexto(dados, atributo.getValue());
+            }
+            escreverTextos(dados, usuario.getComunidadesCadastradas());
+            arquivo.escreverInt(pagina, deslocamento, arquivo.gravarCadeia(
+                    arquivo.lerInt(pagina, deslocamento), PAGINA_DADOS, dados.getBytes()));
+
+            List<Set<String>> conjuntos = conjuntos(usuario.getRelacionamentos());
+            for (int i = 0; i < conjuntos.size(); i++) {
+                int campo = deslocamento + 4 * (i + 1);
+                arquivo.escreverInt(pagina, campo, arquivo.gravarCadeia(
+                        arquivo.lerInt(pagina, campo), PAGINA_ADJACENCIA, codificarTextos(conjuntos.get(i))));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        usuariosEmUso.put(usuario.getLogin(), usuario);
+    }
+
+    private void removerUsuario(String login) {
+        Integer registro = indiceUsuarios.remove(login);
+        usuariosEmUso.remove(login);
+        if (registro != null) {
+            liberarRegistro(registro);
+        }
+    }
+
+    private void limparUsuarios() {
+        for (Integer registro : indiceUsuarios.values()) {
+            liberarRegistro(registro);
+        }
+        indiceUsuarios.clear();
+        usuariosEmUso.clear();
+    }
+
+    /**
+     * @return Registro vazio, com todas as cadeias ainda não alocadas
+     */
+    private int alocarRegistro() {
+        Integer livre = registrosLivres.poll();
+        if (livre != null) {
+            return livre;
+        }
+        if (paginaRegistros == 0 || proximoRegistro == REGISTROS_POR_PAGINA) {
+            paginaRegistros = arquivo.alocar(PAGINA_REGISTROS);
+            proximoRegistro = 0;
+            for (int campo = 0; campo < REGISTROS_POR_PAGINA * TAMANHO_REGISTRO; campo += 4) {
+                arquivo.escreverInt(paginaRegistros, campo, 0);
+            }
+        }
+        return paginaRegistros * REGISTROS_POR_PAGINA + proximoRegistro++;
+    }
+
+    private void liberarRegistro(int registro) {
+        int pagina = registro / REGISTROS_POR_PAGINA;
+        int deslocamento = (registro % REGISTROS_POR_PAGINA) * TAMANHO_REGISTRO;
+        for (int campo = 0; campo < TAMANHO_REGISTRO; campo += 4) {
+            arquivo.liberarCadeia(arquivo.lerInt(pagina, deslocamento + campo));
+            arquivo.escreverInt(pagina, deslocamento + campo, 0);
+        }
+        registrosLivres.push(registro);
+    }
+
+    /**
+     * @return Conjuntos do relacionamento, na ordem das cadeias de adjacência do registro
+     */
+    private static List<Set<String>> conjuntos(Relacionamento relacionamentos) {
+        return List.of(relacionamentos.getAmigos(), relacionamentos.getIdolos(), relacionamentos.getPaqueras(),
+                relacionamentos.getInimigos(), relacionamentos.getConvitesAmizade());
+    }
+
+    // Comunidades e donos
+
+    private Comunidade lerComunidade(String nome) {
+        Comunidade comunidade = comunidadesEmUso.get(nome);
+        Integer cadeia = indiceComunidades.get(nome);
+        if (comunidade != null || cadeia == null) {
+            return comunidade;
+        }
+
+        CanalEntrada dados = new CanalEntrada(arquivo.lerCadeia(cadeia));
+        try {
+            comunidade = new Comunidade(lerTexto(dados), lerTexto(dados), nome, lerTexto(dados));
+            lerTextos(dados, comunidade.getMembros());
+            ProtocoloFragmentos.lerMural(dados, comunidade);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Registro de comunidade corrompido: " + nome, e);
+        }
+        comunidadesEmUso.put(nome, comunidade);
+        return comunidade;
+    }
+
+    private void gravarComunidade(Comunidade comunidade) {
+        CanalSaida dados = new CanalSaida(TAMANHO_CODIFICACAO);
+        try {
+            escreverTexto(dados, comunidade.getSessionID());
+            escreverTexto(dados, comunidade.getDonoComunidade());
+            escreverTexto(dados, comunidade.getDescricao());
+            escreverTextos(dados, comunidade.getMembros());
+            ProtocoloFragmentos.escreverMural(dados, comunidade.getMural());
+            indiceComunidades.put(comunidade.getNome(), arquivo.gravarCadeia(
+                    indiceComunidades.getOrDefault(comunidade.getNome(), 0), PAGINA_DADOS, dados.getBytes()));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        comunidadesEmUso.put(comunidade.getNome(), comunidade);
+    }
+
+    private void removerComunidade(String nome) {
+        Integer cadeia = indiceComunidades.remove(nome);
+        comunidadesEmUso.remove(nome);
+        if (cadeia != null) {
+            arquivo.liberarCadeia(cadeia);
+        }
+    }
+
+    private void limparComunidades() {
+        for (Integer cadeia : indiceComunidades.values()) {
+            arquivo.liberarCadeia(cadeia);
+        }
+        indiceComunidades.clear();
+        comunidadesEmUso.clear();
+    }
+
+    private Set<String> lerDono(String login) {
+        Set<String> comunidadesDoDono = donosEmUso.get(login);
+        Integer cadeia = indiceDonos.get(login);
+        if (comunidadesDoDono != null || cadeia == null) {
+            return comunidadesDoDono;
+        }
+
+        comunidadesDoDono = new HashSet<>();
+        try {
+            lerTextos(new CanalEntrada(arquivo.lerCadeia(cadeia)), comunidadesDoDono);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Registro de dono corrompido: " + login, e);
+        }
+        donosEmUso.put(login, comunidadesDoDono);
+        return comunidadesDoDono;
+    }
+
+    private void gravarDono(String login, Set<String> comunidadesDoDono) {
+        indiceDonos.put(login, arquivo.gravarCadeia(indiceDonos.getOrDefault(login, 0), PAGINA_DADOS,
+                codificarTextos(comunidadesDoDono)));
+        donosEmUso.put(login, comunidadesDoDono);
+    }
+
+    private void removerDono(String login) {
+        Integer cadeia = indiceDonos.remove(login);
+        donosEmUso.remove(login);
+        if (cadeia != null) {
+            arquivo.liberarCadeia(cadeia);
+        }
+    }
+
+    private void limparDonos() {
+        for (Integer cadeia : indiceDonos.values()) {
+            arquivo.liberarCadeia(cadeia);
+        }
+        indiceDonos.clear();
+        donosEmUso.clear();
+    }
+
+    // Caixas de mensagens
+
+    private List<Comunicacao> lerCaixa(String login) {
+        List<Comunicacao> lista = caixasEmUso.get(login);
+        Caixa caixa = indiceCaixas.get(login);
+        if (lista != null || caixa == null) {
+            return lista;
+        }
+
+        lista = new ArrayList<>(caixa.quantidade);
+        Cursor cursor = new Cursor(caixa.primeira, caixa.inicio);
+        try {
+            for (int i = 0; i < caixa.quantidade; i++) {
+                byte[] bytes = cursor.lerBytes(cursor.lerVarint());
+                CanalEntrada mensagem = new CanalEntrada(bytes);
+                lista.add(new Comunicacao(lerTexto(mensagem), lerTexto(mensagem), lerTexto(mensagem),
+                        lerTexto(mensagem), mensagem.posicao() < bytes.length ? mensagem.lerVarint() : 0));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Caixa de mensagens corrompida: " + login, e);
+        }
+        caixasEmUso.put(login, lista);
+        return lista;
+    }
+
+    private void regravarCaixa(String login, List<Comunicacao> lista) {
+        Caixa caixa = indiceCaixas.computeIfAbsent(login, destinatario -> new Caixa());
+        arquivo.liberarCadeia(caixa.primeira);
+        caixa.primeira = 0;
+        caixa.ultima = 0;
+        caixa.inicio = 0;
+        caixa.quantidade = 0;
+        for (Comunicacao mensagem : lista) {
+            anexar(caixa, codificarMensagem(mensagem));
+        }
+        caixasEmUso.put(login, lista);
+    }
+
+    private void removerCaixa(String login) {
+        Caixa caixa = indiceCaixas.remove(login);
+        caixasEmUso.remove(login);
+        if (caixa != null) {
+            arquivo.liberarCadeia(caixa.primeira);
+        }
+    }
+
+    private void limparCaixas() {
+        for (Caixa caixa : indiceCaixas.values()) {
+            arquivo.liberarCadeia(caixa.primeira);
+        }
+        indiceCaixas.clear();
+        caixasEmUso.clear();
+    }
+
+    /**
+     * Escreve uma mensagem no final da fila, com o seu tamanho como prefixo,
+     * continuando em uma página nova quando a última estiver cheia.
+     */
+    private void anexar(Caixa caixa, byte[] mensagem) {
+        byte[] registro;
+        try {
+            CanalSaida saida = new CanalSaida(TAMANHO_CODIFICACAO);
+            saida.escreverVarint(mensagem.length);
+            saida.escreverBytes(mensagem);
+            registro = saida.getBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        if (caixa.ultima == 0) {
+            caixa.primeira = arquivo.alocar(PAGINA_CAIXA);
+            caixa.ultima = caixa.primeira;
+            caixa.inicio = 0;
+        }
+        int gravados = 0;
+        while (gravados < registro.length) {
+            int usados = arquivo.getUsados(caixa.ultima);
+            if (usados == ArquivoPaginado.DADOS) {
+                int nova = arquivo.alocar(PAGINA_CAIXA);
+                arquivo.setProxima(caixa.ultima, nova);
+                caixa.ultima = nova;
+                usados = 0;
+            }
+            int parte = Math.min(ArquivoPaginado.DADOS - usados, registro.length - gravados);
+            arquivo.escrever(caixa.ultima, usados, registro, gravados, parte);
+            arquivo.setUsados(caixa.ultima, usados + parte);
+            gravados += parte;
+        }
+        caixa.quantidade++;
+    }
+
+    /**
+     * Descarta a mensagem mais antiga avançando o início da fila; as páginas
+     * que ficam inteiramente para trás voltam para a lista de livres.
+     */
+    private void consumirPrimeira(Caixa caixa) {
+        Cursor cursor = new Cursor(caixa.primeira, caixa.inicio);
+        cursor.saltar(cursor.lerVarint());
+        caixa.quantidade--;
+
+        if (caixa.quantidade == 0) {
+            arquivo.liberarCadeia(caixa.primeira);
+            caixa.primeira = 0;
+            caixa.ultima = 0;
+            caixa.inicio = 0;
+            return;
+        }
+        cursor.normalizar();
+        while (caixa.primeira != cursor.pagina) {
+            int proxima = arquivo.getProxima(caixa.primeira);
+            arquivo.liberar(caixa.primeira);
+            caixa.primeira = proxima;
+        }
+        caixa.inicio = cursor.deslocamento;
+    }
+
+    private static byte[] codificarMensagem(Comunicacao mensagem) {
+        CanalSaida saida = new CanalSaida(TAMANHO_CODIFICACAO);
+        try {
+            escreverTexto(saida, mensagem.getRemetente());
+            escreverTexto(saida, mensagem.getDestinatario());
+            escreverTexto(saida, mensagem.getConteudo());
+            escreverTexto(saida, mensagem.getTipo());
+            if (mensagem.getOrdem() != 0) {
+                saida.escreverVarint(mensagem.getOrdem());
+            }
+            return saida.getBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Codificação
+
+    /**
+     * Escreve um texto que pode ser nulo: 0 para null, ou o tamanho + 1 seguido dos bytes.
+     */
+    private static void escreverTexto(CanalSaida saida, String texto) throws IOException {
+        if (texto == null) {
+            saida.escreverVarint(0);
+            return;
+        }
+        byte[] bytes = texto.getBytes(StandardCharsets.UTF_8);
+        saida.escreverVarint(bytes.length + 1L);
+        saida.escreverBytes(bytes);
+    }
+
+    private static String lerTexto(CanalEntrada entrada) throws IOException {
+        int tamanho = entrada.lerVarintInt();
+        if (tamanho == 0) {
+            return null;
+        }
+        return new String(entrada.lerBytes(tamanho - 1), StandardCharsets.UTF_8);
+    }
+
+    private static void escreverTextos(CanalSaida saida, Collection<String> textos) throws IOException {
+        saida.escreverVarint(textos.size());
+        for (String texto : textos) {
+            escreverTexto(saida, texto);
+        }
+    }
+
+    /**
+     * Codifica uma coleção de textos; uma coleção vazia não ocupa nenhum byte
+     * (e, portanto, nenhuma página).
+     */
+    private static byte[] codificarTextos(Collection<String> textos) {
+        if (textos.isEmpty()) {
+            return new byte[0];
+        }
+        CanalSaida saida = new CanalSaida(TAMANHO_CODIFICACAO);
+        try {
+            escreverTextos(saida, textos);
+            return saida.getBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void lerTextos(CanalEntrada entrada, Collection<String> destino) throws IOException {
+        if (entrada.tamanho() == 0) {
+            return;
+        }
+        int quantidade = entrada.lerVarintInt();
+        for (int i = 0; i < quantidade; i++) {
+            destino.add(lerTexto(entrada));
+        }
+    }
+
+    /**
+     * Início e fim da fila de páginas de uma caixa de mensagens.
+     */
+    private static class Caixa {
+        private int primeira;
+        private int inicio;
+        private int ultima;
+        private int quantidade;
+    }
+
+    /**
+     * Posição de leitura em uma cadeia de páginas de caixa.
+     */
+    private class Cursor {
+        private int pagina;
+        private int deslocamento;
+
+        private Cursor(int pagina, int deslocamento) {
+            this.pagina = pagina;
+            this.deslocamento = deslocamento;
+        }
+
+        /**
+         * Avança para a próxima página se a atual já foi toda lida.
+         */
+        private void normalizar() {
+            while (deslocamento == arquivo.getUsados(pagina) && arquivo.getProxima(pagina) != 0) {
+                pagina = arquivo.getProxima(pagina);
+                deslocamento = 0;
+            }
+        }
+
+        private int lerVarint() {
+            int valor = 0;
+            for (int deslocamentoBits = 0; ; deslocamentoBits += 7) {
+                normalizar();
+                int b = arquivo.lerByte(pagina, deslocamento++);
+                valor |= (b & 0x7F) << deslocamentoBits;
+                if ((b & 0x80) == 0) {
+                    return valor;
+                }
+            }
+        }
+
+        private byte[] lerBytes(int quantidade) {
+            byte[] bytes = new byte[quantidade];
+            int lidos = 0;
+            while (lidos < quantidade) {
+                normalizar();
+                int parte = Math.min(arquivo.getUsados(pagina) - deslocamento, quantidade - lidos);
+                arquivo.ler(pagina, deslocamento, bytes, lidos, parte);
+                deslocamento += parte;
+                lidos += parte;
+            }
+            return bytes;
+        }
+
+        private void saltar(int quantidade) {
+            while (quantidade > 0) {
+                normalizar();
+                int parte = Math.min(arquivo.getUsados(pagina) - deslocamento, quantidade);
+                deslocamento += parte;
+                quantidade -= parte;
+            }
+        }
+    }
+
+    /**
+     * Cache LRU das entidades decodificadas. A capacidade mínima garante que
+     * as poucas entidades tocadas por uma operação continuem no cache até
+     * serem gravadas de volta.
+     */
+    private static class Cache<V> extends LinkedHashMap<String, V> {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        private static final int CAPACIDADE_MINIMA = 16;
+
+        private final int capacidade;
+
+        private Cache(int capacidade) {
+            super(16, 0.75f, true);
+            this.capacidade = Math.max(CAPACIDADE_MINIMA, capacidade);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, V> maisAntiga) {
+            return size() > capacidade;
+        }
+    }
+
+    /**
+     * Visão de uma coleção do arquivo como um mapa. As entradas são
+     * decodificadas apenas quando o seu valor é lido.
+     */
+    private class Visao<V> extends AbstractMap<String, V> {
+        private final Map<String, ?> indice;
+        private final Function<String, V> leitor;
+        private final BiConsumer<String, V> gravador;
+        private final Consumer<String> removedor;
+        private final Runnable limpador;
+
+        private Visao(Map<String, ?> indice, Function<String, V> leitor, BiConsumer<String, V> gravador,
+                      Consumer<String> removedor, Runnable limpador) {
+            this.indice = indice;
+            this.leitor = leitor;
+            this.gravador = gravador;
+            this.removedor = removedor;
+            this.limpador = limpador;
+        }
+
+        @Override
+        public V get(Object chave) {
+            synchronized (MotorMapeado.this) {
+                return indice.containsKey(chave) ? leitor.apply((String) chave) : null;
+            }
+        }
+
+        @Override
+        public boolean containsKey(Object chave) {
+            synchronized (MotorMapeado.this) {
+                return indice.containsKey(chave);
+            }
+        }
+
+        @Override
+        public V put(String chave, V valor) {
+            synchronized (MotorMapeado.this) {
+                V anterior = get(chave);
+                gravador.accept(chave, valor);
+                return anterior;
+            }
+        }
+
+        @Override
+        public V remove(Object chave) {
+            synchronized (MotorMapeado.this) {
+                V anterior = get(chave);
+                if (anterior != null) {
+                    removedor.accept((String) chave);
+                }
+                return anterior;
+            }
+        }
+
+        @Override
+        public int size() {
+            synchronized (MotorMapeado.this) {
+                return indice.size();
+            }
+        }
+
+        @Override
+        public void clear() {
+            synchronized (MotorMapeado.this) {
+                limpador.run();
+            }
+        }
+
+        @Override
+        public Set<Entry<String, V>> entrySet() {
+            return new AbstractSet<>() {
+                @Override
+                public Iterator<Entry<String, V>> iterator() {
+                    Iterator<String> chaves;
+                    synchronized (MotorMapeado.this) {
+                        chaves = new ArrayList<>(indice.keySet()).iterator();
+                    }
+                    return new Iterator<>() {
+                        private String atual;
+
+                        @Override
+                        public boolean hasNext() {
+                            return chaves.hasNext();
+                        }
+
+                        @Override
+                        public Entry<String, V> next() {
+                            atual = chaves.next();
+                            String chave = atual;
+                            return new AbstractMap.SimpleEntry<>(chave, null) {
+                                @Override
+                                public V getValue() {
+                                    return get(chave);
+                                }
+
+                                @Override
+                                public V setValue(V valor) {
+                                    return put(chave, valor);
+                                }
+                            };
+                        }
+
+                        @Override
+                        public void remove() {
+                            Visao.this.remove(atual);
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return Visao.this.size();
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package br.ufal.ic.p2.jackut.storage;
+
+import br.ufal.ic.p2.jackut.entities.Comunicacao;
+import br.ufal.ic.p2.jackut.entities.Comunidade;
+import br.ufal.ic.p2.jackut.entities.Usuario;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Motor de armazenamento em memória: as entidades vivem no heap, em HashMaps
+ * ou, no modo concorrente, em ConcurrentHashMaps. As entidades devolvidas são
+ * os próprios objetos armazenados, de modo que as notificações de alteração
+ * não precisam fazer nada. A tabela de sessões é sempre concorrente, para que
+ * as sessões sejam abertas e consultadas sem bloqueio.
+ * <p>
+ * Com {@link PaginasMensagens}, cada caixa mantém em memória apenas a janela
+ * configurada e derrama o restante em páginas em disco. Toda caixa guardada
+ * no mapa de mensagens passa a usar as páginas do motor, e as páginas de uma
+ * caixa removida ou substituída voltam para a lista de livres.
+ */
+public class MotorMemoria implements MotorArmazenamento {
+
+    /** Mapa de usuários indexados por login */
+    private final Map<String, Usuario> usuarios;
+
+    /** Mapa de sessões indexadas por ID de sessão */
+    private final Map<String, String> sessoes;
+
+    /** Mapa de comunidades indexadas por nome */
+    private final Map<String, Comunidade> comunidades;
+
+    /** Mapa de mensagens indexadas por login do destinatário */
+    private final Map<String, List<Comunicacao>> mensagens;
+
+    /** Mapa que relaciona donos (login) às suas comunidades */
+    private final Map<String, Set<String>> donoParaComunidades;
+
+    /** Se os mapas aceitam acessos simultâneos */
+    private final boolean concorrente;
+
+    /** Páginas onde as caixas derramam o que passa da janela, ou null se tudo fica em memória */
+    private final PaginasMensagens paginas;
+
+    /**
+     * Construtor que inicializa um motor vazio.
+     */
+    public MotorMemoria() {
+        this(false);
+    }
+
+    /**
+     * Construtor que inicializa um motor vazio, opcionalmente com mapas concorrentes.
+     *
+     * @param concorrente Se os mapas devem aceitar acessos simultâneos
+     */
+    public MotorMemoria(boolean concorrente) {
+        this(concorrente, null);
+    }
+
+    /**
+     * Construtor que inicializa um motor vazio cujas caixas de mensagens
+     * mantêm em memória apenas a janela das páginas informadas.
+     *
+     * @param concorrente Se os mapas devem aceitar acessos simultâneos
+     * @param paginas Páginas onde as caixas derramam o que passa da janela, ou null para manter tudo em memória
+     */
+    public MotorMemoria(boolean concorrente, PaginasMensagens paginas) {
+        this(novoMapa(concorrente), new ConcurrentHashMap<>(), novoMapa(concorrente),
+                paginas != null ? new MapaCaixas(novoMapa(concorrente), paginas) : novoMapa(concorrente),
+                novoMapa(concorrente), concorrente, paginas);
+    }
+
+    /**
+     * Construtor que adota mapas já preenchidos (ex.: lidos de um snapshot antigo).
+     *
+     * @param usuarios Usuários indexados por login
+     * @param sessoes Sessões indexadas por ID
+     * @param comunidades Comunidades indexadas por nome
+     * @param mensagens Caixas de mensagens indexadas por destinatário
+     * @param donoParaComunidades Comunidades de cada dono
+     */
+    public MotorMemoria(Map<String, Usuario> usuarios, Map<String, String> sessoes,
+                        Map<String, Comunidade> comunidades, Map<String, List<Comunicacao>> mensagens,
+                        Map<String, Set<String>> donoParaComunidades) {
+        this(usuarios, new ConcurrentHashMap<>(sessoes), comunidades, mensagens, donoParaComunidades, false, null);
+    }
+
+    private MotorMemoria(Map<String, Usuario> usuarios, Map<String, String> sessoes,
+                         Map<String, Comunidade> comunidades, Map<String, List<Comunicacao>> mensagens,
+                         Map<String, Set<String>> donoParaComunidades, boolean concorrente,
+                         PaginasMensagens paginas) {
+        this.concorrente = concorrente;
+        this.paginas = paginas;
+        this.usuarios = usuarios;
+        this.sessoes = sessoes;
+        this.comunidades = comunidades;
+        this.mensagens = mensagens;
+        this.donoParaComunidades = donoParaComunidades;
+    }
+
+    @Override
+    public Map<String, Usuario> getUsuarios() {
+        return usuarios;
+    }
+
+    @Override
+    public Map<String, String> getSessoes() {
+        return sessoes;
+    }
+
+    @Override
+    public Map<String, Comunidade> getComunidades() {
+        return comunidades;
+    }
+
+    @Override
+    public Map<String, List<Comunicacao>> getMensagens() {
+        return mensagens;
+    }
+
+    @Override
+    public Map<String, Set<String>> getDonoParaComunidades() {
+        return donoParaComunidades;
+    }
+
+    @Override
+    public void adicionarMensagem(String destinatario, Comunicacao mensagem) {
+        mensagens.computeIfAbsent(destinatario, login -> new CaixaMensagens(paginas)).add(mensagem);
+    }
+
+    @Override
+    public boolean removerMensagem(String destinatario, Comunicacao mensagem) {
+        List<Comunicacao> caixa = mensagens.get(destinatario);
+        return caixa != null && caixa.remove(mensagem);
+    }
+
+    @Override
+    public Comunicacao consultarProximaMensagem(String destinatario, String tipo) {
+        CaixaMensagens caixa = getCaixa(destinatario);
+        return caixa != null ? caixa.consultarProxima(tipo) : null;
+    }
+
+    @Override
+    public Comunicacao removerProximaMensagem(String destinatario, String tipo) {
+        CaixaMensagens caixa = getCaixa(destinatario);
+        return caixa != null ? caixa.removerProxima(tipo) : null;
+    }
+
+    @Override
+    public List<Comunicacao> removerProximasMensagens(String destinatario, String tipo, int quantidade) {
+        List<Comunicacao> removidas = new ArrayList<>();
+        CaixaMensagens caixa = getCaixa(destinatario);
+        while (caixa != null && removidas.size() < quantidade && caixa.temMensagens(tipo)) {
+            removidas.add(caixa.removerProxima(tipo));
+        }
+        return removidas;
+    }
+
+    @Override
+    public void usuarioAlterado(String login) {
+        // Os objetos armazenados são os próprios objetos alterados
+    }
+
+    @Override
+    public void comunidadeAlterada(String nome) {
+        // Os objetos armazenados são os próprios objetos alterados
+    }
+
+    @Override
+    public void mensagensAlteradas(String login) {
+        // Os objetos armazenados são os próprios objetos alterados
+    }
+
+    @Override
+    public boolean isConcorrente() {
+        return concorrente;
+    }
+
+    @Override
+    public void limpar() {
+        usuarios.clear();
+        sessoes.clear();
+        comunidades.clear();
+        mensagens.clear();
+        donoParaComunidades.clear();
+    }
+
+    @Override
+    public void close() {
+        if (paginas != null) {
+            paginas.close();
+        }
+    }
+
+    /**
+     * @return Caixa de mensagens de um destinatário, ou null se ele não tiver mensagens
+     */
+    private CaixaMensagens getCaixa(String destinatario) {
+        List<Comunicacao> caixa = mensagens.get(destinatario);
+        if (caixa == null || caixa instanceof CaixaMensagens) {
+            return (CaixaMensagens) caixa;
+        }
+        // Caixa restaurada de um snapshot como lista comum: separada uma única vez
+        CaixaMensagens separada = new CaixaMensagens(paginas, caixa);
+        mensagens.put(destinatario, separada);
+        return separada;
+    }
+
+    private static <V> Map<String, V> novoMapa(boolean concorrente) {
+        return concorrente ? new ConcurrentHashMap<>() : new HashMap<>();
+    }
+
+    /**
+     * Mapa das caixas de mensagens quando elas derramam em páginas: guarda
+     * toda lista recebida (ex.: de um snapshot) como uma {@link CaixaMensagens}
+     * com as páginas do motor e libera as páginas das caixas que saem do mapa.
+     */
+    private static class MapaCaixas extends AbstractMap<String, List<Comunicacao>> {
+        private final Map<String, List<Comunicacao>> caixas;
+        private final PaginasMensagens paginas;
+
+        private MapaCaixas(Map<String, List<Comunicacao>> caixas, PaginasMensagens paginas) {
+            this.caixas = caixas;
+            this.paginas = paginas;
+        }
+
+        @Override
+        public List<Comunicacao> get(Object chave) {
+            return caixas.get(chave);
+        }
+
+        @Override
+        public boolean containsKey(Object chave) {
+            return caixas.containsKey(chave);
+        }
+
+        @Override
+        public List<Comunicacao> put(String chave, List<Comunicacao> valor) {
+            if (!(valor instanceof CaixaMensagens) || ((CaixaMensagens) valor).getPaginas() != paginas) {
+                valor = new CaixaMensagens(paginas, valor);
+            }
+            List<Comunicacao> anterior = caixas.put(chave, valor);
+            if (anterior != null && anterior != valor) {
+                anterior.clear();
+            }
+            return anterior;
+        }
+
+        @Override
+        public List<Comunicacao> computeIfAbsent(String chave,
+                                                 Function<? super String, ? extends List<Comunicacao>> criar) {
+            return caixas.computeIfAbsent(chave, criar);
+        }
+
+        @Override
+        public List<Comunicacao> remove(Object chave) {
+            List<Comunicacao> anterior = caixas.remove(chave);
+            if (anterior != null) {
+                anterior.clear();
+            }
+            return anterior;
+        }
+
+        @Override
+        public int size() {
+            return caixas.size();
+        }
+
+        @Override
+        public void clear() {
+            caixas.clear();
+            paginas.limpar();
+        }
+
+        @Override
+        public Set<Entry<String, List<Comunicacao>>> entrySet() {
+            return caixas.entrySet();
+        }
+    }
+}
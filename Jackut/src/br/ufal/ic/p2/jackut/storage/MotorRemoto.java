@@ -0,0 +1,567 @@
+package br.ufal.ic.p2.jackut.storage;
+
+import br.ufal.ic.p2.jackut.entities.Comunicacao;
+import br.ufal.ic.p2.jackut.entities.Comunidade;
+import br.ufal.ic.p2.jackut.entities.Usuario;
+import br.ufal.ic.p2.jackut.persistence.CanalEntrada;
+import br.ufal.ic.p2.jackut.persistence.CanalSaida;
+
+import java.io.*;
+import java.lang.ref.WeakReference;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static br.ufal.ic.p2.jackut.storage.ProtocoloFragmentos.*;
+
+/**
+ * Motor de armazenamento cujas entidades ficam em outro processo, um
+ * {@link ServidorFragmento}, acessado pelo {@link ProtocoloFragmentos}.
+ * <p>
+ * Como o {@link MotorMapeado}, o motor devolve cópias decodificadas e grava
+ * de volta as que forem alteradas quando recebe as notificações de
+ * alteração. As cópias entregues ficam em um cache: as mais recentes por
+ * referência forte, e as que saem do cache por referência fraca, de modo que
+ * uma cópia ainda em uso por uma operação continua sendo encontrada pela sua
+ * notificação de alteração. Como todas as gravações do fragmento passam por
+ * este motor, o cache nunca fica desatualizado.
+ * <p>
+ * Cada thread usa uma conexão de cada vez, retirada de um conjunto de
+ * conexões abertas sob demanda, de modo que operações sobre entidades
+ * diferentes são atendidas em paralelo. As sessões ficam neste processo.
+ */
+public class MotorRemoto implements MotorArmazenamento {
+
+    /** Quantidade de entidades lidas por pedido ao percorrer uma coleção */
+    private static final int LOTE = 128;
+
+    /** Endereço do servidor do fragmento */
+    private final InetSocketAddress endereco;
+
+    /** Número do espaço deste motor no servidor */
+    private final long espaco;
+
+    /** Conexões abertas e livres */
+    private final Queue<Conexao> livres;
+
+    /** Todas as conexões abertas, fechadas com o motor */
+    private final Set<Conexao> abertas;
+
+    /** Sessões indexadas por ID, consultadas sem bloqueio */
+    private final Map<String, String> sessoes;
+
+    /** Visões das coleções do fragmento como mapas */
+    private final Remoto<Usuario> usuarios;
+    private final Remoto<Comunidade> comunidades;
+    private final Remoto<Set<String>> donos;
+    private final Remoto<List<Comunicacao>> mensagens;
+
+    /**
+     * Conecta ao servidor e abre nele um espaço vazio.
+     *
+     * @param endereco Endereço do servidor do fragmento
+     * @param capacidadeCache Quantidade de entidades de cada tipo mantidas por referência forte
+     * @throws IOException Se o servidor não puder ser alcançado
+     */
+    public MotorRemoto(InetSocketAddress endereco, int capacidadeCache) throws IOException {
+        this.endereco = endereco;
+        this.livres = new ConcurrentLinkedQueue<>();
+        this.abertas = ConcurrentHashMap.newKeySet();
+        Conexao primeira = new Conexao(0);
+        this.espaco = primeira.espaco;
+        this.livres.add(primeira);
+        this.sessoes = new ConcurrentHashMap<>();
+        this.usuarios = new Remoto<>(USUARIOS, capacidadeCache);
+        this.comunidades = new Remoto<>(COMUNIDADES, capacidadeCache);
+        this.donos = new Remoto<>(DONOS, capacidadeCache);
+        this.mensagens = new Remoto<>(CAIXAS, capacidadeCache);
+    }
+
+    /**
+     * Interpreta um endereço no formato {@code host:porta}.
+     *
+     * @param texto Endereço a ser interpretado
+     * @return Endereço do servidor
+     * @throws IllegalArgumentException Se o endereço não tiver porta
+     */
+    public static InetSocketAddress endereco(String texto) {
+        int separador = texto.lastIndexOf(':');
+        if (separador <= 0) {
+            throw new IllegalArgumentException("Endereço de fragmento sem porta: " + texto);
+        }
+        return new InetSocketAddress(texto.substring(0, separador).trim(),
+                Integer.parseInt(texto.substring(separador + 1).trim()));
+    }
+
+    @Override
+    public Map<String, Usuario> getUsuarios() {
+        return usuarios;
+    }
+
+    @Override
+    public Map<String, String> getSessoes() {
+        return sessoes;
+    }
+
+    @Override
+    public Map<String, Comunidade> getComunidades() {
+        return comunidades;
+    }
+
+    @Override
+    public Map<String, List<Comunicacao>> getMensagens() {
+        return mensagens;
+    }
+
+    @Override
+    public Map<String, Set<String>> getDonoParaComunidades() {
+        return donos;
+    }
+
+    @Override
+    public void adicionarMensagem(String destinatario, Comunicacao mensagem) {
+        entregarMensagem(List.of(destinatario), mensagem);
+    }
+
+    @Override
+    public void entregarMensagem(Collection<String> destinatarios, Comunicacao mensagem) {
+        pedir(ENTREGAR, pedido -> {
+            escreverTextos(pedido, destinatarios);
+            escreverMensagem(pedido, mensagem);
+        }, resposta -> null);
+        for (String destinatario : destinatarios) {
+            List<Comunicacao> emUso = mensagens.cache.get(destinatario);
+            if (emUso != null) {
+                emUso.add(mensagem);
+            }
+        }
+    }
+
+    @Override
+    public boolean removerMensagem(String destinatario, Comunicacao mensagem) {
+        List<Comunicacao> caixa = mensagens.get(destinatario);
+        int posicao = caixa == null ? -1 : caixa.indexOf(mensagem);
+        if (posicao < 0) {
+            return false;
+        }
+        pedir(REMOVER_MENSAGEM, pedido -> {
+            escreverTexto(pedido, destinatario);
+            pedido.escreverVarint(posicao);
+        }, CanalEntrada::lerByte);
+        caixa.remove(posicao);
+        return true;
+    }
+
+    @Override
+    public List<String> buscarFas(String idolo) {
+        return pedir(BUSCAR_FAS, pedido -> escreverTexto(pedido, idolo),
+                resposta -> lerTextos(resposta, new ArrayList<>()));
+    }
+
+    @Override
+    public void usuarioAlterado(String login) {
+        usuarios.gravarDeVolta(login);
+        donos.gravarDeVolta(login);
+    }
+
+    @Override
+    public void comunidadeAlterada(String nome) {
+        comunidades.gravarDeVolta(nome);
+    }
+
+    @Override
+    public void mensagensAlteradas(String login) {
+        mensagens.gravarDeVolta(login);
+    }
+
+    @Override
+    public boolean isConcorrente() {
+        return true;
+    }
+
+    @Override
+    public void limpar() {
+        pedir(LIMPAR, pedido -> { }, resposta -> null);
+        sessoes.clear();
+        usuarios.cache.limpar();
+        comunidades.cache.limpar();
+        donos.cache.limpar();
+        mensagens.cache.limpar();
+    }
+
+    /**
+     * Fecha as conexões; o servidor descarta o espaço quando a última é fechada.
+     */
+    @Override
+    public void close() {
+        for (Conexao conexao : abertas) {
+            conexao.close();
+        }
+        livres.clear();
+    }
+
+    // Pedidos
+
+    /**
+     * Escreve os argumentos de um pedido.
+     */
+    private interface Escrita {
+        void escrever(CanalSaida pedido) throws IOException;
+    }
+
+    /**
+     * Lê o resultado de um pedido.
+     */
+    private interface Leitura<T> {
+        T ler(CanalEntrada resposta) throws IOException;
+    }
+
+    /**
+     * Envia um pedido por uma conexão livre e lê o resultado.
+     *
+     * @throws UncheckedIOException Se o servidor estiver indisponível ou recusar o pedido
+     */
+    private <T> T pedir(int operacao, Escrita argumentos, Leitura<T> resultado) {
+        Conexao conexao = livres.poll();
+        CanalEntrada resposta;
+        try {
+            CanalSaida pedido = new CanalSaida(TAMANHO_CODIFICACAO);
+            pedido.escreverByte(operacao);
+            argumentos.escrever(pedido);
+            if (conexao == null) {
+                conexao = new Conexao(espaco);
+            }
+            resposta = conexao.trocar(pedido);
+        } catch (IOException e) {
+            if (conexao != null) {
+                conexao.close();
+            }
+            throw new UncheckedIOException("Fragmento indisponível: " + endereco, e);
+        }
+        livres.add(conexao);
+
+        try {
+            if (resposta.lerByte() != OK) {
+                throw new IOException("Pedido recusado pelo fragmento " + endereco + ": " + resposta.lerTexto());
+            }
+            return resultado.ler(resposta);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Conexão com o servidor, associada ao espaço deste motor.
+     */
+    private final class Conexao implements Closeable {
+        private final Socket socket;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+        private final long espaco;
+
+        /**
+         * @param espaco Espaço já aberto por outra conexão, ou 0 para abrir um novo
+         */
+        private Conexao(long espaco) throws IOException {
+            this.socket = new Socket();
+            try {
+                socket.connect(endereco);
+                socket.setTcpNoDelay(true);
+                this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+                CanalSaida abertura = new CanalSaida(TAMANHO_CODIFICACAO);
+                if (espaco == 0) {
+                    abertura.escreverByte(ABRIR);
+                } else {
+                    abertura.escreverByte(USAR);
+                    abertura.escreverLong(espaco);
+                }
+                CanalEntrada resposta = trocar(abertura);
+                if (resposta.lerByte() != OK) {
+                    throw new IOException("Espaço recusado pelo fragmento " + endereco + ": " + resposta.lerTexto());
+                }
+                this.espaco = resposta.lerLong();
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+            abertas.add(this);
+        }
+
+        private CanalEntrada trocar(CanalSaida pedido) throws IOException {
+            enviar(out, pedido);
+            return receber(in);
+        }
+
+        @Override
+        public void close() {
+            abertas.remove(this);
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Conexão já descartada
+            }
+        }
+    }
+
+    // Coleções
+
+    /**
+     * Visão de uma coleção do fragmento como um mapa. As entidades lidas
+     * ficam no cache até serem gravadas de volta.
+     */
+    private final class Remoto<V> extends AbstractMap<String, V> {
+        private final int colecao;
+        private final Cache<V> cache;
+
+        private Remoto(int colecao, int capacidadeCache) {
+            this.colecao = colecao;
+            this.cache = new Cache<>(capacidadeCache);
+        }
+
+        @Override
+        public V get(Object chave) {
+            if (!(chave instanceof String)) {
+                return null;
+            }
+            V valor = cache.get((String) chave);
+            if (valor != null) {
+                return valor;
+            }
+            valor = ler(List.of((String) chave)).get(0);
+            return valor == null ? null : cache.guardar((String) chave, valor);
+        }
+
+        /**
+         * @return Entidades das chaves, na mesma ordem (null para as que não existem)
+         */
+        @SuppressWarnings("unchecked")
+        private List<V> ler(List<String> chaves) {
+            return pedir(LER, pedido -> {
+                pedido.escreverByte(colecao);
+                escreverTextos(pedido, chaves);
+            }, resposta -> {
+                List<V> valores = new ArrayList<>(chaves.size());
+                for (String chave : chaves) {
+                    valores.add(resposta.lerByte() == 1 ? (V) lerEntidade(resposta, colecao, chave) : null);
+                }
+                return valores;
+            });
+        }
+
+        @Override
+        public boolean containsKey(Object chave) {
+            if (!(chave instanceof String)) {
+                return false;
+            }
+            if (cache.get((String) chave) != null) {
+                return true;
+            }
+            return pedir(EXISTE, pedido -> {
+                pedido.escreverByte(colecao);
+                escreverTexto(pedido, (String) chave);
+            }, resposta -> resposta.lerByte() == 1);
+        }
+
+        @Override
+        public V put(String chave, V valor) {
+            V anterior = cache.get(chave);
+            gravar(chave, valor, false);
+            cache.put(chave, valor);
+            return anterior;
+        }
+
+        /**
+         * Grava de volta a cópia em uso de uma entidade, se ela ainda existir no fragmento.
+         */
+        private void gravarDeVolta(String chave) {
+            V valor = cache.get(chave);
+            if (valor != null) {
+                gravar(chave, valor, true);
+            }
+        }
+
+        private void gravar(String chave, V valor, boolean somenteExistente) {
+            pedir(GRAVAR, pedido -> {
+                pedido.escreverByte(colecao);
+                pedido.escreverByte(somenteExistente ? 1 : 0);
+                escreverTexto(pedido, chave);
+                escreverEntidade(pedido, colecao, valor);
+            }, CanalEntrada::lerByte);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public V remove(Object chave) {
+            if (!(chave instanceof String)) {
+                return null;
+            }
+            V removida = pedir(REMOVER, pedido -> {
+                pedido.escreverByte(colecao);
+                escreverTexto(pedido, (String) chave);
+            }, resposta -> resposta.lerByte() == 1 ? (V) lerEntidade(resposta, colecao, (String) chave) : null);
+            V emUso = cache.get((String) chave);
+            cache.remover((String) chave);
+            return emUso != null ? emUso : removida;
+        }
+
+        @Override
+        public int size() {
+            return pedir(TAMANHO, pedido -> pedido.escreverByte(colecao), CanalEntrada::lerVarintInt);
+        }
+
+        @Override
+        public void clear() {
+            pedir(LIMPAR_COLECAO, pedido -> pedido.escreverByte(colecao), resposta -> null);
+            cache.limpar();
+        }
+
+        @Override
+        public Set<Entry<String, V>> entrySet() {
+            return new AbstractSet<>() {
+                @Override
+                public Iterator<Entry<String, V>> iterator() {
+                    List<String> chaves = pedir(CHAVES, pedido -> pedido.escreverByte(colecao),
+                            resposta -> lerTextos(resposta, new ArrayList<>()));
+                    return new Iterator<>() {
+                        private int proxima;
+                        private final Deque<Entry<String, V>> lote = new ArrayDeque<>();
+                        private String atual;
+
+                        @Override
+                        public boolean hasNext() {
+                            while (lote.isEmpty() && proxima < chaves.size()) {
+                                carregarLote();
+                            }
+                            return !lote.isEmpty();
+                        }
+
+                        /**
+                         * Lê as próximas entidades que não estão no cache em um único pedido.
+                         */
+                        private void carregarLote() {
+                            List<String> chavesLote = chaves.subList(proxima, Math.min(chaves.size(), proxima + LOTE));
+                            proxima += chavesLote.size();
+                            List<String> ausentes = new ArrayList<>();
+                            for (String chave : chavesLote) {
+                                if (cache.get(chave) == null) {
+                                    ausentes.add(chave);
+                                }
+                            }
+                            List<V> lidas = ausentes.isEmpty() ? List.of() : ler(ausentes);
+                            for (int i = 0; i < ausentes.size(); i++) {
+                                if (lidas.get(i) != null) {
+                                    cache.guardar(ausentes.get(i), lidas.get(i));
+                                }
+                            }
+                            for (String chave : chavesLote) {
+                                V valor = cache.get(chave);
+                                if (valor != null) {
+                                    lote.add(new AbstractMap.SimpleEntry<>(chave, valor) {
+                                        @Override
+                                        public V setValue(V novo) {
+                                            super.setValue(novo);
+                                            return put(chave, novo);
+                                        }
+                                    });
+                                }
+                            }
+                        }
+
+                        @Override
+                        public Entry<String, V> next() {
+                            if (!hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+                            Entry<String, V> entrada = lote.poll();
+                            atual = entrada.getKey();
+                            return entrada;
+                        }
+
+                        @Override
+                        public void remove() {
+                            Remoto.this.remove(atual);
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return Remoto.this.size();
+                }
+            };
+        }
+    }
+
+    /**
+     * Cache das cópias entregues: as mais recentes por referência forte (LRU)
+     * e as que saem do LRU por referência fraca, enquanto ainda estiverem em uso.
+     * A capacidade mínima comporta um lote inteiro de uma iteração.
+     */
+    private static final class Cache<V> {
+        private final Map<String, WeakReference<V>> liberadas = new HashMap<>();
+        private final Map<String, V> recentes;
+        private final int capacidade;
+
+        private Cache(int capacidade) {
+            this.capacidade = Math.max(2 * LOTE, capacidade);
+            this.recentes = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, V> maisAntiga) {
+                    if (size() <= Cache.this.capacidade) {
+                        return false;
+                    }
+                    if (liberadas.size() >= Cache.this.capacidade) {
+                        liberadas.values().removeIf(referencia -> referencia.get() == null);
+                    }
+                    liberadas.put(maisAntiga.getKey(), new WeakReference<>(maisAntiga.getValue()));
+                    return true;
+                }
+            };
+        }
+
+        private synchronized V get(String chave) {
+            V valor = recentes.get(chave);
+            if (valor == null) {
+                WeakReference<V> referencia = liberadas.remove(chave);
+                valor = referencia == null ? null : referencia.get();
+                if (valor != null) {
+                    recentes.put(chave, valor);
+                }
+            }
+            return valor;
+        }
+
+        /**
+         * Guarda uma cópia recém-lida, a menos que outra já esteja em uso.
+         *
+         * @return Cópia que deve ser usada
+         */
+        private synchronized V guardar(String chave, V valor) {
+            V existente = get(chave);
+            if (existente != null) {
+                return existente;
+            }
+            recentes.put(chave, valor);
+            return valor;
+        }
+
+        private synchronized void put(String chave, V valor) {
+            liberadas.remove(chave);
+            recentes.put(chave, valor);
+        }
+
+        private synchronized void remover(String chave) {
+            liberadas.remove(chave);
+            recentes.remove(chave);
+        }
+
+        private synchronized void limpar() {
+            liberadas.clear();
+            recentes.clear();
+        }
+    }
+}
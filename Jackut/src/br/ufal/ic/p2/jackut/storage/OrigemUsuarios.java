@@ -0,0 +1,59 @@
+package br.ufal.ic.p2.jackut.storage;
+
+import br.ufal.ic.p2.jackut.entities.Usuario;
+
+import java.io.Closeable;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Origem somente leitura de usuários ainda não carregados, consultada por
+ * {@link MapaSobDemanda} na primeira vez que cada usuário é acessado.
+ */
+public interface OrigemUsuarios extends Closeable {
+
+    /**
+     * Lê um usuário da origem.
+     *
+     * @param login Login do usuário
+     * @return Usuário lido, ou null se a origem não o contiver
+     */
+    Usuario carregar(String login);
+
+    /**
+     * @param login Login do usuário
+     * @return true se a origem contiver o usuário
+     */
+    boolean contem(String login);
+
+    /**
+     * @return Logins de todos os usuários da origem
+     */
+    Iterable<String> logins();
+
+    /**
+     * Lê, um de cada vez, os usuários da origem cujo login é aceito pelo filtro.
+     * Os usuários lidos não são guardados pela origem.
+     *
+     * @param incluir Filtro dos logins a serem lidos
+     * @param destino Recebe cada usuário lido
+     */
+    default void percorrer(Predicate<String> incluir, Consumer<Usuario> destino) {
+        for (String login : logins()) {
+            if (incluir.test(login)) {
+                destino.accept(carregar(login));
+            }
+        }
+    }
+
+    /**
+     * @return Quantidade de usuários da origem
+     */
+    int quantidade();
+
+    /**
+     * Libera os recursos da origem.
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,277 @@
+package br.ufal.ic.p2.jackut.storage;
+
+import br.ufal.ic.p2.jackut.persistence.CanalEntrada;
+import br.ufal.ic.p2.jackut.persistence.CanalSaida;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Páginas em disco onde as caixas de mensagens em memória guardam as
+ * mensagens que não cabem na sua janela.
+ * <p>
+ * Cada fila derramada é uma cadeia de páginas de um {@link ArquivoPaginado}:
+ * as mensagens novas entram na última página e são lidas de volta, em ordem,
+ * a partir da primeira, que volta para a lista de livres quando é toda
+ * consumida. Como o arquivo do motor mapeado, o arquivo é só um espaço de
+ * trabalho, recriado a cada execução e apagado ao ser fechado: a durabilidade
+ * continua com o snapshot e o journal.
+ * <p>
+ * Os métodos podem ser chamados por várias threads; cada cadeia deve ser
+ * alterada por uma thread de cada vez.
+ */
+public class PaginasMensagens implements Closeable {
+
+    /** Tipo das páginas de mensagens derramadas */
+    private static final int PAGINA_MENSAGENS = 5;
+
+    /** Buffer inicial da codificação de uma mensagem */
+    private static final int TAMANHO_CODIFICACAO = 256;
+
+    /** Arquivo com as páginas */
+    private final ArquivoPaginado arquivo;
+
+    /** Quantidade de mensagens de cada tipo que uma caixa mantém em memória */
+    private final int janela;
+
+    /**
+     * Cria as páginas sobre um arquivo temporário no diretório informado.
+     *
+     * @param diretorio Diretório do arquivo
+     * @param janela Quantidade de mensagens de cada tipo que uma caixa mantém em memória
+     * @throws IOException Se o arquivo não puder ser criado
+     */
+    public PaginasMensagens(Path diretorio, int janela) throws IOException {
+        this.arquivo = new ArquivoPaginado(Files.createTempFile(diretorio, "jackut-", ".caixas"));
+        this.janela = Math.max(1, janela);
+    }
+
+    /**
+     * @return Quantidade de mensagens de cada tipo que uma caixa mantém em memória
+     */
+    public int getJanela() {
+        return janela;
+    }
+
+    /**
+     * @return Tamanho ocupado pelas páginas em uso, em bytes
+     */
+    public synchronized long getTamanho() {
+        return arquivo.getTamanho();
+    }
+
+    /**
+     * Escreve uma mensagem no final de uma cadeia, com o seu tamanho como
+     * prefixo, continuando em uma página nova quando a última estiver cheia.
+     *
+     * @param cadeia Cadeia de uma fila derramada
+     * @param entrada Mensagem e a sua ordem de chegada na caixa
+     */
+    synchronized void anexar(Cadeia cadeia, CaixaMensagens.Entrada entrada) {
+        byte[] registro = codificar(entrada);
+        if (cadeia.ultima == 0) {
+            cadeia.primeira = arquivo.alocar(PAGINA_MENSAGENS);
+            cadeia.ultima = cadeia.primeira;
+            cadeia.inicio = 0;
+        }
+        int gravados = 0;
+        while (gravados < registro.length) {
+            int usados = arquivo.getUsados(cadeia.ultima);
+            if (usados == ArquivoPaginado.DADOS) {
+                int nova = arquivo.alocar(PAGINA_MENSAGENS);
+                arquivo.setProxima(cadeia.ultima, nova);
+                cadeia.ultima = nova;
+                usados = 0;
+            }
+            int parte = Math.min(ArquivoPaginado.DADOS - usados, registro.length - gravados);
+            arquivo.escrever(cadeia.ultima, usados, registro, gravados, parte);
+            arquivo.setUsados(cadeia.ultima, usados + parte);
+            gravados += parte;
+        }
+        cadeia.quantidade++;
+    }
+
+    /**
+     * Lê e descarta a mensagem mais antiga de uma cadeia; as páginas que
+     * ficam inteiramente para trás voltam para a lista de livres.
+     *
+     * @param cadeia Cadeia de uma fila derramada, com ao menos uma mensagem
+     * @return Mensagem lida
+     */
+    synchronized CaixaMensagens.Entrada retirar(Cadeia cadeia) {
+        Cursor cursor = new Cursor(cadeia.primeira, cadeia.inicio);
+        CaixaMensagens.Entrada entrada = cursor.ler();
+        cadeia.quantidade--;
+
+        if (cadeia.quantidade == 0) {
+            liberar(cadeia);
+            return entrada;
+        }
+        cursor.normalizar();
+        while (cadeia.primeira != cursor.pagina) {
+            int proxima = arquivo.getProxima(cadeia.primeira);
+            arquivo.liberar(cadeia.primeira);
+            cadeia.primeira = proxima;
+        }
+        cadeia.inicio = cursor.deslocamento;
+        return entrada;
+    }
+
+    /**
+     * Percorre as mensagens de uma cadeia, da mais antiga para a mais nova,
+     * lendo uma de cada vez. A cadeia não pode ser alterada durante o percurso.
+     *
+     * @param cadeia Cadeia de uma fila derramada
+     * @return Mensagens da cadeia
+     */
+    Iterator<CaixaMensagens.Entrada> percorrer(Cadeia cadeia) {
+        Cursor cursor = new Cursor(cadeia.primeira, cadeia.inicio);
+        int quantidade = cadeia.quantidade;
+        return new Iterator<>() {
+            private int lidas;
+
+            @Override
+            public boolean hasNext() {
+                return lidas < quantidade;
+            }
+
+            @Override
+            public CaixaMensagens.Entrada next() {
+                if (lidas == quantidade) {
+                    throw new NoSuchElementException();
+                }
+                lidas++;
+                synchronized (PaginasMensagens.this) {
+                    return cursor.ler();
+                }
+            }
+        };
+    }
+
+    /**
+     * Devolve todas as páginas de uma cadeia à lista de livres, deixando-a vazia.
+     *
+     * @param cadeia Cadeia de uma fila derramada
+     */
+    synchronized void liberar(Cadeia cadeia) {
+        arquivo.liberarCadeia(cadeia.primeira);
+        cadeia.primeira = 0;
+        cadeia.ultima = 0;
+        cadeia.inicio = 0;
+        cadeia.quantidade = 0;
+    }
+
+    /**
+     * Libera todas as páginas de uma vez. Usado quando todas as caixas são removidas.
+     */
+    synchronized void limpar() {
+        arquivo.limpar();
+    }
+
+    /**
+     * Fecha e apaga o arquivo.
+     */
+    @Override
+    public synchronized void close() {
+        arquivo.close();
+    }
+
+    private static byte[] codificar(CaixaMensagens.Entrada entrada) {
+        try {
+            CanalSaida mensagem = new CanalSaida(TAMANHO_CODIFICACAO);
+            mensagem.escreverVarint(entrada.getOrdem());
+            ProtocoloFragmentos.escreverMensagem(mensagem, entrada.getMensagem());
+            byte[] bytes = mensagem.getBytes();
+            CanalSaida registro = new CanalSaida(bytes.length + 5);
+            registro.escreverVarint(bytes.length);
+            registro.escreverBytes(bytes);
+            return registro.getBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Início e fim de uma fila derramada: a primeira página, a posição da
+     * mensagem mais antiga nela e a última página, onde entram as novas.
+     */
+    static final class Cadeia {
+        private int primeira;
+        private int inicio;
+        private int ultima;
+        private int quantidade;
+
+        /**
+         * @return Quantidade de mensagens na cadeia
+         */
+        int getQuantidade() {
+            return quantidade;
+        }
+    }
+
+    /**
+     * Posição de leitura em uma cadeia de páginas.
+     */
+    private class Cursor {
+        private int pagina;
+        private int deslocamento;
+
+        private Cursor(int pagina, int deslocamento) {
+            this.pagina = pagina;
+            this.deslocamento = deslocamento;
+        }
+
+        /**
+         * Lê a mensagem na posição atual, avançando até o fim dela.
+         */
+        private CaixaMensagens.Entrada ler() {
+            CanalEntrada registro = new CanalEntrada(lerBytes(lerVarint()));
+            try {
+                long ordem = registro.lerVarint();
+                return new CaixaMensagens.Entrada(ordem, ProtocoloFragmentos.lerMensagem(registro));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Página de mensagens corrompida", e);
+            }
+        }
+
+        /**
+         * Avança para a próxima página se a atual já foi toda lida.
+         */
+        private void normalizar() {
+            while (deslocamento == arquivo.getUsados(pagina) && arquivo.getProxima(pagina) != 0) {
+                pagina = arquivo.getProxima(pagina);
+                deslocamento = 0;
+            }
+        }
+
+        private int lerVarint() {
+            int valor = 0;
+            for (int deslocamentoBits = 0; ; deslocamentoBits += 7) {
+                normalizar();
+                int b = arquivo.lerByte(pagina, deslocamento++);
+                valor |= (b & 0x7F) << deslocamentoBits;
+                if ((b & 0x80) == 0) {
+                    return valor;
+                }
+            }
+        }
+
+        private byte[] lerBytes(int quantidade) {
+            byte[] bytes = new byte[quantidade];
+            int lidos = 0;
+            while (lidos < quantidade) {
+                normalizar();
+                int parte = Math.min(arquivo.getUsados(pagina) - deslocamento, quantidade - lidos);
+                arquivo.ler(pagina, deslocamento, bytes, lidos, parte);
+                deslocamento += parte;
+                lidos += parte;
+            }
+            return bytes;
+        }
+    }
+}
\ No newline at end of file
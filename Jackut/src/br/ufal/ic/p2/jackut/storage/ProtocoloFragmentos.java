@@ -0,0 +1,364 @@
+package br.ufal.ic.p2.jackut.storage;
+
+import br.ufal.ic.p2.jackut.entities.Comunicacao;
+import br.ufal.ic.p2.jackut.entities.Comunidade;
+import br.ufal.ic.p2.jackut.entities.MuralComunidade;
+import br.ufal.ic.p2.jackut.entities.Relacionamento;
+import br.ufal.ic.p2.jackut.entities.Usuario;
+import br.ufal.ic.p2.jackut.persistence.CanalEntrada;
+import br.ufal.ic.p2.jackut.persistence.CanalSaida;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Protocolo entre o {@link MotorRemoto} e o {@link ServidorFragmento}.
+ * <p>
+ * Cada mensagem é um quadro: o tamanho do conteúdo em 4 bytes, seguido do
+ * conteúdo codificado com {@link CanalSaida}. Um pedido começa pelo código
+ * da operação; a resposta começa por {@link #OK}, seguido do resultado, ou
+ * por {@link #ERRO}, seguido da descrição do erro. Ao conectar, o cliente
+ * envia {@link #ABRIR}, que cria um espaço vazio no servidor e devolve o seu
+ * número, ou {@link #USAR}, com o número de um espaço aberto por outra
+ * conexão do mesmo cliente. O servidor descarta o espaço quando a sua última
+ * conexão é fechada: o conteúdo de um fragmento é reconstruído a cada
+ * execução a partir do snapshot e do journal, como o do {@link MotorMapeado}.
+ * <p>
+ * Pedidos (após o código) e respostas (após {@link #OK}):
+ * <ul>
+ *   <li>{@link #LER}: coleção, quantidade e chaves; para cada chave, 0 se ela
+ *   não existir ou 1 seguido da entidade.</li>
+ *   <li>{@link #EXISTE}: coleção e chave; 0 ou 1.</li>
+ *   <li>{@link #GRAVAR}: coleção, 1 para gravar apenas se a chave já existir
+ *   (notificações de alteração) ou 0, chave e entidade; 0 ou 1 se gravou.</li>
+ *   <li>{@link #REMOVER}: coleção e chave; 0 ou 1 seguido da entidade removida.</li>
+ *   <li>{@link #TAMANHO}: coleção; quantidade de entidades.</li>
+ *   <li>{@link #CHAVES}: coleção; quantidade e chaves.</li>
+ *   <li>{@link #LIMPAR_COLECAO}: coleção. {@link #LIMPAR}: nada.</li>
+ *   <li>{@link #ENTREGAR}: quantidade e logins dos destinatários, e a mensagem.</li>
+ *   <li>{@link #REMOVER_MENSAGEM}: destinatário e posição da mensagem na caixa; 0 ou 1.</li>
+ *   <li>{@link #BUSCAR_FAS}: login do ídolo; quantidade e logins dos fãs.</li>
+ * </ul>
+ */
+final class ProtocoloFragmentos {
+
+    /** Operações */
+    static final int ABRIR = 1;
+    static final int USAR = 2;
+    static final int LER = 3;
+    static final int EXISTE = 4;
+    static final int GRAVAR = 5;
+    static final int REMOVER = 6;
+    static final int TAMANHO = 7;
+    static final int CHAVES = 8;
+    static final int LIMPAR_COLECAO = 9;
+    static final int LIMPAR = 10;
+    static final int ENTREGAR = 11;
+    static final int REMOVER_MENSAGEM = 12;
+    static final int BUSCAR_FAS = 13;
+
+    /** Coleções */
+    static final int USUARIOS = 0;
+    static final int COMUNIDADES = 1;
+    static final int DONOS = 2;
+    static final int CAIXAS = 3;
+
+    /** Início das respostas */
+    static final int OK = 0;
+    static final int ERRO = 1;
+
+    /** Maior quadro aceito, para não alocar memória a partir de um tamanho corrompido */
+    private static final int TAMANHO_MAXIMO = 256 * 1024 * 1024;
+
+    /** Buffer inicial da codificação de um quadro */
+    static final int TAMANHO_CODIFICACAO = 256;
+
+    private ProtocoloFragmentos() {
+    }
+
+    // Quadros
+
+    /**
+     * Envia um quadro.
+     *
+     * @param out Destino
+     * @param conteudo Conteúdo codificado
+     * @throws IOException Se ocorrer um erro de escrita
+     */
+    static void enviar(DataOutputStream out, CanalSaida conteudo) throws IOException {
+        byte[] bytes = conteudo.getBytes();
+        out.writeInt(bytes.length);
+        out.write(bytes);
+        out.flush();
+    }
+
+    /**
+     * Recebe um quadro.
+     *
+     * @param in Origem
+     * @return Conteúdo do quadro
+     * @throws IOException Se a conexão terminar, o quadro for inválido ou ocorrer um erro de leitura
+     */
+    static CanalEntrada receber(DataInputStream in) throws IOException {
+        int tamanho = in.readInt();
+        if (tamanho < 0 || tamanho > TAMANHO_MAXIMO) {
+            throw new IOException("Quadro inválido: " + tamanho + " bytes");
+        }
+        byte[] bytes = new byte[tamanho];
+        in.readFully(bytes);
+        return new CanalEntrada(bytes);
+    }
+
+    // Entidades
+
+    /**
+     * Escreve uma entidade de uma coleção.
+     *
+     * @param saida Destino
+     * @param colecao Coleção da entidade
+     * @param entidade Usuário, comunidade, comunidades de um dono ou caixa de mensagens
+     * @throws IOException Se ocorrer um erro de escrita
+     */
+    @SuppressWarnings("unchecked")
+    static void escreverEntidade(CanalSaida saida, int colecao, Object entidade) throws IOException {
+        switch (colecao) {
+            case USUARIOS:
+                escreverUsuario(saida, (Usuario) entidade);
+                break;
+            case COMUNIDADES:
+                escreverComunidade(saida, (Comunidade) entidade);
+                break;
+            case DONOS:
+                escreverTextos(saida, (Set<String>) entidade);
+                break;
+            case CAIXAS:
+                List<Comunicacao> caixa = (List<Comunicacao>) entidade;
+                saida.escreverVarint(caixa.size());
+                for (Comunicacao mensagem : caixa) {
+                    escreverMensagem(saida, mensagem);
+                }
+                break;
+            default:
+                throw new IOException("Coleção desconhecida: " + colecao);
+        }
+    }
+
+    /**
+     * Lê uma entidade de uma coleção.
+     *
+     * @param entrada Origem
+     * @param colecao Coleção da entidade
+     * @param chave Chave da entidade
+     * @return Entidade lida
+     * @throws IOException Se a entidade estiver corrompida
+     */
+    static Object lerEntidade(CanalEntrada entrada, int colecao, String chave) throws IOException {
+        switch (colecao) {
+            case USUARIOS:
+                return lerUsuario(entrada, chave);
+            case COMUNIDADES:
+                return lerComunidade(entrada, chave);
+            case DONOS:
+                return lerTextos(entrada, new HashSet<>());
+            case CAIXAS:
+                int quantidade = entrada.lerVarintInt();
+                List<Comunicacao> caixa = new ArrayList<>(quantidade);
+                for (int i = 0; i < quantidade; i++) {
+                    caixa.add(lerMensagem(entrada));
+                }
+                return caixa;
+            default:
+                throw new IOException("Coleção desconhecida: " + colecao);
+        }
+    }
+
+    private static void escreverUsuario(CanalSaida saida, Usuario usuario) throws IOException {
+        escreverTexto(saida, usuario.getSenha());
+        escreverTexto(saida, usuario.getNome());
+        saida.escreverVarint(usuario.getAtributos().size());
+        for (Map.Entry<String, String> atributo : usuario.getAtributos().entrySet()) {
+            escreverTexto(saida, atributo.getKey());
+            escreverTexto(saida, atributo.getValue());
+        }
+        escreverTextos(saida, usuario.getComunidadesCadastradas());
+        for (Set<String> conjunto : conjuntos(usuario.getRelacionamentos())) {
+            escreverTextos(saida, conjunto);
+        }
+    }
+
+    private static Usuario lerUsuario(CanalEntrada entrada, String login) throws IOException {
+        Usuario usuario = new Usuario(login, lerTexto(entrada), lerTexto(entrada));
+        int atributos = entrada.lerVarintInt();
+        for (int i = 0; i < atributos; i++) {
+            usuario.getAtributos().put(lerTexto(entrada), lerTexto(entrada));
+        }
+        lerTextos(entrada, usuario.getComunidadesCadastradas());
+        for (Set<String> conjunto : conjuntos(usuario.getRelacionamentos())) {
+            lerTextos(entrada, conjunto);
+        }
+        return usuario;
+    }
+
+    /**
+     * @return Conjuntos do relacionamento, na ordem em que são transmitidos
+     */
+    private static List<Set<String>> conjuntos(Relacionamento relacionamentos) {
+        return List.of(relacionamentos.getAmigos(), relacionamentos.getIdolos(), relacionamentos.getPaqueras(),
+                relacionamentos.getInimigos(), relacionamentos.getConvitesAmizade());
+    }
+
+    private static void escreverComunidade(CanalSaida saida, Comunidade comunidade) throws IOException {
+        escreverTexto(saida, comunidade.getSessionID());
+        escreverTexto(saida, comunidade.getDonoComunidade());
+        escreverTexto(saida, comunidade.getDescricao());
+        escreverTextos(saida, comunidade.getMembros());
+        escreverMural(saida, comunidade.getMural());
+    }
+
+    private static Comunidade lerComunidade(CanalEntrada entrada, String nome) throws IOException {
+        Comunidade comunidade = new Comunidade(lerTexto(entrada), lerTexto(entrada), nome, lerTexto(entrada));
+        lerTextos(entrada, comunidade.getMembros());
+        lerMural(entrada, comunidade);
+        return comunidade;
+    }
+
+    /**
+     * Escreve o mural de uma comunidade: a ordem da última mensagem, as
+     * mensagens (ordem, remetente, conteúdo) e os cursores de leitura.
+     *
+     * @param saida Destino
+     * @param mural Mural a ser escrito
+     * @throws IOException Se ocorrer um erro de escrita
+     */
+    static void escreverMural(CanalSaida saida, MuralComunidade mural) throws IOException {
+        saida.escreverVarint(mural.getUltimaOrdem());
+        List<MuralComunidade.Entrada> entradas = mural.getEntradas();
+        saida.escreverVarint(entradas.size());
+        for (MuralComunidade.Entrada entrada : entradas) {
+            saida.escreverVarint(entrada.getOrdem());
+            escreverTexto(saida, entrada.getMensagem().getRemetente());
+            escreverTexto(saida, entrada.getMensagem().getConteudo());
+        }
+        Map<String, Long> cursores = mural.getCursores();
+        saida.escreverVarint(cursores.size());
+        for (Map.Entry<String, Long> cursor : cursores.entrySet()) {
+            escreverTexto(saida, cursor.getKey());
+            saida.escreverVarint(cursor.getValue());
+        }
+    }
+
+    /**
+     * Lê o mural escrito por {@link #escreverMural} para uma comunidade.
+     *
+     * @param entrada Origem
+     * @param comunidade Comunidade dona do mural
+     * @throws IOException Se o mural estiver corrompido
+     */
+    static void lerMural(CanalEntrada entrada, Comunidade comunidade) throws IOException {
+        long ultimaOrdem = entrada.lerVarint();
+        int quantidade = entrada.lerVarintInt();
+        List<MuralComunidade.Entrada> entradas = new ArrayList<>(quantidade);
+        for (int i = 0; i < quantidade; i++) {
+            long ordem = entrada.lerVarint();
+            entradas.add(new MuralComunidade.Entrada(ordem,
+                    new Comunicacao(lerTexto(entrada), comunidade.getNome(), lerTexto(entrada), "comunidade")));
+        }
+        int leitores = entrada.lerVarintInt();
+        Map<String, Long> cursores = new HashMap<>(leitores * 2);
+        for (int i = 0; i < leitores; i++) {
+            String login = lerTexto(entrada);
+            cursores.put(login, entrada.lerVarint());
+        }
+        comunidade.getMural().restaurar(ultimaOrdem, entradas, cursores);
+    }
+
+    /**
+     * Escreve uma mensagem.
+     *
+     * @param saida Destino
+     * @param mensagem Mensagem a ser escrita
+     * @throws IOException Se ocorrer um erro de escrita
+     */
+    static void escreverMensagem(CanalSaida saida, Comunicacao mensagem) throws IOException {
+        escreverTexto(saida, mensagem.getRemetente());
+        escreverTexto(saida, mensagem.getDestinatario());
+        escreverTexto(saida, mensagem.getConteudo());
+        escreverTexto(saida, mensagem.getTipo());
+        saida.escreverVarint(mensagem.getOrdem());
+    }
+
+    /**
+     * @param entrada Origem
+     * @return Mensagem lida
+     * @throws IOException Se a mensagem estiver corrompida
+     */
+    static Comunicacao lerMensagem(CanalEntrada entrada) throws IOException {
+        return new Comunicacao(lerTexto(entrada), lerTexto(entrada), lerTexto(entrada), lerTexto(entrada),
+                entrada.lerVarint());
+    }
+
+    // Textos
+
+    /**
+     * Escreve um texto que pode ser nulo: 0 para null, ou o tamanho + 1 seguido dos bytes.
+     *
+     * @param saida Destino
+     * @param texto Texto a ser escrito
+     * @throws IOException Se ocorrer um erro de escrita
+     */
+    static void escreverTexto(CanalSaida saida, String texto) throws IOException {
+        if (texto == null) {
+            saida.escreverVarint(0);
+            return;
+        }
+        byte[] bytes = texto.getBytes(StandardCharsets.UTF_8);
+        saida.escreverVarint(bytes.length + 1L);
+        saida.escreverBytes(bytes);
+    }
+
+    /**
+     * @param entrada Origem
+     * @return Texto lido, que pode ser nulo
+     * @throws IOException Se o texto estiver corrompido
+     */
+    static String lerTexto(CanalEntrada entrada) throws IOException {
+        int tamanho = entrada.lerVarintInt();
+        if (tamanho == 0) {
+            return null;
+        }
+        return new String(entrada.lerBytes(tamanho - 1), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Escreve uma coleção de textos, precedida da sua quantidade.
+     *
+     * @param saida Destino
+     * @param textos Textos a serem escritos
+     * @throws IOException Se ocorrer um erro de escrita
+     */
+    static void escreverTextos(CanalSaida saida, Collection<String> textos) throws IOException {
+        saida.escreverVarint(textos.size());
+        for (String texto : textos) {
+            escreverTexto(saida, texto);
+        }
+    }
+
+    /**
+     * Lê uma coleção de textos escrita por {@link #escreverTextos}.
+     *
+     * @param entrada Origem
+     * @param destino Coleção que recebe os textos, na ordem em que foram escritos
+     * @return A própria coleção de destino
+     * @throws IOException Se os textos estiverem corrompidos
+     */
+    static <C extends Collection<String>> C lerTextos(CanalEntrada entrada, C destino) throws IOException {
+        int quantidade = entrada.lerVarintInt();
+        for (int i = 0; i < quantidade; i++) {
+            destino.add(lerTexto(entrada));
+        }
+        return destino;
+    }
+}
@@ -0,0 +1,296 @@
+package br.ufal.ic.p2.jackut.storage;
+
+import br.ufal.ic.p2.jackut.entities.Comunicacao;
+import br.ufal.ic.p2.jackut.persistence.CanalEntrada;
+import br.ufal.ic.p2.jackut.persistence.CanalSaida;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static br.ufal.ic.p2.jackut.storage.ProtocoloFragmentos.*;
+
+/**
+ * Processo que guarda um fragmento dos dados em memória, acessado por um
+ * {@link MotorRemoto} pelo {@link ProtocoloFragmentos}. Cada cliente trabalha
+ * em um espaço próprio (um {@link MotorMemoria}), descartado quando a última
+ * conexão do cliente é fechada; cada conexão é atendida por uma thread.
+ * <p>
+ * Uso: {@code java br.ufal.ic.p2.jackut.storage.ServidorFragmento <porta> [endereco]}.
+ * Sem endereço, o servidor só aceita conexões da própria máquina.
+ */
+public class ServidorFragmento implements Closeable {
+
+    /** Socket que aceita as conexões */
+    private final ServerSocket servidor;
+
+    /** Espaços abertos, indexados pelo número */
+    private final Map<Long, Espaco> espacos;
+
+    /** Número do próximo espaço */
+    private final AtomicLong proximoEspaco;
+
+    /**
+     * Construtor que abre a porta do servidor. As conexões só são aceitas
+     * depois de {@link #iniciar()}.
+     *
+     * @param endereco Endereço local onde o servidor escuta
+     * @param porta Porta (0 = qualquer porta livre)
+     * @throws IOException Se a porta não puder ser aberta
+     */
+    public ServidorFragmento(InetAddress endereco, int porta) throws IOException {
+        this.servidor = new ServerSocket(porta, 50, endereco);
+        this.espacos = new ConcurrentHashMap<>();
+        this.proximoEspaco = new AtomicLong(1);
+    }
+
+    /**
+     * @return Porta onde o servidor escuta
+     */
+    public int getPorta() {
+        return servidor.getLocalPort();
+    }
+
+    /**
+     * Passa a aceitar conexões em uma thread própria.
+     */
+    public void iniciar() {
+        Thread aceitacao = new Thread(this::aceitar, "jackut-fragmento-" + getPorta());
+        aceitacao.setDaemon(true);
+        aceitacao.start();
+    }
+
+    /**
+     * Fecha a porta do servidor. As conexões já abertas terminam quando os clientes as fecham.
+     */
+    @Override
+    public void close() throws IOException {
+        servidor.close();
+    }
+
+    private void aceitar() {
+        while (!servidor.isClosed()) {
+            Socket conexao;
+            try {
+                conexao = servidor.accept();
+            } catch (IOException e) {
+                // Porta fechada
+                return;
+            }
+            Thread atendimento = new Thread(() -> atender(conexao), "jackut-fragmento-conexao");
+            atendimento.setDaemon(true);
+            atendimento.start();
+        }
+    }
+
+    /**
+     * Atende os pedidos de uma conexão até que o cliente a feche.
+     */
+    private void atender(Socket socket) {
+        Espaco espaco = null;
+        try (Socket conexao = socket) {
+            conexao.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(conexao.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(conexao.getOutputStream()));
+
+            espaco = abrirEspaco(receber(in));
+            CanalSaida resposta = new CanalSaida(TAMANHO_CODIFICACAO);
+            resposta.escreverByte(OK);
+            resposta.escreverLong(espaco.numero);
+            enviar(out, resposta);
+
+            while (true) {
+                CanalEntrada pedido = receber(in);
+                resposta = new CanalSaida(TAMANHO_CODIFICACAO);
+                try {
+                    resposta.escreverByte(OK);
+                    executar(pedido, resposta, espaco.motor);
+                } catch (IOException | RuntimeException e) {
+                    resposta = new CanalSaida(TAMANHO_CODIFICACAO);
+                    resposta.escreverByte(ERRO);
+                    resposta.escreverTexto(String.valueOf(e.getMessage()));
+                }
+                enviar(out, resposta);
+            }
+        } catch (EOFException | SocketException e) {
+            // Conexão fechada pelo cliente
+        } catch (IOException e) {
+            // Conexão descartada: o cliente abre outra
+        } finally {
+            if (espaco != null) {
+                liberar(espaco);
+            }
+        }
+    }
+
+    /**
+     * Desassocia uma conexão do seu espaço, descartando-o se for a última.
+     */
+    private void liberar(Espaco espaco) {
+        Espaco restante = espacos.computeIfPresent(espaco.numero,
+                (numero, existente) -> existente.conexoes.decrementAndGet() == 0 ? null : existente);
+        if (restante == null) {
+            espaco.motor.close();
+        }
+    }
+
+    /**
+     * Cria um espaço ({@link ProtocoloFragmentos#ABRIR}) ou associa a conexão
+     * a um espaço existente ({@link ProtocoloFragmentos#USAR}).
+     */
+    private Espaco abrirEspaco(CanalEntrada pedido) throws IOException {
+        int operacao = pedido.lerByte();
+        if (operacao == ABRIR) {
+            Espaco espaco = new Espaco(proximoEspaco.getAndIncrement());
+            espacos.put(espaco.numero, espaco);
+            return espaco;
+        }
+        if (operacao == USAR) {
+            long numero = pedido.lerLong();
+            Espaco espaco = espacos.computeIfPresent(numero, (chave, existente) -> {
+                existente.conexoes.incrementAndGet();
+                return existente;
+            });
+            if (espaco != null) {
+                return espaco;
+            }
+            throw new IOException("Espaço inexistente: " + numero);
+        }
+        throw new IOException("Conexão sem espaço: operação " + operacao);
+    }
+
+    /**
+     * Executa um pedido sobre o motor do espaço e escreve o resultado.
+     */
+    private static void executar(CanalEntrada pedido, CanalSaida resposta, MotorMemoria motor) throws IOException {
+        int operacao = pedido.lerByte();
+        switch (operacao) {
+            case LER: {
+                int colecao = pedido.lerByte();
+                Map<String, ?> mapa = colecao(motor, colecao);
+                int quantidade = pedido.lerVarintInt();
+                for (int i = 0; i < quantidade; i++) {
+                    Object entidade = mapa.get(lerTexto(pedido));
+                    resposta.escreverByte(entidade == null ? 0 : 1);
+                    if (entidade != null) {
+                        escreverEntidade(resposta, colecao, entidade);
+                    }
+                }
+                break;
+            }
+            case EXISTE: {
+                Map<String, ?> mapa = colecao(motor, pedido.lerByte());
+                resposta.escreverByte(mapa.containsKey(lerTexto(pedido)) ? 1 : 0);
+                break;
+            }
+            case GRAVAR: {
+                int colecao = pedido.lerByte();
+                @SuppressWarnings("unchecked")
+                Map<String, Object> mapa = (Map<String, Object>) colecao(motor, colecao);
+                boolean somenteExistente = pedido.lerByte() == 1;
+                String chave = lerTexto(pedido);
+                Object entidade = lerEntidade(pedido, colecao, chave);
+                boolean gravar = !somenteExistente || mapa.containsKey(chave);
+                if (gravar) {
+                    mapa.put(chave, entidade);
+                }
+                resposta.escreverByte(gravar ? 1 : 0);
+                break;
+            }
+            case REMOVER: {
+                int colecao = pedido.lerByte();
+                Object removida = colecao(motor, colecao).remove(lerTexto(pedido));
+                resposta.escreverByte(removida == null ? 0 : 1);
+                if (removida != null) {
+                    escreverEntidade(resposta, colecao, removida);
+                }
+                break;
+            }
+            case TAMANHO:
+                resposta.escreverVarint(colecao(motor, pedido.lerByte()).size());
+                break;
+            case CHAVES:
+                escreverTextos(resposta, new ArrayList<>(colecao(motor, pedido.lerByte()).keySet()));
+                break;
+            case LIMPAR_COLECAO:
+                colecao(motor, pedido.lerByte()).clear();
+                break;
+            case LIMPAR:
+                motor.limpar();
+                break;
+            case ENTREGAR: {
+                List<String> destinatarios = lerTextos(pedido, new ArrayList<>());
+                motor.entregarMensagem(destinatarios, lerMensagem(pedido));
+                break;
+            }
+            case REMOVER_MENSAGEM: {
+                List<Comunicacao> caixa = motor.getMensagens().get(lerTexto(pedido));
+                int posicao = pedido.lerVarintInt();
+                boolean removida = caixa != null && posicao < caixa.size();
+                if (removida) {
+                    caixa.remove(posicao);
+                }
+                resposta.escreverByte(removida ? 1 : 0);
+                break;
+            }
+            case BUSCAR_FAS:
+                escreverTextos(resposta, motor.buscarFas(lerTexto(pedido)));
+                break;
+            default:
+                throw new IOException("Operação desconhecida: " + operacao);
+        }
+    }
+
+    private static Map<String, ?> colecao(MotorMemoria motor, int colecao) throws IOException {
+        switch (colecao) {
+            case USUARIOS:
+                return motor.getUsuarios();
+            case COMUNIDADES:
+                return motor.getComunidades();
+            case DONOS:
+                return motor.getDonoParaComunidades();
+            case CAIXAS:
+                return motor.getMensagens();
+            default:
+                throw new IOException("Coleção desconhecida: " + colecao);
+        }
+    }
+
+    /**
+     * Dados de um cliente e a quantidade de conexões que o usam.
+     */
+    private static final class Espaco {
+        private final long numero;
+        private final MotorMemoria motor = new MotorMemoria(true);
+        private final AtomicInteger conexoes = new AtomicInteger(1);
+
+        private Espaco(long numero) {
+            this.numero = numero;
+        }
+    }
+
+    /**
+     * Inicia um servidor de fragmento e o mantém em execução.
+     *
+     * @param args Porta e, opcionalmente, o endereço onde escutar
+     * @throws IOException Se a porta não puder ser aberta
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Uso: ServidorFragmento <porta> [endereco]");
+            System.exit(2);
+        }
+        InetAddress endereco = args.length > 1 ? InetAddress.getByName(args[1]) : InetAddress.getLoopbackAddress();
+        ServidorFragmento servidor = new ServidorFragmento(endereco, Integer.parseInt(args[0]));
+        System.out.println("Fragmento escutando em " + endereco.getHostAddress() + ":" + servidor.getPorta());
+        servidor.aceitar();
+    }
+}